@@ -0,0 +1,92 @@
+package com.capstone.testapp;
+
+import android.content.Context;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Binds a long list through MessageAdapter and checks the time per bind.
+ * Also checks that binding leaves each holder's layout params and background
+ * alone, which the old adapter re-created on every bind.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageAdapterBindTest {
+
+    private static final int MESSAGE_COUNT = 2000;
+    private static final int BIND_ROUNDS = 10;
+
+    @Test
+    public void bind_onlySetsText() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.setTheme(R.style.Theme_Testapp);
+        MessageAdapter adapter = new MessageAdapter();
+
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            Message message = new Message(1, "message number " + i, 1000 + i, i % 3 == 0);
+            message.id = i + 1;
+            messages.add(message);
+        }
+        CountDownLatch committed = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                () -> adapter.submitList(messages, committed::countDown));
+        assertTrue(committed.await(5, TimeUnit.SECONDS));
+
+        final long[] elapsedNanos = new long[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            ViewGroup parent = new FrameLayout(context);
+            MessageAdapter.MessageViewHolder sent = adapter.onCreateViewHolder(parent, MessageAdapter.VIEW_TYPE_SENT);
+            MessageAdapter.MessageViewHolder received = adapter.onCreateViewHolder(parent, MessageAdapter.VIEW_TYPE_RECEIVED);
+            ViewGroup.LayoutParams sentParams = sent.messageTextView.getLayoutParams();
+            ViewGroup.LayoutParams receivedParams = received.messageTextView.getLayoutParams();
+
+            long start = System.nanoTime();
+            for (int round = 0; round < BIND_ROUNDS; round++) {
+                for (int position = 0; position < MESSAGE_COUNT; position++) {
+                    boolean isSent = adapter.getItemViewType(position) == MessageAdapter.VIEW_TYPE_SENT;
+                    adapter.onBindViewHolder(isSent ? sent : received, position);
+                }
+            }
+            elapsedNanos[0] = System.nanoTime() - start;
+
+            assertSame(sentParams, sent.messageTextView.getLayoutParams());
+            assertSame(receivedParams, received.messageTextView.getLayoutParams());
+            assertEquals("message number " + (MESSAGE_COUNT - 1), received.messageTextView.getText().toString());
+        });
+
+        double microsPerBind = elapsedNanos[0] / 1000.0 / (MESSAGE_COUNT * BIND_ROUNDS);
+        // Well inside a 16 ms frame even for a burst of a hundred rows
+        assertTrue(String.format("%.2f us per bind", microsPerBind), microsPerBind < 100);
+    }
+
+    @Test
+    public void itemIds_areDatabaseIds() throws Exception {
+        MessageAdapter adapter = new MessageAdapter();
+        Message message = new Message(1, "hi", 1, false);
+        message.id = 42;
+        List<Message> messages = new ArrayList<>();
+        messages.add(message);
+
+        CountDownLatch committed = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                () -> adapter.submitList(messages, committed::countDown));
+        assertTrue(committed.await(5, TimeUnit.SECONDS));
+
+        assertTrue(adapter.hasStableIds());
+        assertEquals(42, adapter.getItemId(0));
+        assertEquals(MessageAdapter.VIEW_TYPE_RECEIVED, adapter.getItemViewType(0));
+    }
+}
@@ -0,0 +1,163 @@
+package com.capstone.testapp;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Keyset pagination over per-conversation messages, and the migrations from version 6.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageDaoTest {
+
+    private static final String MIGRATION_DB = "migration-test";
+
+    private Context context;
+    private AppDatabase db;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class).build();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(MIGRATION_DB);
+    }
+
+    @Test
+    public void pages_walkWholeConversationWithoutGapsOrDuplicates() {
+        int alice = insertContact("Alice");
+        int bob = insertContact("Bob");
+        MessageDao dao = db.messageDao();
+        for (int i = 0; i < 95; i++) {
+            // Pairs of messages share a timestamp, so ties have to be broken by id
+            dao.insert(new Message(alice, "a" + i, 1000 + i / 2, i % 2 == 0));
+            dao.insert(new Message(bob, "b" + i, 1000 + i / 2, false));
+        }
+
+        List<Message> seen = new ArrayList<>();
+        List<Message> page = dao.latest(alice, 10);
+        while (!page.isEmpty()) {
+            seen.addAll(page);
+            Message oldest = page.get(page.size() - 1);
+            page = dao.before(alice, oldest.timestamp, oldest.id, 10);
+        }
+
+        assertEquals(95, seen.size());
+        for (int i = 0; i < seen.size(); i++) {
+            assertEquals("a" + (94 - i), seen.get(i).textContent);
+        }
+
+        Message oldest = seen.get(seen.size() - 1);
+        List<Message> newer = dao.after(alice, oldest.timestamp, oldest.id, 3);
+        assertEquals("a1", newer.get(0).textContent);
+        assertEquals("a3", newer.get(2).textContent);
+    }
+
+    @Test
+    public void deletingContact_deletesConversation() {
+        int alice = insertContact("Alice");
+        db.messageDao().insert(new Message(alice, "hi", 1, true));
+        db.getOpenHelper().getWritableDatabase().execSQL("DELETE FROM contacts WHERE id = " + alice);
+        assertTrue(db.messageDao().latest(alice, 10).isEmpty());
+    }
+
+    @Test
+    public void insertAll_skipsMessagesAlreadyStored() {
+        int alice = insertContact("Alice");
+        Message first = new Message(alice, "hi", 1, false);
+        first.messageUid = 42L;
+        Message legacy = new Message(alice, "no uid", 2, false);
+        assertTrue(db.messageDao().insertAll(Arrays.asList(first, legacy))[0] > 0);
+
+        Message repeat = new Message(alice, "hi", 3, false);
+        repeat.messageUid = 42L;
+        Message otherLegacy = new Message(alice, "no uid either", 4, false);
+        long[] ids = db.messageDao().insertAll(Arrays.asList(repeat, otherLegacy));
+        assertEquals(-1, ids[0]);
+        assertTrue(ids[1] > 0);
+        assertEquals(3, db.messageDao().latest(alice, 10).size());
+    }
+
+    @Test
+    public void setDeliveryState_updatesByMessageUid() {
+        int alice = insertContact("Alice");
+        Message sent = new Message(alice, "hi", 1, true);
+        sent.messageUid = 42L;
+        sent.deliveryState = Message.DELIVERY_SENT;
+        db.messageDao().insert(sent);
+
+        db.messageDao().setDeliveryState(42L, Message.DELIVERY_DELIVERED);
+        assertEquals(Message.DELIVERY_DELIVERED, db.messageDao().latest(alice, 1).get(0).deliveryState);
+    }
+
+    @Test
+    public void migration6To7_keepsMessagesAndAssignsThemToOnlyContact() {
+        // Version 6 schema as Room created it
+        SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(MIGRATION_DB), null);
+        old.execSQL("CREATE TABLE IF NOT EXISTS `messages` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                + "`textContent` TEXT, `timestamp` INTEGER NOT NULL, `isSentByMe` INTEGER NOT NULL)");
+        old.execSQL("CREATE TABLE IF NOT EXISTS `contacts` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                + "`name` TEXT, `publicKey` TEXT)");
+        old.execSQL("INSERT INTO contacts (id, name, publicKey) VALUES (7, 'Alice', 'a2V5')");
+        old.execSQL("INSERT INTO messages (textContent, timestamp, isSentByMe) VALUES ('first', 1, 1)");
+        old.execSQL("INSERT INTO messages (textContent, timestamp, isSentByMe) VALUES ('second', 2, 0)");
+        old.setVersion(6);
+        old.close();
+
+        // Opening validates the migrated schema against the entities
+        AppDatabase migrated = Room.databaseBuilder(context, AppDatabase.class, MIGRATION_DB)
+                .addMigrations(AppDatabase.MIGRATION_6_7, AppDatabase.MIGRATION_7_8, AppDatabase.MIGRATION_8_9,
+                        AppDatabase.MIGRATION_9_10, AppDatabase.MIGRATION_10_11,
+                        AppDatabase.MIGRATION_11_12, AppDatabase.MIGRATION_12_13)
+                .build();
+        try {
+            List<Message> messages = migrated.messageDao().latest(7, 10);
+            assertEquals(2, messages.size());
+            assertEquals("second", messages.get(0).textContent);
+            assertEquals("first", messages.get(1).textContent);
+            // 10 -> 11: sent before acknowledgements existed
+            assertEquals(Message.DELIVERY_NONE, messages.get(1).deliveryState);
+
+            // 7 -> 8 indexed the existing messages, and new ones are indexed by the triggers
+            migrated.messageDao().insert(new Message(7, "second thoughts", 3, true));
+            List<MessageSearch.Hit> hits = new MessageSearch(migrated.messageDao()).search("second", 0, 10);
+            assertEquals(2, hits.size());
+
+            // 11 -> 12 created the outbox
+            migrated.outboxDao().insert(new OutboxEntry(1L, 2, new byte[]{1}, Outbox.PRIORITY_NORMAL, 5));
+            assertEquals(1, migrated.outboxDao().due(5).size());
+
+            // 8 -> 9 left the fingerprint for ContactDirectory to fill in
+            migrated.contactDirectory().load();
+            assertNotEquals(0, migrated.contactDao().getAllContacts().get(0).fingerprint);
+        } finally {
+            migrated.close();
+        }
+    }
+
+    private int insertContact(String name) {
+        db.contactDao().insert(new Contact(name, "key-" + name));
+        for (Contact contact : db.contactDao().getAllContacts()) {
+            if (contact.name.equals(name)) return contact.id;
+        }
+        throw new AssertionError("Contact not inserted");
+    }
+}
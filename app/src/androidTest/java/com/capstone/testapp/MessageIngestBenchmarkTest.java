@@ -0,0 +1,74 @@
+package com.capstone.testapp;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Inserts per second into a file-backed database at batch sizes 1, 16 and 128.
+ * Batch size 1 is what one insert() per message costs; the others are what
+ * MessageIngestQueue writes when a backlog arrives.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageIngestBenchmarkTest {
+
+    private static final String DB_NAME = "ingest-benchmark";
+    private static final int MESSAGE_COUNT = 1024;
+
+    private Context context;
+    private AppDatabase db;
+    private int conversationId;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        // On disk, so every transaction pays for its journal sync like the real database does
+        db = Room.databaseBuilder(context, AppDatabase.class, DB_NAME).build();
+        db.contactDao().insert(new Contact("Bench", "key-bench"));
+        conversationId = db.contactDao().getAllContacts().get(0).id;
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void insertsPerSecond_byBatchSize() {
+        double single = measure(1);
+        double medium = measure(16);
+        double large = measure(128);
+        String rates = String.format("inserts/s: batch 1 = %.0f, batch 16 = %.0f, batch 128 = %.0f",
+                single, medium, large);
+        assertTrue(rates, medium > single);
+        assertTrue(rates, large > single);
+    }
+
+    private double measure(int batchSize) {
+        MessageDao dao = db.messageDao();
+        long start = System.nanoTime();
+        for (int from = 0; from < MESSAGE_COUNT; from += batchSize) {
+            List<Message> batch = new ArrayList<>(batchSize);
+            for (int i = from; i < from + batchSize; i++) {
+                batch.add(new Message(conversationId, "message " + i, 1000 + i, i % 2 == 0));
+            }
+            assertEquals(batchSize, dao.insertAll(batch).length);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        return MESSAGE_COUNT / (elapsedNanos / 1e9);
+    }
+}
@@ -0,0 +1,118 @@
+package com.capstone.testapp;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Seeds 100,000 messages and searches them through the FTS index, for rare and
+ * common words, prefixes and several terms. The timing benchmark depends on the
+ * device, so it is ignored by default; run it by hand to check searches stay
+ * under 50 ms.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageSearchBenchmarkTest {
+
+    private static final String DB_NAME = "search-benchmark";
+    private static final int MESSAGE_COUNT = 100000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int RUNS = 20;
+    private static final long LIMIT_MS = 50;
+
+    // A few common words plus a long tail, so queries hit a few rows or thousands
+    private static final String[] COMMON = {"hello", "meet", "camp", "river", "water", "north", "tomorrow", "ok"};
+    private static final int RARE_WORDS = 3000;
+
+    private Context context;
+    private AppDatabase db;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        db = Room.databaseBuilder(context, AppDatabase.class, DB_NAME).build();
+        db.contactDao().insert(new Contact("Bench", "key-bench"));
+        int conversationId = db.contactDao().getAllContacts().get(0).id;
+
+        Random random = new Random(42);
+        MessageDao dao = db.messageDao();
+        for (int from = 0; from < MESSAGE_COUNT; from += BATCH_SIZE) {
+            List<Message> batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = from; i < from + BATCH_SIZE; i++) {
+                batch.add(new Message(conversationId, randomText(random), 1000L + i, i % 2 == 0));
+            }
+            dao.insertAll(batch);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    @Ignore("Benchmark; timing depends on the device")
+    public void search_staysUnder50msAt100kMessages() {
+        MessageSearch search = new MessageSearch(db.messageDao());
+        String[] queries = {"hello", "word1234", "word12", "meet river", "tomorrow camp wat", "nothingmatches"};
+        for (String query : queries) {
+            // Warm up the page cache
+            search.search(query, 0, 30);
+
+            long worstNanos = 0;
+            int hits = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                hits = search.search(query, 0, 30).size();
+                worstNanos = Math.max(worstNanos, System.nanoTime() - start);
+            }
+            double worstMs = worstNanos / 1e6;
+            assertTrue("'" + query + "' took " + worstMs + " ms for " + hits + " hits", worstMs < LIMIT_MS);
+        }
+    }
+
+    @Test
+    public void results_containTheWordsAndHighlightThem() {
+        List<MessageSearch.Hit> hits = new MessageSearch(db.messageDao()).search("meet river", 0, 30);
+        assertFalse(hits.isEmpty());
+        for (MessageSearch.Hit hit : hits) {
+            String text = hit.message.textContent;
+            assertTrue(text.contains("meet") && text.contains("river"));
+            assertTrue(hit.highlights.length >= 4);
+            String first = text.substring(hit.highlights[0], hit.highlights[1]);
+            assertTrue(first.equals("meet") || first.equals("river"));
+        }
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(hits.get(i - 1).score >= hits.get(i).score);
+        }
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int words = 3 + random.nextInt(13);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) text.append(' ');
+            if (random.nextInt(4) == 0) {
+                text.append(COMMON[random.nextInt(COMMON.length)]);
+            } else {
+                text.append("word").append(random.nextInt(RARE_WORDS));
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,265 @@
+package com.capstone.testapp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Releases outgoing frames no faster than the LoRa radio can put them on air.
+// Each frame's airtime comes from LoRaAirtime. A frame is released when the
+// previous one has finished transmitting, and when a token bucket holds enough
+// airtime for it. The bucket refills at the duty cycle (airtime allowed per unit
+// of time) up to bucketMillis. So a quiet link can send a short burst at once,
+// and a busy one settles at the duty cycle. Without this, a burst of sends
+// overflows the node's small transmit buffer and frames are dropped there.
+//
+// Frames are queued by priority: control frames (acks) before chat before bulk.
+// Within a priority they keep their order. The highest priority frame waiting
+// always goes next. Frames behind it wait, even ones that would fit the budget,
+// so a large frame isn't starved by a stream of small ones.
+//
+// Given a bundle size, it also coalesces: the frame that is due goes together
+// with as many frames behind it as fit in one Frame.TYPE_BUNDLE. Every LoRa packet
+// pays for a preamble and some fixed symbols, about 80 ms at SF9, however little
+// it carries, so acks and short messages go further together. Only frames that
+// are already waiting for the radio or the bucket are bundled, so bundling
+// never holds a frame back to wait for company.
+//
+// Frames are charged for the length they go on air with, which FEC (see
+// FecCodec) adds to; setFecLevel() keeps the scheduler in step with the link.
+//
+// Pure Java and clock-free: the caller passes the time in, takes frames with
+// poll() and calls again at getNextSendAt(). Not thread safe.
+public class AirtimeScheduler {
+
+    public static final int PRIORITY_BULK = 0;
+    public static final int PRIORITY_CHAT = 1;
+    public static final int PRIORITY_CONTROL = 2;
+    private static final int PRIORITIES = 3;
+
+    private static final class Queued {
+        final byte[] frame;
+        final long airtimeMillis;
+
+        Queued(byte[] frame, long airtimeMillis) {
+            this.frame = frame;
+            this.airtimeMillis = airtimeMillis;
+        }
+    }
+
+    private final LoRaAirtime airtime;
+    private final double dutyCycle;
+    private final long bucketMillis;
+    private final int maxQueued;
+    private final int maxBundleLength;
+    private int fecLevel = FecCodec.LEVEL_NONE;
+
+    // Indexed by priority
+    private final List<ArrayDeque<Queued>> queues = new ArrayList<>(PRIORITIES);
+    private int queued;
+    private double tokens;
+    private long tokensUpdatedAt;
+    private long radioBusyUntil;
+    private long airtimeUsedMillis;
+    private long framesRejected;
+    private long bundlesSent;
+    private long framesBundled;
+    // Frames evictBelow() dropped, until takeEvicted()
+    private final List<byte[]> evicted = new ArrayList<>();
+    // Scratch for plan()
+    private final int[] planned = new int[PRIORITIES];
+    private int plannedLength;
+
+    // dutyCycle is the fraction of time the radio may transmit, e.g. 0.01. The
+    // bucket starts full. No bundling.
+    public AirtimeScheduler(LoRaAirtime airtime, double dutyCycle, long bucketMillis, int maxQueued, long nowMillis) {
+        this(airtime, dutyCycle, bucketMillis, maxQueued, 0, nowMillis);
+    }
+
+    // As above, packing frames into bundles of at most maxBundleLength bytes on air
+    public AirtimeScheduler(LoRaAirtime airtime, double dutyCycle, long bucketMillis, int maxQueued,
+                            int maxBundleLength, long nowMillis) {
+        if (dutyCycle <= 0 || dutyCycle > 1) throw new IllegalArgumentException("Bad duty cycle: " + dutyCycle);
+        this.airtime = airtime;
+        this.dutyCycle = dutyCycle;
+        this.bucketMillis = bucketMillis;
+        this.maxQueued = maxQueued;
+        this.maxBundleLength = maxBundleLength;
+        this.tokens = bucketMillis;
+        this.tokensUpdatedAt = nowMillis;
+        this.radioBusyUntil = nowMillis;
+        for (int i = 0; i < PRIORITIES; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+    }
+
+    // Queue a frame. When the queue is full, the newest frame of a lower priority
+    // makes room for it; returns false if there is none, or if the frame could
+    // never fit the bucket.
+    public boolean enqueue(byte[] frame, int priority) {
+        long frameAirtime = airtimeOf(frame.length);
+        if (frameAirtime > bucketMillis) {
+            framesRejected++;
+            return false;
+        }
+        if (queued >= maxQueued && !evictBelow(priority)) {
+            framesRejected++;
+            return false;
+        }
+        queues.get(priority).add(new Queued(frame, frameAirtime));
+        queued++;
+        return true;
+    }
+
+    // The next frame to hand to the radio now, or null if none may go yet. With
+    // bundling, this may be a bundle of the due frame and the ones behind it.
+    public byte[] poll(long nowMillis) {
+        Queued next = peek();
+        if (next == null || nowMillis < radioBusyUntil) return null;
+        int count = plan(next);
+        long cost = count == 1 ? next.airtimeMillis : airtimeOf(plannedLength);
+        refill(nowMillis);
+        if (tokens < cost) return null;
+        tokens -= cost;
+        radioBusyUntil = nowMillis + cost;
+        airtimeUsedMillis += cost;
+        if (count == 1) {
+            remove();
+            return next.frame;
+        }
+        List<byte[]> frames = new ArrayList<>(count);
+        for (int i = PRIORITIES - 1; i >= 0; i--) {
+            for (int j = 0; j < planned[i]; j++) {
+                frames.add(queues.get(i).poll().frame);
+            }
+            queued -= planned[i];
+        }
+        bundlesSent++;
+        framesBundled += count;
+        return Frame.encodeBundle(frames);
+    }
+
+    // When poll() will next return something, or Long.MAX_VALUE with nothing queued
+    public long getNextSendAt(long nowMillis) {
+        Queued next = peek();
+        if (next == null) return Long.MAX_VALUE;
+        long cost = plan(next) == 1 ? next.airtimeMillis : airtimeOf(plannedLength);
+        refill(nowMillis);
+        long tokensAt = nowMillis;
+        if (tokens < cost) {
+            tokensAt += (long) Math.ceil((cost - tokens) / dutyCycle);
+        }
+        return Math.max(Math.max(nowMillis, radioBusyUntil), tokensAt);
+    }
+
+    // Frames queued from now on are charged with this level's parity; ones
+    // already queued keep what they were charged
+    public void setFecLevel(int level) {
+        FecCodec.getParityLength(level);
+        fecLevel = level;
+    }
+
+    // Drop everything queued, e.g. when the link is gone
+    public void clear() {
+        for (ArrayDeque<Queued> queue : queues) {
+            queue.clear();
+        }
+        queued = 0;
+        evicted.clear();
+    }
+
+    // The frames dropped to make room for higher priority ones since the last
+    // call, oldest first. Callers that care should take them after enqueue().
+    public List<byte[]> takeEvicted() {
+        if (evicted.isEmpty()) return new ArrayList<>();
+        List<byte[]> taken = new ArrayList<>(evicted);
+        evicted.clear();
+        return taken;
+    }
+
+    public int getQueued() {
+        return queued;
+    }
+
+    public long getAirtimeUsedMillis() {
+        return airtimeUsedMillis;
+    }
+
+    public long getFramesRejected() {
+        return framesRejected;
+    }
+
+    public long getBundlesSent() {
+        return bundlesSent;
+    }
+
+    // Frames that went out inside bundles
+    public long getFramesBundled() {
+        return framesBundled;
+    }
+
+    // Works out what goes next: the due frame and as many as fit behind it,
+    // highest priority first and in order within each, taken from the head of
+    // each queue so they can be removed by count. Fills planned and
+    // plannedLength, and returns the number of frames.
+    private int plan(Queued next) {
+        int length = Frame.HEADER_LENGTH + Frame.BUNDLE_ENTRY_OVERHEAD + next.frame.length;
+        if (FecCodec.getEncodedLength(length, fecLevel) > maxBundleLength) return 1;
+        int count = 0;
+        for (int i = PRIORITIES - 1; i >= 0; i--) {
+            planned[i] = 0;
+            for (Queued entry : queues.get(i)) {
+                if (entry != next) {
+                    int entryLength = Frame.BUNDLE_ENTRY_OVERHEAD + entry.frame.length;
+                    if (FecCodec.getEncodedLength(length + entryLength, fecLevel) > maxBundleLength) break;
+                    length += entryLength;
+                }
+                planned[i]++;
+                count++;
+            }
+        }
+        plannedLength = length;
+        // A bundle the bucket could never hold goes as single frames instead
+        if (count > 1 && airtimeOf(length) > bucketMillis) return 1;
+        return count;
+    }
+
+    private Queued peek() {
+        for (int i = PRIORITIES - 1; i >= 0; i--) {
+            Queued head = queues.get(i).peek();
+            if (head != null) return head;
+        }
+        return null;
+    }
+
+    private void remove() {
+        for (int i = PRIORITIES - 1; i >= 0; i--) {
+            if (queues.get(i).poll() != null) {
+                queued--;
+                return;
+            }
+        }
+    }
+
+    private boolean evictBelow(int priority) {
+        for (int i = 0; i < priority; i++) {
+            Queued dropped = queues.get(i).pollLast();
+            if (dropped != null) {
+                evicted.add(dropped.frame);
+                queued--;
+                framesRejected++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long airtimeOf(int frameLength) {
+        return airtime.getFrameMillis(FecCodec.getEncodedLength(frameLength, fecLevel));
+    }
+
+    private void refill(long nowMillis) {
+        if (nowMillis <= tokensUpdatedAt) return;
+        tokens = Math.min(bucketMillis, tokens + (nowMillis - tokensUpdatedAt) * dutyCycle);
+        tokensUpdatedAt = nowMillis;
+    }
+}
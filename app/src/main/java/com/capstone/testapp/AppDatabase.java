@@ -1,20 +1,124 @@
 package com.capstone.testapp;
 
 import android.content.Context;
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 // The @Database annotation marks this as a Room database class.
 // 'entities' lists all the table classes.
 // 'version' is for database migrations; start with 1.
-// FIX 1: The version number is increased from 1 to 2
-@Database(entities = {Message.class, Contact.class}, version = 6, exportSchema = false)
+// From version 6 on, schema changes come with a Migration so message history survives upgrades.
+@Database(entities = {Message.class, Contact.class, MessageFts.class, OutboxEntry.class}, version = 13, exportSchema = false)
 public abstract class AppDatabase extends RoomDatabase {
 
     // An abstract method for Room to provide an instance of our DAO.
     public abstract MessageDao messageDao();
     public abstract ContactDao contactDao();
+    public abstract OutboxDao outboxDao();
+
+    // 6 -> 7: messages belong to a conversation (contacts.id) and are indexed by
+    // (conversationId, timestamp). SQLite can't add a foreign key to an existing
+    // table, so the table is rebuilt. Old messages have no conversation; if there is
+    // only one contact they can only have been exchanged with them.
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `messages_new` ("
+                    + "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`textContent` TEXT, "
+                    + "`timestamp` INTEGER NOT NULL, "
+                    + "`isSentByMe` INTEGER NOT NULL, "
+                    + "`conversationId` INTEGER, "
+                    + "FOREIGN KEY(`conversationId`) REFERENCES `contacts`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("INSERT INTO `messages_new` (`id`, `textContent`, `timestamp`, `isSentByMe`, `conversationId`) "
+                    + "SELECT `id`, `textContent`, `timestamp`, `isSentByMe`, "
+                    + "CASE WHEN (SELECT COUNT(*) FROM `contacts`) = 1 THEN (SELECT `id` FROM `contacts`) END "
+                    + "FROM `messages`");
+            db.execSQL("DROP TABLE `messages`");
+            db.execSQL("ALTER TABLE `messages_new` RENAME TO `messages`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_conversationId_timestamp` "
+                    + "ON `messages` (`conversationId`, `timestamp`)");
+        }
+    };
+
+    // 7 -> 8: full-text index over message text (MessageFts). Existing messages are
+    // indexed with 'rebuild'. Room drops and re-creates the triggers that keep the
+    // index in sync around every migration, so they aren't created here.
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `messages_fts` "
+                    + "USING FTS4(`textContent` TEXT, tokenize=unicode61, content=`messages`)");
+            db.execSQL("INSERT INTO `messages_fts`(`messages_fts`) VALUES('rebuild')");
+        }
+    };
+
+    // 8 -> 9: contacts get an indexed key fingerprint. SQL can't hash keys, so
+    // existing contacts start at 0 and ContactDirectory fills them in on first load.
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `contacts` ADD COLUMN `fingerprint` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_contacts_fingerprint` ON `contacts` (`fingerprint`)");
+        }
+    };
+
+    // 9 -> 10: messages get the sender's unique message id. Older messages have none;
+    // NULLs don't conflict in a unique index.
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `messages` ADD COLUMN `messageUid` INTEGER");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_messages_messageUid` ON `messages` (`messageUid`)");
+        }
+    };
+
+    // 10 -> 11: delivery state of sent messages. Existing ones were never acknowledged; they stay at 0 (none).
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `messages` ADD COLUMN `deliveryState` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    // 11 -> 12: the outbox of sent messages waiting for an ack
+    static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `outbox` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`messageUid` INTEGER NOT NULL, `destinationKeyId` INTEGER NOT NULL, `frame` BLOB, "
+                    + "`priority` INTEGER NOT NULL, `createdAt` INTEGER NOT NULL, `attempts` INTEGER NOT NULL, "
+                    + "`nextAttemptAt` INTEGER NOT NULL)");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_outbox_messageUid` ON `outbox` (`messageUid`)");
+        }
+    };
+
+    // 12 -> 13: the attempt number of each outbox entry's last copy. Entries
+    // queued before start again from 0, as they did until now.
+    static final Migration MIGRATION_12_13 = new Migration(12, 13) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `outbox` ADD COLUMN `lastAttempt` INTEGER NOT NULL DEFAULT -1");
+        }
+    };
+
+    // One directory per database, so every screen sees contacts added by the others
+    private volatile ContactDirectory contactDirectory;
+
+    public ContactDirectory contactDirectory() {
+        if (contactDirectory == null) {
+            synchronized (this) {
+                if (contactDirectory == null) {
+                    contactDirectory = new ContactDirectory(contactDao(), CryptoManager::keyIdOf);
+                }
+            }
+        }
+        return contactDirectory;
+    }
 
     // This is the Singleton pattern. It prevents multiple instances of the
     // database opening at the same time.
@@ -26,12 +130,14 @@ public abstract class AppDatabase extends RoomDatabase {
                 if (INSTANCE == null) {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                                     AppDatabase.class, "chat_database")
-                            // FIX 2: Add this line to handle the version change
-                            .fallbackToDestructiveMigration()
+                            .addMigrations(MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10, MIGRATION_10_11,
+                                    MIGRATION_11_12, MIGRATION_12_13)
+                            // Development builds before version 6 had no migrations; start those over
+                            .fallbackToDestructiveMigrationFrom(1, 2, 3, 4, 5)
                             .build();
                 }
             }
         }
         return INSTANCE;
     }
-}
\ No newline at end of file
+}
@@ -4,12 +4,10 @@ import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattServer;
 import android.bluetooth.BluetoothGattServerCallback;
 import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothProfile;
 import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
@@ -25,7 +23,10 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Button;
 import android.widget.Toast;
@@ -42,15 +43,18 @@ import java.util.UUID;
 public class BleActivity extends AppCompatActivity {
 
     private static final String TAG = "BleActivity";
-    private static final UUID SERVICE_UUID = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
-    private static final UUID MESSAGE_CHARACTERISTIC_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    private static final UUID SERVICE_UUID = GattTransport.SERVICE_UUID;
+    private static final UUID MESSAGE_CHARACTERISTIC_UUID = GattTransport.TX_CHARACTERISTIC_UUID;
 
     private BluetoothManager bluetoothManager;
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothLeAdvertiser advertiser;
     private BluetoothGattServer gattServer;
     private BluetoothLeScanner scanner;
-    private BluetoothGatt gatt;
+    private GattTransport transport;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Test server side: puts chunks written by a GattTransport back into frames
+    private final Fragmenter.Reassembler serverReassembler = new Fragmenter.Reassembler(10000);
 
     // --- NEW: Launcher to request turning on Bluetooth ---
     private final ActivityResultLauncher<Intent> enableBluetoothLauncher = registerForActivityResult(
@@ -416,29 +420,28 @@ public class BleActivity extends AppCompatActivity {
                 }
             };
             
-            try {
-                scanner.startScan(null, testSettings[i], discoveryCallback);
-                Log.d(TAG, "Started discovery scan with " + modeNames[i] + " mode");
-                
-                // Stop after 3 seconds
-                new android.os.Handler().postDelayed(() -> {
-                    try {
-                        scanner.stopScan(discoveryCallback);
-                        Log.d(TAG, "Stopped discovery scan with " + modeNames[modeIndex] + " mode");
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error stopping discovery scan: " + e.getMessage());
-                    }
-                }, 3000);
-                
-                // Wait between scans
-                Thread.sleep(3500);
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to start discovery scan with " + modeNames[i] + ": " + e.getMessage());
-            }
+            // One mode at a time, 3 s each; sleeping here would block the UI thread and
+            // leave all three scans running at once
+            handler.postDelayed(() -> {
+                try {
+                    scanner.startScan(null, testSettings[modeIndex], discoveryCallback);
+                    Log.d(TAG, "Started discovery scan with " + modeNames[modeIndex] + " mode");
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to start discovery scan with " + modeNames[modeIndex] + ": " + e.getMessage());
+                }
+            }, modeIndex * 3500L);
+            handler.postDelayed(() -> {
+                try {
+                    scanner.stopScan(discoveryCallback);
+                    Log.d(TAG, "Stopped discovery scan with " + modeNames[modeIndex] + " mode");
+                } catch (Exception e) {
+                    Log.e(TAG, "Error stopping discovery scan: " + e.getMessage());
+                }
+                if (modeIndex == testSettings.length - 1) {
+                    Log.d(TAG, "=== COMPREHENSIVE DEVICE DISCOVERY COMPLETED ===");
+                }
+            }, modeIndex * 3500L + 3000);
         }
-        
-        Log.d(TAG, "=== COMPREHENSIVE DEVICE DISCOVERY COMPLETED ===");
     }
 
     private void startAdvertising() {
@@ -484,8 +487,12 @@ public class BleActivity extends AppCompatActivity {
         @Override
         public void onCharacteristicWriteRequest(BluetoothDevice device, int requestId, BluetoothGattCharacteristic characteristic, boolean preparedWrite, boolean responseNeeded, int offset, byte[] value) {
             if (characteristic.getUuid().equals(MESSAGE_CHARACTERISTIC_UUID)) {
-                String message = new String(value, StandardCharsets.UTF_8);
-                runOnUiThread(() -> Toast.makeText(BleActivity.this, "Received: " + message, Toast.LENGTH_SHORT).show());
+                byte[] frameBytes = serverReassembler.accept(value, SystemClock.elapsedRealtime());
+                if (frameBytes != null) {
+                    Frame frame = Frame.decode(frameBytes);
+                    String message = new String(frame != null ? frame.payload : frameBytes, StandardCharsets.UTF_8);
+                    runOnUiThread(() -> Toast.makeText(BleActivity.this, "Received: " + message, Toast.LENGTH_SHORT).show());
+                }
 
                 if (responseNeeded) {
                     if (ActivityCompat.checkSelfPermission(BleActivity.this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) return;
@@ -634,7 +641,7 @@ public class BleActivity extends AppCompatActivity {
                 Log.e(TAG, "BLUETOOTH_CONNECT permission not granted");
                 return;
             }
-            gatt = device.connectGatt(BleActivity.this, false, gattCallback);
+            connectTo(device);
         }
 
         @Override
@@ -698,7 +705,7 @@ public class BleActivity extends AppCompatActivity {
                         scanner.stopScan(this);
                         
                         if (ActivityCompat.checkSelfPermission(BleActivity.this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) return;
-                        gatt = device.connectGatt(BleActivity.this, false, gattCallback);
+                        connectTo(device);
                         return;
                     }
                 }
@@ -729,39 +736,25 @@ public class BleActivity extends AppCompatActivity {
         }
     };
 
-    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                if (ActivityCompat.checkSelfPermission(BleActivity.this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) return;
-                gatt.discoverServices();
-            }
+    // Callers check BLUETOOTH_CONNECT first
+    private void connectTo(BluetoothDevice device) {
+        if (transport != null) {
+            transport.disconnect();
         }
-
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                BluetoothGattService service = gatt.getService(SERVICE_UUID);
-                if (service != null) {
-                    BluetoothGattCharacteristic characteristic = service.getCharacteristic(MESSAGE_CHARACTERISTIC_UUID);
-                    if (characteristic != null) {
-                        sendMessage(gatt, characteristic);
-                    }
-                }
+        transport = new GattTransport(this, device);
+        transport.setConnectionListener(state -> {
+            if (state == MessageTransport.STATE_CONNECTED) {
+                sendMessage();
             }
-        }
-    };
-
-    private void sendMessage(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) return;
+        });
+        transport.connect();
+    }
 
+    private void sendMessage() {
         byte[] messageBytes = "Hello BLE".getBytes(StandardCharsets.UTF_8);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            gatt.writeCharacteristic(characteristic, messageBytes, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-        } else {
-            characteristic.setValue(messageBytes);
-            gatt.writeCharacteristic(characteristic);
+        Frame frame = new Frame(Frame.TYPE_CHAT, 0, 0, Frame.newMessageId(), messageBytes);
+        if (transport.send(frame.encode())) {
+            Log.d(TAG, "Sent message: Hello BLE");
         }
-        Log.d(TAG, "Sent message: Hello BLE");
     }
 }
\ No newline at end of file
@@ -2,27 +2,15 @@ package com.capstone.testapp;
 
 import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothProfile;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
-import android.bluetooth.le.ScanResult;
-import android.bluetooth.le.ScanSettings;
 import android.bluetooth.BluetoothManager;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
-import android.os.ParcelUuid;
-import android.util.Log;
+import android.os.IBinder;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
@@ -35,46 +23,92 @@ import androidx.core.app.ActivityCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+// One conversation. The link to the LoRa node belongs to NodeConnectionService,
+// which this screen binds to: it sends through the service and shows what the
+// service stores, so opening a chat doesn't wait for a scan when a node is
+// already connected.
 public class ChatActivity extends AppCompatActivity {
 
-    // --- UI, Database, and Crypto variables ---
+    // --- UI and Database variables ---
     private RecyclerView chatRecyclerView;
     private EditText messageEditText;
     private Button sendButton;
-    private List<Message> messageList;
     private MessageAdapter messageAdapter;
     private AppDatabase db;
     private MessageDao messageDao;
     private ExecutorService executorService;
-    private CryptoManager cryptoManager;
     private String contactPublicKey;
-
-    // --- BLE variables ---
-    private static final String TAG = "ChatActivity_BLE";
-    private static final UUID SERVICE_UUID = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
-    private static final UUID TX_CHARACTERISTIC_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
-    private static final UUID RX_CHARACTERISTIC_UUID = UUID.fromString("00002a38-0000-1000-8000-00805f9b34fb");
-    private static final UUID CLIENT_CHARACTERISTIC_CONFIG_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
-    private BluetoothManager bluetoothManager;
+    // Messages are stored per conversation, keyed by the contact's id
+    private int conversationId;
+    // History is shown through a bounded window that pages in as the user scrolls
+    private static final int PAGE_SIZE = 50;
+    private static final int WINDOW_SIZE = 200;
+    // Start loading the next page when this close to the edge of the window
+    private static final int PREFETCH_DISTANCE = 15;
+    private MessageWindow messageWindow;
+    private boolean pageLoading = false;
+
+    // --- Connection variables ---
     private BluetoothAdapter bluetoothAdapter;
-    private BluetoothLeScanner scanner;
-    private BluetoothGatt gatt;
-    private boolean isScanning = false;
-    private Handler scanHandler;
+    private boolean serviceBound = false;
+    // Null until bound
+    private NodeConnectionService nodeService;
+    // Permissions and Bluetooth are ready; connect as soon as the service is bound
+    private boolean readyToConnect = false;
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            nodeService = ((NodeConnectionService.LocalBinder) binder).getService();
+            nodeService.addListener(nodeListener);
+            if (readyToConnect) connectToNode();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            nodeService = null;
+        }
+    };
+
+    // Called on the service's threads
+    private final NodeConnectionService.Listener nodeListener = new NodeConnectionService.Listener() {
+        @Override
+        public void onMessagesStored(List<Message> batch) {
+            ChatActivity.this.onMessagesStored(batch);
+        }
+
+        @Override
+        public void onDeliveryStateStored(long messageUid, int deliveryState) {
+            List<Message> messages = messageWindow.setDeliveryState(messageUid, deliveryState);
+            if (messages != null) runOnUiThread(() -> showMessages(messages, false));
+        }
+
+        @Override
+        public void onConnectionStateChanged(int state) {
+            if (state == MessageTransport.STATE_CONNECTED) {
+                runOnUiThread(() -> Toast.makeText(ChatActivity.this, "Connected to Node!", Toast.LENGTH_SHORT).show());
+            } else if (state == MessageTransport.STATE_DISCONNECTED) {
+                runOnUiThread(() -> Toast.makeText(ChatActivity.this, "Disconnected from Node.", Toast.LENGTH_SHORT).show());
+            }
+        }
+
+        @Override
+        public void onNodeNotFound() {
+            runOnUiThread(() -> Toast.makeText(ChatActivity.this, "Node not found.", Toast.LENGTH_SHORT).show());
+        }
+    };
 
     // --- Fully implemented Activity Result Launchers ---
     private final ActivityResultLauncher<Intent> enableBluetoothLauncher = registerForActivityResult(
             new ActivityResultContracts.StartActivityForResult(),
             result -> {
                 if (result.getResultCode() == RESULT_OK) {
-                    startScanning();
+                    connectToNode();
                 } else {
                     Toast.makeText(this, "Bluetooth is required to chat.", Toast.LENGTH_LONG).show();
                 }
@@ -82,14 +116,7 @@ public class ChatActivity extends AppCompatActivity {
 
     private final ActivityResultLauncher<String[]> blePermissionsLauncher =
             registerForActivityResult(new ActivityResultContracts.RequestMultiplePermissions(), result -> {
-                boolean allGranted = true;
-                for (boolean isGranted : result.values()) {
-                    if (!isGranted) {
-                        allGranted = false;
-                        break;
-                    }
-                }
-                if (allGranted) {
+                if (hasBluetoothPermissions()) {
                     checkBluetoothState();
                 } else {
                     Toast.makeText(this, "All permissions are required to chat.", Toast.LENGTH_LONG).show();
@@ -102,8 +129,6 @@ public class ChatActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_chat);
 
-        scanHandler = new Handler(Looper.getMainLooper());
-
         Toolbar toolbar = findViewById(R.id.chatToolbar);
         setSupportActionBar(toolbar);
         if (getSupportActionBar() != null) {
@@ -111,12 +136,12 @@ public class ChatActivity extends AppCompatActivity {
             getSupportActionBar().setDisplayShowHomeEnabled(true);
         }
 
-        cryptoManager = new CryptoManager(this);
         Intent intent = getIntent();
         String contactName = intent.getStringExtra("CONTACT_NAME");
         contactPublicKey = intent.getStringExtra("CONTACT_PUBLIC_KEY");
-        if (contactPublicKey == null) {
-            Toast.makeText(this, "Error: Contact's public key not found.", Toast.LENGTH_LONG).show();
+        conversationId = intent.getIntExtra("CONTACT_ID", -1);
+        if (contactPublicKey == null || conversationId == -1) {
+            Toast.makeText(this, "Error: Contact details not found.", Toast.LENGTH_LONG).show();
             finish();
             return;
         }
@@ -131,10 +156,24 @@ public class ChatActivity extends AppCompatActivity {
         chatRecyclerView = findViewById(R.id.chatRecyclerView);
         messageEditText = findViewById(R.id.messageEditText);
         sendButton = findViewById(R.id.sendButton);
-        messageList = new ArrayList<>();
-        messageAdapter = new MessageAdapter(messageList);
-        chatRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        messageAdapter = new MessageAdapter();
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        chatRecyclerView.setLayoutManager(layoutManager);
         chatRecyclerView.setAdapter(messageAdapter);
+        messageWindow = new MessageWindow(MessageWindow.forConversation(messageDao, conversationId), PAGE_SIZE, WINDOW_SIZE);
+        chatRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (pageLoading) return;
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= PREFETCH_DISTANCE
+                        && messageWindow.hasOlder()) {
+                    loadPage(true);
+                } else if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= messageAdapter.getItemCount() - 1 - PREFETCH_DISTANCE
+                        && messageWindow.hasNewer()) {
+                    loadPage(false);
+                }
+            }
+        });
 
         loadMessages();
 
@@ -145,9 +184,15 @@ public class ChatActivity extends AppCompatActivity {
             }
         });
 
-        bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+        serviceBound = bindService(new Intent(this, NodeConnectionService.class), serviceConnection, Context.BIND_AUTO_CREATE);
+        BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
         bluetoothAdapter = bluetoothManager.getAdapter();
-        checkPermissions();
+        if (hasBluetoothPermissions()) {
+            // Granted before: no round trip through the permission launcher
+            checkBluetoothState();
+        } else {
+            checkPermissions();
+        }
     }
 
     @Override
@@ -157,41 +202,90 @@ public class ChatActivity extends AppCompatActivity {
     }
 
     private void sendMessage(String messageText) {
-        Message newMessage = new Message(messageText, System.currentTimeMillis(), true);
+        if (nodeService == null) {
+            Toast.makeText(this, "Not ready yet, try again", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        NodeConnectionService service = nodeService;
+        // Cleared right away so a second tap doesn't send it twice; put back if it fails
+        messageEditText.setText("");
+        service.sendMessage(conversationId, contactPublicKey, messageText, result -> runOnUiThread(() -> {
+            if (result != NodeConnectionService.SEND_QUEUED) {
+                Toast.makeText(this, result == NodeConnectionService.SEND_TOO_LONG
+                        ? "Message too long" : "Encryption Failed!", Toast.LENGTH_SHORT).show();
+                if (messageEditText.getText().length() == 0) messageEditText.setText(messageText);
+                return;
+            }
+            if (service.getConnectionState() != MessageTransport.STATE_CONNECTED) {
+                Toast.makeText(this, "Not connected to LoRa Node; message queued", Toast.LENGTH_SHORT).show();
+            }
+        }));
+    }
+
+    private void loadMessages() {
         executorService.execute(() -> {
-            messageDao.insert(newMessage);
+            List<Message> messages = messageWindow.loadLatest();
+            runOnUiThread(() -> showMessages(messages, true));
+        });
+    }
+
+    private void loadPage(boolean older) {
+        pageLoading = true;
+        executorService.execute(() -> {
+            List<Message> messages = older ? messageWindow.loadOlder() : messageWindow.loadNewer();
             runOnUiThread(() -> {
-                messageList.add(newMessage);
-                messageAdapter.notifyItemInserted(messageList.size() - 1);
-                chatRecyclerView.scrollToPosition(messageList.size() - 1);
+                pageLoading = false;
+                if (messages != null) showMessages(messages, false);
             });
         });
+    }
 
-        String encryptedMessage = cryptoManager.encrypt(messageText, contactPublicKey);
-        if (encryptedMessage != null) {
-            sendBleMessage(encryptedMessage);
-        } else {
-            runOnUiThread(() -> Toast.makeText(this, "Encryption Failed!", Toast.LENGTH_SHORT).show());
+    // Called on the service's ingest thread once per stored batch. The batch can
+    // hold messages from other conversations; only this one's are shown. Our own
+    // messages always jump back to the newest page.
+    private void onMessagesStored(List<Message> batch) {
+        boolean sentByMe = false;
+        List<Message> ours = new ArrayList<>(batch.size());
+        for (Message message : batch) {
+            if (message.conversationId == null || message.conversationId != conversationId) continue;
+            sentByMe |= message.isSentByMe;
+            ours.add(message);
         }
+        if (ours.isEmpty()) return;
+        List<Message> messages = messageWindow.addAll(ours);
+        if (messages == null && sentByMe) {
+            messages = messageWindow.loadLatest();
+        }
+        if (messages == null) return;
+        List<Message> snapshot = messages;
+        runOnUiThread(() -> showMessages(snapshot, true));
     }
 
-    private void loadMessages() {
-        executorService.execute(() -> {
-            List<Message> loadedMessages = messageDao.getAllMessages();
-            runOnUiThread(() -> {
-                messageList.clear();
-                messageList.addAll(loadedMessages);
-                messageAdapter.notifyDataSetChanged();
-                if (!messageList.isEmpty()) {
-                    chatRecyclerView.scrollToPosition(messageList.size() - 1);
-                }
-            });
+    // Runs on the UI thread. The adapter diffs the new window against the old one
+    // off the main thread, so a page added above keeps the visible messages in place.
+    private void showMessages(List<Message> messages, boolean scrollToBottom) {
+        messageAdapter.submitList(messages, () -> {
+            if (scrollToBottom && messageAdapter.getItemCount() > 0) {
+                chatRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
+            }
         });
     }
 
+    private boolean hasBluetoothPermissions() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) == PackageManager.PERMISSION_GRANTED
+                    && ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED;
+        }
+        return ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+    }
+
     private void checkPermissions() {
         String[] permissionsToRequest;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            // Notifications only show the connection service's status; chatting works without them
+            permissionsToRequest = new String[]{ Manifest.permission.BLUETOOTH_SCAN, Manifest.permission.BLUETOOTH_CONNECT,
+                    Manifest.permission.POST_NOTIFICATIONS };
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
             permissionsToRequest = new String[]{ Manifest.permission.BLUETOOTH_SCAN, Manifest.permission.BLUETOOTH_CONNECT };
         } else {
             permissionsToRequest = new String[]{ Manifest.permission.ACCESS_FINE_LOCATION };
@@ -211,199 +305,36 @@ public class ChatActivity extends AppCompatActivity {
             Intent enableBtIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
             enableBluetoothLauncher.launch(enableBtIntent);
         } else {
-            startScanning();
+            connectToNode();
         }
     }
 
-    private void startScanning() {
-        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) return;
-
-        if (isScanning) return;
-
-        scanner = bluetoothAdapter.getBluetoothLeScanner();
-        ScanSettings scanSettings = new ScanSettings.Builder()
-                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
-                .build();
-
-        scanHandler.postDelayed(() -> {
-            if (isScanning) {
-                Log.d(TAG, "Scan timed out. Stopping scan.");
-                stopScan();
-                runOnUiThread(() -> Toast.makeText(this, "Node not found.", Toast.LENGTH_SHORT).show());
-            }
-        }, 50000); // 10 second scan timeout
-
-        isScanning = true;
-        // Scan WITHOUT filters - we will filter manually in the callback
-        scanner.startScan(null, scanSettings, scanCallback);
-        Log.d(TAG, "Scan started (no filter)...");
-        Toast.makeText(this, "Searching for your LoRa Node...", Toast.LENGTH_SHORT).show();
-    }
-
-    private void stopScan() {
-        if (isScanning && scanner != null) {
-            isScanning = false;
-            if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) return;
-            scanner.stopScan(scanCallback);
-            scanHandler.removeCallbacksAndMessages(null);
+    // Keep the service running past this screen and have it connect, unless it
+    // already is. With a node connected this is instant.
+    private void connectToNode() {
+        readyToConnect = true;
+        NodeConnectionService.start(this);
+        if (nodeService == null) return;
+        if (nodeService.getConnectionState() == MessageTransport.STATE_DISCONNECTED) {
+            Toast.makeText(this, "Searching for your LoRa Node...", Toast.LENGTH_SHORT).show();
         }
+        nodeService.connect();
     }
 
-    private void sendBleMessage(String encryptedText) {
-        if (gatt == null) {
-            Toast.makeText(this, "Not connected to LoRa Node", Toast.LENGTH_SHORT).show();
-            return;
-        }
-        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) return;
-
-        BluetoothGattService service = gatt.getService(SERVICE_UUID);
-        if (service == null) { Log.e(TAG, "Service not found!"); return; }
-        BluetoothGattCharacteristic characteristic = service.getCharacteristic(TX_CHARACTERISTIC_UUID);
-        if (characteristic == null) { Log.e(TAG, "TX Characteristic not found!"); return; }
-
-        byte[] messageBytes = encryptedText.getBytes(StandardCharsets.UTF_8);
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            gatt.writeCharacteristic(characteristic, messageBytes, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-        } else {
-            characteristic.setValue(messageBytes);
-            gatt.writeCharacteristic(characteristic);
-        }
-        runOnUiThread(() -> messageEditText.setText(""));
-    }
-
-    private void processScanResult(ScanResult result) {
-        if (!isScanning) return;
-
-        BluetoothDevice device = result.getDevice();
-        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) return;
-
-        String deviceName = device.getName();
-        Log.d(TAG, "Found BLE device: " + (deviceName != null ? deviceName : "Unnamed") + " [" + device.getAddress() + "]");
-
-        // Check if the scan result contains our Service UUID
-        List<ParcelUuid> serviceUuids = result.getScanRecord() != null ? result.getScanRecord().getServiceUuids() : null;
-        boolean foundOurService = false;
-        if (serviceUuids != null) {
-            for (ParcelUuid uuid : serviceUuids) {
-                if (uuid.getUuid().equals(SERVICE_UUID)) {
-                    foundOurService = true;
-                    break;
-                }
-            }
-        }
-
-        if (foundOurService) {
-            // We found a device advertising our service!
-            stopScan();
-            Log.d(TAG, "TARGET SERVICE FOUND! Connecting to " + (deviceName != null ? deviceName : device.getAddress()));
-
-            // Connect to the device
-            gatt = device.connectGatt(ChatActivity.this, false, gattCallback);
-        }
-    }
-
-    private final ScanCallback scanCallback = new ScanCallback() {
-        @Override
-        public void onScanResult(int callbackType, ScanResult result) {
-            processScanResult(result);
-        }
-
-        @Override
-        public void onBatchScanResults(List<ScanResult> results) {
-            if (!isScanning) return;
-            Log.d(TAG, "Received a batch of " + results.size() + " scan results.");
-            for (ScanResult result : results) {
-                processScanResult(result);
-            }
-        }
-
-        @Override
-        public void onScanFailed(int errorCode) {
-            Log.e(TAG, "BLE Scan Failed with error code: " + errorCode);
-            isScanning = false;
-        }
-    };
-
-    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                Log.d(TAG, "Connected to LoRa Node.");
-                runOnUiThread(() -> Toast.makeText(ChatActivity.this, "Connected to Node!", Toast.LENGTH_SHORT).show());
-                if (ActivityCompat.checkSelfPermission(ChatActivity.this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) return;
-                gatt.discoverServices();
-            }
-            // Add handling for disconnection if needed
-            else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                Log.d(TAG, "Disconnected from LoRa Node.");
-                runOnUiThread(() -> Toast.makeText(ChatActivity.this, "Disconnected from Node.", Toast.LENGTH_SHORT).show());
-                ChatActivity.this.gatt = null; // Clear the gatt object
-                // Optionally, restart scanning if desired:
-                // checkPermissions();
-            }
-        }
-
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.d(TAG, "Services discovered. Enabling notifications...");
-                BluetoothGattService service = gatt.getService(SERVICE_UUID);
-                if (service == null) { Log.e(TAG,"Service UUID not found!"); return; }
-                BluetoothGattCharacteristic rxChar = service.getCharacteristic(RX_CHARACTERISTIC_UUID);
-                if (rxChar == null) { Log.e(TAG,"RX Characteristic UUID not found!"); return; }
-
-                if (ActivityCompat.checkSelfPermission(ChatActivity.this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) return;
-                gatt.setCharacteristicNotification(rxChar, true);
-
-                BluetoothGattDescriptor descriptor = rxChar.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG_UUID);
-                if (descriptor == null) { Log.e(TAG,"CCC Descriptor not found!"); return; }
-
-                descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                gatt.writeDescriptor(descriptor);
-                Log.d(TAG, "Enabled notifications for RX characteristic.");
-            } else {
-                Log.w(TAG, "onServicesDiscovered received: " + status);
-            }
-        }
-
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            if (characteristic.getUuid().equals(RX_CHARACTERISTIC_UUID)) {
-                String encryptedMessage = new String(characteristic.getValue(), StandardCharsets.UTF_8);
-                Log.d(TAG, "Received encrypted message from node.");
-
-                String decryptedMessage = cryptoManager.decrypt(encryptedMessage);
-                if (decryptedMessage != null) {
-                    Log.d(TAG, "Decryption successful.");
-                    Message receivedMessage = new Message(decryptedMessage, System.currentTimeMillis(), false);
-                    executorService.execute(() -> {
-                        messageDao.insert(receivedMessage);
-                        runOnUiThread(() -> {
-                            messageList.add(receivedMessage);
-                            messageAdapter.notifyItemInserted(messageList.size() - 1);
-                            chatRecyclerView.scrollToPosition(messageList.size() - 1);
-                        });
-                    });
-                } else {
-                    Log.e(TAG, "Decryption failed!");
-                }
-            }
-        }
-    };
-
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        stopScan();
-        if (gatt != null) {
-            if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) return;
-            gatt.close();
-            gatt = null;
+        if (nodeService != null) {
+            nodeService.removeListener(nodeListener);
+            nodeService = null;
+        }
+        if (serviceBound) {
+            // The connection stays up in the service
+            unbindService(serviceConnection);
+            serviceBound = false;
         }
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdown();
         }
     }
 }
-
@@ -1,5 +1,6 @@
 package com.capstone.testapp;
 
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.PrimaryKey;
 
@@ -11,9 +12,14 @@ public class Contact {
     public String name;
     public String publicKey; // This field is now added
 
+    // Key id of publicKey (CryptoManager.keyIdOf), which senders put in every frame
+    // header. Set by ContactDirectory when the contact is added.
+    @ColumnInfo(index = true, defaultValue = "0")
+    public int fingerprint;
+
     // The constructor is updated to accept the publicKey
     public Contact(String name, String publicKey) {
         this.name = name;
         this.publicKey = publicKey;
     }
-}
\ No newline at end of file
+}
@@ -8,9 +8,13 @@ import java.util.List;
 
 @Dao
 public interface ContactDao {
+    // Returns the new row id. Add contacts through ContactDirectory so its cache stays current.
     @Insert
-    void insert(Contact contact);
+    long insert(Contact contact);
 
     @Query("SELECT * FROM contacts ORDER BY name ASC")
     List<Contact> getAllContacts();
-}
\ No newline at end of file
+
+    @Query("UPDATE contacts SET fingerprint = :fingerprint WHERE id = :id")
+    void setFingerprint(int id, int fingerprint);
+}
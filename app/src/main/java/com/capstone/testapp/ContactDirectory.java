@@ -0,0 +1,82 @@
+package com.capstone.testapp;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// In-memory index of contacts by key fingerprint, used to work out who sent an
+// incoming frame from the sender key id in its header.
+// All contacts are read once, on first use; after that a lookup is one HashMap
+// get and never touches the database. Contacts added through insert() go into
+// the map as well, so it stays current without reloading.
+//
+// Fingerprints are 32 bits, so two keys can collide; the contact added first
+// keeps the fingerprint and frames from the other can't be told apart from it.
+public class ContactDirectory {
+
+    public interface Fingerprinter {
+        int fingerprintOf(String publicKey);
+    }
+
+    private final ContactDao contactDao;
+    private final Fingerprinter fingerprinter;
+
+    // Guarded by this; null until loaded
+    private Map<Integer, Contact> byFingerprint;
+
+    public ContactDirectory(ContactDao contactDao, Fingerprinter fingerprinter) {
+        this.contactDao = contactDao;
+        this.fingerprinter = fingerprinter;
+    }
+
+    // The contact whose public key has this fingerprint, or null if there is none.
+    // The first call reads the contacts table; do it off the main thread, or call
+    // load() early.
+    public synchronized Contact findByFingerprint(int fingerprint) {
+        load();
+        return byFingerprint.get(fingerprint);
+    }
+
+    // Stores a new contact, with its fingerprint, and adds it to the cache.
+    // Returns the contact's id. If its fingerprint was already taken, the
+    // contact is stored but findByFingerprint() keeps returning the other one.
+    public synchronized int insert(Contact contact) {
+        load();
+        contact.fingerprint = fingerprinter.fingerprintOf(contact.publicKey);
+        contact.id = (int) contactDao.insert(contact);
+        put(contact);
+        return contact.id;
+    }
+
+    // Reads all contacts into the cache if that hasn't happened yet. Contacts
+    // saved before fingerprints existed get theirs computed and stored here.
+    // Returns how many contacts were left out, because their public key is
+    // unreadable or their fingerprint was taken; 0 if already loaded.
+    public synchronized int load() {
+        if (byFingerprint != null) return 0;
+        List<Contact> contacts = contactDao.getAllContacts();
+        byFingerprint = new HashMap<>(contacts.size() * 2);
+        int skipped = 0;
+        for (Contact contact : contacts) {
+            if (contact.fingerprint == 0 && contact.publicKey != null) {
+                try {
+                    contact.fingerprint = fingerprinter.fingerprintOf(contact.publicKey);
+                    contactDao.setFingerprint(contact.id, contact.fingerprint);
+                } catch (RuntimeException e) {
+                    skipped++;
+                    continue;
+                }
+            }
+            if (!put(contact)) skipped++;
+        }
+        return skipped;
+    }
+
+    // Returns false if another contact already has this fingerprint
+    private boolean put(Contact contact) {
+        Contact existing = byFingerprint.get(contact.fingerprint);
+        if (existing != null && existing.id != contact.id) return false;
+        byFingerprint.put(contact.fingerprint, contact);
+        return true;
+    }
+}
@@ -4,12 +4,16 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Base64;
 import android.util.Log;
+import android.util.LruCache;
 
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.interfaces.RSAKey;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 
@@ -22,6 +26,28 @@ public class CryptoManager {
     private static final String PUBLIC_KEY_PREF = "public_key";
     private static final String PRIVATE_KEY_PREF = "private_key";
 
+    // A content key is reused for this many messages to the same contact before
+    // a new one is generated and wrapped again.
+    private static final int CONTENT_KEY_MAX_MESSAGES = 256;
+
+    // Shared across instances because every Activity creates its own CryptoManager.
+    // Sending side: contact public key -> current content key, for the contacts
+    // written to most recently. An evicted contact just gets a fresh content key.
+    private static final int CONTENT_KEY_CACHE_SIZE = 32;
+    private static final LruCache<String, HybridCipher.ContentKey> contentKeys =
+            new LruCache<>(CONTENT_KEY_CACHE_SIZE);
+    // Receiving side: remembers content keys we already unwrapped
+    private static final HybridCipher hybridCipher = new HybridCipher();
+
+    // Parsing a contact key means Base64 + X.509 decoding, so parsed keys are kept
+    // in a bounded LRU cache keyed by the contact's encoded public key.
+    private static final int PUBLIC_KEY_CACHE_SIZE = 32;
+    private static final LruCache<String, PublicKey> publicKeyCache = new LruCache<>(PUBLIC_KEY_CACHE_SIZE);
+
+    // Our own private key, parsed from SharedPreferences on first use
+    private static volatile PrivateKey cachedPrivateKey;
+    private static volatile int privateKeyLoads;
+
     private SharedPreferences sharedPreferences;
 
     public CryptoManager(Context context) {
@@ -42,6 +68,7 @@ public class CryptoManager {
                     .putString(PUBLIC_KEY_PREF, publicKeyStr)
                     .putString(PRIVATE_KEY_PREF, privateKeyStr)
                     .apply();
+            cachedPrivateKey = keyPair.getPrivate();
             Log.d(TAG, "Keys generated and saved successfully.");
         } catch (Exception e) {
             Log.e(TAG, "Error generating keys", e);
@@ -58,42 +85,146 @@ public class CryptoManager {
         return sharedPreferences.getString(PUBLIC_KEY_PREF, null);
     }
 
-    // Encrypt a message with a given public key
+    // Short id of our own public key, sent in every frame header
+    public int getKeyId() {
+        return keyIdOf(getPublicKeyString());
+    }
+
+    // A key id is the first 4 bytes of the SHA-256 of the encoded public key.
+    // Hashing the decoded bytes makes it independent of Base64 line wrapping.
+    // Throws IllegalArgumentException if the key isn't valid Base64.
+    public static int keyIdOf(String publicKeyStr) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(Base64.decode(publicKeyStr, Base64.DEFAULT));
+            return ((digest[0] & 0xFF) << 24) | ((digest[1] & 0xFF) << 16)
+                    | ((digest[2] & 0xFF) << 8) | (digest[3] & 0xFF);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // Encrypt a message for a contact using a hybrid RSA + AES-GCM envelope.
+    // Returns null if encryption fails.
     public String encrypt(String plainText, String publicKeyStr) {
         try {
-            byte[] publicKeyBytes = Base64.decode(publicKeyStr, Base64.DEFAULT);
-            X509EncodedKeySpec keySpec = new X509EncodedKeySpec(publicKeyBytes);
-            KeyFactory keyFactory = KeyFactory.getInstance(ALGORITHM);
-            PublicKey publicKey = keyFactory.generatePublic(keySpec);
-
-            Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
-            cipher.init(Cipher.ENCRYPT_MODE, publicKey);
-            byte[] encryptedBytes = cipher.doFinal(plainText.getBytes("UTF-8"));
-            return Base64.encodeToString(encryptedBytes, Base64.DEFAULT);
+            HybridCipher.ContentKey contentKey = getContentKey(publicKeyStr);
+            byte[] envelope = HybridCipher.seal(contentKey, plainText.getBytes("UTF-8"));
+            return Base64.encodeToString(envelope, Base64.DEFAULT);
         } catch (Exception e) {
             Log.e(TAG, "Error encrypting", e);
             return null;
         }
     }
 
-    // Decrypt a message with the user's own private key
+    // Reuse the current content key for this contact, or make a new one
+    private HybridCipher.ContentKey getContentKey(String publicKeyStr) throws Exception {
+        synchronized (contentKeys) {
+            HybridCipher.ContentKey contentKey = contentKeys.get(publicKeyStr);
+            if (contentKey == null || contentKey.getMessagesSealed() >= CONTENT_KEY_MAX_MESSAGES) {
+                contentKey = HybridCipher.newContentKey(parsePublicKey(publicKeyStr));
+                contentKeys.put(publicKeyStr, contentKey);
+            }
+            return contentKey;
+        }
+    }
+
+    private PublicKey parsePublicKey(String publicKeyStr) throws Exception {
+        PublicKey publicKey = publicKeyCache.get(publicKeyStr);
+        if (publicKey != null) return publicKey;
+
+        byte[] publicKeyBytes = Base64.decode(publicKeyStr, Base64.DEFAULT);
+        X509EncodedKeySpec keySpec = new X509EncodedKeySpec(publicKeyBytes);
+        KeyFactory keyFactory = KeyFactory.getInstance(ALGORITHM);
+        publicKey = keyFactory.generatePublic(keySpec);
+        publicKeyCache.put(publicKeyStr, publicKey);
+        return publicKey;
+    }
+
+    // Load and parse our private key once; later calls return the cached key
+    private PrivateKey getPrivateKey() throws Exception {
+        PrivateKey privateKey = cachedPrivateKey;
+        if (privateKey != null) return privateKey;
+
+        synchronized (CryptoManager.class) {
+            if (cachedPrivateKey == null) {
+                String privateKeyStr = sharedPreferences.getString(PRIVATE_KEY_PREF, null);
+                if (privateKeyStr == null) return null;
+
+                byte[] privateKeyBytes = Base64.decode(privateKeyStr, Base64.DEFAULT);
+                PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(privateKeyBytes);
+                KeyFactory keyFactory = KeyFactory.getInstance(ALGORITHM);
+                cachedPrivateKey = keyFactory.generatePrivate(keySpec);
+                privateKeyLoads++;
+            }
+            return cachedPrivateKey;
+        }
+    }
+
+    // Decrypt a message with the user's own private key.
+    // Handles both hybrid envelopes and legacy raw RSA ciphertexts.
     public String decrypt(String encryptedText) {
         try {
-            String privateKeyStr = sharedPreferences.getString(PRIVATE_KEY_PREF, null);
-            if (privateKeyStr == null) return null;
-
-            byte[] privateKeyBytes = Base64.decode(privateKeyStr, Base64.DEFAULT);
-            PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(privateKeyBytes);
-            KeyFactory keyFactory = KeyFactory.getInstance(ALGORITHM);
-            PrivateKey privateKey = keyFactory.generatePrivate(keySpec);
-
-            Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
-            cipher.init(Cipher.DECRYPT_MODE, privateKey);
-            byte[] decryptedBytes = cipher.doFinal(Base64.decode(encryptedText, Base64.DEFAULT));
-            return new String(decryptedBytes, "UTF-8");
+            byte[] decryptedBytes = decrypt(Base64.decode(encryptedText, Base64.DEFAULT));
+            return decryptedBytes != null ? new String(decryptedBytes, "UTF-8") : null;
         } catch (Exception e) {
             Log.e(TAG, "Error decrypting", e);
             return null;
         }
     }
-}
\ No newline at end of file
+
+    // Byte-level version of decrypt(String); returns null on failure
+    public byte[] decrypt(byte[] encryptedBytes) {
+        try {
+            PrivateKey privateKey = getPrivateKey();
+            if (privateKey == null) return null;
+
+            int rsaBlockLength = (((RSAKey) privateKey).getModulus().bitLength() + 7) / 8;
+            if (HybridCipher.isEnvelope(encryptedBytes, rsaBlockLength)) {
+                return hybridCipher.open(encryptedBytes, privateKey);
+            }
+            return unwrap(encryptedBytes);
+        } catch (Exception e) {
+            Log.e(TAG, "Error decrypting", e);
+            return null;
+        }
+    }
+
+    // RSA-encrypt a small secret (e.g. a session seed) for a contact
+    public byte[] wrapForContact(byte[] secret, String publicKeyStr) throws Exception {
+        Cipher cipher = HybridCipher.rsaCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, parsePublicKey(publicKeyStr));
+        return cipher.doFinal(secret);
+    }
+
+    // RSA-decrypt a secret that was wrapped with our public key
+    public byte[] unwrap(byte[] wrapped) throws Exception {
+        PrivateKey privateKey = getPrivateKey();
+        if (privateKey == null) throw new IllegalStateException("No private key");
+
+        Cipher cipher = HybridCipher.rsaCipher();
+        cipher.init(Cipher.DECRYPT_MODE, privateKey);
+        return cipher.doFinal(wrapped);
+    }
+
+    // --- Cache statistics, handy for checking hit rates in logcat ---
+    public static int getPublicKeyCacheHits() {
+        return publicKeyCache.hitCount();
+    }
+
+    public static int getPublicKeyCacheMisses() {
+        return publicKeyCache.missCount();
+    }
+
+    public static int getPrivateKeyLoads() {
+        return privateKeyLoads;
+    }
+
+    public static long getContentKeyCacheHits() {
+        return hybridCipher.getUnwrapHits();
+    }
+
+    public static long getContentKeyCacheMisses() {
+        return hybridCipher.getUnwrapMisses();
+    }
+}
@@ -0,0 +1,188 @@
+package com.capstone.testapp;
+
+// Forward error correction for encoded frames, so a frame that picked up a few
+// bad bytes on a marginal LoRa link still arrives instead of costing a
+// retransmission, i.e. a full round trip of airtime.
+//
+// Layout: [marker (1)] three times, then the frame and the Reed-Solomon parity.
+// The marker is 0xF0 | level. A receiver takes the bitwise majority of the three
+// copies, so one bad copy does no harm. The frame is cut into as few codewords of
+// at most 255 bytes as it needs, with the data spread evenly over them. Bytes
+// are interleaved across codewords, so a burst of errors is shared between them.
+// The parity of every codeword follows the data, interleaved the same way.
+//
+// Level 0 sends the frame as it is, with no marker. A Frame starts with its
+// version and type, whose upper four bits are zero, so the majority of its
+// first three bytes never looks like a marker.
+//
+// Pure Java so it can be unit tested and benchmarked.
+public final class FecCodec {
+
+    public static final int LEVEL_NONE = 0;
+    public static final int MAX_LEVEL = 3;
+    // Parity bytes per codeword at each level. A codeword corrects half as many
+    // bad bytes, or as many bad bytes whose positions are known (erasures).
+    private static final int[] PARITY_LENGTHS = {0, 8, 16, 32};
+    public static final int HEADER_LENGTH = 3;
+    private static final int MARKER = 0xF0;
+
+    private static final ReedSolomon[] CODES = new ReedSolomon[MAX_LEVEL + 1];
+
+    static {
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            CODES[level] = new ReedSolomon(PARITY_LENGTHS[level]);
+        }
+    }
+
+    // What decode() recovered
+    public static final class Decoded {
+        public final byte[] frame;
+        public final int level;
+        // Bytes the parity had to correct, and how many it could have
+        public final int corrected;
+        public final int correctable;
+
+        Decoded(byte[] frame, int level, int corrected, int correctable) {
+            this.frame = frame;
+            this.level = level;
+            this.corrected = corrected;
+            this.correctable = correctable;
+        }
+    }
+
+    private FecCodec() {
+    }
+
+    public static int getParityLength(int level) {
+        checkLevel(level);
+        return PARITY_LENGTHS[level];
+    }
+
+    // Length of a frame once encoded at the given level
+    public static int getEncodedLength(int frameLength, int level) {
+        checkLevel(level);
+        if (level == LEVEL_NONE) return frameLength;
+        int parity = PARITY_LENGTHS[level];
+        return HEADER_LENGTH + frameLength + codewordCount(frameLength, parity) * parity;
+    }
+
+    // Longest frame whose encoded length fits in encodedLength at any level
+    public static int getMaxFrameLength(int encodedLength) {
+        int parity = PARITY_LENGTHS[MAX_LEVEL];
+        int dataPerCodeword = ReedSolomon.MAX_CODEWORD_LENGTH - parity;
+        return Math.max(0, (encodedLength - HEADER_LENGTH - parity) * dataPerCodeword
+                / ReedSolomon.MAX_CODEWORD_LENGTH);
+    }
+
+    public static byte[] encode(byte[] frame, int level) {
+        checkLevel(level);
+        if (level == LEVEL_NONE) return frame;
+        if (frame.length == 0) throw new IllegalArgumentException("Empty frame");
+        int parityLength = PARITY_LENGTHS[level];
+        int codewords = codewordCount(frame.length, parityLength);
+        byte[] out = new byte[getEncodedLength(frame.length, level)];
+        for (int i = 0; i < HEADER_LENGTH; i++) {
+            out[i] = (byte) (MARKER | level);
+        }
+
+        byte[] data = new byte[ReedSolomon.MAX_CODEWORD_LENGTH];
+        byte[] parity = new byte[parityLength];
+        for (int c = 0; c < codewords; c++) {
+            int dataLength = dataLength(frame.length, codewords, c);
+            for (int i = 0; i < dataLength; i++) {
+                data[i] = frame[c + i * codewords];
+            }
+            CODES[level].encode(data, 0, dataLength, parity, 0);
+            for (int i = 0; i < parityLength; i++) {
+                out[HEADER_LENGTH + frame.length + c + i * codewords] = parity[i];
+            }
+        }
+        System.arraycopy(frame, 0, out, HEADER_LENGTH, frame.length);
+        return out;
+    }
+
+    // Decode and correct what encode() produced. Anything without a marker is
+    // returned as a level 0 frame. Returns null if there are too many errors.
+    public static Decoded decode(byte[] data) {
+        return decode(data, null);
+    }
+
+    // As above, with the positions of bytes known to be bad
+    public static Decoded decode(byte[] data, int[] erasures) {
+        if (data == null) return null;
+        int level = levelOf(data);
+        if (level == LEVEL_NONE) return new Decoded(data, LEVEL_NONE, 0, 0);
+        int parityLength = PARITY_LENGTHS[level];
+        int encodedLength = data.length - HEADER_LENGTH;
+        int codewords = (encodedLength + ReedSolomon.MAX_CODEWORD_LENGTH - 1) / ReedSolomon.MAX_CODEWORD_LENGTH;
+        int frameLength = encodedLength - codewords * parityLength;
+        if (frameLength < codewords) return null;
+
+        byte[] frame = new byte[frameLength];
+        int corrected = 0;
+        for (int c = 0; c < codewords; c++) {
+            int dataLength = dataLength(frameLength, codewords, c);
+            byte[] codeword = new byte[dataLength + parityLength];
+            for (int i = 0; i < dataLength; i++) {
+                codeword[i] = data[HEADER_LENGTH + c + i * codewords];
+            }
+            for (int i = 0; i < parityLength; i++) {
+                codeword[dataLength + i] = data[HEADER_LENGTH + frameLength + c + i * codewords];
+            }
+            int fixed = CODES[level].decode(codeword,
+                    erasuresIn(erasures, frameLength, codewords, c, dataLength));
+            if (fixed < 0) return null;
+            corrected += fixed;
+            for (int i = 0; i < dataLength; i++) {
+                frame[c + i * codewords] = codeword[i];
+            }
+        }
+        return new Decoded(frame, level, corrected, codewords * parityLength / 2);
+    }
+
+    // The level in the marker, or LEVEL_NONE if there is no marker
+    static int levelOf(byte[] data) {
+        if (data.length <= HEADER_LENGTH) return LEVEL_NONE;
+        int a = data[0] & 0xFF;
+        int b = data[1] & 0xFF;
+        int c = data[2] & 0xFF;
+        int marker = (a & b) | (a & c) | (b & c);
+        if ((marker & MARKER) != MARKER) return LEVEL_NONE;
+        int level = marker & ~MARKER;
+        return level >= 1 && level <= MAX_LEVEL ? level : LEVEL_NONE;
+    }
+
+    // Positions within codeword c of the erasures that fall in it
+    private static int[] erasuresIn(int[] erasures, int frameLength, int codewords, int c, int dataLength) {
+        if (erasures == null) return null;
+        int count = 0;
+        int[] positions = new int[erasures.length];
+        for (int erasure : erasures) {
+            int q = erasure - HEADER_LENGTH;
+            if (q < 0) continue;
+            if (q < frameLength) {
+                if (q % codewords == c) positions[count++] = q / codewords;
+            } else {
+                int p = q - frameLength;
+                if (p % codewords == c) positions[count++] = dataLength + p / codewords;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(positions, 0, result, 0, count);
+        return result;
+    }
+
+    private static int codewordCount(int frameLength, int parityLength) {
+        int dataPerCodeword = ReedSolomon.MAX_CODEWORD_LENGTH - parityLength;
+        return Math.max(1, (frameLength + dataPerCodeword - 1) / dataPerCodeword);
+    }
+
+    // Codeword c gets every codewords-th byte of the frame, starting at c
+    private static int dataLength(int frameLength, int codewords, int c) {
+        return (frameLength - c + codewords - 1) / codewords;
+    }
+
+    private static void checkLevel(int level) {
+        if (level < LEVEL_NONE || level > MAX_LEVEL) throw new IllegalArgumentException("Bad FEC level: " + level);
+    }
+}
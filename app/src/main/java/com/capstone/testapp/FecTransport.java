@@ -0,0 +1,159 @@
+package com.capstone.testapp;
+
+// MessageTransport that adds forward error correction (see FecCodec) to the
+// frames it hands to another one, and strips it from the ones it receives.
+// Frames that can't be corrected are dropped here, as if lost on air. Frames
+// without FEC pass through, so peers at any level understand each other.
+//
+// The level is per link. When adaptive, it follows how hard the parity of the
+// frames we receive had to work: the link is taken to be about as bad in both
+// directions. The load of a frame is the share of its correctable bytes that
+// were used, or 1 if it couldn't be corrected. The level goes up when the
+// average load passes RAISE_LOAD, and down again after LOWER_AFTER_FRAMES quiet
+// frames. It never goes below MIN_ADAPTIVE_LEVEL, since with no parity at all
+// there is nothing to measure.
+//
+// This only helps if the node passes on LoRa packets that failed their CRC; a
+// node that drops them turns every bad byte into a lost frame.
+public class FecTransport implements MessageTransport {
+
+    public static final int MIN_ADAPTIVE_LEVEL = 1;
+    // Weight of the newest frame in the average load
+    private static final double LOAD_ALPHA = 0.2;
+    private static final double RAISE_LOAD = 0.5;
+    private static final double LOWER_LOAD = 0.1;
+    private static final int LOWER_AFTER_FRAMES = 20;
+
+    public interface LevelListener {
+        // Adaptation moved the level; called on the receiving thread
+        void onLevelChanged(int oldLevel, int newLevel, double load);
+    }
+
+    private final MessageTransport inner;
+    private final boolean adaptive;
+    private volatile LevelListener levelListener;
+
+    private volatile int level;
+    // Guarded by this
+    private double load;
+    private int framesAtLevel;
+    private long framesCorrected;
+    private long framesUncorrectable;
+
+    public FecTransport(MessageTransport inner, int level, boolean adaptive) {
+        FecCodec.getParityLength(level);
+        this.inner = inner;
+        this.level = level;
+        this.adaptive = adaptive;
+    }
+
+    @Override
+    public void connect() {
+        inner.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        inner.disconnect();
+    }
+
+    @Override
+    public boolean send(byte[] frame) {
+        if (frame.length > getMaxFrameLength()) return false;
+        return inner.send(FecCodec.encode(frame, level));
+    }
+
+    @Override
+    public int getState() {
+        return inner.getState();
+    }
+
+    @Override
+    public int getMaxFrameLength() {
+        return FecCodec.getMaxFrameLength(inner.getMaxFrameLength());
+    }
+
+    @Override
+    public void setFrameListener(FrameListener listener) {
+        if (listener == null) {
+            inner.setFrameListener(null);
+            return;
+        }
+        inner.setFrameListener(data -> {
+            FecCodec.Decoded decoded = FecCodec.decode(data);
+            if (decoded == null) {
+                onReceived(FecCodec.LEVEL_NONE, 1);
+                return;
+            }
+            if (decoded.level != FecCodec.LEVEL_NONE) {
+                onReceived(decoded.level, decoded.corrected / (double) decoded.correctable);
+            }
+            listener.onFrameReceived(decoded.frame);
+        });
+    }
+
+    @Override
+    public void setConnectionListener(ConnectionListener listener) {
+        inner.setConnectionListener(listener);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    // E.g. from settings; adaptation, if on, carries on from here
+    public synchronized void setLevel(int level) {
+        FecCodec.getParityLength(level);
+        this.level = level;
+        load = 0;
+        framesAtLevel = 0;
+    }
+
+    public void setLevelListener(LevelListener listener) {
+        levelListener = listener;
+    }
+
+    public synchronized long getFramesCorrected() {
+        return framesCorrected;
+    }
+
+    public synchronized long getFramesUncorrectable() {
+        return framesUncorrectable;
+    }
+
+    private void onReceived(int frameLevel, double frameLoad) {
+        int oldLevel;
+        int newLevel;
+        double loadBefore;
+        synchronized (this) {
+            if (frameLoad >= 1) {
+                framesUncorrectable++;
+            } else if (frameLoad > 0) {
+                framesCorrected++;
+            }
+            if (!adaptive) return;
+            load += LOAD_ALPHA * (frameLoad - load);
+            framesAtLevel++;
+            oldLevel = level;
+            loadBefore = load;
+            if (load > RAISE_LOAD && level < FecCodec.MAX_LEVEL) {
+                // The sender's level says how much the frame could take; ours may be higher already
+                setAdaptiveLevel(Math.max(level, frameLevel) + 1);
+            } else if (load < LOWER_LOAD && framesAtLevel >= LOWER_AFTER_FRAMES && level > MIN_ADAPTIVE_LEVEL) {
+                setAdaptiveLevel(level - 1);
+            }
+            newLevel = level;
+        }
+        LevelListener listener = levelListener;
+        if (newLevel != oldLevel && listener != null) listener.onLevelChanged(oldLevel, newLevel, loadBefore);
+    }
+
+    private void setAdaptiveLevel(int newLevel) {
+        newLevel = Math.min(FecCodec.MAX_LEVEL, newLevel);
+        if (newLevel == level) return;
+        level = newLevel;
+        // Half way, so a bad link doesn't skip straight to the top
+        load /= 2;
+        framesAtLevel = 0;
+    }
+}
@@ -0,0 +1,167 @@
+package com.capstone.testapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Splits frames into chunks that fit a single GATT write/notification and
+// puts them back together on the other side.
+//
+// Chunk layout: [frame sequence (1)][chunk index (1)][chunk count (1)][data]
+//
+// A GATT write can carry (MTU - 3) bytes, so each chunk holds MTU - 6 bytes of
+// frame data. With at most 255 chunks per frame that is ~4 KB at the default
+// MTU of 23 and ~127 KB at the maximum MTU of 517.
+//
+// Pure Java (no Android types) so it can be unit tested with simulated MTUs.
+public final class Fragmenter {
+
+    public static final int DEFAULT_MTU = 23;
+    public static final int MAX_MTU = 517;
+    public static final int ATT_HEADER_LENGTH = 3;
+    public static final int CHUNK_HEADER_LENGTH = 3;
+    private static final int MAX_CHUNKS = 255;
+    // How far (in frame sequence numbers) chunks of different frames may be reordered.
+    // Partial frames further behind the newest sequence than this are abandoned, so
+    // they cannot merge with a later frame once the 8-bit sequence number wraps.
+    private static final int REORDER_WINDOW = 64;
+
+    private int nextSequence;
+
+    // Largest frame that can be sent at the given MTU
+    public static int maxFrameLength(int mtu) {
+        return MAX_CHUNKS * chunkDataLength(mtu);
+    }
+
+    private static int chunkDataLength(int mtu) {
+        if (mtu < DEFAULT_MTU || mtu > MAX_MTU) {
+            throw new IllegalArgumentException("MTU out of range: " + mtu);
+        }
+        return mtu - ATT_HEADER_LENGTH - CHUNK_HEADER_LENGTH;
+    }
+
+    // Split one encoded frame into chunks for the given MTU
+    public synchronized List<byte[]> fragment(byte[] frame, int mtu) {
+        int dataLength = chunkDataLength(mtu);
+        int count = Math.max(1, (frame.length + dataLength - 1) / dataLength);
+        if (count > MAX_CHUNKS) {
+            throw new IllegalArgumentException("Frame of " + frame.length + " bytes is too large for MTU " + mtu);
+        }
+
+        int sequence = nextSequence;
+        nextSequence = (nextSequence + 1) & 0xFF;
+
+        List<byte[]> chunks = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            int offset = index * dataLength;
+            int length = Math.min(dataLength, frame.length - offset);
+            byte[] chunk = new byte[CHUNK_HEADER_LENGTH + length];
+            chunk[0] = (byte) sequence;
+            chunk[1] = (byte) index;
+            chunk[2] = (byte) count;
+            System.arraycopy(frame, offset, chunk, CHUNK_HEADER_LENGTH, length);
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    // Receiving side. Not thread safe; feed it from one callback thread.
+    public static final class Reassembler {
+
+        private final long timeoutMillis;
+        // Frame sequence -> chunks received so far
+        private final Map<Integer, PartialFrame> partialFrames = new HashMap<>();
+        private int expiredFrames;
+
+        public Reassembler(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        // Add a chunk. Returns the complete frame once its last chunk arrives,
+        // otherwise null. Malformed and duplicate chunks are ignored.
+        public byte[] accept(byte[] chunk, long nowMillis) {
+            expire(nowMillis);
+            if (chunk == null || chunk.length < CHUNK_HEADER_LENGTH) return null;
+
+            int sequence = chunk[0] & 0xFF;
+            int index = chunk[1] & 0xFF;
+            int count = chunk[2] & 0xFF;
+            if (count == 0 || index >= count) return null;
+
+            dropStale(sequence);
+            byte[] data = Arrays.copyOfRange(chunk, CHUNK_HEADER_LENGTH, chunk.length);
+            if (count == 1) {
+                partialFrames.remove(sequence);
+                return data;
+            }
+
+            PartialFrame partial = partialFrames.get(sequence);
+            if (partial == null || partial.chunks.length != count) {
+                // New frame, or the sequence number wrapped around onto a stale partial
+                partial = new PartialFrame(count, nowMillis);
+                partialFrames.put(sequence, partial);
+            }
+            if (partial.chunks[index] == null) {
+                partial.chunks[index] = data;
+                partial.received++;
+                partial.totalLength += data.length;
+            }
+            if (partial.received < count) return null;
+
+            partialFrames.remove(sequence);
+            byte[] frame = new byte[partial.totalLength];
+            int offset = 0;
+            for (byte[] part : partial.chunks) {
+                System.arraycopy(part, 0, frame, offset, part.length);
+                offset += part.length;
+            }
+            return frame;
+        }
+
+        // Drop partial frames whose first chunk arrived more than timeoutMillis ago
+        public void expire(long nowMillis) {
+            Iterator<PartialFrame> iterator = partialFrames.values().iterator();
+            while (iterator.hasNext()) {
+                if (nowMillis - iterator.next().startedAt > timeoutMillis) {
+                    iterator.remove();
+                    expiredFrames++;
+                }
+            }
+        }
+
+        // Drop partial frames too far behind the given sequence number to still be in flight
+        private void dropStale(int sequence) {
+            Iterator<Integer> iterator = partialFrames.keySet().iterator();
+            while (iterator.hasNext()) {
+                int behind = (sequence - iterator.next()) & 0xFF;
+                if (behind >= REORDER_WINDOW && behind <= 0x100 - REORDER_WINDOW) {
+                    iterator.remove();
+                    expiredFrames++;
+                }
+            }
+        }
+
+        public int getPendingFrameCount() {
+            return partialFrames.size();
+        }
+
+        public int getExpiredFrameCount() {
+            return expiredFrames;
+        }
+
+        private static final class PartialFrame {
+            final byte[][] chunks;
+            final long startedAt;
+            int received;
+            int totalLength;
+
+            PartialFrame(int count, long startedAt) {
+                this.chunks = new byte[count][];
+                this.startedAt = startedAt;
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.capstone.testapp;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+// Binary frame exchanged with the LoRa node over the TX/RX characteristics.
+// Replaces the old Base64-in-UTF-8 text frames, which were ~35% larger.
+//
+// Layout (big-endian, 23 byte header):
+// [version (1)][type (1)][flags (1)][sender key id (4)][destination key id (4)]
+// [message id (8)][ttl (1)][hops (1)][payload length (2)][payload]
+//
+// Destination, ttl and hops are for relaying through the mesh (see RelayEngine).
+// Version 1 frames, without them, still decode: they are treated as broadcast
+// with a ttl of 0, so they are delivered but never relayed.
+public final class Frame {
+
+    public static final int VERSION = 2;
+    public static final int HEADER_LENGTH = 23;
+    public static final int V1_HEADER_LENGTH = 17;
+    public static final int MAX_PAYLOAD_LENGTH = 0xFFFF;
+
+    // Destination key id of frames meant for everyone
+    public static final int BROADCAST = 0;
+    // Hops a new frame may be relayed over
+    public static final int DEFAULT_TTL = 7;
+    public static final int MAX_TTL = 0xFF;
+
+    // Frame types
+    public static final int TYPE_CHAT = 1;
+    // Acknowledges chat frames; the payload lists their message ids (see ReliableSender)
+    public static final int TYPE_ACK = 2;
+    // Several frames sent as one, so they share a LoRa packet's preamble and header.
+    // The payload is each encoded frame after its length (2 bytes). The next hop
+    // unpacks it (see RelayEngine); a bundle is never relayed as a whole, so it
+    // goes out with a ttl of 0 and no sender.
+    public static final int TYPE_BUNDLE = 3;
+    // Bytes each frame adds to a bundle besides its own
+    public static final int BUNDLE_ENTRY_OVERHEAD = 2;
+
+    // Flags, for transport concerns only: they travel in the clear and relays can
+    // change them. Compression is marked inside the encrypted plaintext instead
+    // (see MessageCompressor).
+    // The upper four bits count retransmissions of the same message id, so relays
+    // can tell a resend from a duplicate (see getAttempt())
+    private static final int ATTEMPT_SHIFT = 4;
+    public static final int MAX_ATTEMPT = 0x0F;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    public final int type;
+    public final int flags;
+    public final int senderKeyId;
+    public final int destinationKeyId;
+    public final long messageId;
+    // Hops left; a relay forwards the frame only while this is above 0
+    public final int ttl;
+    // Hops taken so far
+    public final int hops;
+    public final byte[] payload;
+
+    // A broadcast frame with the default ttl
+    public Frame(int type, int flags, int senderKeyId, long messageId, byte[] payload) {
+        this(type, flags, senderKeyId, BROADCAST, messageId, DEFAULT_TTL, 0, payload);
+    }
+
+    public Frame(int type, int flags, int senderKeyId, int destinationKeyId, long messageId,
+                 int ttl, int hops, byte[] payload) {
+        if (payload.length > MAX_PAYLOAD_LENGTH) {
+            throw new IllegalArgumentException("Payload too large: " + payload.length);
+        }
+        if (ttl < 0 || ttl > MAX_TTL || hops < 0 || hops > 0xFF) {
+            throw new IllegalArgumentException("Bad ttl/hops: " + ttl + "/" + hops);
+        }
+        this.type = type;
+        this.flags = flags;
+        this.senderKeyId = senderKeyId;
+        this.destinationKeyId = destinationKeyId;
+        this.messageId = messageId;
+        this.ttl = ttl;
+        this.hops = hops;
+        this.payload = payload;
+    }
+
+    public static long newMessageId() {
+        return RANDOM.nextLong();
+    }
+
+    // The same frame after one more hop. Only valid while ttl > 0.
+    public Frame nextHop() {
+        return new Frame(type, flags, senderKeyId, destinationKeyId, messageId, ttl - 1, Math.min(hops + 1, 0xFF), payload);
+    }
+
+    // 0 for the first transmission of a message, 1 for its first retransmission, ...
+    public int getAttempt() {
+        return (flags >> ATTEMPT_SHIFT) & MAX_ATTEMPT;
+    }
+
+    // The same frame marked as the given retransmission attempt
+    public Frame withAttempt(int attempt) {
+        if (attempt < 0 || attempt > MAX_ATTEMPT) {
+            throw new IllegalArgumentException("Bad attempt: " + attempt);
+        }
+        int newFlags = (flags & ~(MAX_ATTEMPT << ATTEMPT_SHIFT)) | (attempt << ATTEMPT_SHIFT);
+        if (newFlags == flags) return this;
+        return new Frame(type, newFlags, senderKeyId, destinationKeyId, messageId, ttl, hops, payload);
+    }
+
+    public boolean isFor(int keyId) {
+        return destinationKeyId == BROADCAST || destinationKeyId == keyId;
+    }
+
+    public int getEncodedLength() {
+        return HEADER_LENGTH + payload.length;
+    }
+
+    public byte[] encode() {
+        ByteBuffer out = ByteBuffer.allocate(getEncodedLength());
+        encodeTo(out);
+        return out.array();
+    }
+
+    public void encodeTo(ByteBuffer out) {
+        out.put((byte) VERSION);
+        out.put((byte) type);
+        out.put((byte) flags);
+        out.putInt(senderKeyId);
+        out.putInt(destinationKeyId);
+        out.putLong(messageId);
+        out.put((byte) ttl);
+        out.put((byte) hops);
+        out.putShort((short) payload.length);
+        out.put(payload);
+    }
+
+    // Type of an encoded frame without decoding the rest, or -1 if it's too short
+    public static int peekType(byte[] data) {
+        return data != null && data.length > 1 ? data[1] & 0xFF : -1;
+    }
+
+    // Wrap encoded frames into one TYPE_BUNDLE frame, encoded
+    public static byte[] encodeBundle(List<byte[]> frames) {
+        int length = 0;
+        for (byte[] frame : frames) {
+            length += BUNDLE_ENTRY_OVERHEAD + frame.length;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        for (byte[] frame : frames) {
+            payload.putShort((short) frame.length);
+            payload.put(frame);
+        }
+        return new Frame(TYPE_BUNDLE, 0, 0, BROADCAST, newMessageId(), 0, 0, payload.array()).encode();
+    }
+
+    // The encoded frames in a TYPE_BUNDLE payload, or null if it's malformed
+    public static List<byte[]> splitBundle(byte[] payload) {
+        List<byte[]> frames = new ArrayList<>();
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        while (in.hasRemaining()) {
+            if (in.remaining() < BUNDLE_ENTRY_OVERHEAD) return null;
+            int length = in.getShort() & 0xFFFF;
+            if (in.remaining() < length) return null;
+            byte[] frame = new byte[length];
+            in.get(frame);
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    // Decode a frame, or return null if the bytes are not a valid frame
+    public static Frame decode(byte[] data) {
+        if (data == null) return null;
+        return decode(ByteBuffer.wrap(data));
+    }
+
+    // Decode one frame starting at the buffer's position. On success the position
+    // is left just after the frame; returns null for unknown versions or short input.
+    public static Frame decode(ByteBuffer in) {
+        try {
+            if (in.remaining() < V1_HEADER_LENGTH) return null;
+            int version = in.get() & 0xFF;
+            if (version != VERSION && version != 1) return null;
+            int type = in.get() & 0xFF;
+            int flags = in.get() & 0xFF;
+            int senderKeyId = in.getInt();
+            int destinationKeyId = BROADCAST;
+            if (version == VERSION) destinationKeyId = in.getInt();
+            long messageId = in.getLong();
+            int ttl = 0;
+            int hops = 0;
+            if (version == VERSION) {
+                ttl = in.get() & 0xFF;
+                hops = in.get() & 0xFF;
+            }
+            int payloadLength = in.getShort() & 0xFFFF;
+            if (in.remaining() < payloadLength) return null;
+            byte[] payload = new byte[payloadLength];
+            in.get(payload);
+            return new Frame(type, flags, senderKeyId, destinationKeyId, messageId, ttl, hops, payload);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+}
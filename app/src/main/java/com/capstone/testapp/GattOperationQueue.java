@@ -0,0 +1,198 @@
+package com.capstone.testapp;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothStatusCodes;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+
+// Serialises GATT operations on one connection.
+// Android only allows a single outstanding GATT operation; anything started while
+// another is in flight is silently dropped. Every write, descriptor write, MTU
+// request and service discovery goes through this queue instead. The owner
+// reports completion from its BluetoothGattCallback via onOperationCompleted().
+//
+// Ordering, timeouts and retries are decided by a GattOperationSequencer; this
+// class runs it on a private HandlerThread and logs what it gives up on.
+// Bulk data can be streamed with write-without-response (see enqueueStream).
+// Callers must only use the queue once BLUETOOTH_CONNECT has been granted.
+@SuppressLint("MissingPermission")
+public class GattOperationQueue {
+    private static final String TAG = "GattOperationQueue";
+
+    // While streaming, every Nth chunk is an acknowledged write. This keeps the
+    // node and our own Bluetooth stack from being flooded with unacknowledged data.
+    private static final int STREAM_CHECKPOINT_INTERVAL = 8;
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final GattOperationSequencer sequencer;
+    private BluetoothGatt gatt;
+
+    private abstract class Operation extends GattOperationSequencer.Operation {
+        Operation(int type, String name) {
+            super(type, name);
+        }
+
+        @Override
+        int start() {
+            return gatt != null ? start(gatt) : GattOperationSequencer.FAILED;
+        }
+
+        abstract int start(BluetoothGatt gatt);
+    }
+
+    public GattOperationQueue() {
+        thread = new HandlerThread("GattOperationQueue");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        sequencer = new GattOperationSequencer(new GattOperationSequencer.Listener() {
+            @Override
+            public void onRetry(GattOperationSequencer.Operation operation, String reason) {
+                Log.w(TAG, operation.name + " " + reason + ", retrying");
+            }
+
+            @Override
+            public void onDropped(GattOperationSequencer.Operation operation, String reason) {
+                Log.e(TAG, operation.name + " " + reason + " after " + operation.attempts + " attempts, dropping");
+            }
+        });
+    }
+
+    // Attach to a new connection (or null after disconnecting). Pending operations are dropped.
+    public void setGatt(BluetoothGatt newGatt) {
+        handler.post(() -> {
+            gatt = newGatt;
+            sequencer.clear();
+            schedule();
+        });
+    }
+
+    public void close() {
+        handler.post(() -> {
+            gatt = null;
+            sequencer.clear();
+            schedule();
+            thread.quitSafely();
+        });
+    }
+
+    // --- Operations ---
+
+    public void enqueueRequestMtu(int mtu) {
+        enqueue(new Operation(GattOperationSequencer.TYPE_REQUEST_MTU, "requestMtu " + mtu) {
+            @Override
+            int start(BluetoothGatt gatt) {
+                return gatt.requestMtu(mtu) ? GattOperationSequencer.STARTED : GattOperationSequencer.FAILED;
+            }
+        });
+    }
+
+    public void enqueueDiscoverServices() {
+        enqueue(new Operation(GattOperationSequencer.TYPE_DISCOVER_SERVICES, "discoverServices") {
+            @Override
+            int start(BluetoothGatt gatt) {
+                return gatt.discoverServices() ? GattOperationSequencer.STARTED : GattOperationSequencer.FAILED;
+            }
+        });
+    }
+
+    public void enqueueReadRemoteRssi() {
+        enqueue(new Operation(GattOperationSequencer.TYPE_READ_REMOTE_RSSI, "readRemoteRssi") {
+            @Override
+            int start(BluetoothGatt gatt) {
+                return gatt.readRemoteRssi() ? GattOperationSequencer.STARTED : GattOperationSequencer.FAILED;
+            }
+        });
+    }
+
+    public void enqueueDescriptorWrite(BluetoothGattDescriptor descriptor, byte[] value) {
+        enqueue(new Operation(GattOperationSequencer.TYPE_DESCRIPTOR_WRITE, "writeDescriptor " + descriptor.getUuid()) {
+            @Override
+            int start(BluetoothGatt gatt) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                    return toResult(gatt.writeDescriptor(descriptor, value));
+                }
+                descriptor.setValue(value);
+                return gatt.writeDescriptor(descriptor) ? GattOperationSequencer.STARTED : GattOperationSequencer.FAILED;
+            }
+        });
+    }
+
+    public void enqueueWrite(BluetoothGattCharacteristic characteristic, byte[] value, int writeType) {
+        enqueue(new Operation(GattOperationSequencer.TYPE_WRITE, "write " + value.length + " bytes") {
+            @Override
+            int start(BluetoothGatt gatt) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                    return toResult(gatt.writeCharacteristic(characteristic, value, writeType));
+                }
+                characteristic.setWriteType(writeType);
+                characteristic.setValue(value);
+                return gatt.writeCharacteristic(characteristic) ? GattOperationSequencer.STARTED : GattOperationSequencer.FAILED;
+            }
+        });
+    }
+
+    // Queue a burst of chunks. If the characteristic supports it, chunks go out as
+    // write-without-response so they don't each wait for an ATT round-trip; every
+    // STREAM_CHECKPOINT_INTERVAL-th chunk and the last one are acknowledged writes,
+    // which bounds how much unacknowledged data is in flight.
+    public void enqueueStream(BluetoothGattCharacteristic characteristic, List<byte[]> chunks) {
+        boolean noResponseSupported =
+                (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            boolean checkpoint = !noResponseSupported
+                    || i == chunks.size() - 1
+                    || (i + 1) % STREAM_CHECKPOINT_INTERVAL == 0;
+            enqueueWrite(characteristic, chunks.get(i), checkpoint
+                    ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
+                    : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        }
+    }
+
+    // Call from every BluetoothGattCallback method that finishes an operation, with
+    // that operation's type: onCharacteristicWrite (TYPE_WRITE), onDescriptorWrite,
+    // onMtuChanged, onServicesDiscovered and onReadRemoteRssi. A callback the
+    // running operation didn't ask for, such as an MTU change the peer started,
+    // leaves it running.
+    public void onOperationCompleted(int type, boolean success) {
+        handler.post(() -> {
+            sequencer.onCompleted(type, success, SystemClock.uptimeMillis());
+            schedule();
+        });
+    }
+
+    // --- Internals, all on the queue thread ---
+
+    private void enqueue(Operation operation) {
+        handler.post(() -> {
+            sequencer.enqueue(operation, SystemClock.uptimeMillis());
+            schedule();
+        });
+    }
+
+    // Wake up when the sequencer next has a retry or timeout due
+    private void schedule() {
+        handler.removeCallbacks(tickRunnable);
+        long wakeAt = sequencer.getNextWakeAt();
+        if (wakeAt != Long.MAX_VALUE) handler.postAtTime(tickRunnable, wakeAt);
+    }
+
+    private final Runnable tickRunnable = () -> {
+        sequencer.tick(SystemClock.uptimeMillis());
+        schedule();
+    };
+
+    private static int toResult(int statusCode) {
+        if (statusCode == BluetoothStatusCodes.SUCCESS) return GattOperationSequencer.STARTED;
+        if (statusCode == BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY) return GattOperationSequencer.BUSY;
+        return GattOperationSequencer.FAILED;
+    }
+}
@@ -0,0 +1,166 @@
+package com.capstone.testapp;
+
+import java.util.ArrayDeque;
+
+// Decides when each queued GATT operation starts, for GattOperationQueue.
+// One operation runs at a time. It completes when a callback of its own type
+// reports back; a callback of another type, such as an MTU change the peer
+// started, leaves it running.
+//
+// An operation that times out or fails is retried up to MAX_ATTEMPTS times.
+// While the stack reports it is busy the operation is retried without using up
+// an attempt, but only for MAX_BUSY_MS; after that the attempt counts as failed.
+//
+// Pure Java and clock-free: the caller passes the time in and calls tick() at
+// getNextWakeAt(). Not thread-safe; GattOperationQueue keeps it on one thread.
+class GattOperationSequencer {
+
+    static final long OPERATION_TIMEOUT_MS = 5000;
+    static final int MAX_ATTEMPTS = 3;
+    // How long to wait before retrying when the stack reports it is busy
+    static final long BUSY_RETRY_DELAY_MS = 15;
+    // A stack still busy after this long counts as a failed attempt, so one
+    // operation can't hold up the queue forever
+    static final long MAX_BUSY_MS = OPERATION_TIMEOUT_MS;
+
+    // Results of Operation.start()
+    static final int STARTED = 0;
+    static final int BUSY = 1;
+    static final int FAILED = 2;
+
+    // Operation types, each finished by its own BluetoothGattCallback method
+    static final int TYPE_WRITE = 0;
+    static final int TYPE_DESCRIPTOR_WRITE = 1;
+    static final int TYPE_REQUEST_MTU = 2;
+    static final int TYPE_DISCOVER_SERVICES = 3;
+    static final int TYPE_READ_REMOTE_RSSI = 4;
+
+    interface Listener {
+        // An attempt failed for the given reason; the operation will be tried again
+        void onRetry(Operation operation, String reason);
+
+        // The operation's last attempt failed and it was given up
+        void onDropped(Operation operation, String reason);
+    }
+
+    abstract static class Operation {
+        final int type;
+        final String name;
+        int attempts;
+        // Whether the stack reported busy for the current attempt, and since when
+        boolean busy;
+        long busySince;
+
+        Operation(int type, String name) {
+            this.type = type;
+            this.name = name;
+        }
+
+        // Start the GATT call; returns STARTED, BUSY or FAILED
+        abstract int start();
+    }
+
+    private final Listener listener;
+    private final ArrayDeque<Operation> queue = new ArrayDeque<>();
+    private Operation current;
+    // When current is next attempted, or Long.MAX_VALUE
+    private long attemptAt = Long.MAX_VALUE;
+    // When current's running attempt times out, or Long.MAX_VALUE if none is running
+    private long timeoutAt = Long.MAX_VALUE;
+
+    GattOperationSequencer(Listener listener) {
+        this.listener = listener;
+    }
+
+    void enqueue(Operation operation, long nowMillis) {
+        queue.add(operation);
+        startNext(nowMillis);
+    }
+
+    // A GATT callback of the given type reported back. Returns whether it
+    // finished the running operation; otherwise it was unsolicited, or late for
+    // an attempt that already timed out.
+    boolean onCompleted(int type, boolean success, long nowMillis) {
+        if (current == null || current.type != type || timeoutAt == Long.MAX_VALUE) return false;
+        timeoutAt = Long.MAX_VALUE;
+        if (success || !retry("failed", nowMillis)) current = null;
+        startNext(nowMillis);
+        return true;
+    }
+
+    // Time out or retry the current operation if it's due
+    void tick(long nowMillis) {
+        if (current != null && nowMillis >= timeoutAt) {
+            timeoutAt = Long.MAX_VALUE;
+            if (!retry("timed out", nowMillis)) current = null;
+        } else if (current != null && nowMillis >= attemptAt) {
+            attemptAt = Long.MAX_VALUE;
+            attempt(nowMillis);
+        }
+        startNext(nowMillis);
+    }
+
+    // When tick() has something to do, or Long.MAX_VALUE
+    long getNextWakeAt() {
+        return Math.min(attemptAt, timeoutAt);
+    }
+
+    // Drop the running operation and everything queued
+    void clear() {
+        queue.clear();
+        current = null;
+        attemptAt = Long.MAX_VALUE;
+        timeoutAt = Long.MAX_VALUE;
+    }
+
+    Operation getCurrent() {
+        return current;
+    }
+
+    int getQueued() {
+        return queue.size();
+    }
+
+    private void startNext(long nowMillis) {
+        while (current == null && !queue.isEmpty()) {
+            current = queue.poll();
+            attempt(nowMillis);
+        }
+    }
+
+    // Leaves current null if it was dropped
+    private void attempt(long nowMillis) {
+        current.attempts++;
+        int result = current.start();
+        if (result == BUSY) {
+            if (!current.busy) {
+                current.busy = true;
+                current.busySince = nowMillis;
+            }
+            if (nowMillis - current.busySince < MAX_BUSY_MS) {
+                // The stack's buffers are full; try again shortly without using up an attempt
+                current.attempts--;
+                attemptAt = nowMillis + BUSY_RETRY_DELAY_MS;
+                return;
+            }
+        }
+        current.busy = false;
+        if (result == STARTED) {
+            timeoutAt = nowMillis + OPERATION_TIMEOUT_MS;
+        } else if (!retry(result == BUSY ? "stayed busy" : "could not start", nowMillis)) {
+            current = null;
+        }
+    }
+
+    // Schedule another attempt if the current operation has any left. Returns
+    // false if it was dropped.
+    private boolean retry(String reason, long nowMillis) {
+        if (current.attempts < MAX_ATTEMPTS) {
+            listener.onRetry(current, reason);
+            attemptAt = nowMillis + BUSY_RETRY_DELAY_MS;
+            return true;
+        }
+        listener.onDropped(current, reason);
+        return false;
+    }
+}
@@ -0,0 +1,233 @@
+package com.capstone.testapp;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+import java.util.UUID;
+
+// MessageTransport over a BLE GATT connection to a LoRa node.
+// Frames are written to the TX characteristic and arrive as notifications on the
+// RX characteristic, split into MTU-sized chunks by Fragmenter. Every GATT
+// operation goes through a GattOperationQueue.
+//
+// Callers must hold BLUETOOTH_CONNECT before calling connect().
+@SuppressLint("MissingPermission")
+public class GattTransport implements MessageTransport {
+    private static final String TAG = "GattTransport";
+
+    public static final UUID SERVICE_UUID = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    public static final UUID TX_CHARACTERISTIC_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    public static final UUID RX_CHARACTERISTIC_UUID = UUID.fromString("00002a38-0000-1000-8000-00805f9b34fb");
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIG_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private static final long REASSEMBLY_TIMEOUT_MS = 10000;
+    // getRssi() before the first reading
+    public static final int RSSI_UNKNOWN = Integer.MIN_VALUE;
+
+    private final Context context;
+    private final BluetoothDevice device;
+    private final boolean autoConnect;
+    private final GattOperationQueue gattQueue = new GattOperationQueue();
+    private final Fragmenter fragmenter = new Fragmenter();
+    private final Fragmenter.Reassembler reassembler = new Fragmenter.Reassembler(REASSEMBLY_TIMEOUT_MS);
+
+    private volatile BluetoothGatt gatt;
+    // Looked up once after service discovery instead of on every send
+    private volatile BluetoothGattCharacteristic txCharacteristic;
+    private volatile int mtu = Fragmenter.DEFAULT_MTU;
+    private volatile int state = STATE_DISCONNECTED;
+    private volatile int rssi = RSSI_UNKNOWN;
+    private volatile FrameListener frameListener;
+    private volatile ConnectionListener connectionListener;
+
+    // Connects directly: fast, but gives up if the device isn't in range
+    public GattTransport(Context context, BluetoothDevice device) {
+        this(context, device, false);
+    }
+
+    // With autoConnect the connection request stays pending, at low power, until
+    // the device shows up, however long that takes
+    public GattTransport(Context context, BluetoothDevice device, boolean autoConnect) {
+        this.context = context.getApplicationContext();
+        this.device = device;
+        this.autoConnect = autoConnect;
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    // Ask for a fresh signal strength reading of the connection; see getRssi()
+    public void readRssi() {
+        if (state == STATE_CONNECTED) gattQueue.enqueueReadRemoteRssi();
+    }
+
+    // Latest reading from readRssi(), in dBm, or RSSI_UNKNOWN
+    public int getRssi() {
+        return rssi;
+    }
+
+    @Override
+    public void connect() {
+        if (state != STATE_DISCONNECTED) return;
+        setState(STATE_CONNECTING);
+        // LE only; a dual-mode device could otherwise be tried over classic Bluetooth first
+        gatt = device.connectGatt(context, autoConnect, gattCallback, BluetoothDevice.TRANSPORT_LE);
+    }
+
+    @Override
+    public void disconnect() {
+        BluetoothGatt currentGatt = gatt;
+        gatt = null;
+        txCharacteristic = null;
+        gattQueue.close();
+        if (currentGatt != null) {
+            currentGatt.close();
+        }
+        setState(STATE_DISCONNECTED);
+    }
+
+    @Override
+    public boolean send(byte[] frame) {
+        BluetoothGattCharacteristic characteristic = txCharacteristic;
+        if (state != STATE_CONNECTED || characteristic == null) return false;
+
+        List<byte[]> chunks;
+        try {
+            chunks = fragmenter.fragment(frame, mtu);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Frame too large to send", e);
+            return false;
+        }
+        gattQueue.enqueueStream(characteristic, chunks);
+        return true;
+    }
+
+    @Override
+    public int getState() {
+        return state;
+    }
+
+    @Override
+    public int getMaxFrameLength() {
+        return Fragmenter.maxFrameLength(mtu);
+    }
+
+    @Override
+    public void setFrameListener(FrameListener listener) {
+        frameListener = listener;
+    }
+
+    @Override
+    public void setConnectionListener(ConnectionListener listener) {
+        connectionListener = listener;
+    }
+
+    private void setState(int newState) {
+        if (state == newState) return;
+        state = newState;
+        ConnectionListener listener = connectionListener;
+        if (listener != null) {
+            listener.onConnectionStateChanged(newState);
+        }
+    }
+
+    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                Log.d(TAG, "Connected to " + device.getAddress());
+                // Ask for the largest MTU first, then discover services
+                gattQueue.setGatt(gatt);
+                gattQueue.enqueueRequestMtu(Fragmenter.MAX_MTU);
+                gattQueue.enqueueDiscoverServices();
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                Log.d(TAG, "Disconnected from " + device.getAddress() + " (status " + status + ")");
+                gattQueue.setGatt(null);
+                txCharacteristic = null;
+                mtu = Fragmenter.DEFAULT_MTU;
+                gatt.close();
+                GattTransport.this.gatt = null;
+                setState(STATE_DISCONNECTED);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int newMtu, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mtu = Math.max(Fragmenter.DEFAULT_MTU, Math.min(newMtu, Fragmenter.MAX_MTU));
+            }
+            Log.d(TAG, "MTU is now " + mtu);
+            // Also called when the node changes the MTU itself, which only
+            // finishes our own request if that is what's running
+            gattQueue.onOperationCompleted(GattOperationSequencer.TYPE_REQUEST_MTU, true);
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            gattQueue.onOperationCompleted(GattOperationSequencer.TYPE_DISCOVER_SERVICES, status == BluetoothGatt.GATT_SUCCESS);
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w(TAG, "onServicesDiscovered received: " + status);
+                return;
+            }
+            BluetoothGattService service = gatt.getService(SERVICE_UUID);
+            if (service == null) { Log.e(TAG, "Service UUID not found!"); return; }
+            BluetoothGattCharacteristic txChar = service.getCharacteristic(TX_CHARACTERISTIC_UUID);
+            if (txChar == null) { Log.e(TAG, "TX Characteristic UUID not found!"); return; }
+
+            BluetoothGattCharacteristic rxChar = service.getCharacteristic(RX_CHARACTERISTIC_UUID);
+            BluetoothGattDescriptor descriptor = rxChar != null ? rxChar.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG_UUID) : null;
+            if (descriptor != null) {
+                gatt.setCharacteristicNotification(rxChar, true);
+                gattQueue.enqueueDescriptorWrite(descriptor, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                Log.d(TAG, "Enabling notifications for RX characteristic.");
+            } else {
+                Log.w(TAG, "RX characteristic or its CCC descriptor not found; send only.");
+            }
+
+            txCharacteristic = txChar;
+            setState(STATE_CONNECTED);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w(TAG, "Chunk write failed with status " + status);
+            }
+            gattQueue.onOperationCompleted(GattOperationSequencer.TYPE_WRITE, status == BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            gattQueue.onOperationCompleted(GattOperationSequencer.TYPE_DESCRIPTOR_WRITE, status == BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void onReadRemoteRssi(BluetoothGatt gatt, int newRssi, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) rssi = newRssi;
+            gattQueue.onOperationCompleted(GattOperationSequencer.TYPE_READ_REMOTE_RSSI, status == BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            if (!characteristic.getUuid().equals(RX_CHARACTERISTIC_UUID)) return;
+
+            byte[] frame = reassembler.accept(characteristic.getValue(), SystemClock.elapsedRealtime());
+            if (frame == null) return; // Waiting for more chunks
+            FrameListener listener = frameListener;
+            if (listener != null) {
+                listener.onFrameReceived(frame);
+            }
+        }
+    };
+}
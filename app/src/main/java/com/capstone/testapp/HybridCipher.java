@@ -0,0 +1,189 @@
+package com.capstone.testapp;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// Hybrid RSA + AES-GCM envelope encryption.
+// A random AES content key is wrapped once with the recipient's RSA key and the
+// message body is sealed with AES-GCM, so long messages work and the expensive
+// RSA private-key operation only runs when a new content key shows up.
+//
+// Envelope layout:
+// [type 0x01][wrapped key length (2 bytes)][wrapped key][IV (12 bytes)][ciphertext + 16 byte tag]
+// Everything before the IV is GCM associated data, so the tag covers it too.
+//
+// This class has no Android dependencies so it can be benchmarked on the JVM.
+public final class HybridCipher {
+
+    public static final byte TYPE_ENVELOPE = 0x01;
+
+    static final String RSA_TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+    private static final String AES_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int AES_KEY_BITS = 256;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final int HEADER_LENGTH = 3;
+
+    // How many unwrapped content keys the receiving side remembers.
+    private static final int UNWRAP_CACHE_SIZE = 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Cipher.getInstance does a provider lookup on every call, so each thread keeps
+    // its own instances and just re-initialises them per message.
+    private static final ThreadLocal<Cipher> RSA_CIPHER = threadLocalCipher(RSA_TRANSFORMATION);
+    private static final ThreadLocal<Cipher> AES_CIPHER = threadLocalCipher(AES_TRANSFORMATION);
+
+    private final AtomicLong unwrapHits = new AtomicLong();
+    private final AtomicLong unwrapMisses = new AtomicLong();
+
+    // Receiving side: wrapped key bytes -> unwrapped AES key
+    private final Map<ByteBuffer, SecretKey> unwrappedKeys =
+            new LinkedHashMap<ByteBuffer, SecretKey>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, SecretKey> eldest) {
+                    return size() > UNWRAP_CACHE_SIZE;
+                }
+            };
+
+    // A content key together with its RSA-wrapped form. One of these can be used
+    // for a single message or reused for a whole session with the same contact.
+    public static final class ContentKey {
+        final SecretKey key;
+        final byte[] wrappedKey;
+        private int messagesSealed;
+
+        ContentKey(SecretKey key, byte[] wrappedKey) {
+            this.key = key;
+            this.wrappedKey = wrappedKey;
+        }
+
+        public int getMessagesSealed() {
+            return messagesSealed;
+        }
+    }
+
+    // Generate a fresh AES key and wrap it for the given recipient
+    public static ContentKey newContentKey(PublicKey recipientKey) throws GeneralSecurityException {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(AES_KEY_BITS, RANDOM);
+        SecretKey key = generator.generateKey();
+
+        Cipher rsa = rsaCipher();
+        rsa.init(Cipher.ENCRYPT_MODE, recipientKey);
+        return new ContentKey(key, rsa.doFinal(key.getEncoded()));
+    }
+
+    // Seal a plaintext into an envelope using an existing content key
+    public static byte[] seal(ContentKey contentKey, byte[] plainText) throws GeneralSecurityException {
+        byte[] wrapped = contentKey.wrappedKey;
+        int ivOffset = HEADER_LENGTH + wrapped.length;
+        int bodyOffset = ivOffset + IV_LENGTH;
+        byte[] envelope = new byte[bodyOffset + plainText.length + TAG_LENGTH_BITS / 8];
+        envelope[0] = TYPE_ENVELOPE;
+        envelope[1] = (byte) (wrapped.length >> 8);
+        envelope[2] = (byte) wrapped.length;
+        System.arraycopy(wrapped, 0, envelope, HEADER_LENGTH, wrapped.length);
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        System.arraycopy(iv, 0, envelope, ivOffset, IV_LENGTH);
+
+        Cipher aes = AES_CIPHER.get();
+        aes.init(Cipher.ENCRYPT_MODE, contentKey.key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        // Everything before the IV is authenticated along with the body
+        aes.updateAAD(envelope, 0, ivOffset);
+        aes.doFinal(plainText, 0, plainText.length, envelope, bodyOffset);
+        contentKey.messagesSealed++;
+        return envelope;
+    }
+
+    // Quick structural check of the envelope layout
+    public static boolean isEnvelope(byte[] data) {
+        if (data == null || data.length < HEADER_LENGTH || data[0] != TYPE_ENVELOPE) return false;
+        int wrappedLength = ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+        return data.length >= HEADER_LENGTH + wrappedLength + IV_LENGTH + TAG_LENGTH_BITS / 8;
+    }
+
+    // Tells an envelope from a legacy message, a single RSA block of
+    // rsaBlockLength bytes. Such a block can look like an envelope (about 1 in
+    // 256 start with TYPE_ENVELOPE), but no envelope is exactly that long: its
+    // wrapped key alone is a block.
+    public static boolean isEnvelope(byte[] data, int rsaBlockLength) {
+        return data != null && data.length != rsaBlockLength && isEnvelope(data);
+    }
+
+    // Open an envelope with our private key. The unwrapped content key is cached,
+    // so a sender reusing its key only costs us one RSA operation per session.
+    public byte[] open(byte[] envelope, PrivateKey privateKey) throws GeneralSecurityException {
+        if (!isEnvelope(envelope)) {
+            throw new GeneralSecurityException("Not a hybrid envelope");
+        }
+        ByteBuffer in = ByteBuffer.wrap(envelope);
+        in.get();
+        int wrappedLength = in.getShort() & 0xFFFF;
+        ByteBuffer wrappedKey = ByteBuffer.wrap(Arrays.copyOfRange(envelope, HEADER_LENGTH, HEADER_LENGTH + wrappedLength));
+
+        SecretKey key;
+        synchronized (unwrappedKeys) {
+            key = unwrappedKeys.get(wrappedKey);
+        }
+        if (key != null) {
+            unwrapHits.incrementAndGet();
+        } else {
+            unwrapMisses.incrementAndGet();
+            Cipher rsa = rsaCipher();
+            rsa.init(Cipher.DECRYPT_MODE, privateKey);
+            byte[] rawKey = rsa.doFinal(envelope, HEADER_LENGTH, wrappedLength);
+            key = new SecretKeySpec(rawKey, "AES");
+            synchronized (unwrappedKeys) {
+                unwrappedKeys.put(wrappedKey, key);
+            }
+        }
+
+        int ivOffset = HEADER_LENGTH + wrappedLength;
+        int bodyOffset = ivOffset + IV_LENGTH;
+        Cipher aes = AES_CIPHER.get();
+        aes.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, envelope, ivOffset, IV_LENGTH));
+        aes.updateAAD(envelope, 0, ivOffset);
+        return aes.doFinal(envelope, bodyOffset, envelope.length - bodyOffset);
+    }
+
+    public long getUnwrapHits() {
+        return unwrapHits.get();
+    }
+
+    public long getUnwrapMisses() {
+        return unwrapMisses.get();
+    }
+
+    // This thread's RSA cipher; callers must init() it before use
+    static Cipher rsaCipher() {
+        return RSA_CIPHER.get();
+    }
+
+    private static ThreadLocal<Cipher> threadLocalCipher(final String transformation) {
+        return new ThreadLocal<Cipher>() {
+            @Override
+            protected Cipher initialValue() {
+                try {
+                    return Cipher.getInstance(transformation);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("Cipher not available: " + transformation, e);
+                }
+            }
+        };
+    }
+}
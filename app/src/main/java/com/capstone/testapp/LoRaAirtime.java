@@ -0,0 +1,64 @@
+package com.capstone.testapp;
+
+// Time on air of a LoRa transmission, from the modem settings (Semtech AN1200.13).
+// A frame longer than one LoRa packet is assumed to go out as several packets,
+// each with its own preamble and header.
+//
+// At SF9 and 125 kHz a 100 byte packet takes about 0.2 s; at SF12 over 2 s. With
+// a 1% duty cycle that is one such packet every 20 s or more.
+public class LoRaAirtime {
+
+    // Largest payload of a single LoRa packet
+    public static final int MAX_PACKET_PAYLOAD = 255;
+    static final int PREAMBLE_SYMBOLS = 8;
+    // The modem must use low data rate optimisation above this symbol time
+    private static final double LOW_DATA_RATE_SYMBOL_MS = 16;
+
+    private final int spreadingFactor;
+    private final long bandwidthHz;
+    private final int codingRate;
+
+    // spreadingFactor 7-12, codingRate 5-8 for 4/5 to 4/8
+    public LoRaAirtime(int spreadingFactor, long bandwidthHz, int codingRate) {
+        if (spreadingFactor < 6 || spreadingFactor > 12) {
+            throw new IllegalArgumentException("Spreading factor out of range: " + spreadingFactor);
+        }
+        if (codingRate < 5 || codingRate > 8) {
+            throw new IllegalArgumentException("Coding rate out of range: 4/" + codingRate);
+        }
+        if (bandwidthHz <= 0) throw new IllegalArgumentException("Bad bandwidth: " + bandwidthHz);
+        this.spreadingFactor = spreadingFactor;
+        this.bandwidthHz = bandwidthHz;
+        this.codingRate = codingRate;
+    }
+
+    public double getSymbolMillis() {
+        return (1 << spreadingFactor) * 1000.0 / bandwidthHz;
+    }
+
+    // Time on air of one packet, with explicit header and CRC
+    public double getPacketMillis(int payloadBytes) {
+        if (payloadBytes < 0 || payloadBytes > MAX_PACKET_PAYLOAD) {
+            throw new IllegalArgumentException("Packet payload out of range: " + payloadBytes);
+        }
+        double symbolMillis = getSymbolMillis();
+        int lowDataRate = symbolMillis > LOW_DATA_RATE_SYMBOL_MS ? 1 : 0;
+        double preamble = (PREAMBLE_SYMBOLS + 4.25) * symbolMillis;
+        int bits = 8 * payloadBytes - 4 * spreadingFactor + 28 + 16;
+        int payloadSymbols = 8 + Math.max(
+                (int) Math.ceil(bits / (4.0 * (spreadingFactor - 2 * lowDataRate))) * codingRate, 0);
+        return preamble + payloadSymbols * symbolMillis;
+    }
+
+    // Time on air of a frame of the given length, in whole milliseconds, rounded up
+    public long getFrameMillis(int frameBytes) {
+        double millis = 0;
+        int remaining = frameBytes;
+        do {
+            int packet = Math.min(remaining, MAX_PACKET_PAYLOAD);
+            millis += getPacketMillis(packet);
+            remaining -= packet;
+        } while (remaining > 0);
+        return (long) Math.ceil(millis);
+    }
+}
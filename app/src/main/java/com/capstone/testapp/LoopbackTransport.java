@@ -0,0 +1,246 @@
+package com.capstone.testapp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-memory MessageTransport for tests and benchmarks.
+// Transports are created from a Network and joined with link(). A frame sent on
+// one transport is fragmented exactly like GattTransport does it, and every chunk
+// is delivered to each linked transport after the network's latency, or dropped
+// with the network's loss rate. A bit error rate flips bits in the frame data of
+// the chunks, leaving the chunk headers alone, like a node that passes on LoRa
+// packets whose CRC failed (see FecTransport). Linking more than two transports
+// gives broadcast semantics, like several radios in range of each other.
+//
+// All deliveries run on one network thread, in order, so listeners never race
+// each other. Pure Java so it runs on the build server.
+public class LoopbackTransport implements MessageTransport {
+
+    private static final long REASSEMBLY_TIMEOUT_MS = 10000;
+
+    private final Network network;
+    private final Fragmenter fragmenter = new Fragmenter();
+    // One per neighbour, since chunk sequence numbers are only unique per sender.
+    // Only touched on the network thread.
+    private final Map<LoopbackTransport, Fragmenter.Reassembler> reassemblers = new HashMap<>();
+    private final List<LoopbackTransport> neighbours = new CopyOnWriteArrayList<>();
+
+    private volatile int state = STATE_DISCONNECTED;
+    private volatile FrameListener frameListener;
+    private volatile ConnectionListener connectionListener;
+
+    private LoopbackTransport(Network network) {
+        this.network = network;
+    }
+
+    @Override
+    public void connect() {
+        setState(STATE_CONNECTED);
+    }
+
+    @Override
+    public void disconnect() {
+        setState(STATE_DISCONNECTED);
+    }
+
+    @Override
+    public boolean send(byte[] frame) {
+        if (state != STATE_CONNECTED) return false;
+
+        List<byte[]> chunks;
+        try {
+            chunks = fragmenter.fragment(frame, network.mtu);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        network.framesSent.incrementAndGet();
+        for (LoopbackTransport neighbour : neighbours) {
+            for (byte[] chunk : chunks) {
+                network.transmit(this, neighbour, chunk);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getState() {
+        return state;
+    }
+
+    @Override
+    public int getMaxFrameLength() {
+        return Fragmenter.maxFrameLength(network.mtu);
+    }
+
+    @Override
+    public void setFrameListener(FrameListener listener) {
+        frameListener = listener;
+    }
+
+    @Override
+    public void setConnectionListener(ConnectionListener listener) {
+        connectionListener = listener;
+    }
+
+    public List<LoopbackTransport> getNeighbours() {
+        return new ArrayList<>(neighbours);
+    }
+
+    private void setState(int newState) {
+        if (state == newState) return;
+        state = newState;
+        ConnectionListener listener = connectionListener;
+        if (listener != null) {
+            listener.onConnectionStateChanged(newState);
+        }
+    }
+
+    // Runs on the network thread
+    private void receive(LoopbackTransport sender, byte[] chunk, long nowMillis) {
+        if (state != STATE_CONNECTED) return;
+        Fragmenter.Reassembler reassembler = reassemblers.get(sender);
+        if (reassembler == null) {
+            reassembler = new Fragmenter.Reassembler(REASSEMBLY_TIMEOUT_MS);
+            reassemblers.put(sender, reassembler);
+        }
+        byte[] frame = reassembler.accept(chunk, nowMillis);
+        if (frame == null) return;
+        network.framesDelivered.incrementAndGet();
+        FrameListener listener = frameListener;
+        if (listener != null) {
+            listener.onFrameReceived(frame);
+        }
+    }
+
+    // A shared medium with fixed latency, per-chunk loss, bit errors and MTU
+    public static final class Network {
+
+        private final long latencyMillis;
+        private final double lossRate;
+        private final double bitErrorRate;
+        private final int mtu;
+        private final Random random;
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+        private final Object idleLock = new Object();
+        private int pendingDeliveries;
+
+        private final AtomicLong framesSent = new AtomicLong();
+        private final AtomicLong framesDelivered = new AtomicLong();
+        private final AtomicLong chunksSent = new AtomicLong();
+        private final AtomicLong chunksDropped = new AtomicLong();
+        private final AtomicLong bitsFlipped = new AtomicLong();
+
+        // lossRate is the probability (0..1) that any single chunk is lost.
+        // seed makes the loss pattern reproducible.
+        public Network(long latencyMillis, double lossRate, int mtu, long seed) {
+            this(latencyMillis, lossRate, 0, mtu, seed);
+        }
+
+        // bitErrorRate is the probability that any single bit of frame data is flipped
+        public Network(long latencyMillis, double lossRate, double bitErrorRate, int mtu, long seed) {
+            if (mtu < Fragmenter.DEFAULT_MTU || mtu > Fragmenter.MAX_MTU) {
+                throw new IllegalArgumentException("MTU out of range: " + mtu);
+            }
+            this.latencyMillis = latencyMillis;
+            this.lossRate = lossRate;
+            this.bitErrorRate = bitErrorRate;
+            this.mtu = mtu;
+            this.random = new Random(seed);
+        }
+
+        public LoopbackTransport newTransport() {
+            return new LoopbackTransport(this);
+        }
+
+        // Put two transports in range of each other
+        public void link(LoopbackTransport a, LoopbackTransport b) {
+            if (a == b || a.network != this || b.network != this) {
+                throw new IllegalArgumentException("Can only link two different transports of this network");
+            }
+            if (!a.neighbours.contains(b)) a.neighbours.add(b);
+            if (!b.neighbours.contains(a)) b.neighbours.add(a);
+        }
+
+        // Wait until nothing is in flight, including frames sent by listeners
+        // in response to other frames. Returns false on timeout.
+        public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            synchronized (idleLock) {
+                while (pendingDeliveries > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) return false;
+                    idleLock.wait(remaining);
+                }
+            }
+            return true;
+        }
+
+        public void shutdown() {
+            executor.shutdownNow();
+        }
+
+        public long getFramesSent() {
+            return framesSent.get();
+        }
+
+        public long getFramesDelivered() {
+            return framesDelivered.get();
+        }
+
+        public long getChunksSent() {
+            return chunksSent.get();
+        }
+
+        public long getChunksDropped() {
+            return chunksDropped.get();
+        }
+
+        public long getBitsFlipped() {
+            return bitsFlipped.get();
+        }
+
+        private void transmit(LoopbackTransport sender, LoopbackTransport receiver, byte[] sentChunk) {
+            chunksSent.incrementAndGet();
+            if (lossRate > 0 && random.nextDouble() < lossRate) {
+                chunksDropped.incrementAndGet();
+                return;
+            }
+            byte[] chunk = bitErrorRate > 0 ? corrupt(sentChunk) : sentChunk;
+            synchronized (idleLock) {
+                pendingDeliveries++;
+            }
+            executor.schedule(() -> {
+                try {
+                    receiver.receive(sender, chunk, TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+                } finally {
+                    synchronized (idleLock) {
+                        if (--pendingDeliveries == 0) {
+                            idleLock.notifyAll();
+                        }
+                    }
+                }
+            }, latencyMillis, TimeUnit.MILLISECONDS);
+        }
+
+        // A copy, since every neighbour gets the same chunk
+        private byte[] corrupt(byte[] chunk) {
+            byte[] copy = chunk.clone();
+            for (int bit = Fragmenter.CHUNK_HEADER_LENGTH * 8; bit < copy.length * 8; bit++) {
+                if (random.nextDouble() < bitErrorRate) {
+                    copy[bit / 8] ^= (byte) (1 << (bit % 8));
+                    bitsFlipped.incrementAndGet();
+                }
+            }
+            return copy;
+        }
+    }
+}
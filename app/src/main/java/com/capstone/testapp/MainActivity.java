@@ -2,6 +2,7 @@ package com.capstone.testapp;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.Toast;
@@ -25,6 +26,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
+    private static final String TAG = "MainActivity";
 
     // UI Elements
     private RecyclerView contactsRecyclerView;
@@ -67,6 +69,7 @@ public class MainActivity extends AppCompatActivity {
         // --- UPDATED: The click listener now also sends the public key ---
         contactAdapter = new ContactAdapter(contactList, contact -> {
             Intent intent = new Intent(MainActivity.this, ChatActivity.class);
+            intent.putExtra("CONTACT_ID", contact.id);
             intent.putExtra("CONTACT_NAME", contact.name);
             intent.putExtra("CONTACT_PUBLIC_KEY", contact.publicKey); // Add this line
             startActivity(intent);
@@ -109,10 +112,16 @@ public class MainActivity extends AppCompatActivity {
             String name = json.getString("name");
             String publicKey = json.getString("publicKey");
 
+            // Fails here, rather than on the executor, if the key isn't valid Base64
+            CryptoManager.keyIdOf(publicKey);
+
             executorService.execute(() -> {
                 // Save both name and public key using the updated constructor
                 Contact newContact = new Contact(name, publicKey);
-                contactDao.insert(newContact);
+                db.contactDirectory().insert(newContact);
+                if (db.contactDirectory().findByFingerprint(newContact.fingerprint) != newContact) {
+                    Log.w(TAG, "Contact " + newContact.id + " has the key fingerprint of an existing contact");
+                }
 
                 runOnUiThread(this::loadContacts);
                 runOnUiThread(() -> {
@@ -142,6 +151,11 @@ public class MainActivity extends AppCompatActivity {
             return true;
         }
 
+        if (itemId == R.id.menu_search) {
+            startActivity(new Intent(this, SearchActivity.class));
+            return true;
+        }
+
         return super.onOptionsItemSelected(item);
     }
 }
\ No newline at end of file
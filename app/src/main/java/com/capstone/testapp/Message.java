@@ -1,11 +1,33 @@
 package com.capstone.testapp;
 
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity(tableName = "messages")
+// Each message belongs to the conversation with one contact. The composite index
+// serves both the per-conversation filter and the timestamp ordering used for paging.
+// messageUid is unique, so storing the same message twice is a no-op.
+@Entity(tableName = "messages",
+        foreignKeys = @ForeignKey(entity = Contact.class,
+                parentColumns = "id",
+                childColumns = "conversationId",
+                onDelete = ForeignKey.CASCADE),
+        indices = {@Index(value = {"conversationId", "timestamp"}),
+                @Index(value = "messageUid", unique = true)})
 public class Message {
 
+    // Delivery states of sent messages (see ReliableSender)
+    public static final int DELIVERY_NONE = 0;
+    // Waiting for room in the contact's send window
+    public static final int DELIVERY_PENDING = 1;
+    // Transmitted, not acknowledged yet
+    public static final int DELIVERY_SENT = 2;
+    public static final int DELIVERY_DELIVERED = 3;
+    // Not acknowledged after every retransmission
+    public static final int DELIVERY_FAILED = 4;
+
     @PrimaryKey(autoGenerate = true)
     public int id;
 
@@ -15,11 +37,32 @@ public class Message {
     // --- THIS FIELD WAS ADDED ---
     public boolean isSentByMe;
 
-    // --- THIS CONSTRUCTOR WAS UPDATED ---
-    public Message(String textContent, long timestamp, boolean isSentByMe) {
+    // Id of the contact this conversation is with. Null only for messages stored
+    // before conversations existed that could not be assigned during migration.
+    public Integer conversationId;
+
+    // Random 64-bit id chosen by the sender and carried in the frame (Frame.messageId),
+    // the same on every copy of a message. Null for messages stored before it existed.
+    public Long messageUid;
+
+    // One of the DELIVERY_ constants. Always DELIVERY_NONE for received messages
+    // and for sent ones stored before acknowledgements existed.
+    @ColumnInfo(defaultValue = "0")
+    public int deliveryState;
+
+    public Message(Integer conversationId, String textContent, long timestamp, boolean isSentByMe) {
+        this.conversationId = conversationId;
         this.textContent = textContent;
         this.timestamp = timestamp;
         this.isSentByMe = isSentByMe;
     }
-}
 
+    // A copy with another delivery state, so list diffing sees the change
+    public Message withDeliveryState(int deliveryState) {
+        Message copy = new Message(conversationId, textContent, timestamp, isSentByMe);
+        copy.id = id;
+        copy.messageUid = messageUid;
+        copy.deliveryState = deliveryState;
+        return copy;
+    }
+}
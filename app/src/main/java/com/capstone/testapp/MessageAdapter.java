@@ -3,77 +3,84 @@ package com.capstone.testapp;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.RelativeLayout; // Import RelativeLayout
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
-import java.util.List;
 
-public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageViewHolder> {
+// Chat bubbles. Sent and received messages are separate view types, each with
+// its own layout, so alignment and background are set once at inflation and a
+// bind only sets the text, plus the delivery state under sent bubbles. List updates go through submitList(), which diffs
+// on a background thread and dispatches only the rows that changed.
+public class MessageAdapter extends ListAdapter<Message, MessageAdapter.MessageViewHolder> {
 
-    private final List<Message> messageList;
+    static final int VIEW_TYPE_SENT = 1;
+    static final int VIEW_TYPE_RECEIVED = 2;
 
-    public MessageAdapter(List<Message> messageList) {
-        this.messageList = messageList;
+    public MessageAdapter() {
+        super(new MessageDiffCallback());
+        // Message ids are database row ids, so they are stable across updates
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).id;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return getItem(position).isSentByMe ? VIEW_TYPE_SENT : VIEW_TYPE_RECEIVED;
     }
 
     @NonNull
     @Override
     public MessageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        // Inflate the updated message_item.xml layout
-        View view = LayoutInflater.from(parent.getContext())
-                .inflate(R.layout.message_item, parent, false);
+        int layout = viewType == VIEW_TYPE_SENT ? R.layout.message_item_sent : R.layout.message_item_received;
+        View view = LayoutInflater.from(parent.getContext()).inflate(layout, parent, false);
         return new MessageViewHolder(view);
     }
 
     @Override
     public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
-        Message message = messageList.get(position);
+        Message message = getItem(position);
         holder.messageTextView.setText(message.textContent);
-
-        // --- THIS IS THE CHAT BUBBLE LOGIC ---
-        // Create layout parameters for the TextView within the RelativeLayout
-        RelativeLayout.LayoutParams params = new RelativeLayout.LayoutParams(
-                RelativeLayout.LayoutParams.WRAP_CONTENT,
-                RelativeLayout.LayoutParams.WRAP_CONTENT
-        );
-
-        // Add some margin between messages
-        params.topMargin = 4;
-        params.bottomMargin = 4;
-
-        if (message.isSentByMe) {
-            // If the message is sent by me:
-            // Set the background to the green bubble
-            holder.messageTextView.setBackgroundResource(R.drawable.bg_bubble_sent);
-            // Align the bubble to the right side of the screen
-            params.addRule(RelativeLayout.ALIGN_PARENT_END);
-            params.leftMargin = 100; // Add margin to the left to prevent full width
-        } else {
-            // If the message is received:
-            // Set the background to the white bubble
-            holder.messageTextView.setBackgroundResource(R.drawable.bg_bubble_received);
-            // Align the bubble to the left side of the screen
-            params.addRule(RelativeLayout.ALIGN_PARENT_START);
-            params.rightMargin = 100; // Add margin to the right to prevent full width
+        if (holder.deliveryStateTextView != null) {
+            int label = deliveryStateLabel(message.deliveryState);
+            if (label == 0) {
+                holder.deliveryStateTextView.setVisibility(View.GONE);
+            } else {
+                holder.deliveryStateTextView.setText(label);
+                holder.deliveryStateTextView.setVisibility(View.VISIBLE);
+            }
         }
-
-        // Apply the background and alignment rules to the TextView
-        holder.messageTextView.setLayoutParams(params);
-        // --- END OF CHAT BUBBLE LOGIC ---
     }
 
-    @Override
-    public int getItemCount() {
-        return messageList.size();
+    // String resource for a Message.DELIVERY_ state, or 0 to show nothing
+    private static int deliveryStateLabel(int deliveryState) {
+        switch (deliveryState) {
+            case Message.DELIVERY_PENDING:
+                return R.string.delivery_pending;
+            case Message.DELIVERY_SENT:
+                return R.string.delivery_sent;
+            case Message.DELIVERY_DELIVERED:
+                return R.string.delivery_delivered;
+            case Message.DELIVERY_FAILED:
+                return R.string.delivery_failed;
+            default:
+                return 0;
+        }
     }
 
     public static class MessageViewHolder extends RecyclerView.ViewHolder {
-        TextView messageTextView;
+        final TextView messageTextView;
+        // Only in sent bubbles; null for received ones
+        final TextView deliveryStateTextView;
 
         public MessageViewHolder(@NonNull View itemView) {
             super(itemView);
             messageTextView = itemView.findViewById(R.id.messageTextView);
+            deliveryStateTextView = itemView.findViewById(R.id.deliveryStateTextView);
         }
     }
 }
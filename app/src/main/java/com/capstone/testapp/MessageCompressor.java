@@ -0,0 +1,125 @@
+package com.capstone.testapp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Compression stage applied to message plaintext before it is encrypted.
+// Chat messages are too short for plain Deflate to find much repetition, so both
+// sides prime it with a preset dictionary of common chat words. Raw Deflate (no
+// zlib header or checksum) is used since the ciphertext is already authenticated.
+//
+// compress() returns null when the result would not be smaller, and the message
+// is then sent as-is. pack() and unpack() mark which it was inside the plaintext,
+// so the marker is encrypted and authenticated along with the message. A relay
+// can't flip it the way it could a header flag. Compressed plaintext starts with
+// MARKER_DEFLATE; plain text goes without a marker, since 0xFF never occurs in
+// UTF-8. Uncompressed messages from older builds therefore still read fine.
+//
+// The dictionary is part of the wire format: changing it needs a new marker.
+public final class MessageCompressor {
+
+    // First byte of packed plaintext that was compressed
+    static final byte MARKER_DEFLATE = (byte) 0xFF;
+
+    // Upper bound on inflated size, so a hostile payload can't exhaust memory
+    public static final int MAX_DECOMPRESSED_LENGTH = 64 * 1024;
+
+    // Deflate treats the end of the dictionary as the most recent data and reaches
+    // it with the shortest distances, so the most common words come last.
+    static final byte[] DICTIONARY = (
+            "battery charger generator solar panel antenna frequency channel repeater "
+            + "coordinates latitude longitude north south east west road bridge river "
+            + "trail ridge valley village town shelter tent camp fire wood food water "
+            + "medical doctor hospital injured hurt emergency rescue evacuate storm rain "
+            + "wind weather tonight tomorrow morning afternoon evening yesterday today "
+            + "minutes hours later soon now already still again "
+            + "Please let me know if you need anything. "
+            + "Can you hear me? Do you copy? Signal is weak. "
+            + "I'm on my way. I will be there in ten minutes. "
+            + "Where are you? What is your location? Send your location. "
+            + "Are you ok? I'm ok. We are safe. Everyone is fine. "
+            + "Meet at the usual place. See you soon. "
+            + "Thank you! Thanks, ok, yes, no, good, sorry, "
+            + "hello hi hey how are you the and that this with for have what when where "
+            + "you are I'm we're it's don't can't ok okay yes no "
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_COMPRESSION, true);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private MessageCompressor() {
+    }
+
+    // Compress with the preset dictionary. Returns null if that doesn't save anything.
+    public static byte[] compress(byte[] plainText) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(plainText);
+        deflater.finish();
+
+        // Only worth it if it saves at least one byte, so stop at the input size
+        byte[] buffer = new byte[plainText.length];
+        int length = 0;
+        while (!deflater.finished() && length < buffer.length) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        if (!deflater.finished() || length >= plainText.length) return null;
+        return Arrays.copyOf(buffer, length);
+    }
+
+    // UTF-8 text as it goes into encryption: compressed behind MARKER_DEFLATE
+    // if that is smaller, as it is otherwise
+    public static byte[] pack(byte[] utf8) {
+        byte[] compressed = compress(utf8);
+        if (compressed == null || compressed.length + 1 >= utf8.length) return utf8;
+        byte[] packed = new byte[compressed.length + 1];
+        packed[0] = MARKER_DEFLATE;
+        System.arraycopy(compressed, 0, packed, 1, compressed.length);
+        return packed;
+    }
+
+    // Reverse of pack(). Returns null if compressed data is malformed or oversized.
+    public static byte[] unpack(byte[] plainText) {
+        if (plainText.length == 0 || plainText[0] != MARKER_DEFLATE) return plainText;
+        return decompress(Arrays.copyOfRange(plainText, 1, plainText.length));
+    }
+
+    // Reverse of compress(). Returns null for malformed or oversized input.
+    public static byte[] decompress(byte[] compressed) {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[512];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null; // Truncated
+                }
+                out.write(buffer, 0, count);
+                if (out.size() > MAX_DECOMPRESSED_LENGTH) return null;
+            }
+            return out.toByteArray();
+        } catch (DataFormatException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
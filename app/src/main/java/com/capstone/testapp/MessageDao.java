@@ -2,6 +2,7 @@ package com.capstone.testapp;
 
 import androidx.room.Dao;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 
 import java.util.List;
@@ -11,11 +12,61 @@ import java.util.List;
 public interface MessageDao {
 
     // The @Insert annotation creates a command to insert a new message.
+    // Returns the new row id, which paging needs in Message.id.
     @Insert
-    void insert(Message message);
+    long insert(Message message);
 
-    // The @Query annotation lets you write custom SQL to read from the database.
-    // This query selects all messages and orders them by their timestamp.
-    @Query("SELECT * FROM messages ORDER BY timestamp ASC")
-    List<Message> getAllMessages();
-}
\ No newline at end of file
+    // Inserts the whole list in a single transaction (one commit and fsync) and
+    // returns the new row ids in order. A message whose messageUid is already
+    // stored is skipped and gets -1. Used by MessageIngestQueue.
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long[] insertAll(List<Message> messages);
+
+    // Whether a message with this uid is stored, sent or received. Uses the
+    // unique index on messageUid.
+    @Query("SELECT EXISTS(SELECT 1 FROM messages WHERE messageUid = :messageUid)")
+    boolean hasMessageUid(long messageUid);
+
+    // Delivery state of a sent message (Message.DELIVERY_)
+    @Query("UPDATE messages SET deliveryState = :deliveryState WHERE messageUid = :messageUid")
+    void setDeliveryState(long messageUid, int deliveryState);
+
+    // Paging uses keyset queries: a page is addressed by the (timestamp, id) of the
+    // message at its edge rather than by OFFSET, so fetching any page only walks
+    // the (conversationId, timestamp) index for `limit` rows. id breaks ties between
+    // messages with the same timestamp. The redundant `timestamp <=` / `>=` term
+    // lets SQLite use the index for the range (no row values before SQLite 3.15).
+
+    // Newest messages of a conversation, newest first
+    @Query("SELECT * FROM messages WHERE conversationId = :conversationId "
+            + "ORDER BY timestamp DESC, id DESC LIMIT :limit")
+    List<Message> latest(int conversationId, int limit);
+
+    // Messages older than (timestamp, id), newest first
+    @Query("SELECT * FROM messages WHERE conversationId = :conversationId "
+            + "AND timestamp <= :timestamp AND (timestamp < :timestamp OR id < :id) "
+            + "ORDER BY timestamp DESC, id DESC LIMIT :limit")
+    List<Message> before(int conversationId, long timestamp, int id, int limit);
+
+    // Messages newer than (timestamp, id), oldest first
+    @Query("SELECT * FROM messages WHERE conversationId = :conversationId "
+            + "AND timestamp >= :timestamp AND (timestamp > :timestamp OR id > :id) "
+            + "ORDER BY timestamp ASC, id ASC LIMIT :limit")
+    List<Message> after(int conversationId, long timestamp, int id, int limit);
+
+    // Full-text search goes through the messages_fts index (see MessageFts and
+    // MessageSearch). :query is an FTS MATCH expression; build it with
+    // MessageSearch.toMatchQuery() rather than passing user input through.
+
+    // Ids and ranking statistics of the newest `limit` hits. No message text is read.
+    @Query("SELECT docid AS id, matchinfo(messages_fts, 'pcnalx') AS matchInfo "
+            + "FROM messages_fts WHERE messages_fts MATCH :query "
+            + "ORDER BY docid DESC LIMIT :limit")
+    List<MessageSearch.Candidate> searchCandidates(String query, int limit);
+
+    // The given hits with their match positions, as returned by FTS offsets()
+    @Query("SELECT messages.*, offsets(messages_fts) AS matchOffsets "
+            + "FROM messages_fts JOIN messages ON messages.id = messages_fts.docid "
+            + "WHERE messages_fts MATCH :query AND messages_fts.docid IN (:ids)")
+    List<MessageSearch.Row> searchRows(String query, List<Integer> ids);
+}
@@ -0,0 +1,24 @@
+package com.capstone.testapp;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.Objects;
+
+// Tells ListAdapter which messages are the same row and whether a row needs
+// rebinding. Called for every item on each list update, so it must not allocate.
+public class MessageDiffCallback extends DiffUtil.ItemCallback<Message> {
+
+    @Override
+    public boolean areItemsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+        return oldItem.id == newItem.id;
+    }
+
+    @Override
+    public boolean areContentsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+        return oldItem.isSentByMe == newItem.isSentByMe
+                && oldItem.timestamp == newItem.timestamp
+                && oldItem.deliveryState == newItem.deliveryState
+                && Objects.equals(oldItem.textContent, newItem.textContent);
+    }
+}
@@ -0,0 +1,15 @@
+package com.capstone.testapp;
+
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+
+// Full-text index over messages.textContent, used by MessageSearch.
+// The table is external-content: it only stores the index, and reads the text
+// from the messages table when it needs it. docid is the message id. Room keeps
+// the index in sync with triggers on the messages table.
+@Fts4(contentEntity = Message.class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = "messages_fts")
+public class MessageFts {
+    public String textContent;
+}
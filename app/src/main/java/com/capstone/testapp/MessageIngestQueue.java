@@ -0,0 +1,171 @@
+package com.capstone.testapp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Write-behind queue for storing messages.
+// Messages that arrive within a short window are written together with one
+// MessageDao.insertAll() call, which is one transaction and one fsync, and the
+// listener is told once per batch. When the node flushes a backlog after
+// reconnecting, that turns dozens of commits and UI posts into a few.
+//
+// A batch is written when the window since its first message has passed or it
+// reaches maxBatchSize, whichever comes first. Writes happen on a private thread.
+//
+// Retransmitted and relayed copies of a message share its messageUid. The uids
+// of recent messages are kept in memory, so a repeat is dropped in enqueue()
+// without touching the database. Older repeats are caught by the unique index
+// on messageUid, which makes insertAll() skip them; isKnown() looks there too.
+public class MessageIngestQueue {
+
+    // Message uids remembered for dropping repeats before they reach the database
+    static final int RECENT_UID_CAPACITY = 512;
+
+    public interface Listener {
+        // Called on the queue's thread after a batch is stored. Messages have their ids set.
+        void onMessagesStored(List<Message> batch);
+
+        // Called on the queue's thread after setDeliveryState() reached the database
+        default void onDeliveryStateStored(long messageUid, int deliveryState) {
+        }
+
+        // Called on the queue's thread when insertAll() threw for a batch. Those
+        // messages weren't stored, and their uids are forgotten so a later copy
+        // is not dropped as a repeat. Later batches are still written.
+        default void onStoreFailed(List<Message> batch, RuntimeException error) {
+        }
+    }
+
+    private final MessageDao messageDao;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final Listener listener;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    // Guarded by this
+    private List<Message> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+    private final Map<Long, Boolean> recentUids = new LinkedHashMap<Long, Boolean>(RECENT_UID_CAPACITY * 4 / 3 + 1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > RECENT_UID_CAPACITY;
+        }
+    };
+
+    public MessageIngestQueue(MessageDao messageDao, long windowMillis, int maxBatchSize, Listener listener) {
+        this.messageDao = messageDao;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.listener = listener;
+    }
+
+    // Queues a message for storing. Returns false, and drops it, if a message with
+    // the same messageUid was queued recently.
+    public synchronized boolean enqueue(Message message) {
+        if (closed) throw new IllegalStateException("MessageIngestQueue is closed");
+        if (message.messageUid != null && recentUids.put(message.messageUid, Boolean.TRUE) != null) {
+            return false;
+        }
+        pending.add(message);
+        if (pending.size() >= maxBatchSize) {
+            if (scheduledFlush != null) scheduledFlush.cancel(false);
+            scheduledFlush = null;
+            executor.execute(this::flush);
+        } else if (scheduledFlush == null) {
+            scheduledFlush = executor.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    // Whether a message with this uid was queued recently. Lets callers skip
+    // work, like decrypting, for a copy that would be dropped anyway.
+    public synchronized boolean isRecent(long messageUid) {
+        return recentUids.containsKey(messageUid);
+    }
+
+    // Whether a message with this uid was queued recently or is already stored,
+    // e.g. long ago or by an earlier run of the service. Reads the database when
+    // the uid isn't recent, so not for the main thread.
+    public boolean isKnown(long messageUid) {
+        return isRecent(messageUid) || messageDao.hasMessageUid(messageUid);
+    }
+
+    // Record the delivery state of a sent message. The update is ordered after the
+    // message's own insert: a message still pending is just updated in place and
+    // stored with the new state. Ignored after close().
+    public synchronized void setDeliveryState(long messageUid, int deliveryState) {
+        if (closed) return;
+        for (Message message : pending) {
+            if (message.messageUid != null && message.messageUid == messageUid) {
+                message.deliveryState = deliveryState;
+                return;
+            }
+        }
+        executor.execute(() -> {
+            messageDao.setDeliveryState(messageUid, deliveryState);
+            listener.onDeliveryStateStored(messageUid, deliveryState);
+        });
+    }
+
+    // Write whatever is pending without waiting for the window, then stop.
+    // Doesn't block; see awaitClosed().
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (scheduledFlush != null) scheduledFlush.cancel(false);
+        scheduledFlush = null;
+        executor.execute(this::flush);
+        executor.shutdown();
+    }
+
+    // Wait for the last batch after close(). Returns false on timeout.
+    public boolean awaitClosed(long timeoutMillis) throws InterruptedException {
+        return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Runs on the queue thread. Writes everything pending, maxBatchSize at a time.
+    private void flush() {
+        List<Message> all;
+        synchronized (this) {
+            all = pending;
+            if (all.isEmpty()) return;
+            pending = new ArrayList<>();
+            // May be a later window's flush, scheduled while this one was queued;
+            // it has nothing left to write, and left behind it would hold up close()
+            if (scheduledFlush != null) scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        for (int from = 0; from < all.size(); from += maxBatchSize) {
+            List<Message> batch = all.subList(from, Math.min(all.size(), from + maxBatchSize));
+            long[] ids;
+            try {
+                ids = messageDao.insertAll(batch);
+            } catch (RuntimeException e) {
+                forgetUids(batch);
+                listener.onStoreFailed(new ArrayList<>(batch), e);
+                continue;
+            }
+            List<Message> stored = new ArrayList<>(batch.size());
+            for (int i = 0; i < ids.length; i++) {
+                // -1: already in the database
+                if (ids[i] == -1) continue;
+                batch.get(i).id = (int) ids[i];
+                stored.add(batch.get(i));
+            }
+            if (!stored.isEmpty()) listener.onMessagesStored(stored);
+        }
+    }
+
+    private synchronized void forgetUids(List<Message> messages) {
+        for (Message message : messages) {
+            if (message.messageUid != null) recentUids.remove(message.messageUid);
+        }
+    }
+}
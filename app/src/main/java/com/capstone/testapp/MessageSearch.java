@@ -0,0 +1,219 @@
+package com.capstone.testapp;
+
+import androidx.room.Embedded;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Ranked full-text search over all messages.
+// Matching goes through the messages_fts index, so a search reads the index
+// entries for its terms instead of scanning every message. The newest
+// MAX_CANDIDATES hits are scored with BM25 from FTS matchinfo(); only the page
+// being shown is then read from the messages table, with the match positions
+// for highlighting.
+//
+// SQLite's FTS4 has no built-in ranking function and Room can't register one,
+// so BM25 is computed here from the statistics matchinfo('pcnalx') returns.
+public class MessageSearch {
+
+    // Hits beyond this many (newest first) are not ranked or shown
+    static final int MAX_CANDIDATES = 1000;
+    // Query terms beyond this many are ignored
+    static final int MAX_TERMS = 8;
+
+    // BM25 parameters, the usual defaults
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // Result of MessageDao.searchCandidates()
+    public static class Candidate {
+        public int id;
+        public byte[] matchInfo;
+    }
+
+    // Result of MessageDao.searchRows()
+    public static class Row {
+        @Embedded
+        public Message message;
+        public String matchOffsets;
+    }
+
+    public static final class Hit {
+        public final Message message;
+        public final double score;
+        // Matched ranges in message.textContent as [start, end) char index pairs
+        public final int[] highlights;
+
+        Hit(Message message, double score, int[] highlights) {
+            this.message = message;
+            this.score = score;
+            this.highlights = highlights;
+        }
+    }
+
+    private final MessageDao messageDao;
+
+    public MessageSearch(MessageDao messageDao) {
+        this.messageDao = messageDao;
+    }
+
+    // Best hits for what the user typed, best first, starting at `offset`.
+    // Returns an empty list when there is nothing to search for. Runs queries;
+    // call it off the main thread.
+    public List<Hit> search(String userQuery, int offset, int limit) {
+        String matchQuery = toMatchQuery(userQuery);
+        if (matchQuery == null) return new ArrayList<>();
+
+        List<Candidate> candidates = messageDao.searchCandidates(matchQuery, MAX_CANDIDATES);
+        final Map<Integer, Double> scores = new HashMap<>();
+        for (Candidate candidate : candidates) {
+            scores.put(candidate.id, bm25(candidate.matchInfo));
+        }
+        // Best score first; newer messages (higher ids) win ties
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                int byScore = Double.compare(scores.get(b.id), scores.get(a.id));
+                return byScore != 0 ? byScore : Integer.compare(b.id, a.id);
+            }
+        });
+        if (offset >= candidates.size()) return new ArrayList<>();
+        List<Integer> pageIds = new ArrayList<>();
+        for (int i = offset; i < Math.min(candidates.size(), offset + limit); i++) {
+            pageIds.add(candidates.get(i).id);
+        }
+
+        Map<Integer, Row> rows = new HashMap<>();
+        for (Row row : messageDao.searchRows(matchQuery, pageIds)) {
+            rows.put(row.message.id, row);
+        }
+        List<Hit> hits = new ArrayList<>(pageIds.size());
+        for (Integer id : pageIds) {
+            Row row = rows.get(id);
+            // Deleted between the two queries
+            if (row == null) continue;
+            hits.add(new Hit(row.message, scores.get(id), highlights(row.message.textContent, row.matchOffsets)));
+        }
+        return hits;
+    }
+
+    // Turns free text into a MATCH expression: every word must appear, and the
+    // last one may be a prefix so results show up while typing. FTS operators and
+    // punctuation are dropped rather than interpreted. Null if there are no words.
+    static String toMatchQuery(String userQuery) {
+        if (userQuery == null) return null;
+        List<String> terms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= userQuery.length(); i++) {
+            char c = i < userQuery.length() ? userQuery.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                term.append(c);
+            } else if (term.length() > 0) {
+                String word = term.toString();
+                term.setLength(0);
+                // Bare AND/OR/NOT/NEAR would be read as operators
+                if (word.equals("AND") || word.equals("OR") || word.equals("NOT") || word.equals("NEAR")) {
+                    word = word.toLowerCase();
+                }
+                if (terms.size() < MAX_TERMS) terms.add(word);
+            }
+        }
+        if (terms.isEmpty()) return null;
+
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < terms.size(); i++) {
+            if (i > 0) query.append(' ');
+            query.append(terms.get(i));
+        }
+        return query.append('*').toString();
+    }
+
+    // Okapi BM25 of one row, from a matchinfo(fts, 'pcnalx') blob.
+    // Layout, in native-order 32-bit ints: phrase count p, column count c, row
+    // count n, average tokens per column (c), tokens in this row per column (c),
+    // then for each phrase and column: hits in this row, hits in all rows, rows
+    // with a hit.
+    static double bm25(byte[] matchInfo) {
+        ByteBuffer buffer = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+        int phrases = buffer.getInt(0);
+        int columns = buffer.getInt(4);
+        long rowCount = buffer.getInt(8) & 0xFFFFFFFFL;
+        int averageAt = 3;
+        int lengthAt = averageAt + columns;
+        int hitsAt = lengthAt + columns;
+
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int x = hitsAt + 3 * (phrase * columns + column);
+                int hitsInRow = buffer.getInt(4 * x);
+                if (hitsInRow == 0) continue;
+                long rowsWithHit = buffer.getInt(4 * (x + 2)) & 0xFFFFFFFFL;
+                double averageLength = Math.max(1, buffer.getInt(4 * (averageAt + column)));
+                double length = buffer.getInt(4 * (lengthAt + column));
+
+                // Floored so a term that's in most messages still counts for a little
+                double idf = Math.max(0.01, Math.log((rowCount - rowsWithHit + 0.5) / (rowsWithHit + 0.5)));
+                score += idf * hitsInRow * (K1 + 1)
+                        / (hitsInRow + K1 * (1 - B + B * length / averageLength));
+            }
+        }
+        return score;
+    }
+
+    // Converts FTS offsets() output to char ranges in text. offsets() gives
+    // "column term byteOffset byteLength" for each match, with byte positions
+    // in the UTF-8 encoding of the text. Ranges come back sorted.
+    static int[] highlights(String text, String offsets) {
+        if (text == null || offsets == null || offsets.isEmpty()) return new int[0];
+        String[] parts = offsets.trim().split(" ");
+        int matches = parts.length / 4;
+        int[] ranges = new int[matches * 2];
+        for (int i = 0; i < matches; i++) {
+            int byteStart = Integer.parseInt(parts[i * 4 + 2]);
+            int byteEnd = byteStart + Integer.parseInt(parts[i * 4 + 3]);
+            ranges[i * 2] = charIndex(text, byteStart);
+            ranges[i * 2 + 1] = charIndex(text, byteEnd);
+        }
+        // Sort the pairs by start; offsets() lists matches term by term
+        long[] packed = new long[matches];
+        for (int i = 0; i < matches; i++) {
+            packed[i] = ((long) ranges[i * 2] << 32) | ranges[i * 2 + 1];
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < matches; i++) {
+            ranges[i * 2] = (int) (packed[i] >>> 32);
+            ranges[i * 2 + 1] = (int) packed[i];
+        }
+        return ranges;
+    }
+
+    // Index of the char that starts at UTF-8 byte offset `byteOffset` in text
+    private static int charIndex(String text, int byteOffset) {
+        int bytes = 0;
+        int i = 0;
+        while (i < text.length() && bytes < byteOffset) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,39 @@
+package com.capstone.testapp;
+
+// A link that carries encoded frames to and from the LoRa node.
+// GattTransport talks to a real node over BLE; LoopbackTransport is an in-memory
+// stand-in with configurable latency, loss and MTU for tests and benchmarks.
+//
+// Implementations take care of fragmentation, so send() accepts a whole frame.
+// Listeners may be called on any thread.
+public interface MessageTransport {
+
+    int STATE_DISCONNECTED = 0;
+    int STATE_CONNECTING = 1;
+    int STATE_CONNECTED = 2;
+
+    interface FrameListener {
+        void onFrameReceived(byte[] frame);
+    }
+
+    interface ConnectionListener {
+        void onConnectionStateChanged(int state);
+    }
+
+    void connect();
+
+    void disconnect();
+
+    // Queue a frame for sending. Returns false if it cannot be sent right now
+    // (not connected, or too large for the link).
+    boolean send(byte[] frame);
+
+    int getState();
+
+    // Largest frame send() will accept at the current MTU
+    int getMaxFrameLength();
+
+    void setFrameListener(FrameListener listener);
+
+    void setConnectionListener(ConnectionListener listener);
+}
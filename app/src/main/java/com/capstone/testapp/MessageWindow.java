@@ -0,0 +1,159 @@
+package com.capstone.testapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// A bounded, scrollable window onto one conversation's history.
+// The chat screen starts with the newest page and loads older or newer pages as
+// the user scrolls. Pages come from MessageDao's keyset queries, so each load
+// costs the same however long the history is. Once the window holds more than
+// maxSize messages it trims the far end, which keeps memory flat.
+//
+// Loads do database I/O, so call them off the UI thread. Each returns an immutable
+// snapshot of the window for MessageAdapter.submitList(), or null if nothing changed.
+public class MessageWindow {
+
+    // Where pages come from. Pages are newest first for latest()/before() and
+    // oldest first for after(), like the MessageDao queries.
+    public interface Source {
+        List<Message> latest(int limit);
+
+        List<Message> before(long timestamp, int id, int limit);
+
+        List<Message> after(long timestamp, int id, int limit);
+    }
+
+    public static Source forConversation(MessageDao dao, int conversationId) {
+        return new Source() {
+            @Override
+            public List<Message> latest(int limit) {
+                return dao.latest(conversationId, limit);
+            }
+
+            @Override
+            public List<Message> before(long timestamp, int id, int limit) {
+                return dao.before(conversationId, timestamp, id, limit);
+            }
+
+            @Override
+            public List<Message> after(long timestamp, int id, int limit) {
+                return dao.after(conversationId, timestamp, id, limit);
+            }
+        };
+    }
+
+    private final Source source;
+    private final int pageSize;
+    private final int maxSize;
+
+    // Oldest first, as displayed
+    private final ArrayList<Message> messages = new ArrayList<>();
+    // Volatile so the UI thread can check them without waiting for a load in progress
+    private volatile boolean hasOlder;
+    private volatile boolean hasNewer;
+
+    public MessageWindow(Source source, int pageSize, int maxSize) {
+        if (maxSize < 2 * pageSize) {
+            throw new IllegalArgumentException("maxSize must hold at least two pages");
+        }
+        this.source = source;
+        this.pageSize = pageSize;
+        this.maxSize = maxSize;
+    }
+
+    // Jump to the newest messages, replacing whatever the window held
+    public synchronized List<Message> loadLatest() {
+        List<Message> page = source.latest(pageSize);
+        messages.clear();
+        addReversed(page, 0);
+        hasOlder = page.size() == pageSize;
+        hasNewer = false;
+        return snapshot();
+    }
+
+    // Prepend the page before the oldest loaded message
+    public synchronized List<Message> loadOlder() {
+        if (!hasOlder || messages.isEmpty()) return null;
+        Message oldest = messages.get(0);
+        List<Message> page = source.before(oldest.timestamp, oldest.id, pageSize);
+        hasOlder = page.size() == pageSize;
+        if (page.isEmpty()) return null;
+
+        addReversed(page, 0);
+        if (messages.size() > maxSize) {
+            messages.subList(maxSize, messages.size()).clear();
+            hasNewer = true;
+        }
+        return snapshot();
+    }
+
+    // Append the page after the newest loaded message
+    public synchronized List<Message> loadNewer() {
+        if (!hasNewer || messages.isEmpty()) return null;
+        Message newest = messages.get(messages.size() - 1);
+        List<Message> page = source.after(newest.timestamp, newest.id, pageSize);
+        hasNewer = page.size() == pageSize;
+        if (page.isEmpty()) return null;
+
+        messages.addAll(page);
+        trimStart();
+        return snapshot();
+    }
+
+    // Show a message that was just stored (sent or received). If the window is
+    // scrolled away from the newest messages it's left out; it will be loaded
+    // with the newer pages. The message must already have its database id.
+    public synchronized List<Message> add(Message message) {
+        if (hasNewer) return null;
+        messages.add(message);
+        trimStart();
+        return snapshot();
+    }
+
+    // Same as add() for a batch of stored messages, oldest first
+    public synchronized List<Message> addAll(List<Message> batch) {
+        if (hasNewer || batch.isEmpty()) return null;
+        messages.addAll(batch);
+        trimStart();
+        return snapshot();
+    }
+
+    // Show a sent message's new delivery state. Returns null if it isn't in the window.
+    public synchronized List<Message> setDeliveryState(long messageUid, int deliveryState) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            Message message = messages.get(i);
+            if (message.messageUid != null && message.messageUid == messageUid) {
+                if (message.deliveryState == deliveryState) return null;
+                // Replaced, not changed in place: the previous snapshot may still be diffed against
+                messages.set(i, message.withDeliveryState(deliveryState));
+                return snapshot();
+            }
+        }
+        return null;
+    }
+
+    public boolean hasOlder() {
+        return hasOlder;
+    }
+
+    public boolean hasNewer() {
+        return hasNewer;
+    }
+
+    private void trimStart() {
+        if (messages.size() <= maxSize) return;
+        messages.subList(0, messages.size() - maxSize).clear();
+        hasOlder = true;
+    }
+
+    private void addReversed(List<Message> page, int index) {
+        ArrayList<Message> reversed = new ArrayList<>(page);
+        Collections.reverse(reversed);
+        messages.addAll(index, reversed);
+    }
+
+    private List<Message> snapshot() {
+        return Collections.unmodifiableList(new ArrayList<>(messages));
+    }
+}
@@ -0,0 +1,816 @@
+package com.capstone.testapp;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Foreground service that owns the link to the LoRa node.
+// One connection serves every conversation and stays up while the user moves
+// between screens or leaves the app, so incoming messages keep being received,
+// acknowledged and stored in the background. Activities bind to it (see
+// LocalBinder), call connect() once they hold the Bluetooth permissions, and
+// register a Listener to hear about stored messages and connection changes.
+//
+// Everything that used to live in ChatActivity's BLE half is here: scanning,
+// the GattTransport and RelayEngine, decrypting and storing incoming frames,
+// and the outbox and ReliableSender for outgoing ones.
+//
+// Reconnecting skips the scan where it can. The last node we were connected to
+// is remembered, and connect() first tries it directly, which takes well under a
+// second when it's in range. Only if that fails does it scan, and only for
+// nodes advertising our service, with the filter running in the controller. The
+// scan starts in low-latency mode and backs off to cheaper, batched and duty
+// cycled scanning the longer it goes (see ScanScheduler). Once a node turns up,
+// the scan keeps going for NODE_SELECTION_WINDOW_MS and then connects to the
+// strongest node seen (see ScanAggregator). If the scan finds nothing, a background
+// autoConnect to the last node stays pending until it comes back in range. A
+// connection that drops goes through the same steps again. While connected, a
+// short scan every HANDOVER_CHECK_MS looks for a node with a clearly stronger
+// signal, and moves the connection to it if one is found.
+public class NodeConnectionService extends Service {
+
+    private static final String TAG = "NodeConnectionService";
+
+    private static final String CHANNEL_ID = "node_connection";
+    private static final int NOTIFICATION_ID = 1;
+    private static final String ACTION_STOP = "com.capstone.testapp.action.STOP_NODE_CONNECTION";
+
+    // A direct connection to a node in range, with MTU and service discovery, takes
+    // about a second; Android's own timeout for an absent one is 30 s
+    private static final long DIRECT_CONNECT_TIMEOUT_MS = 5000;
+    // Scanning goes on this long after the first node turns up, to hear the others
+    private static final long NODE_SELECTION_WINDOW_MS = 2000;
+    // While connected, scan for SURVEY_MS this often to look for a stronger node
+    private static final long HANDOVER_CHECK_MS = 120000;
+    private static final long SURVEY_MS = 4000;
+    private static final ScanScheduler.Stage SURVEY_STAGE =
+            new ScanScheduler.Stage(ScanScheduler.MODE_BALANCED, 0, SURVEY_MS);
+
+    // The last node we were connected to
+    private static final String PREFS_NAME = "NodePrefs";
+    private static final String KEY_NODE_ADDRESS = "node_address";
+    private static final String KEY_NODE_NAME = "node_name";
+    private static final String KEY_NODE_CONNECTED_AT = "node_connected_at";
+
+    // How connect() is currently trying to reach a node
+    private static final int PHASE_IDLE = 0;
+    private static final int PHASE_DIRECT = 1;
+    private static final int PHASE_SCAN = 2;
+    private static final int PHASE_AUTO = 3;
+    private static final int PHASE_CONNECTED = 4;
+
+    // Stores sent and received messages in batches; see MessageIngestQueue
+    private static final long INGEST_WINDOW_MS = 50;
+    private static final int INGEST_MAX_BATCH = 128;
+    private static final long RETRANSMIT_TICK_MS = 250;
+    // Picks up outbox entries whose retry delay has passed
+    private static final long OUTBOX_POLL_MS = 30000;
+    // The node's LoRa settings and the duty cycle allowed in the band (EU868: 1%),
+    // for pacing what we hand it; see PacedTransport
+    private static final LoRaAirtime LORA_AIRTIME = new LoRaAirtime(9, 125000, 5);
+    private static final double LORA_DUTY_CYCLE = 0.01;
+    private static final long LORA_BURST_AIRTIME_MS = 10000;
+    private static final int LORA_MAX_QUEUED = 64;
+    // Parity to start each link with; FecTransport adjusts it to the link
+    private static final int LORA_FEC_LEVEL = 1;
+
+    // Results of sendMessage()
+    public static final int SEND_QUEUED = 0;
+    public static final int SEND_TOO_LONG = 1;
+    public static final int SEND_ENCRYPTION_FAILED = 2;
+
+    // Called on a service thread; post to the UI thread as needed
+    public interface SendCallback {
+        // result is one of the SEND_ results
+        void onSendResult(int result);
+    }
+
+    // Called on service threads; post to the UI thread as needed
+    public interface Listener {
+        // Messages of any conversation, right after they were stored
+        void onMessagesStored(List<Message> batch);
+
+        void onDeliveryStateStored(long messageUid, int deliveryState);
+
+        // MessageTransport.STATE_
+        void onConnectionStateChanged(int state);
+
+        // A scan ran out without finding a node
+        default void onNodeNotFound() {
+        }
+    }
+
+    public class LocalBinder extends Binder {
+        public NodeConnectionService getService() {
+            return NodeConnectionService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private CryptoManager cryptoManager;
+    private SessionManager sessionManager;
+    private ContactDirectory contactDirectory;
+    private MessageIngestQueue ingestQueue;
+    // Retransmits our messages until they are acknowledged. Fed from the outbox,
+    // which keeps them across connections. Both are only used on executorService.
+    private ReliableSender reliableSender;
+    private Outbox outbox;
+    private ExecutorService executorService;
+    private Handler handler;
+
+    private BluetoothAdapter bluetoothAdapter;
+    private BluetoothLeScanner scanner;
+    // Searching for a node: set from startScanning() until stopScan(), including
+    // the pauses between scan windows
+    private boolean isScanning = false;
+    private ScanScheduler scanScheduler;
+    // Stage the radio is scanning with; null while it isn't
+    private ScanScheduler.Stage scanStage;
+    // Every node heard from, while searching and in surveys
+    private final ScanAggregator scanAggregator = new ScanAggregator();
+    private boolean nodeSelectionPending = false;
+    // Main thread only
+    private int phase = PHASE_IDLE;
+    private long connectStartedAt;
+    // Link to the LoRa node; null until one is found
+    private volatile MessageTransport transport;
+    // Hands us frames addressed to us and relays the rest through the mesh
+    private volatile RelayEngine relayEngine;
+    // What relayEngine sends through, at the pace the node can transmit, with
+    // FEC added below it
+    private PacedTransport pacedTransport;
+    // Message uid -> session id of sent messages that carry their session's
+    // seed. An ack for one confirms the session (see SessionManager.confirm()).
+    // Only touched on executorService.
+    private final Map<Long, Integer> unconfirmedSessions = new HashMap<>();
+
+    private final Runnable retransmitTick = new Runnable() {
+        @Override
+        public void run() {
+            executorService.execute(() -> reliableSender.tick(SystemClock.elapsedRealtime()));
+            handler.postDelayed(this, RETRANSMIT_TICK_MS);
+        }
+    };
+    private final Runnable outboxPoll = new Runnable() {
+        @Override
+        public void run() {
+            executorService.execute(NodeConnectionService.this::drainOutbox);
+            handler.postDelayed(this, OUTBOX_POLL_MS);
+        }
+    };
+    private final Runnable scanStep = this::stepScan;
+    private final Runnable selectNode = this::selectNode;
+    private final Runnable handoverCheck = this::startSurvey;
+    private final Runnable surveyDone = this::finishSurvey;
+    private final Runnable directConnectTimeout = () -> {
+        if (phase == PHASE_DIRECT) {
+            Log.d(TAG, "Last node didn't answer; scanning.");
+            closeTransport();
+            startScanning();
+        }
+    };
+
+    // Start the service, or keep it running. Call once the Bluetooth permissions are granted.
+    public static void start(Context context) {
+        ContextCompat.startForegroundService(context, new Intent(context, NodeConnectionService.class));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        handler = new Handler(Looper.getMainLooper());
+        executorService = Executors.newSingleThreadExecutor();
+        cryptoManager = new CryptoManager(this);
+        sessionManager = new SessionManager(this, cryptoManager);
+
+        AppDatabase db = AppDatabase.getDatabase(this);
+        contactDirectory = db.contactDirectory();
+        // Read contacts now so routing the first incoming frame doesn't have to
+        executorService.execute(() -> {
+            int skipped = contactDirectory.load();
+            if (skipped > 0) {
+                Log.w(TAG, skipped + " contacts have an unreadable key or a fingerprint another contact has");
+            }
+        });
+        ingestQueue = new MessageIngestQueue(db.messageDao(), INGEST_WINDOW_MS, INGEST_MAX_BATCH, new MessageIngestQueue.Listener() {
+            @Override
+            public void onMessagesStored(List<Message> batch) {
+                for (Listener listener : listeners) {
+                    listener.onMessagesStored(batch);
+                }
+            }
+
+            @Override
+            public void onDeliveryStateStored(long messageUid, int deliveryState) {
+                for (Listener listener : listeners) {
+                    listener.onDeliveryStateStored(messageUid, deliveryState);
+                }
+            }
+
+            @Override
+            public void onStoreFailed(List<Message> batch, RuntimeException error) {
+                Log.e(TAG, "Failed to store " + batch.size() + " messages", error);
+            }
+        });
+        outbox = new Outbox(db.outboxDao(), ingestQueue::setDeliveryState);
+        reliableSender = new ReliableSender(this::transmitFrame, (messageUid, state) -> {
+            if (state == Message.DELIVERY_FAILED) unconfirmedSessions.remove(messageUid);
+            outbox.onDeliveryStateChanged(messageUid, state, System.currentTimeMillis());
+        });
+        // Frames can wait in pacedTransport for a while; see onFrameReleased()
+        reliableSender.setTimersStartOnRelease(true);
+        handler.postDelayed(retransmitTick, RETRANSMIT_TICK_MS);
+        handler.postDelayed(outboxPoll, OUTBOX_POLL_MS);
+
+        BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+        bluetoothAdapter = bluetoothManager != null ? bluetoothManager.getAdapter() : null;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            // Queued messages stay in the outbox for the next time
+            stopScan();
+            stopSurvey();
+            handler.removeCallbacks(directConnectTimeout);
+            closeTransport();
+            phase = PHASE_IDLE;
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        createNotificationChannel();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, buildNotification(), ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+        } else {
+            startForeground(NOTIFICATION_ID, buildNotification());
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Find and connect to a node unless connected or already trying. Call on the
+    // main thread. A pending autoConnect is replaced with a fresh, faster attempt.
+    public void connect() {
+        if (phase != PHASE_IDLE && phase != PHASE_AUTO) return;
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) return;
+        connectStartedAt = SystemClock.elapsedRealtime();
+        BluetoothDevice lastNode = lastNode();
+        if (lastNode == null) {
+            startScanning();
+            return;
+        }
+        Log.d(TAG, "Connecting directly to last node " + lastNode.getAddress());
+        phase = PHASE_DIRECT;
+        openTransport(new GattTransport(this, lastNode));
+        handler.postDelayed(directConnectTimeout, DIRECT_CONNECT_TIMEOUT_MS);
+        updateNotification();
+    }
+
+    public int getConnectionState() {
+        MessageTransport current = transport;
+        return current != null ? current.getState() : MessageTransport.STATE_DISCONNECTED;
+    }
+
+    // Store a message to a contact and queue it in the outbox. It goes out now if
+    // a node is connected, otherwise as soon as one connects. Encryption, which
+    // may also store session state, happens on the service's executor; the
+    // callback gets the outcome there.
+    public void sendMessage(int conversationId, String contactPublicKey, String messageText, SendCallback callback) {
+        // The same id goes in the frame, so every copy of the message is recognisable
+        long messageUid = Frame.newMessageId();
+        Message message = new Message(conversationId, messageText, System.currentTimeMillis(), true);
+        message.messageUid = messageUid;
+        message.deliveryState = Message.DELIVERY_PENDING;
+        ingestQueue.enqueue(message);
+
+        executorService.execute(() -> {
+            int result = queueMessage(messageUid, contactPublicKey, messageText);
+            if (result != SEND_QUEUED) ingestQueue.setDeliveryState(messageUid, Message.DELIVERY_FAILED);
+            callback.onSendResult(result);
+        });
+    }
+
+    // Runs on executorService. Encrypts a message and adds it to the outbox.
+    private int queueMessage(long messageUid, String contactPublicKey, String messageText) {
+        // Compress before encrypting; ciphertext doesn't compress
+        byte[] packed = MessageCompressor.pack(messageText.getBytes(StandardCharsets.UTF_8));
+
+        byte[] encryptedMessage = sessionManager.encrypt(packed, contactPublicKey);
+        if (encryptedMessage == null) return SEND_ENCRYPTION_FAILED;
+        Frame frame = new Frame(Frame.TYPE_CHAT, 0, cryptoManager.getKeyId(), CryptoManager.keyIdOf(contactPublicKey),
+                messageUid, Frame.DEFAULT_TTL, 0, encryptedMessage);
+        MessageTransport current = transport;
+        // Leaving room for FEC (see FecTransport)
+        if (current != null && frame.getEncodedLength() > FecCodec.getMaxFrameLength(current.getMaxFrameLength())) {
+            return SEND_TOO_LONG;
+        }
+        if (encryptedMessage[0] == RatchetSession.TYPE_SESSION_INIT) {
+            unconfirmedSessions.put(messageUid, RatchetSession.peekSessionId(encryptedMessage));
+        }
+        if (!outbox.add(frame, Outbox.PRIORITY_NORMAL, System.currentTimeMillis())) {
+            Log.w(TAG, "Message " + messageUid + " is already queued");
+        }
+        drainOutbox();
+        return SEND_QUEUED;
+    }
+
+    private void startScanning() {
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) return;
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) return;
+        if (isScanning) return;
+
+        scanner = bluetoothAdapter.getBluetoothLeScanner();
+        if (scanner == null) return;
+        Log.d(TAG, "Searching for service " + GattTransport.SERVICE_UUID
+                + " (filtering offloaded: " + bluetoothAdapter.isOffloadedFilteringSupported()
+                + ", batching offloaded: " + bluetoothAdapter.isOffloadedScanBatchingSupported() + ")");
+        isScanning = true;
+        phase = PHASE_SCAN;
+        scanAggregator.prune(SystemClock.elapsedRealtime());
+        scanScheduler = new ScanScheduler(SystemClock.elapsedRealtime());
+        stepScan();
+        updateNotification();
+    }
+
+    private void stopScan() {
+        if (!isScanning) return;
+        isScanning = false;
+        nodeSelectionPending = false;
+        handler.removeCallbacks(scanStep);
+        handler.removeCallbacks(selectNode);
+        stopRadioScan();
+    }
+
+    // Applies the scan schedule: changes settings, pauses, and gives up at the end
+    private void stepScan() {
+        if (!isScanning) return;
+        long now = SystemClock.elapsedRealtime();
+        ScanScheduler.Stage stage = scanScheduler.getStage(now);
+        if (stage == null) {
+            Log.d(TAG, "Scan timed out. Stopping scan.");
+            stopScan();
+            phase = PHASE_IDLE;
+            for (Listener listener : listeners) {
+                listener.onNodeNotFound();
+            }
+            BluetoothDevice lastNode = lastNode();
+            if (lastNode != null) {
+                Log.d(TAG, "Waiting for " + lastNode.getAddress() + " to come back in range.");
+                phase = PHASE_AUTO;
+                openTransport(new GattTransport(this, lastNode, true));
+            }
+            updateNotification();
+            return;
+        }
+        ScanScheduler.Stage wanted = scanScheduler.isScanWindow(now) ? stage : null;
+        if (wanted != scanStage) {
+            stopRadioScan();
+            if (wanted != null) startRadioScan(wanted);
+        }
+        handler.postDelayed(scanStep, scanScheduler.getNextChangeAt(now) - now);
+    }
+
+    private void startRadioScan(ScanScheduler.Stage stage) {
+        ScanSettings.Builder settings = new ScanSettings.Builder().setScanMode(stage.scanMode);
+        // Batching done by the app instead of the controller would save nothing
+        if (stage.reportDelayMillis > 0 && bluetoothAdapter.isOffloadedScanBatchingSupported()) {
+            settings.setReportDelay(stage.reportDelayMillis);
+        }
+        // Filtered in the controller, so we aren't woken for every advertisement
+        // around, and the scan keeps running with the screen off
+        List<ScanFilter> filters = Collections.singletonList(new ScanFilter.Builder()
+                .setServiceUuid(new ParcelUuid(GattTransport.SERVICE_UUID))
+                .build());
+        scanStage = stage;
+        scanner.startScan(filters, settings.build(), scanCallback);
+        Log.d(TAG, "Scanning: " + stage);
+    }
+
+    private void stopRadioScan() {
+        if (scanStage == null) return;
+        scanStage = null;
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) return;
+        // Also ends a scan the stack already stopped, e.g. with Bluetooth turned off
+        if (!bluetoothAdapter.isEnabled()) return;
+        // Deliver what the controller has batched up before it's thrown away
+        scanner.flushPendingScanResults(scanCallback);
+        scanner.stopScan(scanCallback);
+    }
+
+    // Main thread, for every report while searching or surveying
+    private void processScanResult(ScanResult result) {
+        BluetoothDevice device = result.getDevice();
+        String address = device.getAddress();
+        long now = SystemClock.elapsedRealtime();
+        if (!scanAggregator.report(address, result.getRssi(), now)) {
+            // First report of this device; the filter should have checked the
+            // service, but some stacks ignore filters for batched results
+            List<ParcelUuid> serviceUuids = result.getScanRecord() != null ? result.getScanRecord().getServiceUuids() : null;
+            boolean foundOurService = serviceUuids != null && serviceUuids.contains(new ParcelUuid(GattTransport.SERVICE_UUID));
+            scanAggregator.add(address, foundOurService, result.getRssi(), now);
+            Log.d(TAG, "Found BLE device " + address + " at " + result.getRssi() + " dBm"
+                    + (foundOurService ? ", a node" : ", not a node"));
+        }
+
+        if (isScanning && !nodeSelectionPending && scanAggregator.getBest(now) != null) {
+            nodeSelectionPending = true;
+            handler.postDelayed(selectNode, NODE_SELECTION_WINDOW_MS);
+        }
+    }
+
+    // Connect to the strongest node found by the current search
+    private void selectNode() {
+        nodeSelectionPending = false;
+        if (!isScanning) return;
+        String best = scanAggregator.getBest(SystemClock.elapsedRealtime());
+        if (best == null) return;
+        stopScan();
+        ScanAggregator.Device node = scanAggregator.get(best);
+        Log.d(TAG, "Connecting to " + best + " at " + node.getSmoothedRssi() + " dBm, best of "
+                + scanAggregator.size() + " devices seen");
+        openTransport(new GattTransport(this, bluetoothAdapter.getRemoteDevice(best)));
+    }
+
+    // While connected: listen for other nodes for a moment
+    private void startSurvey() {
+        if (phase != PHASE_CONNECTED || isScanning || scanStage != null) return;
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) return;
+        scanner = bluetoothAdapter.getBluetoothLeScanner();
+        if (scanner == null) return;
+        MessageTransport current = transport;
+        if (current instanceof GattTransport) ((GattTransport) current).readRssi();
+        startRadioScan(SURVEY_STAGE);
+        handler.postDelayed(surveyDone, SURVEY_MS);
+    }
+
+    private void finishSurvey() {
+        if (scanStage != SURVEY_STAGE) return;
+        stopRadioScan();
+        MessageTransport current = transport;
+        if (phase != PHASE_CONNECTED || !(current instanceof GattTransport)) return;
+        GattTransport gattTransport = (GattTransport) current;
+        String currentAddress = gattTransport.getDevice().getAddress();
+        int rssi = gattTransport.getRssi();
+        String target = scanAggregator.getHandoverTarget(currentAddress,
+                rssi != GattTransport.RSSI_UNKNOWN ? rssi : null, SystemClock.elapsedRealtime());
+        if (target == null) {
+            handler.postDelayed(handoverCheck, HANDOVER_CHECK_MS);
+            return;
+        }
+        Log.d(TAG, "Handing over from " + currentAddress + " (" + rssi + " dBm) to " + target
+                + " (" + scanAggregator.get(target).getSmoothedRssi() + " dBm)");
+        // Fails over to a scan like any other scanned node
+        phase = PHASE_SCAN;
+        connectStartedAt = SystemClock.elapsedRealtime();
+        openTransport(new GattTransport(this, bluetoothAdapter.getRemoteDevice(target)));
+    }
+
+    private void stopSurvey() {
+        handler.removeCallbacks(handoverCheck);
+        handler.removeCallbacks(surveyDone);
+        if (scanStage == SURVEY_STAGE) stopRadioScan();
+    }
+
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            processScanResult(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (ScanResult result : results) {
+                processScanResult(result);
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.e(TAG, "BLE Scan Failed with error code: " + errorCode);
+            boolean survey = scanStage == SURVEY_STAGE;
+            scanStage = null;
+            if (survey) return;
+            stopScan();
+            phase = PHASE_IDLE;
+            updateNotification();
+        }
+    };
+
+    private void openTransport(MessageTransport newTransport) {
+        closeTransport();
+        FecTransport fecTransport = new FecTransport(newTransport, LORA_FEC_LEVEL, true);
+        fecTransport.setLevelListener((oldLevel, newLevel, load) ->
+                Log.d(TAG, "FEC level " + oldLevel + " -> " + newLevel + " at load " + String.format("%.2f", load)));
+        pacedTransport = new PacedTransport(fecTransport, LORA_AIRTIME, LORA_DUTY_CYCLE,
+                LORA_BURST_AIRTIME_MS, LORA_MAX_QUEUED);
+        pacedTransport.setReleaseListener(this::onFrameReleased);
+        relayEngine = new RelayEngine(pacedTransport, cryptoManager.getKeyId(),
+                RelayEngine.DEFAULT_SEEN_CAPACITY, this::onFrameDelivered);
+        newTransport.setConnectionListener(state -> onConnectionStateChanged(newTransport, state));
+        fecTransport.setFrameListener(relayEngine);
+        transport = newTransport;
+        newTransport.connect();
+    }
+
+    private void closeTransport() {
+        MessageTransport current = transport;
+        if (current == null) return;
+        current.setConnectionListener(null);
+        current.setFrameListener(null);
+        current.disconnect();
+        pacedTransport.setReleaseListener(null);
+        pacedTransport.close();
+        transport = null;
+        relayEngine = null;
+        pacedTransport = null;
+        // Listeners are off, so do what the disconnect callback would have
+        executorService.execute(() -> {
+            reliableSender.clear();
+            outbox.releaseAll();
+        });
+    }
+
+    // Called on a Bluetooth binder thread
+    private void onConnectionStateChanged(MessageTransport source, int state) {
+        handler.post(() -> onTransportStateChanged(source, state));
+        if (state == MessageTransport.STATE_CONNECTED) {
+            Log.d(TAG, "Connected to LoRa Node.");
+            executorService.execute(this::drainOutbox);
+        } else if (state == MessageTransport.STATE_DISCONNECTED) {
+            Log.d(TAG, "Disconnected from LoRa Node.");
+            // Whatever was being sent goes back to the outbox for the next connection
+            executorService.execute(() -> {
+                reliableSender.clear();
+                outbox.releaseAll();
+            });
+        }
+        for (Listener listener : listeners) {
+            listener.onConnectionStateChanged(state);
+        }
+        handler.post(this::updateNotification);
+    }
+
+    // Main thread. Moves connect() on to its next step when an attempt fails.
+    private void onTransportStateChanged(MessageTransport source, int state) {
+        // A late callback from a transport we already replaced
+        if (source != transport) return;
+        if (state == MessageTransport.STATE_CONNECTED) {
+            handler.removeCallbacks(directConnectTimeout);
+            Log.d(TAG, "Connected " + (SystemClock.elapsedRealtime() - connectStartedAt) + " ms after connect()"
+                    + (phase == PHASE_DIRECT ? " (direct)" : phase == PHASE_SCAN ? " (scan)" : " (autoConnect)"));
+            phase = PHASE_CONNECTED;
+            if (source instanceof GattTransport) {
+                BluetoothDevice device = ((GattTransport) source).getDevice();
+                rememberNode(device);
+                scanAggregator.onConnected(device.getAddress());
+            }
+            handler.postDelayed(handoverCheck, HANDOVER_CHECK_MS);
+        } else if (state == MessageTransport.STATE_DISCONNECTED) {
+            int failedPhase = phase;
+            handler.removeCallbacks(directConnectTimeout);
+            stopSurvey();
+            closeTransport();
+            phase = PHASE_IDLE;
+            if (failedPhase == PHASE_DIRECT) {
+                startScanning();
+            } else if (failedPhase == PHASE_SCAN) {
+                // Try the next best node, or the same one if nothing better is around
+                if (source instanceof GattTransport) {
+                    scanAggregator.onConnectFailed(((GattTransport) source).getDevice().getAddress(),
+                            SystemClock.elapsedRealtime());
+                }
+                startScanning();
+            } else if (failedPhase == PHASE_CONNECTED) {
+                // Lost a working link: get it back the same way
+                connect();
+            }
+        }
+    }
+
+    // The last node we were connected to, or null
+    private BluetoothDevice lastNode() {
+        String address = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getString(KEY_NODE_ADDRESS, null);
+        if (address == null || !BluetoothAdapter.checkBluetoothAddress(address)) return null;
+        return bluetoothAdapter.getRemoteDevice(address);
+    }
+
+    private void rememberNode(BluetoothDevice device) {
+        String name = null;
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.S) {
+            name = device.getName();
+        }
+        SharedPreferences.Editor editor = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                .putString(KEY_NODE_ADDRESS, device.getAddress())
+                .putLong(KEY_NODE_CONNECTED_AT, System.currentTimeMillis());
+        if (name != null) editor.putString(KEY_NODE_NAME, name);
+        editor.apply();
+    }
+
+    // Runs on executorService. Sends everything due in the outbox if a node is connected.
+    private void drainOutbox() {
+        if (getConnectionState() != MessageTransport.STATE_CONNECTED) return;
+        long now = SystemClock.elapsedRealtime();
+        int submitted = outbox.drain(frame -> reliableSender.submit(frame, now), System.currentTimeMillis());
+        if (submitted > 0) Log.d(TAG, "Sent " + submitted + " messages from the outbox.");
+    }
+
+    // Called by reliableSender for every (re)transmission
+    private boolean transmitFrame(Frame frame) {
+        RelayEngine relay = relayEngine;
+        if (relay == null || getConnectionState() != MessageTransport.STATE_CONNECTED) {
+            return false;
+        }
+        if (!relay.send(frame)) {
+            Log.e(TAG, "Transport refused frame");
+            return false;
+        }
+        outbox.onTransmitted(frame.messageId, frame.getAttempt());
+        return true;
+    }
+
+    // Called by pacedTransport as each frame leaves its queue, usually on its
+    // timer thread. Starts the retransmission timer of our chat frames.
+    private void onFrameReleased(byte[] bytes) {
+        if (Frame.peekType(bytes) != Frame.TYPE_CHAT) return;
+        Frame frame = Frame.decode(bytes);
+        if (frame == null) return;
+        long now = SystemClock.elapsedRealtime();
+        executorService.execute(() -> reliableSender.onReleased(frame.messageId, frame.getAttempt(), now));
+    }
+
+    // Tell the sender we have their message, so they stop retransmitting it
+    private void sendAck(Frame frame) {
+        Frame ack = new Frame(Frame.TYPE_ACK, 0, cryptoManager.getKeyId(), frame.senderKeyId,
+                Frame.newMessageId(), Frame.DEFAULT_TTL, 0, ReliableSender.ackPayload(frame.messageId));
+        RelayEngine relay = relayEngine;
+        if (relay == null || !relay.send(ack)) {
+            Log.w(TAG, "Could not acknowledge message " + frame.messageId);
+        }
+    }
+
+    // Runs on executorService. The contact acked one of our messages, so if it
+    // carried a session seed they have it now.
+    private void confirmSession(int contactKeyId, long messageUid) {
+        Integer sessionId = unconfirmedSessions.remove(messageUid);
+        if (sessionId == null) return;
+        Contact contact = contactDirectory.findByFingerprint(contactKeyId);
+        if (contact != null) sessionManager.confirm(contact.publicKey, sessionId);
+    }
+
+    // Called by relayEngine on a Bluetooth binder thread with each new frame addressed to us
+    private void onFrameDelivered(Frame frame) {
+        if (frame.type == Frame.TYPE_ACK) {
+            long now = SystemClock.elapsedRealtime();
+            long[] messageIds = ReliableSender.parseAck(frame.payload);
+            executorService.execute(() -> {
+                for (long messageId : messageIds) {
+                    reliableSender.onAck(messageId, now);
+                    confirmSession(frame.senderKeyId, messageId);
+                }
+            });
+            return;
+        }
+        if (frame.type != Frame.TYPE_CHAT) {
+            Log.w(TAG, "Ignoring unknown frame type " + frame.type + " from node.");
+            return;
+        }
+        // Checked before decrypting: the ratchet rejects a message key it has
+        // already used, so a repeat would fail to decrypt and never be acked,
+        // and the sender would keep retransmitting it and finally mark it failed.
+        // isKnown() also finds uids stored long ago or before a restart, such as
+        // a resend from the sender's outbox.
+        if (ingestQueue.isKnown(frame.messageId)) {
+            // A retransmission: our ack was lost or is still on its way
+            Log.d(TAG, "Dropping repeated message " + frame.messageId);
+            sendAck(frame);
+            return;
+        }
+        Contact sender = contactDirectory.findByFingerprint(frame.senderKeyId);
+        if (sender == null) {
+            Log.w(TAG, "Ignoring message from unknown key " + Integer.toHexString(frame.senderKeyId));
+            return;
+        }
+        Log.d(TAG, "Received encrypted message from contact " + sender.id + ".");
+
+        byte[] decryptedBytes = sessionManager.decrypt(frame.payload);
+        if (decryptedBytes != null) {
+            decryptedBytes = MessageCompressor.unpack(decryptedBytes);
+        }
+        String decryptedMessage = decryptedBytes != null ? new String(decryptedBytes, StandardCharsets.UTF_8) : null;
+        if (decryptedMessage != null) {
+            Log.d(TAG, "Decryption successful.");
+            Message message = new Message(sender.id, decryptedMessage, System.currentTimeMillis(), false);
+            message.messageUid = frame.messageId;
+            ingestQueue.enqueue(message);
+            sendAck(frame);
+        } else {
+            Log.e(TAG, "Decryption failed!");
+        }
+    }
+
+    private void createNotificationChannel() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                getString(R.string.node_connection_channel), NotificationManager.IMPORTANCE_LOW);
+        NotificationManager manager = getSystemService(NotificationManager.class);
+        if (manager != null) manager.createNotificationChannel(channel);
+    }
+
+    private Notification buildNotification() {
+        int text;
+        int state = getConnectionState();
+        if (state == MessageTransport.STATE_CONNECTED) {
+            text = R.string.node_connected;
+        } else if (state == MessageTransport.STATE_CONNECTING || isScanning) {
+            text = R.string.node_connecting;
+        } else {
+            text = R.string.node_disconnected;
+        }
+        PendingIntent open = PendingIntent.getActivity(this, 0, new Intent(this, LauncherActivity.class),
+                PendingIntent.FLAG_IMMUTABLE);
+        PendingIntent stop = PendingIntent.getService(this, 0,
+                new Intent(this, NodeConnectionService.class).setAction(ACTION_STOP), PendingIntent.FLAG_IMMUTABLE);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_sys_data_bluetooth)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(text))
+                .setContentIntent(open)
+                .addAction(0, getString(R.string.node_disconnect), stop)
+                .setOngoing(true)
+                .build();
+    }
+
+    // Runs on the main thread
+    private void updateNotification() {
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager != null) manager.notify(NOTIFICATION_ID, buildNotification());
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        stopScan();
+        stopSurvey();
+        handler.removeCallbacks(directConnectTimeout);
+        handler.removeCallbacks(retransmitTick);
+        handler.removeCallbacks(outboxPoll);
+        closeTransport();
+        // Pending messages are still written
+        ingestQueue.close();
+        executorService.shutdown();
+    }
+}
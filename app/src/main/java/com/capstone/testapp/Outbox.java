@@ -0,0 +1,110 @@
+package com.capstone.testapp;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Durable queue of sent messages, in front of ReliableSender.
+// Every outgoing chat frame is stored here first, so a message typed while no
+// node is connected isn't lost: drain() hands everything due to the sender as
+// soon as a transport connects, highest priority and then oldest first, in one
+// burst. An entry stays until its message is acknowledged. If the sender gives
+// up on it, it is retried on a later connection, with a growing delay, and only
+// marked failed after MAX_ATTEMPTS connections.
+//
+// Copies sent on a later connection carry on counting Frame.getAttempt() from
+// the last copy sent before (see onTransmitted()). Relays remember which copies
+// of a message they forwarded, and would drop a resend that started over at 0.
+// The count wraps after Frame.MAX_ATTEMPT.
+//
+// Does database I/O, so call it off the main thread, and from one thread at a
+// time together with the ReliableSender it feeds.
+public class Outbox {
+
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 1;
+
+    // Connections a message may go unacknowledged over before it is failed for good
+    static final int MAX_ATTEMPTS = 5;
+    // Wait before retrying after a connection without an ack, doubled each time
+    static final long RETRY_DELAY_MS = 60000;
+
+    public interface Sink {
+        void submit(Frame frame);
+    }
+
+    private final OutboxDao outboxDao;
+    private final ReliableSender.Listener listener;
+
+    // Message uids handed to the sink and not settled yet. In memory only: after a
+    // restart nothing is in flight and every entry is due again.
+    private final Set<Long> inFlight = new HashSet<>();
+
+    // listener gets the delivery states to show (Message.DELIVERY_)
+    public Outbox(OutboxDao outboxDao, ReliableSender.Listener listener) {
+        this.outboxDao = outboxDao;
+        this.listener = listener;
+    }
+
+    // Queue a frame. It goes out with the next drain(). Returns false if a frame
+    // with the same message id is already queued; that one is kept.
+    public boolean add(Frame frame, int priority, long nowMillis) {
+        OutboxEntry entry = new OutboxEntry(frame.messageId, frame.destinationKeyId, frame.encode(), priority, nowMillis);
+        entry.nextAttemptAt = nowMillis;
+        return outboxDao.insert(entry) != -1;
+    }
+
+    // Submit every due entry that isn't in flight yet. Returns how many were submitted.
+    public synchronized int drain(Sink sink, long nowMillis) {
+        int submitted = 0;
+        List<OutboxEntry> due = outboxDao.due(nowMillis);
+        for (OutboxEntry entry : due) {
+            if (inFlight.contains(entry.messageUid)) continue;
+            Frame frame = Frame.decode(entry.frame);
+            if (frame == null) {
+                // Unreadable; reported as failed
+                outboxDao.delete(entry.messageUid);
+                listener.onDeliveryStateChanged(entry.messageUid, Message.DELIVERY_FAILED);
+                continue;
+            }
+            inFlight.add(entry.messageUid);
+            sink.submit(frame.withAttempt((entry.lastAttempt + 1) & Frame.MAX_ATTEMPT));
+            submitted++;
+        }
+        return submitted;
+    }
+
+    // A copy of a message from this outbox went out with the given attempt number
+    public synchronized void onTransmitted(long messageUid, int attempt) {
+        if (inFlight.contains(messageUid)) outboxDao.setLastAttempt(messageUid, attempt);
+    }
+
+    // Delivery state reported by the ReliableSender this outbox feeds
+    public synchronized void onDeliveryStateChanged(long messageUid, int deliveryState, long nowMillis) {
+        if (deliveryState == Message.DELIVERY_DELIVERED) {
+            inFlight.remove(messageUid);
+            outboxDao.delete(messageUid);
+        } else if (deliveryState == Message.DELIVERY_FAILED) {
+            inFlight.remove(messageUid);
+            OutboxEntry entry = outboxDao.find(messageUid);
+            if (entry != null && entry.attempts + 1 < MAX_ATTEMPTS) {
+                outboxDao.reschedule(messageUid, entry.attempts + 1, nowMillis + (RETRY_DELAY_MS << entry.attempts));
+                // Not given up on; it waits for another connection
+                deliveryState = Message.DELIVERY_PENDING;
+            } else {
+                outboxDao.delete(messageUid);
+            }
+        }
+        listener.onDeliveryStateChanged(messageUid, deliveryState);
+    }
+
+    // The sink dropped everything it was sending, e.g. because the connection was
+    // lost (see ReliableSender.clear()). Those entries are due again as they were,
+    // without counting an attempt.
+    public synchronized void releaseAll() {
+        for (long messageUid : inFlight) {
+            listener.onDeliveryStateChanged(messageUid, Message.DELIVERY_PENDING);
+        }
+        inFlight.clear();
+    }
+}
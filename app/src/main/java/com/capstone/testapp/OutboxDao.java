@@ -0,0 +1,33 @@
+package com.capstone.testapp;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface OutboxDao {
+
+    // Returns -1 if the message is already queued
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insert(OutboxEntry entry);
+
+    // Entries that may be sent now, highest priority first, then oldest first
+    @Query("SELECT * FROM outbox WHERE nextAttemptAt <= :now "
+            + "ORDER BY priority DESC, createdAt ASC, id ASC")
+    List<OutboxEntry> due(long now);
+
+    @Query("SELECT * FROM outbox WHERE messageUid = :messageUid")
+    OutboxEntry find(long messageUid);
+
+    @Query("UPDATE outbox SET attempts = :attempts, nextAttemptAt = :nextAttemptAt WHERE messageUid = :messageUid")
+    void reschedule(long messageUid, int attempts, long nextAttemptAt);
+
+    @Query("UPDATE outbox SET lastAttempt = :lastAttempt WHERE messageUid = :messageUid")
+    void setLastAttempt(long messageUid, int lastAttempt);
+
+    @Query("DELETE FROM outbox WHERE messageUid = :messageUid")
+    void delete(long messageUid);
+}
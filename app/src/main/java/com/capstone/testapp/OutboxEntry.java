@@ -0,0 +1,44 @@
+package com.capstone.testapp;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+// A sent message waiting to be acknowledged, kept until it is, so nothing typed
+// while offline is lost. Holds the finished frame (already encrypted), so it can
+// go out without the chat screen that created it. See Outbox.
+@Entity(tableName = "outbox",
+        indices = @Index(value = "messageUid", unique = true))
+public class OutboxEntry {
+
+    @PrimaryKey(autoGenerate = true)
+    public int id;
+
+    // Frame.messageId, the same as the Message's messageUid
+    public long messageUid;
+    public int destinationKeyId;
+    // Frame.encode() of the first transmission
+    public byte[] frame;
+    // Higher drains first; Outbox.PRIORITY_
+    public int priority;
+    public long createdAt;
+
+    // Connections over which the message went unacknowledged
+    public int attempts;
+    // Not sent again before this time (wall clock)
+    public long nextAttemptAt;
+    // Frame.getAttempt() of the last copy sent, or -1 before the first. A later
+    // connection continues from here, so relays don't take its copies for
+    // duplicates of ones they already forwarded.
+    @ColumnInfo(defaultValue = "-1")
+    public int lastAttempt = -1;
+
+    public OutboxEntry(long messageUid, int destinationKeyId, byte[] frame, int priority, long createdAt) {
+        this.messageUid = messageUid;
+        this.destinationKeyId = destinationKeyId;
+        this.frame = frame;
+        this.priority = priority;
+        this.createdAt = createdAt;
+    }
+}
@@ -0,0 +1,192 @@
+package com.capstone.testapp;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// MessageTransport that hands frames to another one at the pace the LoRa node
+// can transmit them (see AirtimeScheduler).
+// send() only queues the frame, by priority from its type: acks first, then
+// chat, then anything else. A timer thread passes queued frames on when their
+// turn comes, packing the ones still waiting behind them into the same LoRa
+// packet as a bundle where they fit. send() returns false if the frame was
+// refused, which callers already treat as a lost frame.
+//
+// Put it above a FecTransport, if any, so bundles are protected as a whole and
+// the airtime charged includes the parity.
+//
+// A frame can wait here for many seconds at a low duty cycle. A
+// ReleaseListener hears when each frame leaves the queue, so retransmission
+// timers (see ReliableSender) can start when a frame goes on air instead of
+// when it was queued.
+//
+// Wraps the sending side only: connect(), the state and the listeners are the
+// inner transport's. close() stops the timer and drops what is still queued.
+public class PacedTransport implements MessageTransport {
+
+    private static final String TAG = "PacedTransport";
+
+    public interface ReleaseListener {
+        // Called with a frame passed to send() once it has left the queue:
+        // handed to the inner transport, alone or in a bundle, whether or not
+        // that took it, or dropped to make room for a frame of higher priority.
+        // Not called for frames still queued at close(). Runs on the pacing
+        // thread, or on the thread calling send() for a dropped frame.
+        void onFrameReleased(byte[] frame);
+    }
+
+    private final MessageTransport inner;
+    // The inner transport if it adds FEC, whose level the scheduler charges for
+    private final FecTransport fec;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    // Guarded by itself
+    private final AirtimeScheduler scheduler;
+    // Only touched on the executor
+    private ScheduledFuture<?> nextPump;
+    private volatile ReleaseListener releaseListener;
+
+    // See AirtimeScheduler for the parameters
+    public PacedTransport(MessageTransport inner, LoRaAirtime airtime, double dutyCycle, long bucketMillis, int maxQueued) {
+        this.inner = inner;
+        this.fec = inner instanceof FecTransport ? (FecTransport) inner : null;
+        // A bundle fills at most one LoRa packet; any transport takes frames that size
+        this.scheduler = new AirtimeScheduler(airtime, dutyCycle, bucketMillis, maxQueued,
+                LoRaAirtime.MAX_PACKET_PAYLOAD, now());
+    }
+
+    @Override
+    public void connect() {
+        inner.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        close();
+        inner.disconnect();
+    }
+
+    @Override
+    public boolean send(byte[] frame) {
+        if (executor.isShutdown() || inner.getState() != STATE_CONNECTED
+                || frame.length > inner.getMaxFrameLength()) return false;
+        boolean queued;
+        List<byte[]> evicted;
+        synchronized (scheduler) {
+            if (fec != null) scheduler.setFecLevel(fec.getLevel());
+            queued = scheduler.enqueue(frame, priorityOf(frame));
+            evicted = scheduler.takeEvicted();
+        }
+        for (byte[] dropped : evicted) {
+            released(dropped);
+        }
+        if (!queued) {
+            Log.w(TAG, "Outgoing queue full; dropping a frame of " + frame.length + " bytes");
+            return false;
+        }
+        try {
+            executor.execute(this::pump);
+        } catch (RejectedExecutionException e) {
+            // Closed meanwhile
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int getState() {
+        return inner.getState();
+    }
+
+    @Override
+    public int getMaxFrameLength() {
+        return inner.getMaxFrameLength();
+    }
+
+    @Override
+    public void setFrameListener(FrameListener listener) {
+        inner.setFrameListener(listener);
+    }
+
+    @Override
+    public void setConnectionListener(ConnectionListener listener) {
+        inner.setConnectionListener(listener);
+    }
+
+    public void setReleaseListener(ReleaseListener listener) {
+        releaseListener = listener;
+    }
+
+    // Stop pacing and drop the queue, leaving the inner transport alone
+    public void close() {
+        executor.shutdownNow();
+        synchronized (scheduler) {
+            scheduler.clear();
+        }
+    }
+
+    public int getQueued() {
+        synchronized (scheduler) {
+            return scheduler.getQueued();
+        }
+    }
+
+    // Runs on the executor: pass on every frame whose turn has come, then sleep
+    // until the next one's
+    private void pump() {
+        long now = now();
+        List<byte[]> due = new ArrayList<>();
+        long nextSendAt;
+        synchronized (scheduler) {
+            if (fec != null) scheduler.setFecLevel(fec.getLevel());
+            byte[] frame;
+            while ((frame = scheduler.poll(now)) != null) {
+                due.add(frame);
+            }
+            nextSendAt = scheduler.getNextSendAt(now);
+        }
+        for (byte[] frame : due) {
+            if (!inner.send(frame)) {
+                Log.w(TAG, "Inner transport refused a paced frame");
+            }
+            if (Frame.peekType(frame) != Frame.TYPE_BUNDLE) {
+                released(frame);
+                continue;
+            }
+            List<byte[]> bundled = Frame.splitBundle(Frame.decode(frame).payload);
+            for (byte[] inBundle : bundled) {
+                released(inBundle);
+            }
+        }
+        if (nextPump != null) nextPump.cancel(false);
+        nextPump = null;
+        if (nextSendAt == Long.MAX_VALUE) return;
+        try {
+            nextPump = executor.schedule(this::pump, Math.max(1, nextSendAt - now), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed meanwhile
+        }
+    }
+
+    private void released(byte[] frame) {
+        ReleaseListener listener = releaseListener;
+        if (listener != null) listener.onFrameReleased(frame);
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static int priorityOf(byte[] frame) {
+        int type = Frame.peekType(frame);
+        if (type == Frame.TYPE_ACK) return AirtimeScheduler.PRIORITY_CONTROL;
+        if (type == Frame.TYPE_CHAT) return AirtimeScheduler.PRIORITY_CHAT;
+        return AirtimeScheduler.PRIORITY_BULK;
+    }
+}
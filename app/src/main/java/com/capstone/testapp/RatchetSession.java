@@ -0,0 +1,286 @@
+package com.capstone.testapp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// One direction of a conversation: a hash-based symmetric ratchet.
+// Both sides start from a random seed that the sender wraps once with the
+// receiver's RSA key. After that every message key is derived with HMAC-SHA256:
+//
+//   messageKey = HMAC(chainKey, 0x01)
+//   chainKey   = HMAC(chainKey, 0x02)
+//
+// so steady-state messages cost two HMACs and one AES-GCM operation, and each
+// message only carries a small header plus the 16 byte GCM tag.
+//
+// Message layouts (the header is authenticated as GCM associated data):
+// TYPE_SESSION_INIT: [0x02][session id (4)][counter (4)][wrapped seed length (2)][wrapped seed][ciphertext + tag]
+// TYPE_RATCHET:      [0x03][session id (4)][counter (4)][ciphertext + tag]
+public final class RatchetSession {
+
+    public static final byte TYPE_SESSION_INIT = 0x02;
+    public static final byte TYPE_RATCHET = 0x03;
+
+    public static final int SEED_LENGTH = 32;
+
+    // How far ahead of the expected counter we are willing to ratchet
+    private static final int MAX_SKIP = 256;
+    // Keys of skipped messages kept around for late or reordered arrivals
+    private static final int MAX_STORED_SKIPPED_KEYS = 64;
+
+    private static final int HEADER_LENGTH = 9;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final int STATE_VERSION = 1;
+    private static final byte[] CHAIN_LABEL = "DOM-ratchet-chain".getBytes(StandardCharsets.UTF_8);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<Mac> HMAC = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance("HmacSHA256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 not available", e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<Cipher> AES_GCM = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES/GCM not available", e);
+            }
+        }
+    };
+
+    private final int sessionId;
+    private byte[] chainKey;
+    // Sending: counter of the next message. Receiving: next counter we expect.
+    private int counter;
+    // Only set on sending sessions, until confirm(). Every message carries it
+    // until then, so however many of them LoRa loses, the next one that gets
+    // through still lets the peer start the session.
+    private byte[] wrappedSeed;
+    // Receiving only: counter -> message key for messages we skipped over
+    private final LinkedHashMap<Integer, byte[]> skippedKeys = new LinkedHashMap<>();
+
+    private RatchetSession(int sessionId, byte[] chainKey, int counter, byte[] wrappedSeed) {
+        this.sessionId = sessionId;
+        this.chainKey = chainKey;
+        this.counter = counter;
+        this.wrappedSeed = wrappedSeed;
+    }
+
+    public static byte[] newSeed() {
+        byte[] seed = new byte[SEED_LENGTH];
+        RANDOM.nextBytes(seed);
+        return seed;
+    }
+
+    // Start a sending session from a fresh seed and its RSA-wrapped form
+    public static RatchetSession newSendingSession(byte[] seed, byte[] wrappedSeed) throws GeneralSecurityException {
+        return new RatchetSession(RANDOM.nextInt(), hmac(seed, CHAIN_LABEL), 0, wrappedSeed);
+    }
+
+    // Start a receiving session from a seed we unwrapped out of a TYPE_SESSION_INIT message
+    public static RatchetSession newReceivingSession(int sessionId, byte[] seed) throws GeneralSecurityException {
+        return new RatchetSession(sessionId, hmac(seed, CHAIN_LABEL), 0, null);
+    }
+
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    public int getCounter() {
+        return counter;
+    }
+
+    // Sending: the peer has the seed, e.g. because it acknowledged one of our
+    // messages. Later messages leave it out.
+    public void confirm() {
+        wrappedSeed = null;
+    }
+
+    // Sending: whether messages still carry the wrapped seed
+    public boolean isConfirmed() {
+        return wrappedSeed == null;
+    }
+
+    // --- Sending ---
+
+    public byte[] encrypt(byte[] plainText) throws GeneralSecurityException {
+        boolean includeSeed = wrappedSeed != null;
+        int headerLength = HEADER_LENGTH + (includeSeed ? 2 + wrappedSeed.length : 0);
+
+        ByteBuffer out = ByteBuffer.allocate(headerLength + plainText.length + TAG_LENGTH_BITS / 8);
+        out.put(includeSeed ? TYPE_SESSION_INIT : TYPE_RATCHET);
+        out.putInt(sessionId);
+        out.putInt(counter);
+        if (includeSeed) {
+            out.putShort((short) wrappedSeed.length);
+            out.put(wrappedSeed);
+        }
+
+        byte[] messageKey = hmac(chainKey, (byte) 0x01);
+        Cipher aes = AES_GCM.get();
+        aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(messageKey, "AES"), ivFor(counter));
+        aes.updateAAD(out.array(), 0, headerLength);
+        aes.doFinal(plainText, 0, plainText.length, out.array(), headerLength);
+
+        // Move the chain forward only once the message is built
+        chainKey = hmac(chainKey, (byte) 0x02);
+        counter++;
+        return out.array();
+    }
+
+    // --- Receiving ---
+
+    public static boolean isSessionMessage(byte[] message) {
+        return message != null && message.length >= HEADER_LENGTH + TAG_LENGTH_BITS / 8
+                && (message[0] == TYPE_SESSION_INIT || message[0] == TYPE_RATCHET);
+    }
+
+    public static int peekSessionId(byte[] message) {
+        return ByteBuffer.wrap(message, 1, 4).getInt();
+    }
+
+    // The wrapped seed of a TYPE_SESSION_INIT message, or null for TYPE_RATCHET
+    public static byte[] peekWrappedSeed(byte[] message) {
+        if (message[0] != TYPE_SESSION_INIT) return null;
+        int length = ByteBuffer.wrap(message, HEADER_LENGTH, 2).getShort() & 0xFFFF;
+        return Arrays.copyOfRange(message, HEADER_LENGTH + 2, HEADER_LENGTH + 2 + length);
+    }
+
+    // Decrypt a message for this session. State only advances if the tag verifies,
+    // and replayed counters are rejected because their keys are already gone.
+    public byte[] decrypt(byte[] message) throws GeneralSecurityException {
+        ByteBuffer in = ByteBuffer.wrap(message);
+        byte type = in.get();
+        if (in.getInt() != sessionId) throw new GeneralSecurityException("Wrong session");
+        int messageCounter = in.getInt();
+        int headerLength = HEADER_LENGTH;
+        if (type == TYPE_SESSION_INIT) {
+            headerLength += 2 + (in.getShort() & 0xFFFF);
+        }
+        if (message.length < headerLength + TAG_LENGTH_BITS / 8) {
+            throw new GeneralSecurityException("Truncated message");
+        }
+
+        byte[] messageKey;
+        byte[] newChainKey = chainKey;
+        LinkedHashMap<Integer, byte[]> newlySkipped = new LinkedHashMap<>();
+        if (messageCounter < counter) {
+            messageKey = skippedKeys.get(messageCounter);
+            if (messageKey == null) throw new GeneralSecurityException("Replayed or expired message " + messageCounter);
+        } else {
+            if (messageCounter - counter > MAX_SKIP) throw new GeneralSecurityException("Too many skipped messages");
+            for (int i = counter; i < messageCounter; i++) {
+                newlySkipped.put(i, hmac(newChainKey, (byte) 0x01));
+                newChainKey = hmac(newChainKey, (byte) 0x02);
+            }
+            messageKey = hmac(newChainKey, (byte) 0x01);
+            newChainKey = hmac(newChainKey, (byte) 0x02);
+        }
+
+        Cipher aes = AES_GCM.get();
+        aes.init(Cipher.DECRYPT_MODE, new SecretKeySpec(messageKey, "AES"), ivFor(messageCounter));
+        aes.updateAAD(message, 0, headerLength);
+        byte[] plainText = aes.doFinal(message, headerLength, message.length - headerLength);
+
+        // Authenticated: commit the new state
+        if (messageCounter < counter) {
+            skippedKeys.remove(messageCounter);
+        } else {
+            skippedKeys.putAll(newlySkipped);
+            chainKey = newChainKey;
+            counter = messageCounter + 1;
+            Iterator<Integer> oldest = skippedKeys.keySet().iterator();
+            while (skippedKeys.size() > MAX_STORED_SKIPPED_KEYS) {
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        return plainText;
+    }
+
+    // --- Persistence ---
+
+    public byte[] toBytes() {
+        int seedLength = wrappedSeed != null ? wrappedSeed.length : 0;
+        ByteBuffer out = ByteBuffer.allocate(1 + 4 + 4 + chainKey.length + 2 + seedLength + 2
+                + skippedKeys.size() * (4 + 32));
+        out.put((byte) STATE_VERSION);
+        out.putInt(sessionId);
+        out.putInt(counter);
+        out.put(chainKey);
+        out.putShort((short) seedLength);
+        if (wrappedSeed != null) out.put(wrappedSeed);
+        out.putShort((short) skippedKeys.size());
+        for (Map.Entry<Integer, byte[]> entry : skippedKeys.entrySet()) {
+            out.putInt(entry.getKey());
+            out.put(entry.getValue());
+        }
+        return out.array();
+    }
+
+    public static RatchetSession fromBytes(byte[] state) {
+        ByteBuffer in = ByteBuffer.wrap(state);
+        if (in.get() != STATE_VERSION) throw new IllegalArgumentException("Unknown session state version");
+        int sessionId = in.getInt();
+        int counter = in.getInt();
+        byte[] chainKey = new byte[32];
+        in.get(chainKey);
+        int seedLength = in.getShort() & 0xFFFF;
+        byte[] wrappedSeed = null;
+        if (seedLength > 0) {
+            wrappedSeed = new byte[seedLength];
+            in.get(wrappedSeed);
+        }
+        RatchetSession session = new RatchetSession(sessionId, chainKey, counter, wrappedSeed);
+        int skipped = in.getShort() & 0xFFFF;
+        for (int i = 0; i < skipped; i++) {
+            int skippedCounter = in.getInt();
+            byte[] key = new byte[32];
+            in.get(key);
+            session.skippedKeys.put(skippedCounter, key);
+        }
+        return session;
+    }
+
+    // --- Helpers ---
+
+    // Every message key is used exactly once, so the counter is a safe nonce
+    private static GCMParameterSpec ivFor(int counter) {
+        byte[] iv = new byte[12];
+        iv[8] = (byte) (counter >>> 24);
+        iv[9] = (byte) (counter >>> 16);
+        iv[10] = (byte) (counter >>> 8);
+        iv[11] = (byte) counter;
+        return new GCMParameterSpec(TAG_LENGTH_BITS, iv);
+    }
+
+    private static byte[] hmac(byte[] key, byte label) throws GeneralSecurityException {
+        return hmac(key, new byte[]{label});
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = HMAC.get();
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data);
+    }
+}
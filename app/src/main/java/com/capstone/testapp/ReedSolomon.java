@@ -0,0 +1,217 @@
+package com.capstone.testapp;
+
+// Reed-Solomon over GF(256), for FecCodec.
+// A codeword is up to 255 bytes: the data followed by parityLength parity bytes.
+// Decoding corrects e erasures (bytes known to be bad, by position) and v errors
+// (bad bytes anywhere) as long as 2v + e <= parityLength.
+//
+// Codewords shorter than 255 bytes are shortened codes, as if padded with leading
+// zeros. Field polynomial 0x11D, generator roots a^0 .. a^(parityLength - 1).
+//
+// Pure Java; instances are immutable and thread safe.
+public final class ReedSolomon {
+
+    public static final int MAX_CODEWORD_LENGTH = 255;
+    private static final int FIELD_POLYNOMIAL = 0x11D;
+
+    private static final int[] EXP = new int[512];
+    private static final int[] LOG = new int[256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x > 0xFF) x ^= FIELD_POLYNOMIAL;
+        }
+        // Doubled so products of two logs need no modulo
+        for (int i = 255; i < 512; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+    }
+
+    private final int parityLength;
+    // Generator polynomial, highest degree first, without the leading 1
+    private final int[] generator;
+
+    public ReedSolomon(int parityLength) {
+        if (parityLength < 1 || parityLength >= MAX_CODEWORD_LENGTH) {
+            throw new IllegalArgumentException("Parity length out of range: " + parityLength);
+        }
+        this.parityLength = parityLength;
+        int[] g = {1};
+        for (int i = 0; i < parityLength; i++) {
+            int[] next = new int[g.length + 1];
+            for (int j = 0; j < g.length; j++) {
+                next[j] ^= g[j];
+                next[j + 1] ^= mul(g[j], EXP[i]);
+            }
+            g = next;
+        }
+        generator = new int[parityLength];
+        System.arraycopy(g, 1, generator, 0, parityLength);
+    }
+
+    public int getParityLength() {
+        return parityLength;
+    }
+
+    // Parity for data[offset, offset + length), written to parity[parityOffset..]
+    public void encode(byte[] data, int offset, int length, byte[] parity, int parityOffset) {
+        if (length < 1 || length + parityLength > MAX_CODEWORD_LENGTH) {
+            throw new IllegalArgumentException("Data length out of range: " + length);
+        }
+        // Remainder of data * x^parityLength divided by the generator, as a shift register
+        int[] remainder = new int[parityLength];
+        for (int i = 0; i < length; i++) {
+            int feedback = (data[offset + i] & 0xFF) ^ remainder[0];
+            System.arraycopy(remainder, 1, remainder, 0, parityLength - 1);
+            remainder[parityLength - 1] = 0;
+            if (feedback != 0) {
+                for (int j = 0; j < parityLength; j++) {
+                    remainder[j] ^= mul(generator[j], feedback);
+                }
+            }
+        }
+        for (int j = 0; j < parityLength; j++) {
+            parity[parityOffset + j] = (byte) remainder[j];
+        }
+    }
+
+    // Corrects a codeword (data then parity) in place. erasures lists positions
+    // known to be bad and may be null. Returns the number of bytes corrected, or
+    // -1 if there are too many errors, in which case the codeword is left as it was.
+    public int decode(byte[] codeword, int[] erasures) {
+        int n = codeword.length;
+        if (n <= parityLength || n > MAX_CODEWORD_LENGTH) {
+            throw new IllegalArgumentException("Codeword length out of range: " + n);
+        }
+        int[] syndromes = syndromes(codeword);
+        if (syndromes == null) return 0;
+        int erasureCount = erasures == null ? 0 : erasures.length;
+        if (erasureCount > parityLength) return -1;
+
+        // Locator polynomials are lowest degree first from here on. The byte at
+        // position p is the coefficient of x^(n - 1 - p), with locator a^(n - 1 - p).
+        int[] locator = new int[parityLength + 1];
+        locator[0] = 1;
+        for (int k = 0; k < erasureCount; k++) {
+            if (erasures[k] < 0 || erasures[k] >= n) throw new IllegalArgumentException("Bad erasure: " + erasures[k]);
+            int x = EXP[n - 1 - erasures[k]];
+            for (int i = k + 1; i > 0; i--) {
+                locator[i] ^= mul(locator[i - 1], x);
+            }
+        }
+
+        // Berlekamp-Massey, started from the erasure locator
+        int[] previous = locator.clone();
+        int degree = erasureCount;
+        int shift = 1;
+        int previousDiscrepancy = 1;
+        for (int k = erasureCount; k < parityLength; k++) {
+            int discrepancy = syndromes[k];
+            for (int i = 1; i <= degree; i++) {
+                discrepancy ^= mul(locator[i], syndromes[k - i]);
+            }
+            if (discrepancy == 0) {
+                shift++;
+                continue;
+            }
+            int scale = div(discrepancy, previousDiscrepancy);
+            int[] before = locator.clone();
+            for (int i = 0; i + shift <= parityLength; i++) {
+                locator[i + shift] ^= mul(scale, previous[i]);
+            }
+            if (2 * degree <= k + erasureCount) {
+                degree = k + 1 + erasureCount - degree;
+                previous = before;
+                previousDiscrepancy = discrepancy;
+                shift = 1;
+            } else {
+                shift++;
+            }
+        }
+        if (2 * degree - erasureCount > parityLength) return -1;
+
+        // Chien search: the roots are the inverse locators of the bad positions
+        int[] positions = new int[degree];
+        int found = 0;
+        for (int p = 0; p < n; p++) {
+            int inverse = EXP[(255 - (n - 1 - p)) % 255];
+            if (evaluate(locator, degree, inverse) == 0) {
+                if (found == degree) return -1;
+                positions[found++] = p;
+            }
+        }
+        if (found != degree) return -1;
+
+        // Forney: evaluator = syndromes * locator mod x^parityLength
+        int[] evaluator = new int[parityLength];
+        for (int i = 0; i < parityLength; i++) {
+            int sum = 0;
+            for (int j = 0; j <= Math.min(i, degree); j++) {
+                sum ^= mul(locator[j], syndromes[i - j]);
+            }
+            evaluator[i] = sum;
+        }
+        byte[] corrected = codeword.clone();
+        for (int k = 0; k < found; k++) {
+            int x = EXP[n - 1 - positions[k]];
+            int inverse = EXP[255 - LOG[x]];
+            // Formal derivative: in characteristic 2 only the odd terms are left
+            int derivative = 0;
+            for (int i = 1; i <= degree; i += 2) {
+                derivative ^= mul(locator[i], power(inverse, i - 1));
+            }
+            if (derivative == 0) return -1;
+            int magnitude = mul(x, div(evaluate(evaluator, parityLength - 1, inverse), derivative));
+            corrected[positions[k]] ^= (byte) magnitude;
+        }
+        // Beyond the code's reach a decoder can settle on the wrong codeword
+        if (syndromes(corrected) != null) return -1;
+        System.arraycopy(corrected, 0, codeword, 0, n);
+        return found;
+    }
+
+    // The codeword evaluated at each generator root, or null if they are all zero
+    private int[] syndromes(byte[] codeword) {
+        int[] syndromes = new int[parityLength];
+        boolean clean = true;
+        for (int i = 0; i < parityLength; i++) {
+            int root = EXP[i];
+            int value = 0;
+            for (byte b : codeword) {
+                value = mul(value, root) ^ (b & 0xFF);
+            }
+            syndromes[i] = value;
+            if (value != 0) clean = false;
+        }
+        return clean ? null : syndromes;
+    }
+
+    // Lowest degree first
+    private static int evaluate(int[] polynomial, int degree, int x) {
+        int value = 0;
+        for (int i = degree; i >= 0; i--) {
+            value = mul(value, x) ^ polynomial[i];
+        }
+        return value;
+    }
+
+    private static int mul(int a, int b) {
+        if (a == 0 || b == 0) return 0;
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    private static int div(int a, int b) {
+        if (a == 0) return 0;
+        return EXP[LOG[a] + 255 - LOG[b]];
+    }
+
+    private static int power(int x, int exponent) {
+        if (exponent == 0) return 1;
+        if (x == 0) return 0;
+        return EXP[(LOG[x] * exponent) % 255];
+    }
+}
@@ -0,0 +1,120 @@
+package com.capstone.testapp;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Store-and-forward relaying over a MessageTransport.
+// Every frame received is delivered to the listener if it is addressed to us (or
+// broadcast), and re-sent with one more hop if it is addressed to someone else
+// (or broadcast) and its ttl allows. A flood would otherwise bounce between
+// neighbours forever, so each node handles a message id only once: ids already
+// seen are remembered in a bounded LRU set and their repeats are dropped. With
+// that, every node sends each message at most once, whatever the mesh looks like.
+//
+// Frames we send ourselves go into the seen set too, so their echoes from
+// neighbours are dropped. A retransmission (Frame.getAttempt() above 0) counts as
+// a new frame here: the earlier copy may be the one that got lost along the way.
+//
+// A Frame.TYPE_BUNDLE is unpacked here and each frame in it handled as if it had
+// arrived on its own. Relayed ones are sent on separately, and may be bundled
+// again with whatever else the next transport has queued (see PacedTransport).
+public class RelayEngine implements MessageTransport.FrameListener {
+
+    // Message ids remembered. It needs to cover the messages that can still be in
+    // flight, not all history; an id that falls out can only come back as a late
+    // duplicate, which is delivered again.
+    public static final int DEFAULT_SEEN_CAPACITY = 1024;
+
+    public interface Listener {
+        // A frame addressed to us, or broadcast, seen for the first time
+        void onFrameDelivered(Frame frame);
+    }
+
+    private final MessageTransport transport;
+    private final int ownKeyId;
+    private final Listener listener;
+    private volatile boolean relayEnabled = true;
+
+    // Guarded by itself
+    private final Map<Long, Boolean> seen;
+
+    private long framesRelayed;
+    private long duplicatesDropped;
+
+    public RelayEngine(MessageTransport transport, int ownKeyId, int seenCapacity, Listener listener) {
+        this.transport = transport;
+        this.ownKeyId = ownKeyId;
+        this.listener = listener;
+        this.seen = new LinkedHashMap<Long, Boolean>(seenCapacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > seenCapacity;
+            }
+        };
+    }
+
+    // With relaying off, frames for others are dropped instead of forwarded
+    public void setRelayEnabled(boolean enabled) {
+        relayEnabled = enabled;
+    }
+
+    // Send a frame of our own. Returns false if the transport refused it.
+    public boolean send(Frame frame) {
+        markSeen(frame);
+        return transport.send(frame.encode());
+    }
+
+    @Override
+    public void onFrameReceived(byte[] frameBytes) {
+        Frame frame = Frame.decode(frameBytes);
+        if (frame == null) return;
+        if (frame.type == Frame.TYPE_BUNDLE) {
+            List<byte[]> frames = Frame.splitBundle(frame.payload);
+            if (frames == null) return;
+            for (byte[] bundled : frames) {
+                // One level only
+                if (Frame.peekType(bundled) != Frame.TYPE_BUNDLE) onFrameReceived(bundled);
+            }
+            return;
+        }
+        if (!markSeen(frame)) {
+            synchronized (seen) {
+                duplicatesDropped++;
+            }
+            return;
+        }
+
+        if (frame.isFor(ownKeyId)) {
+            listener.onFrameDelivered(frame);
+        }
+        // Frames for us stop here; broadcasts and frames for others travel on
+        if (frame.destinationKeyId == ownKeyId || frame.ttl == 0 || !relayEnabled) return;
+        if (transport.send(frame.nextHop().encode())) {
+            synchronized (seen) {
+                framesRelayed++;
+            }
+        }
+    }
+
+    public long getFramesRelayed() {
+        synchronized (seen) {
+            return framesRelayed;
+        }
+    }
+
+    public long getDuplicatesDropped() {
+        synchronized (seen) {
+            return duplicatesDropped;
+        }
+    }
+
+    // Returns false if this copy of the message was already seen
+    private boolean markSeen(Frame frame) {
+        // Message ids are random, so folding the attempt into the top bits can't realistically collide
+        long key = frame.messageId ^ ((long) frame.getAttempt() << 60);
+        synchronized (seen) {
+            return seen.put(key, Boolean.TRUE) == null;
+        }
+    }
+}
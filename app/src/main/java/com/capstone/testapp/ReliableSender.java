@@ -0,0 +1,293 @@
+package com.capstone.testapp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// End-to-end reliable delivery of chat frames.
+// The receiver answers every chat frame with a TYPE_ACK frame listing the
+// message ids it got (see ackPayload()). Until that ack arrives the frame is
+// retransmitted whenever its timer runs out, up to maxAttempts times, after
+// which the message is marked failed.
+//
+// Timeouts come from an RttEstimator per destination, so they follow the round
+// trips actually measured on that path instead of a fixed guess: too short
+// wastes airtime on copies of messages that were going to arrive, too long
+// leaves lost ones waiting. Each retransmission of a message backs off its own
+// timeout, without touching the estimate used for other messages. At most
+// windowSize messages per destination are unacknowledged at once; the rest
+// wait their turn (Message.DELIVERY_PENDING).
+//
+// Each copy carries its attempt number (Frame.getAttempt()), so relays don't
+// mistake a retransmission for a duplicate of the copy that got lost. Numbering
+// starts at the submitted frame's attempt, so a message submitted again (see
+// Outbox) carries on from its earlier copies, and wraps after Frame.MAX_ATTEMPT.
+// maxAttempts counts the copies of one submission.
+//
+// A copy the FrameSender refuses still uses up its attempt and is retried when
+// its timer runs out, but the message isn't reported as sent until a copy is
+// accepted, and refused copies aren't counted as transmissions.
+//
+// A FrameSender may queue frames before they go on air, like PacedTransport
+// does at a low duty cycle. Timed from send(), a frame still in that queue
+// could time out, and a second copy join it there, before the first got out.
+// With setTimersStartOnRelease(true) an accepted copy's timer starts only at
+// onReleased(), when the copy leaves that queue.
+//
+// Pure Java and clock-free: the caller passes the time in and calls tick()
+// regularly. Listener calls are made without holding the sender's lock.
+public class ReliableSender {
+
+    public static final int DEFAULT_WINDOW = 4;
+    public static final int DEFAULT_MAX_ATTEMPTS = 6;
+    // A LoRa round trip through a relay or two takes seconds
+    public static final long INITIAL_TIMEOUT_MS = 4000;
+    public static final long MIN_TIMEOUT_MS = 1000;
+    public static final long MAX_TIMEOUT_MS = 60000;
+
+    public interface FrameSender {
+        // Returns false if the frame couldn't be handed to the radio; it's retried like a lost one
+        boolean send(Frame frame);
+    }
+
+    public interface Listener {
+        // state is one of the Message.DELIVERY_ constants
+        void onDeliveryStateChanged(long messageId, int state);
+    }
+
+    private static final class Outgoing {
+        final Frame frame;
+        // Attempt number of the current copy, as sent
+        int attempt;
+        // Copies of this submission before the current one
+        int retries;
+        // Whether the FrameSender accepted the current copy
+        boolean accepted;
+        // Whether DELIVERY_SENT was reported
+        boolean reportedSent;
+        // Accepted, but its timer waits for onReleased()
+        boolean awaitingRelease;
+        long sentAtMillis;
+        long deadlineMillis;
+
+        Outgoing(Frame frame) {
+            this.frame = frame;
+            this.attempt = frame.getAttempt();
+        }
+    }
+
+    private final class Peer {
+        final RttEstimator rtt = new RttEstimator(initialTimeoutMillis, minTimeoutMillis, maxTimeoutMillis);
+        // In send order
+        final LinkedHashMap<Long, Outgoing> inFlight = new LinkedHashMap<>();
+        final ArrayDeque<Frame> waiting = new ArrayDeque<>();
+    }
+
+    private final FrameSender frameSender;
+    private final Listener listener;
+    private final int windowSize;
+    private final int maxAttempts;
+    private final long initialTimeoutMillis;
+    private final long minTimeoutMillis;
+    private final long maxTimeoutMillis;
+
+    // Guarded by this; keyed by destination key id
+    private final Map<Integer, Peer> peers = new HashMap<>();
+    private final Map<Long, Integer> destinations = new HashMap<>();
+    private long transmissions;
+    private long retransmissions;
+    private boolean timersStartOnRelease;
+
+    public ReliableSender(FrameSender frameSender, Listener listener) {
+        this(frameSender, listener, DEFAULT_WINDOW, DEFAULT_MAX_ATTEMPTS,
+                INITIAL_TIMEOUT_MS, MIN_TIMEOUT_MS, MAX_TIMEOUT_MS);
+    }
+
+    public ReliableSender(FrameSender frameSender, Listener listener, int windowSize, int maxAttempts,
+                          long initialTimeoutMillis, long minTimeoutMillis, long maxTimeoutMillis) {
+        if (maxAttempts < 1 || maxAttempts > Frame.MAX_ATTEMPT + 1) {
+            throw new IllegalArgumentException("maxAttempts out of range: " + maxAttempts);
+        }
+        this.frameSender = frameSender;
+        this.listener = listener;
+        this.windowSize = windowSize;
+        this.maxAttempts = maxAttempts;
+        this.initialTimeoutMillis = initialTimeoutMillis;
+        this.minTimeoutMillis = minTimeoutMillis;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+    }
+
+    // Send a chat frame and keep it until it's acknowledged or has failed. Sent
+    // right away if the destination's window has room, queued otherwise.
+    public void submit(Frame frame, long nowMillis) {
+        List<long[]> changes = new ArrayList<>();
+        synchronized (this) {
+            Peer peer = peers.get(frame.destinationKeyId);
+            if (peer == null) {
+                peer = new Peer();
+                peers.put(frame.destinationKeyId, peer);
+            }
+            destinations.put(frame.messageId, frame.destinationKeyId);
+            if (peer.inFlight.size() < windowSize) {
+                transmit(peer, new Outgoing(frame), nowMillis, changes);
+            } else {
+                peer.waiting.add(frame);
+                changes.add(new long[]{frame.messageId, Message.DELIVERY_PENDING});
+            }
+        }
+        notify(changes);
+    }
+
+    // An ack for messageId arrived. Unknown or repeated acks are ignored.
+    public void onAck(long messageId, long nowMillis) {
+        List<long[]> changes = new ArrayList<>();
+        synchronized (this) {
+            Integer destination = destinations.get(messageId);
+            Peer peer = destination != null ? peers.get(destination) : null;
+            Outgoing outgoing = peer != null ? peer.inFlight.remove(messageId) : null;
+            if (outgoing == null) return;
+            destinations.remove(messageId);
+            // Only the very first copy that went out times the round trip; after a
+            // resubmission the ack could be for a copy from before
+            if (outgoing.retries == 0 && outgoing.frame.getAttempt() == 0
+                    && outgoing.accepted && !outgoing.awaitingRelease) {
+                peer.rtt.addSample(nowMillis - outgoing.sentAtMillis);
+            }
+            changes.add(new long[]{messageId, Message.DELIVERY_DELIVERED});
+            fillWindow(peer, nowMillis, changes);
+        }
+        notify(changes);
+    }
+
+    // Retransmit or give up on messages whose timers have run out
+    public void tick(long nowMillis) {
+        List<long[]> changes = new ArrayList<>();
+        synchronized (this) {
+            for (Peer peer : peers.values()) {
+                Iterator<Outgoing> it = peer.inFlight.values().iterator();
+                List<Outgoing> resend = new ArrayList<>();
+                while (it.hasNext()) {
+                    Outgoing outgoing = it.next();
+                    if (outgoing.deadlineMillis > nowMillis) continue;
+                    it.remove();
+                    if (outgoing.retries + 1 >= maxAttempts) {
+                        destinations.remove(outgoing.frame.messageId);
+                        changes.add(new long[]{outgoing.frame.messageId, Message.DELIVERY_FAILED});
+                    } else {
+                        outgoing.retries++;
+                        outgoing.attempt = (outgoing.attempt + 1) & Frame.MAX_ATTEMPT;
+                        resend.add(outgoing);
+                    }
+                }
+                for (Outgoing outgoing : resend) {
+                    transmit(peer, outgoing, nowMillis, changes);
+                }
+                fillWindow(peer, nowMillis, changes);
+            }
+        }
+        notify(changes);
+    }
+
+    // The given copy of a message left the FrameSender's queue; its timer starts
+    // now. Only has an effect with setTimersStartOnRelease(true). Unknown
+    // messages and other copies are ignored.
+    public synchronized void onReleased(long messageId, int attempt, long nowMillis) {
+        Integer destination = destinations.get(messageId);
+        Peer peer = destination != null ? peers.get(destination) : null;
+        Outgoing outgoing = peer != null ? peer.inFlight.get(messageId) : null;
+        if (outgoing == null || outgoing.attempt != attempt || !outgoing.awaitingRelease) return;
+        outgoing.awaitingRelease = false;
+        startTimer(peer, outgoing, nowMillis);
+    }
+
+    // Whether accepted copies are timed from onReleased() rather than from send()
+    public synchronized void setTimersStartOnRelease(boolean onRelease) {
+        timersStartOnRelease = onRelease;
+    }
+
+    // Drop every message, in flight or waiting, without telling the listener; for
+    // when the link is gone and they will be submitted again later (see Outbox).
+    // Round-trip estimates are kept.
+    public synchronized void clear() {
+        for (Peer peer : peers.values()) {
+            peer.inFlight.clear();
+            peer.waiting.clear();
+        }
+        destinations.clear();
+    }
+
+    // Current timeout for first transmissions towards a destination
+    public synchronized long getTimeoutMillis(int destinationKeyId) {
+        Peer peer = peers.get(destinationKeyId);
+        return peer != null ? peer.rtt.getTimeoutMillis() : initialTimeoutMillis;
+    }
+
+    public synchronized long getTransmissions() {
+        return transmissions;
+    }
+
+    public synchronized long getRetransmissions() {
+        return retransmissions;
+    }
+
+    // Payload of a TYPE_ACK frame: the acknowledged message ids, 8 bytes each
+    public static byte[] ackPayload(long... messageIds) {
+        ByteBuffer out = ByteBuffer.allocate(8 * messageIds.length);
+        for (long messageId : messageIds) {
+            out.putLong(messageId);
+        }
+        return out.array();
+    }
+
+    // Message ids in a TYPE_ACK payload; trailing partial ids are ignored
+    public static long[] parseAck(byte[] payload) {
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        long[] messageIds = new long[payload.length / 8];
+        for (int i = 0; i < messageIds.length; i++) {
+            messageIds[i] = in.getLong();
+        }
+        return messageIds;
+    }
+
+    private void fillWindow(Peer peer, long nowMillis, List<long[]> changes) {
+        while (peer.inFlight.size() < windowSize && !peer.waiting.isEmpty()) {
+            transmit(peer, new Outgoing(peer.waiting.poll()), nowMillis, changes);
+        }
+    }
+
+    private void transmit(Peer peer, Outgoing outgoing, long nowMillis, List<long[]> changes) {
+        // Set before send(), which may already lead to onReleased()
+        outgoing.awaitingRelease = timersStartOnRelease;
+        outgoing.deadlineMillis = Long.MAX_VALUE;
+        peer.inFlight.put(outgoing.frame.messageId, outgoing);
+        outgoing.accepted = frameSender.send(outgoing.frame.withAttempt(outgoing.attempt));
+        if (!outgoing.accepted || !timersStartOnRelease) {
+            // Refused copies are retried like lost ones
+            outgoing.awaitingRelease = false;
+            startTimer(peer, outgoing, nowMillis);
+        }
+        if (!outgoing.accepted) return;
+        transmissions++;
+        if (outgoing.retries > 0 || outgoing.frame.getAttempt() > 0) retransmissions++;
+        if (!outgoing.reportedSent) {
+            outgoing.reportedSent = true;
+            changes.add(new long[]{outgoing.frame.messageId, Message.DELIVERY_SENT});
+        }
+    }
+
+    private void startTimer(Peer peer, Outgoing outgoing, long nowMillis) {
+        outgoing.sentAtMillis = nowMillis;
+        outgoing.deadlineMillis = nowMillis + peer.rtt.getTimeoutMillis(outgoing.retries);
+    }
+
+    private void notify(List<long[]> changes) {
+        for (long[] change : changes) {
+            listener.onDeliveryStateChanged(change[0], (int) change[1]);
+        }
+    }
+}
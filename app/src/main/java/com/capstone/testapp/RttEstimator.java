@@ -0,0 +1,63 @@
+package com.capstone.testapp;
+
+// Retransmission timeout from measured round-trip times, as in TCP (RFC 6298).
+// Keeps a smoothed RTT and its mean deviation; the timeout is srtt + 4 * rttvar,
+// so it sits just above the RTTs actually seen and widens when they vary.
+// Retransmissions of a message wait half as long again each time. That's gentler
+// than TCP's doubling: losses on a radio link are mostly noise and collisions,
+// not congestion, the duty cycle is already enforced by AirtimeScheduler, and
+// a link that stays down is left to the Outbox's much longer backoff.
+//
+// Only feed samples from messages that were not retransmitted; an ack for a
+// retransmitted message could be for either copy (Karn's algorithm).
+public class RttEstimator {
+
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    private static final double BACKOFF = 1.5;
+
+    private final long minTimeoutMillis;
+    private final long maxTimeoutMillis;
+
+    private boolean hasSample;
+    private double smoothedRtt;
+    private double rttVariation;
+    private long timeoutMillis;
+
+    // initialTimeoutMillis is used until the first sample arrives
+    public RttEstimator(long initialTimeoutMillis, long minTimeoutMillis, long maxTimeoutMillis) {
+        this.minTimeoutMillis = minTimeoutMillis;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+        this.timeoutMillis = clamp(initialTimeoutMillis);
+    }
+
+    public void addSample(long rttMillis) {
+        if (!hasSample) {
+            smoothedRtt = rttMillis;
+            rttVariation = rttMillis / 2.0;
+            hasSample = true;
+        } else {
+            rttVariation = (1 - BETA) * rttVariation + BETA * Math.abs(smoothedRtt - rttMillis);
+            smoothedRtt = (1 - ALPHA) * smoothedRtt + ALPHA * rttMillis;
+        }
+        timeoutMillis = clamp((long) Math.ceil(smoothedRtt + 4 * rttVariation));
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    // Timeout for the given retransmission of a message: BACKOFF times longer per attempt
+    public long getTimeoutMillis(int attempt) {
+        return clamp((long) (timeoutMillis * Math.pow(BACKOFF, Math.min(attempt, 64))));
+    }
+
+    // -1 until the first sample
+    public long getSmoothedRttMillis() {
+        return hasSample ? Math.round(smoothedRtt) : -1;
+    }
+
+    private long clamp(long millis) {
+        return Math.max(minTimeoutMillis, Math.min(maxTimeoutMillis, millis));
+    }
+}
@@ -0,0 +1,178 @@
+package com.capstone.testapp;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// What scanning has seen, per device address, for choosing which node to use.
+// A scan reports the same device many times a second. The first report is
+// parsed for our service UUID (see add()); later ones only update the smoothed
+// RSSI and the time last seen (see report()).
+//
+// getBest() picks the node with the strongest signal, less a penalty for each
+// connection to it that failed. A node that failed MAX_CONNECT_FAILURES times
+// in a row is left out. Failures are forgotten CONNECT_FAILURE_MEMORY_MS after
+// the last one, so a node that was out of reach for a while gets another chance. getHandoverTarget() applies hysteresis: another node
+// must be stronger than the current one by HANDOVER_MARGIN_DB, over several
+// reports, before the connection is moved. Without that, two nodes at similar
+// strength would have us switching back and forth.
+//
+// Pure Java and clock-free; not thread safe.
+public class ScanAggregator {
+
+    // Weight of a new report in the smoothed RSSI
+    static final double RSSI_ALPHA = 0.3;
+    // How much stronger another node must be to hand over to it
+    public static final int HANDOVER_MARGIN_DB = 10;
+    // Reports needed before a node's smoothed RSSI is trusted for a handover
+    static final int MIN_HANDOVER_REPORTS = 3;
+    // Each failed connection counts as this much weaker signal
+    static final int CONNECT_FAILURE_PENALTY_DB = 10;
+    public static final int MAX_CONNECT_FAILURES = 3;
+    static final long CONNECT_FAILURE_MEMORY_MS = 5 * 60 * 1000;
+    public static final long DEFAULT_STALE_MS = 30000;
+
+    public static final class Device {
+        public final String address;
+        public final boolean advertisesService;
+        double smoothedRssi;
+        int reports;
+        long firstSeenMillis;
+        long lastSeenMillis;
+        int connectFailures;
+        long lastFailureMillis;
+
+        Device(String address, boolean advertisesService, int rssi, long nowMillis) {
+            this.address = address;
+            this.advertisesService = advertisesService;
+            this.smoothedRssi = rssi;
+            this.reports = 1;
+            this.firstSeenMillis = nowMillis;
+            this.lastSeenMillis = nowMillis;
+        }
+
+        public int getSmoothedRssi() {
+            return (int) Math.round(smoothedRssi);
+        }
+
+        public int getReports() {
+            return reports;
+        }
+
+        public long getLastSeenMillis() {
+            return lastSeenMillis;
+        }
+
+        // Failed connections in a row that still count
+        public int getConnectFailures(long nowMillis) {
+            if (connectFailures > 0 && nowMillis - lastFailureMillis >= CONNECT_FAILURE_MEMORY_MS) {
+                connectFailures = 0;
+            }
+            return connectFailures;
+        }
+
+        double score(long nowMillis) {
+            return smoothedRssi - CONNECT_FAILURE_PENALTY_DB * getConnectFailures(nowMillis);
+        }
+    }
+
+    private final long staleMillis;
+    private final Map<String, Device> devices = new HashMap<>();
+
+    public ScanAggregator() {
+        this(DEFAULT_STALE_MS);
+    }
+
+    // Devices not seen for staleMillis are ignored and dropped by prune()
+    public ScanAggregator(long staleMillis) {
+        this.staleMillis = staleMillis;
+    }
+
+    // A repeated report of a known device. Returns false if the device is new;
+    // parse its advertisement and add() it instead.
+    public boolean report(String address, int rssi, long nowMillis) {
+        Device device = devices.get(address);
+        if (device == null) return false;
+        // Start over after a gap, rather than averaging with a signal from elsewhere
+        if (nowMillis - device.lastSeenMillis > staleMillis) {
+            device.smoothedRssi = rssi;
+            device.reports = 0;
+        } else {
+            device.smoothedRssi += RSSI_ALPHA * (rssi - device.smoothedRssi);
+        }
+        device.reports++;
+        device.lastSeenMillis = nowMillis;
+        return true;
+    }
+
+    public Device add(String address, boolean advertisesService, int rssi, long nowMillis) {
+        Device device = new Device(address, advertisesService, rssi, nowMillis);
+        devices.put(address, device);
+        return device;
+    }
+
+    public Device get(String address) {
+        return devices.get(address);
+    }
+
+    public void onConnectFailed(String address, long nowMillis) {
+        Device device = devices.get(address);
+        if (device == null) return;
+        device.connectFailures = device.getConnectFailures(nowMillis) + 1;
+        device.lastFailureMillis = nowMillis;
+    }
+
+    public void onConnected(String address) {
+        Device device = devices.get(address);
+        if (device != null) device.connectFailures = 0;
+    }
+
+    // Address of the node to connect to, or null if none was seen recently
+    public String getBest(long nowMillis) {
+        Device best = null;
+        for (Device device : devices.values()) {
+            if (!isCandidate(device, nowMillis)) continue;
+            if (best == null || device.score(nowMillis) > best.score(nowMillis)) best = device;
+        }
+        return best != null ? best.address : null;
+    }
+
+    // Address of a node clearly better than the one we're connected to, or null.
+    // currentRssi is the connection's own reading, which is fresher than any
+    // advertisement; pass null to use the table's value for currentAddress.
+    public String getHandoverTarget(String currentAddress, Integer currentRssi, long nowMillis) {
+        double current;
+        if (currentRssi != null) {
+            current = currentRssi;
+        } else {
+            Device device = devices.get(currentAddress);
+            if (device == null || nowMillis - device.lastSeenMillis > staleMillis) return null;
+            current = device.smoothedRssi;
+        }
+        Device best = null;
+        for (Device device : devices.values()) {
+            if (device.address.equals(currentAddress) || !isCandidate(device, nowMillis)) continue;
+            if (device.reports < MIN_HANDOVER_REPORTS) continue;
+            if (best == null || device.score(nowMillis) > best.score(nowMillis)) best = device;
+        }
+        return best != null && best.score(nowMillis) >= current + HANDOVER_MARGIN_DB ? best.address : null;
+    }
+
+    // Forget devices not seen for a while
+    public void prune(long nowMillis) {
+        Iterator<Device> it = devices.values().iterator();
+        while (it.hasNext()) {
+            if (nowMillis - it.next().lastSeenMillis > staleMillis) it.remove();
+        }
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    private boolean isCandidate(Device device, long nowMillis) {
+        return device.advertisesService
+                && device.getConnectFailures(nowMillis) < MAX_CONNECT_FAILURES
+                && nowMillis - device.lastSeenMillis <= staleMillis;
+    }
+}
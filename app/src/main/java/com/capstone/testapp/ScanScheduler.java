@@ -0,0 +1,125 @@
+package com.capstone.testapp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Which scan settings to use while searching for a node, as the search goes on.
+// A search starts in low-latency mode, since someone is usually waiting for the
+// connection, and backs off to balanced and then to low power. Low power also
+// switches the radio off between scan windows. The later stages batch their
+// results in the controller (reportDelayMillis), so the app is woken once per
+// batch instead of once per advertisement. After the last stage the search is
+// over.
+//
+// Scan windows are kept well apart: Android refuses a sixth scan start within
+// 30 s.
+//
+// Pure Java and clock-free: the caller passes the time in, applies getStage()
+// and isScanWindow(), and asks again at getNextChangeAt().
+public class ScanScheduler {
+
+    // Same values as ScanSettings.SCAN_MODE_
+    public static final int MODE_LOW_POWER = 0;
+    public static final int MODE_BALANCED = 1;
+    public static final int MODE_LOW_LATENCY = 2;
+
+    public static final class Stage {
+        public final int scanMode;
+        // 0 reports every result as it comes
+        public final long reportDelayMillis;
+        public final long durationMillis;
+        // With pauseMillis > 0 the radio scans for windowMillis, then rests for pauseMillis
+        public final long windowMillis;
+        public final long pauseMillis;
+
+        public Stage(int scanMode, long reportDelayMillis, long durationMillis, long windowMillis, long pauseMillis) {
+            if (durationMillis <= 0 || windowMillis <= 0 || pauseMillis < 0) {
+                throw new IllegalArgumentException("Bad stage timing");
+            }
+            this.scanMode = scanMode;
+            this.reportDelayMillis = reportDelayMillis;
+            this.durationMillis = durationMillis;
+            this.windowMillis = windowMillis;
+            this.pauseMillis = pauseMillis;
+        }
+
+        // Scans the whole stage without pausing
+        public Stage(int scanMode, long reportDelayMillis, long durationMillis) {
+            this(scanMode, reportDelayMillis, durationMillis, durationMillis, 0);
+        }
+
+        @Override
+        public String toString() {
+            String mode = scanMode == MODE_LOW_LATENCY ? "low latency" : scanMode == MODE_BALANCED ? "balanced" : "low power";
+            return mode + (reportDelayMillis > 0 ? ", batched every " + reportDelayMillis + " ms" : "")
+                    + (pauseMillis > 0 ? ", " + windowMillis + " ms of every " + (windowMillis + pauseMillis) : "");
+        }
+    }
+
+    // 10 s flat out, 20 s balanced, then a third of the time in low power until 5 minutes are up
+    public static final List<Stage> DEFAULT_STAGES = Collections.unmodifiableList(Arrays.asList(
+            new Stage(MODE_LOW_LATENCY, 0, 10000),
+            new Stage(MODE_BALANCED, 1000, 20000),
+            new Stage(MODE_LOW_POWER, 5000, 270000, 10000, 20000)));
+
+    private final List<Stage> stages;
+    private final long startedAtMillis;
+
+    public ScanScheduler(long nowMillis) {
+        this(DEFAULT_STAGES, nowMillis);
+    }
+
+    public ScanScheduler(List<Stage> stages, long nowMillis) {
+        if (stages.isEmpty()) throw new IllegalArgumentException("No stages");
+        this.stages = stages;
+        this.startedAtMillis = nowMillis;
+    }
+
+    // Stage the search is in, or null once it's over
+    public Stage getStage(long nowMillis) {
+        long elapsed = nowMillis - startedAtMillis;
+        for (Stage stage : stages) {
+            if (elapsed < stage.durationMillis) return stage;
+            elapsed -= stage.durationMillis;
+        }
+        return null;
+    }
+
+    public boolean isFinished(long nowMillis) {
+        return getStage(nowMillis) == null;
+    }
+
+    // Whether the radio should be scanning now, as opposed to resting between windows
+    public boolean isScanWindow(long nowMillis) {
+        long elapsed = nowMillis - startedAtMillis;
+        for (Stage stage : stages) {
+            if (elapsed < stage.durationMillis) {
+                return stage.pauseMillis == 0 || elapsed % (stage.windowMillis + stage.pauseMillis) < stage.windowMillis;
+            }
+            elapsed -= stage.durationMillis;
+        }
+        return false;
+    }
+
+    // When the stage or the scan window changes next, or the search ends. After
+    // the end, nowMillis.
+    public long getNextChangeAt(long nowMillis) {
+        long elapsed = nowMillis - startedAtMillis;
+        long stageStart = startedAtMillis;
+        for (Stage stage : stages) {
+            if (elapsed < stage.durationMillis) {
+                long stageEnd = stageStart + stage.durationMillis;
+                if (stage.pauseMillis == 0) return stageEnd;
+                long cycle = stage.windowMillis + stage.pauseMillis;
+                long position = elapsed % cycle;
+                long cycleStart = nowMillis - position;
+                long next = cycleStart + (position < stage.windowMillis ? stage.windowMillis : cycle);
+                return Math.min(next, stageEnd);
+            }
+            elapsed -= stage.durationMillis;
+            stageStart += stage.durationMillis;
+        }
+        return nowMillis;
+    }
+}
@@ -0,0 +1,163 @@
+package com.capstone.testapp;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.widget.EditText;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Searches all conversations as the user types; tapping a result opens its chat.
+public class SearchActivity extends AppCompatActivity {
+
+    private static final int PAGE_SIZE = 30;
+    // Wait for typing to pause before searching
+    private static final long TYPING_DELAY_MS = 200;
+    // Load the next page when this close to the end of the results
+    private static final int PREFETCH_DISTANCE = 10;
+
+    private EditText searchEditText;
+    private SearchResultAdapter resultAdapter;
+    private final List<MessageSearch.Hit> hits = new ArrayList<>();
+    private final Map<Integer, Contact> contacts = new HashMap<>();
+    private MessageSearch messageSearch;
+    private ExecutorService executorService;
+    private Handler handler;
+
+    private String currentQuery = "";
+    // Bumped for every new query so results of an older one are dropped
+    private int generation = 0;
+    private boolean pageLoading = false;
+    private boolean hasMore = false;
+
+    private final Runnable searchRunnable = this::startSearch;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_search);
+
+        Toolbar toolbar = findViewById(R.id.searchToolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setTitle(R.string.search_messages);
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            getSupportActionBar().setDisplayShowHomeEnabled(true);
+        }
+
+        AppDatabase db = AppDatabase.getDatabase(this);
+        messageSearch = new MessageSearch(db.messageDao());
+        executorService = Executors.newSingleThreadExecutor();
+        handler = new Handler(Looper.getMainLooper());
+
+        RecyclerView recyclerView = findViewById(R.id.searchRecyclerView);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
+        resultAdapter = new SearchResultAdapter(hits, contacts, this::openConversation);
+        recyclerView.setAdapter(resultAdapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0 && hasMore && !pageLoading
+                        && layoutManager.findLastVisibleItemPosition() >= hits.size() - 1 - PREFETCH_DISTANCE) {
+                    loadPage(generation, currentQuery, hits.size());
+                }
+            }
+        });
+
+        executorService.execute(() -> {
+            List<Contact> loadedContacts = db.contactDao().getAllContacts();
+            runOnUiThread(() -> {
+                for (Contact contact : loadedContacts) {
+                    contacts.put(contact.id, contact);
+                }
+                resultAdapter.notifyDataSetChanged();
+            });
+        });
+
+        searchEditText = findViewById(R.id.searchEditText);
+        searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                handler.removeCallbacks(searchRunnable);
+                handler.postDelayed(searchRunnable, TYPING_DELAY_MS);
+            }
+        });
+        searchEditText.requestFocus();
+    }
+
+    @Override
+    public boolean onSupportNavigateUp() {
+        getOnBackPressedDispatcher().onBackPressed();
+        return true;
+    }
+
+    private void startSearch() {
+        currentQuery = searchEditText.getText().toString().trim();
+        generation++;
+        hits.clear();
+        resultAdapter.notifyDataSetChanged();
+        hasMore = false;
+        pageLoading = false;
+        if (currentQuery.isEmpty()) return;
+        loadPage(generation, currentQuery, 0);
+    }
+
+    private void loadPage(int queryGeneration, String query, int offset) {
+        pageLoading = true;
+        executorService.execute(() -> {
+            List<MessageSearch.Hit> page = messageSearch.search(query, offset, PAGE_SIZE);
+            runOnUiThread(() -> {
+                // The user has typed something else since
+                if (queryGeneration != generation) return;
+                pageLoading = false;
+                int start = hits.size();
+                hits.addAll(page);
+                resultAdapter.notifyItemRangeInserted(start, page.size());
+                hasMore = page.size() == PAGE_SIZE;
+            });
+        });
+    }
+
+    private void openConversation(MessageSearch.Hit hit) {
+        Contact contact = hit.message.conversationId != null ? contacts.get(hit.message.conversationId) : null;
+        if (contact == null) {
+            Toast.makeText(this, "This message isn't linked to a contact.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Intent intent = new Intent(this, ChatActivity.class);
+        intent.putExtra("CONTACT_ID", contact.id);
+        intent.putExtra("CONTACT_NAME", contact.name);
+        intent.putExtra("CONTACT_PUBLIC_KEY", contact.publicKey);
+        startActivity(intent);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(searchRunnable);
+        executorService.shutdownNow();
+    }
+}
@@ -0,0 +1,88 @@
+package com.capstone.testapp;
+
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+import java.util.Map;
+
+public class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapter.ResultViewHolder> {
+
+    // Text shown before the first match when the snippet doesn't start at the beginning
+    private static final int SNIPPET_LEAD = 30;
+
+    private final List<MessageSearch.Hit> hits;
+    private final Map<Integer, Contact> contacts;
+    private final OnResultClickListener listener;
+
+    public interface OnResultClickListener {
+        void onResultClick(MessageSearch.Hit hit);
+    }
+
+    public SearchResultAdapter(List<MessageSearch.Hit> hits, Map<Integer, Contact> contacts, OnResultClickListener listener) {
+        this.hits = hits;
+        this.contacts = contacts;
+        this.listener = listener;
+    }
+
+    @NonNull
+    @Override
+    public ResultViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.search_result_item, parent, false);
+        return new ResultViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ResultViewHolder holder, int position) {
+        MessageSearch.Hit hit = hits.get(position);
+        Contact contact = hit.message.conversationId != null ? contacts.get(hit.message.conversationId) : null;
+        String who = contact != null ? contact.name : "Unknown";
+        holder.contactTextView.setText(hit.message.isSentByMe ? "You to " + who : who);
+        holder.snippetTextView.setText(snippet(hit));
+        holder.itemView.setOnClickListener(v -> listener.onResultClick(hit));
+    }
+
+    @Override
+    public int getItemCount() {
+        return hits.size();
+    }
+
+    // The message text from a little before the first match, with matches in bold
+    private static CharSequence snippet(MessageSearch.Hit hit) {
+        String text = hit.message.textContent != null ? hit.message.textContent : "";
+        int start = 0;
+        if (hit.highlights.length > 0 && hit.highlights[0] > SNIPPET_LEAD) {
+            start = hit.highlights[0] - SNIPPET_LEAD;
+        }
+        SpannableStringBuilder snippet = new SpannableStringBuilder();
+        if (start > 0) snippet.append('…');
+        int shift = snippet.length() - start;
+        snippet.append(text, start, text.length());
+        for (int i = 0; i + 1 < hit.highlights.length; i += 2) {
+            if (hit.highlights[i] < start) continue;
+            snippet.setSpan(new StyleSpan(Typeface.BOLD), hit.highlights[i] + shift, hit.highlights[i + 1] + shift,
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return snippet;
+    }
+
+    public static class ResultViewHolder extends RecyclerView.ViewHolder {
+        final TextView contactTextView;
+        final TextView snippetTextView;
+
+        public ResultViewHolder(@NonNull View itemView) {
+            super(itemView);
+            contactTextView = itemView.findViewById(R.id.resultContactTextView);
+            snippetTextView = itemView.findViewById(R.id.resultSnippetTextView);
+        }
+    }
+}
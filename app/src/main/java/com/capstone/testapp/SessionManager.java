@@ -0,0 +1,215 @@
+package com.capstone.testapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+// Session layer on top of CryptoManager.
+// A new session to a contact wraps a random seed with their RSA key; messages
+// are encrypted with per-message keys from a RatchetSession, so the steady state
+// never touches public-key crypto. The wrapped seed goes with every message
+// until confirm() is called, i.e. the contact acknowledged one.
+// Session state is kept in SharedPreferences so it survives app restarts.
+// Receiving sessions are dropped least recently used first beyond
+// MAX_INCOMING_SESSIONS.
+public class SessionManager {
+    private static final String TAG = "SessionManager";
+    private static final String PREFS_NAME = "SessionPrefs";
+    private static final String OUTGOING_PREFIX = "out_";
+    private static final String INCOMING_PREFIX = "in_";
+    // Ids of the stored receiving sessions, least recently used first
+    private static final String INCOMING_ORDER_KEY = "incoming_order";
+
+    // Start a fresh sending session after this many messages, so a contact who
+    // lost their session state (e.g. reinstalled) eventually gets a new seed.
+    private static final int MAX_MESSAGES_PER_SESSION = 1000;
+
+    // Receiving sessions kept. Each contact's sessions replace each other, so
+    // the old ones only matter for late messages.
+    private static final int MAX_INCOMING_SESSIONS = 64;
+
+    // In-memory copies shared by all instances; SharedPreferences is the source of truth
+    // Contact public key -> our sending session to them
+    private static final Map<String, RatchetSession> outgoingSessions = new HashMap<>();
+    // Session id -> a contact's sending session to us
+    private static final Map<Integer, RatchetSession> incomingSessions = new HashMap<>();
+    // Loaded from INCOMING_ORDER_KEY on first use
+    private static LinkedHashSet<Integer> incomingOrder;
+
+    private final SharedPreferences sharedPreferences;
+    private final CryptoManager cryptoManager;
+
+    public SessionManager(Context context, CryptoManager cryptoManager) {
+        this.sharedPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.cryptoManager = cryptoManager;
+    }
+
+    // Encrypt a message for a contact. Returns null if encryption fails.
+    public byte[] encrypt(byte[] plainText, String contactPublicKey) {
+        synchronized (SessionManager.class) {
+            try {
+                String prefKey = OUTGOING_PREFIX + shortHash(contactPublicKey);
+                RatchetSession session = outgoingSessions.get(contactPublicKey);
+                if (session == null) {
+                    session = load(prefKey);
+                }
+                if (session == null || session.getCounter() >= MAX_MESSAGES_PER_SESSION) {
+                    byte[] seed = RatchetSession.newSeed();
+                    session = RatchetSession.newSendingSession(seed, cryptoManager.wrapForContact(seed, contactPublicKey));
+                    Log.d(TAG, "Started new session " + session.getSessionId());
+                }
+                outgoingSessions.put(contactPublicKey, session);
+
+                byte[] message = session.encrypt(plainText);
+                // Written to disk before the message leaves, so a restart never
+                // reuses a message key (and with it the GCM IV). If the write
+                // fails the message never leaves.
+                if (!save(prefKey, session, true)) {
+                    Log.e(TAG, "Could not save session " + session.getSessionId() + "; not sending");
+                    return null;
+                }
+                return message;
+            } catch (Exception e) {
+                Log.e(TAG, "Error encrypting", e);
+                return null;
+            }
+        }
+    }
+
+    // Decrypt any incoming message: session messages go through the ratchet,
+    // everything else (hybrid envelopes, legacy RSA) falls back to CryptoManager.
+    public byte[] decrypt(byte[] message) {
+        if (!RatchetSession.isSessionMessage(message)) {
+            return cryptoManager.decrypt(message);
+        }
+        synchronized (SessionManager.class) {
+            try {
+                int sessionId = RatchetSession.peekSessionId(message);
+                String prefKey = INCOMING_PREFIX + Integer.toHexString(sessionId);
+                RatchetSession session = incomingSessions.get(sessionId);
+                if (session == null) {
+                    session = load(prefKey);
+                }
+                if (session == null) {
+                    byte[] wrappedSeed = RatchetSession.peekWrappedSeed(message);
+                    if (wrappedSeed == null) {
+                        Log.w(TAG, "Message for unknown session " + sessionId);
+                        return null;
+                    }
+                    session = RatchetSession.newReceivingSession(sessionId, cryptoManager.unwrap(wrappedSeed));
+                }
+
+                byte[] plainText = session.decrypt(message);
+                incomingSessions.put(sessionId, session);
+                SharedPreferences.Editor editor = sharedPreferences.edit()
+                        .putString(prefKey, Base64.encodeToString(session.toBytes(), Base64.NO_WRAP));
+                markUsed(sessionId, editor);
+                editor.apply();
+                return plainText;
+            } catch (Exception e) {
+                Log.e(TAG, "Error decrypting", e);
+                return null;
+            }
+        }
+    }
+
+    // The contact read a message of our session sessionId to them, e.g. they
+    // acknowledged it, so they have its seed and later messages can leave it out.
+    // Ignored if we have moved on to another session since.
+    public void confirm(String contactPublicKey, int sessionId) {
+        synchronized (SessionManager.class) {
+            try {
+                String prefKey = OUTGOING_PREFIX + shortHash(contactPublicKey);
+                RatchetSession session = outgoingSessions.get(contactPublicKey);
+                if (session == null) {
+                    session = load(prefKey);
+                }
+                if (session == null || session.getSessionId() != sessionId || session.isConfirmed()) return;
+                session.confirm();
+                outgoingSessions.put(contactPublicKey, session);
+                save(prefKey, session, false);
+                Log.d(TAG, "Session " + sessionId + " confirmed");
+            } catch (Exception e) {
+                Log.e(TAG, "Error confirming session", e);
+            }
+        }
+    }
+
+    // Move sessionId to the most recently used end of incomingOrder and forget
+    // the sessions that fall off the other end
+    private void markUsed(int sessionId, SharedPreferences.Editor editor) {
+        if (incomingOrder == null) incomingOrder = loadIncomingOrder();
+        incomingOrder.remove(sessionId);
+        incomingOrder.add(sessionId);
+        Iterator<Integer> oldest = incomingOrder.iterator();
+        while (incomingOrder.size() > MAX_INCOMING_SESSIONS) {
+            int dropped = oldest.next();
+            oldest.remove();
+            incomingSessions.remove(dropped);
+            editor.remove(INCOMING_PREFIX + Integer.toHexString(dropped));
+        }
+        StringBuilder order = new StringBuilder();
+        for (int id : incomingOrder) {
+            if (order.length() > 0) order.append(',');
+            order.append(Integer.toHexString(id));
+        }
+        editor.putString(INCOMING_ORDER_KEY, order.toString());
+    }
+
+    private LinkedHashSet<Integer> loadIncomingOrder() {
+        LinkedHashSet<Integer> order = new LinkedHashSet<>();
+        String stored = sharedPreferences.getString(INCOMING_ORDER_KEY, null);
+        if (stored != null) {
+            for (String id : stored.split(",")) {
+                if (!id.isEmpty()) order.add(Integer.parseUnsignedInt(id, 16));
+            }
+            return order;
+        }
+        // Stored before the order was kept: all count as least recently used
+        for (String key : sharedPreferences.getAll().keySet()) {
+            if (key.startsWith(INCOMING_PREFIX)) {
+                order.add(Integer.parseUnsignedInt(key.substring(INCOMING_PREFIX.length()), 16));
+            }
+        }
+        return order;
+    }
+
+    private RatchetSession load(String prefKey) {
+        String state = sharedPreferences.getString(prefKey, null);
+        if (state == null) return null;
+        try {
+            return RatchetSession.fromBytes(Base64.decode(state, Base64.NO_WRAP));
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Dropping unreadable session state " + prefKey, e);
+            return null;
+        }
+    }
+
+    // Written synchronously with durable, returning whether the write succeeded;
+    // otherwise in the background, always returning true
+    private boolean save(String prefKey, RatchetSession session, boolean durable) {
+        SharedPreferences.Editor editor = sharedPreferences.edit()
+                .putString(prefKey, Base64.encodeToString(session.toBytes(), Base64.NO_WRAP));
+        if (durable) return editor.commit();
+        editor.apply();
+        return true;
+    }
+
+    // Short, stable preference key for a contact's (long) public key string
+    private static String shortHash(String value) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            hex.append(String.format("%02x", digest[i]));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,237 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * LoRa airtime, the duty-cycle token bucket and priorities, on a simulated
+ * clock. The burst test compares how many frames a node with a small buffer
+ * drops with and without pacing.
+ */
+public class AirtimeSchedulerTest {
+
+    private static final LoRaAirtime SF7 = new LoRaAirtime(7, 125000, 5);
+
+    @Test
+    public void airtime_matchesTheSemtechFormula() {
+        assertEquals(41.216, SF7.getPacketMillis(10), 0.001);
+        // Low data rate optimisation kicks in at SF12 / 125 kHz
+        assertEquals(991.232, new LoRaAirtime(12, 125000, 5).getPacketMillis(10), 0.001);
+        assertEquals(42, SF7.getFrameMillis(10));
+        // Two packets, each with its own preamble
+        assertEquals((long) Math.ceil(SF7.getPacketMillis(255) + SF7.getPacketMillis(45)), SF7.getFrameMillis(300));
+    }
+
+    @Test
+    public void frames_waitForTheRadioAndTheBucket() {
+        // A bucket with room for about two 100 byte frames (175 ms each)
+        AirtimeScheduler scheduler = new AirtimeScheduler(SF7, 0.01, 400, 16, 0);
+        long airtime = SF7.getFrameMillis(100);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(scheduler.enqueue(new byte[100], AirtimeScheduler.PRIORITY_CHAT));
+        }
+
+        assertNotNull(scheduler.poll(0));
+        // The radio is still transmitting the first one
+        assertNull(scheduler.poll(airtime - 1));
+        assertEquals(airtime, scheduler.getNextSendAt(1));
+        assertNotNull(scheduler.poll(airtime));
+
+        // The bucket is nearly empty: the third waits for it to refill at 1%
+        long next = scheduler.getNextSendAt(2 * airtime);
+        assertTrue(next > 2 * airtime + 1000);
+        assertNull(scheduler.poll(next - 1));
+        assertNotNull(scheduler.poll(next));
+        assertEquals(Long.MAX_VALUE, scheduler.getNextSendAt(next));
+        assertEquals(3 * airtime, scheduler.getAirtimeUsedMillis());
+    }
+
+    @Test
+    public void acks_goBeforeChatAndChatBeforeBulk() {
+        AirtimeScheduler scheduler = new AirtimeScheduler(SF7, 1, 100000, 16, 0);
+        byte[] bulk = {0, 9};
+        byte[] chat = {0, 1};
+        byte[] ack = {0, 2};
+        scheduler.enqueue(bulk, AirtimeScheduler.PRIORITY_BULK);
+        scheduler.enqueue(chat, AirtimeScheduler.PRIORITY_CHAT);
+        scheduler.enqueue(ack, AirtimeScheduler.PRIORITY_CONTROL);
+
+        long now = 0;
+        assertSame(ack, scheduler.poll(now));
+        now = scheduler.getNextSendAt(now);
+        assertSame(chat, scheduler.poll(now));
+        now = scheduler.getNextSendAt(now);
+        assertSame(bulk, scheduler.poll(now));
+    }
+
+    @Test
+    public void fullQueue_evictsLowerPriorityFrames() {
+        AirtimeScheduler scheduler = new AirtimeScheduler(SF7, 1, 100000, 2, 0);
+        byte[] chat = new byte[20];
+        byte[] laterChat = new byte[20];
+        byte[] ack = new byte[20];
+        assertTrue(scheduler.enqueue(new byte[20], AirtimeScheduler.PRIORITY_BULK));
+        assertTrue(scheduler.enqueue(chat, AirtimeScheduler.PRIORITY_CHAT));
+
+        // Nothing below bulk to drop
+        assertFalse(scheduler.enqueue(new byte[20], AirtimeScheduler.PRIORITY_BULK));
+        // The bulk frame makes room
+        assertTrue(scheduler.enqueue(laterChat, AirtimeScheduler.PRIORITY_CHAT));
+        assertFalse(scheduler.enqueue(new byte[20], AirtimeScheduler.PRIORITY_CHAT));
+        // The newest chat frame makes room
+        assertTrue(scheduler.enqueue(ack, AirtimeScheduler.PRIORITY_CONTROL));
+        assertEquals(2, scheduler.getQueued());
+        assertEquals(4, scheduler.getFramesRejected());
+        List<byte[]> evicted = scheduler.takeEvicted();
+        assertEquals(2, evicted.size());
+        assertSame(laterChat, evicted.get(1));
+        assertTrue(scheduler.takeEvicted().isEmpty());
+
+        assertSame(ack, scheduler.poll(0));
+        assertSame(chat, scheduler.poll(scheduler.getNextSendAt(0)));
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    public void waitingFrames_areBundledUpToTheLimit() {
+        AirtimeScheduler scheduler = new AirtimeScheduler(SF7, 1, 100000, 16, LoRaAirtime.MAX_PACKET_PAYLOAD, 0);
+        byte[] ack = new Frame(Frame.TYPE_ACK, 0, 1, 2, ReliableSender.ackPayload(1)).encode();
+        scheduler.enqueue(new byte[90], AirtimeScheduler.PRIORITY_CHAT);
+        scheduler.enqueue(new byte[90], AirtimeScheduler.PRIORITY_CHAT);
+        scheduler.enqueue(new byte[90], AirtimeScheduler.PRIORITY_CHAT);
+        scheduler.enqueue(ack, AirtimeScheduler.PRIORITY_CONTROL);
+
+        // The ack and two chat frames fit in 255 bytes; the third waits
+        byte[] bundle = scheduler.poll(0);
+        assertTrue(bundle.length <= LoRaAirtime.MAX_PACKET_PAYLOAD);
+        List<byte[]> frames = Frame.splitBundle(Frame.decode(bundle).payload);
+        assertEquals(3, frames.size());
+        assertArrayEquals(ack, frames.get(0));
+        assertEquals(1, scheduler.getQueued());
+        assertEquals(SF7.getFrameMillis(bundle.length), scheduler.getAirtimeUsedMillis());
+        assertTrue(scheduler.getAirtimeUsedMillis() < SF7.getFrameMillis(ack.length) + 2 * SF7.getFrameMillis(90));
+
+        // A frame on its own isn't wrapped
+        long next = scheduler.getNextSendAt(0);
+        assertEquals(90, scheduler.poll(next).length);
+        assertEquals(1, scheduler.getBundlesSent());
+        assertEquals(3, scheduler.getFramesBundled());
+    }
+
+    @Test
+    public void fastChat_bundlingCarriesMoreFramesPerMinute() {
+        double plain = framesPerMinute(0);
+        double bundled = framesPerMinute(LoRaAirtime.MAX_PACKET_PAYLOAD);
+        assertTrue(bundled > plain * 1.1);
+    }
+
+    // More short messages than the duty cycle allows, each with an ack from our
+    // side for one of theirs, for an hour. Returns frames delivered per minute.
+    private static double framesPerMinute(int maxBundleLength) {
+        LoRaAirtime sf9 = new LoRaAirtime(9, 125000, 5);
+        AirtimeScheduler scheduler = new AirtimeScheduler(sf9, 0.01, 10000, 64, maxBundleLength, 0);
+        // Short text after compression and encryption, plus the frame header
+        byte[] chat = new Frame(Frame.TYPE_CHAT, 0, 1, 2, new byte[40]).encode();
+        byte[] ack = new Frame(Frame.TYPE_ACK, 0, 1, 2, ReliableSender.ackPayload(1)).encode();
+        long minutes = 60;
+        int frames = 0;
+        long now = 0;
+        while (now < minutes * 60000) {
+            while (scheduler.getQueued() < 8) {
+                scheduler.enqueue(chat, AirtimeScheduler.PRIORITY_CHAT);
+                scheduler.enqueue(ack, AirtimeScheduler.PRIORITY_CONTROL);
+            }
+            byte[] sent = scheduler.poll(now);
+            if (sent != null) {
+                frames += Frame.peekType(sent) == Frame.TYPE_BUNDLE
+                        ? Frame.splitBundle(Frame.decode(sent).payload).size() : 1;
+            }
+            now = scheduler.getNextSendAt(now);
+        }
+        return frames / (double) minutes;
+    }
+
+    @Test
+    public void fecParity_isChargedAndKeptOutOfTheBundleLimit() {
+        AirtimeScheduler scheduler = new AirtimeScheduler(SF7, 1, 100000, 16, LoRaAirtime.MAX_PACKET_PAYLOAD, 0);
+        scheduler.setFecLevel(FecCodec.MAX_LEVEL);
+        scheduler.enqueue(new byte[100], AirtimeScheduler.PRIORITY_CHAT);
+        scheduler.enqueue(new byte[100], AirtimeScheduler.PRIORITY_CHAT);
+
+        // Two would fit 255 bytes bare, but not with 35 bytes of FEC
+        assertEquals(100, scheduler.poll(0).length);
+        assertEquals(SF7.getFrameMillis(FecCodec.getEncodedLength(100, FecCodec.MAX_LEVEL)),
+                scheduler.getAirtimeUsedMillis());
+    }
+
+    @Test
+    public void frameLargerThanTheBucket_isRefused() {
+        AirtimeScheduler scheduler = new AirtimeScheduler(SF7, 0.01, 100, 16, 0);
+        assertFalse(scheduler.enqueue(new byte[200], AirtimeScheduler.PRIORITY_CHAT));
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    public void saturatedLink_staysWithinTheDutyCycle() {
+        long bucket = 10000;
+        AirtimeScheduler scheduler = new AirtimeScheduler(SF7, 0.01, bucket, 64, 0);
+        long hour = 3600000;
+        long now = 0;
+        int sent = 0;
+        while (now < hour) {
+            while (scheduler.getQueued() < 8) {
+                scheduler.enqueue(new byte[100], AirtimeScheduler.PRIORITY_CHAT);
+            }
+            if (scheduler.poll(now) != null) sent++;
+            now = scheduler.getNextSendAt(now);
+        }
+        long used = scheduler.getAirtimeUsedMillis();
+        assertEquals(sent * SF7.getFrameMillis(100), used);
+        assertTrue(used <= bucket + hour / 100 + SF7.getFrameMillis(100));
+        assertTrue(used >= hour / 100);
+    }
+
+    @Test
+    public void burst_pacingKeepsTheNodeBufferFromOverflowing() {
+        int unpacedDrops = simulateBurst(false);
+        int pacedDrops = simulateBurst(true);
+        assertTrue(unpacedDrops >= 5);
+        assertEquals(0, pacedDrops);
+    }
+
+    // A node that buffers 8 frames and transmits them one after another
+    private static int simulateBurst(boolean paced) {
+        int bufferFrames = 8;
+        int frameLength = 120;
+        long airtime = SF7.getFrameMillis(frameLength);
+        AirtimeScheduler scheduler = new AirtimeScheduler(SF7, 0.01, 10000, 64, 0);
+        ArrayDeque<Long> nodeBuffer = new ArrayDeque<>();
+        long nodeBusyUntil = 0;
+        int drops = 0;
+        int taps = 0;
+        for (long now = 0; now < 60000; now++) {
+            if (taps < 30 && now % 100 == 0) {
+                taps++;
+                if (paced) {
+                    scheduler.enqueue(new byte[frameLength], AirtimeScheduler.PRIORITY_CHAT);
+                } else if (nodeBuffer.size() < bufferFrames) {
+                    nodeBuffer.add(now);
+                } else {
+                    drops++;
+                }
+            }
+            if (paced && scheduler.poll(now) != null) {
+                if (nodeBuffer.size() < bufferFrames) nodeBuffer.add(now); else drops++;
+            }
+            if (now >= nodeBusyUntil && !nodeBuffer.isEmpty()) {
+                nodeBuffer.poll();
+                nodeBusyUntil = now + airtime;
+            }
+        }
+        return drops;
+    }
+}
@@ -0,0 +1,136 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ContactDirectory reads the contacts table once and answers every lookup
+ * from memory, including for contacts added afterwards.
+ */
+public class ContactDirectoryTest {
+
+    // Stands in for CryptoManager.keyIdOf, which needs real Base64 keys
+    private static final ContactDirectory.Fingerprinter FINGERPRINTER = new ContactDirectory.Fingerprinter() {
+        @Override
+        public int fingerprintOf(String publicKey) {
+            return publicKey.hashCode();
+        }
+    };
+
+    @Test
+    public void lookups_readContactsOnce() {
+        FakeContactDao dao = new FakeContactDao();
+        for (int i = 0; i < 5000; i++) {
+            Contact contact = new Contact("contact" + i, "key" + i);
+            contact.fingerprint = FINGERPRINTER.fingerprintOf(contact.publicKey);
+            dao.insert(contact);
+        }
+        ContactDirectory directory = new ContactDirectory(dao, FINGERPRINTER);
+
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 5000; i++) {
+                Contact found = directory.findByFingerprint(("key" + i).hashCode());
+                assertEquals("contact" + i, found.name);
+            }
+        }
+        assertEquals(1, dao.getAllCalls);
+        assertNull(directory.findByFingerprint("stranger".hashCode()));
+        assertEquals(1, dao.getAllCalls);
+    }
+
+    @Test
+    public void insertedContacts_areFoundWithoutReloading() {
+        FakeContactDao dao = new FakeContactDao();
+        ContactDirectory directory = new ContactDirectory(dao, FINGERPRINTER);
+        assertNull(directory.findByFingerprint("alice-key".hashCode()));
+
+        Contact alice = new Contact("Alice", "alice-key");
+        int id = directory.insert(alice);
+        assertEquals(id, alice.id);
+        assertEquals("alice-key".hashCode(), dao.contacts.get(0).fingerprint);
+        assertSame(alice, directory.findByFingerprint("alice-key".hashCode()));
+        assertEquals(1, dao.getAllCalls);
+    }
+
+    @Test
+    public void contactsWithoutFingerprint_areBackfilledOnLoad() {
+        FakeContactDao dao = new FakeContactDao();
+        // Saved before the fingerprint column existed
+        dao.insert(new Contact("Bob", "bob-key"));
+        ContactDirectory directory = new ContactDirectory(dao, FINGERPRINTER);
+
+        assertEquals("Bob", directory.findByFingerprint("bob-key".hashCode()).name);
+        assertEquals(1, dao.fingerprintUpdates);
+        assertEquals("bob-key".hashCode(), dao.contacts.get(0).fingerprint);
+    }
+
+    @Test
+    public void collidingFingerprint_keepsFirstContact() {
+        FakeContactDao dao = new FakeContactDao();
+        ContactDirectory directory = new ContactDirectory(dao, FINGERPRINTER);
+        // "Aa" and "BB" have the same String.hashCode()
+        directory.insert(new Contact("First", "Aa"));
+        directory.insert(new Contact("Second", "BB"));
+        assertEquals("First", directory.findByFingerprint("Aa".hashCode()).name);
+        assertEquals(2, dao.contacts.size());
+
+        // After a restart the second one is reported as left out
+        assertEquals(1, new ContactDirectory(dao, FINGERPRINTER).load());
+    }
+
+    @Test
+    public void unreadableKey_isLeftOutOnLoad() {
+        FakeContactDao dao = new FakeContactDao();
+        dao.insert(new Contact("Broken", "not a key"));
+        dao.insert(new Contact("Carol", "carol-key"));
+        ContactDirectory directory = new ContactDirectory(dao, new ContactDirectory.Fingerprinter() {
+            @Override
+            public int fingerprintOf(String publicKey) {
+                if (publicKey.contains(" ")) throw new IllegalArgumentException("bad Base64");
+                return publicKey.hashCode();
+            }
+        });
+
+        assertEquals(1, directory.load());
+        assertEquals(0, directory.load());
+        assertEquals("Carol", directory.findByFingerprint("carol-key".hashCode()).name);
+    }
+
+    private static final class FakeContactDao implements ContactDao {
+        final List<Contact> contacts = new ArrayList<>();
+        int getAllCalls;
+        int fingerprintUpdates;
+
+        @Override
+        public long insert(Contact contact) {
+            Contact stored = new Contact(contact.name, contact.publicKey);
+            stored.fingerprint = contact.fingerprint;
+            stored.id = contacts.size() + 1;
+            contacts.add(stored);
+            return stored.id;
+        }
+
+        @Override
+        public List<Contact> getAllContacts() {
+            getAllCalls++;
+            List<Contact> copies = new ArrayList<>();
+            for (Contact contact : contacts) {
+                Contact copy = new Contact(contact.name, contact.publicKey);
+                copy.id = contact.id;
+                copy.fingerprint = contact.fingerprint;
+                copies.add(copy);
+            }
+            return copies;
+        }
+
+        @Override
+        public void setFingerprint(int id, int fingerprint) {
+            fingerprintUpdates++;
+            contacts.get(id - 1).fingerprint = fingerprint;
+        }
+    }
+}
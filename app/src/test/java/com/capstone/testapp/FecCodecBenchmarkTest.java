@@ -0,0 +1,174 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip and correction checks for FecCodec, including errors, erasures and
+ * bursts, and frames with as many errors as the parity can take at every level.
+ */
+public class FecCodecBenchmarkTest {
+
+    private static final int[] FRAME_SIZES = {40, 100, 1000};
+
+    private final Random random = new Random(1);
+
+    @Test
+    public void frames_roundTripAtEveryLevel() {
+        for (int level = 0; level <= FecCodec.MAX_LEVEL; level++) {
+            for (int size : new int[]{1, 23, 222, 223, 255, 600, 4000}) {
+                byte[] frame = randomBytes(size);
+                byte[] encoded = FecCodec.encode(frame, level);
+                assertEquals(FecCodec.getEncodedLength(size, level), encoded.length);
+                FecCodec.Decoded decoded = FecCodec.decode(encoded);
+                assertNotNull(decoded);
+                assertEquals(level, decoded.level);
+                assertEquals(0, decoded.corrected);
+                assertArrayEquals(frame, decoded.frame);
+            }
+        }
+        // A frame that fits one LoRa packet with FEC stays in one codeword
+        assertEquals(255, FecCodec.getEncodedLength(255 - FecCodec.HEADER_LENGTH - 32, 3));
+    }
+
+    @Test
+    public void plainFrames_passThrough() {
+        byte[] frame = new Frame(Frame.TYPE_CHAT, 0xF1, 1, 2, randomBytes(30)).encode();
+        FecCodec.Decoded decoded = FecCodec.decode(frame);
+        assertEquals(FecCodec.LEVEL_NONE, decoded.level);
+        assertSame(frame, decoded.frame);
+    }
+
+    @Test
+    public void errors_areCorrectedUpToHalfTheParity() {
+        byte[] frame = randomBytes(100);
+        for (int level = 1; level <= FecCodec.MAX_LEVEL; level++) {
+            int correctable = FecCodec.getParityLength(level) / 2;
+            byte[] encoded = FecCodec.encode(frame, level);
+            byte[] damaged = encoded.clone();
+            // One bad marker copy too
+            damaged[0] ^= 0x0F;
+            for (int position : distinctPositions(correctable, FecCodec.HEADER_LENGTH, encoded.length)) {
+                damaged[position] ^= (byte) (1 + random.nextInt(255));
+            }
+            FecCodec.Decoded decoded = FecCodec.decode(damaged);
+            assertNotNull(decoded);
+            assertEquals(correctable, decoded.corrected);
+            assertArrayEquals(frame, decoded.frame);
+
+            for (int position : distinctPositions(2 * correctable, FecCodec.HEADER_LENGTH, encoded.length)) {
+                damaged[position] ^= (byte) (1 + random.nextInt(255));
+            }
+            // Past what the parity can take it may even settle on the wrong frame
+            FecCodec.Decoded tooMany = FecCodec.decode(damaged);
+            assertTrue(tooMany == null || !Arrays.equals(frame, tooMany.frame));
+        }
+    }
+
+    @Test
+    public void erasures_areCorrectedUpToTheParity() {
+        byte[] frame = randomBytes(100);
+        for (int level = 1; level <= FecCodec.MAX_LEVEL; level++) {
+            int parity = FecCodec.getParityLength(level);
+            byte[] encoded = FecCodec.encode(frame, level);
+            // Twice as many bad bytes as without their positions, e.g. the tail
+            // of a LoRa packet that was cut short
+            int[] erasures = new int[parity];
+            byte[] damaged = encoded.clone();
+            for (int i = 0; i < parity; i++) {
+                erasures[i] = encoded.length - parity - 10 + i;
+                damaged[erasures[i]] = 0;
+            }
+            FecCodec.Decoded decoded = FecCodec.decode(damaged, erasures);
+            assertNotNull(decoded);
+            assertArrayEquals(frame, decoded.frame);
+            FecCodec.Decoded blind = FecCodec.decode(damaged);
+            assertTrue(blind == null || !Arrays.equals(frame, blind.frame));
+
+            // Mixed: half the erasures plus a quarter of the parity in errors
+            damaged = encoded.clone();
+            int[] someErasures = new int[parity / 2];
+            System.arraycopy(erasures, 0, someErasures, 0, someErasures.length);
+            for (int position : someErasures) {
+                damaged[position] ^= 0x55;
+            }
+            for (int i = 0; i < parity / 4; i++) {
+                damaged[FecCodec.HEADER_LENGTH + 7 * i] ^= 0x33;
+            }
+            decoded = FecCodec.decode(damaged, someErasures);
+            assertNotNull(decoded);
+            assertArrayEquals(frame, decoded.frame);
+        }
+    }
+
+    @Test
+    public void bursts_areSpreadOverTheCodewords() {
+        // Four codewords at level 1, each correcting 4 bytes
+        byte[] frame = randomBytes(900);
+        byte[] encoded = FecCodec.encode(frame, 1);
+        byte[] damaged = encoded.clone();
+        for (int i = 0; i < 16; i++) {
+            damaged[FecCodec.HEADER_LENGTH + 300 + i] ^= (byte) 0xFF;
+        }
+        FecCodec.Decoded decoded = FecCodec.decode(damaged);
+        assertNotNull(decoded);
+        assertEquals(16, decoded.corrected);
+        assertArrayEquals(frame, decoded.frame);
+    }
+
+    @Test
+    public void maxFrameLength_fitsAtEveryLevel() {
+        for (int encoded : new int[]{255, 1000, Fragmenter.maxFrameLength(Fragmenter.DEFAULT_MTU)}) {
+            int max = FecCodec.getMaxFrameLength(encoded);
+            for (int level = 0; level <= FecCodec.MAX_LEVEL; level++) {
+                assertTrue(FecCodec.getEncodedLength(max, level) <= encoded);
+            }
+        }
+    }
+
+    @Test
+    public void worstCaseDamage_isCorrectedAtEveryLevelAndSize() {
+        for (int level = 1; level <= FecCodec.MAX_LEVEL; level++) {
+            for (int size : FRAME_SIZES) {
+                byte[] frame = randomBytes(size);
+                byte[] encoded = FecCodec.encode(frame, level);
+                byte[] damaged = encoded.clone();
+                int correctable = FecCodec.decode(encoded).correctable;
+                // Spread over the codewords by the interleaving
+                for (int j = 0; j < correctable; j++) {
+                    damaged[FecCodec.HEADER_LENGTH + j] ^= (byte) 0xA5;
+                }
+                FecCodec.Decoded decoded = FecCodec.decode(damaged);
+                assertEquals(correctable, decoded.corrected);
+                assertArrayEquals(frame, decoded.frame);
+            }
+            // Parity is per 223 byte codeword, so long frames pay little for it
+            int size = FRAME_SIZES[FRAME_SIZES.length - 1];
+            assertTrue(FecCodec.getEncodedLength(size, level) - size < size / 5);
+        }
+    }
+
+    private int[] distinctPositions(int count, int from, int to) {
+        int[] positions = new int[count];
+        boolean[] used = new boolean[to];
+        for (int i = 0; i < count; i++) {
+            int position;
+            do {
+                position = from + random.nextInt(to - from);
+            } while (used[position]);
+            used[position] = true;
+            positions[i] = position;
+        }
+        return positions;
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,128 @@
+package com.capstone.testapp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * FecTransport over the loopback transport with bit errors injected: the share
+ * of chat frames that arrive intact at each FEC level and bit error rate, and
+ * the adaptive level following the link.
+ */
+public class FecTransportTest {
+
+    private static final int FRAME_COUNT = 300;
+    private static final double[] BIT_ERROR_RATES = {0, 0.001, 0.003, 0.006};
+
+    private LoopbackTransport.Network network;
+    private final List<int[]> levelChanges = Collections.synchronizedList(new ArrayList<>());
+
+    @After
+    public void tearDown() {
+        if (network != null) network.shutdown();
+    }
+
+    @Test
+    public void deliveredRate_againstOverhead() throws Exception {
+        // A short chat message once compressed, encrypted and framed
+        byte[] frame = new Frame(Frame.TYPE_CHAT, 0, 1, 2, new byte[60]).encode();
+        double[][] delivered = new double[FecCodec.MAX_LEVEL + 1][];
+        for (int level = 0; level <= FecCodec.MAX_LEVEL; level++) {
+            delivered[level] = new double[BIT_ERROR_RATES.length];
+            for (int i = 0; i < BIT_ERROR_RATES.length; i++) {
+                delivered[level][i] = deliveredRate(frame, level, BIT_ERROR_RATES[i]);
+            }
+        }
+
+        for (int level = 0; level <= FecCodec.MAX_LEVEL; level++) {
+            assertEquals(1.0, delivered[level][0], 0);
+        }
+        // Without FEC about half the frames pick up a bad bit at 0.1%
+        assertTrue(delivered[0][1] < 0.6);
+        assertTrue(delivered[1][1] > 0.95);
+        assertTrue(delivered[3][2] > 0.95);
+        assertTrue(delivered[3][3] > delivered[1][3]);
+    }
+
+    // Share of frames that arrive unchanged, counting ones FEC gave up on as lost
+    private double deliveredRate(byte[] frame, int level, double bitErrorRate) throws Exception {
+        network = new LoopbackTransport.Network(0, 0, bitErrorRate, Fragmenter.MAX_MTU, 7);
+        LoopbackTransport a = network.newTransport();
+        LoopbackTransport b = network.newTransport();
+        network.link(a, b);
+        a.connect();
+        b.connect();
+        FecTransport sender = new FecTransport(a, level, false);
+        FecTransport receiver = new FecTransport(b, level, false);
+        List<byte[]> received = Collections.synchronizedList(new ArrayList<>());
+        receiver.setFrameListener(received::add);
+
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            assertTrue(sender.send(frame));
+        }
+        assertTrue(network.awaitIdle(10000));
+        network.shutdown();
+        int intact = 0;
+        for (byte[] bytes : received) {
+            if (Arrays.equals(frame, bytes)) intact++;
+        }
+        return intact / (double) FRAME_COUNT;
+    }
+
+    @Test
+    public void adaptiveLevel_followsTheLink() throws Exception {
+        byte[] frame = new Frame(Frame.TYPE_CHAT, 0, 1, 2, new byte[60]).encode();
+
+        // A bad link: the receiver sees its parity work hard and asks for more
+        network = new LoopbackTransport.Network(0, 0, 0.004, Fragmenter.MAX_MTU, 3);
+        FecTransport receiver = adaptivePair(frame, FecTransport.MIN_ADAPTIVE_LEVEL, 100);
+        assertTrue(receiver.getLevel() > FecTransport.MIN_ADAPTIVE_LEVEL);
+        assertTrue(receiver.getFramesCorrected() > 0);
+        network.shutdown();
+
+        // A clean link: back down to the least parity, one level at a time
+        network = new LoopbackTransport.Network(0, 0, 0, Fragmenter.MAX_MTU, 3);
+        receiver = adaptivePair(frame, FecCodec.MAX_LEVEL, 100);
+        assertEquals(FecTransport.MIN_ADAPTIVE_LEVEL, receiver.getLevel());
+        assertEquals(FecCodec.MAX_LEVEL - FecTransport.MIN_ADAPTIVE_LEVEL, levelChanges.size());
+        for (int[] change : levelChanges) {
+            assertEquals(change[0] - 1, change[1]);
+        }
+    }
+
+    // Sends frames at a fixed level to an adaptive receiver that starts at startLevel
+    private FecTransport adaptivePair(byte[] frame, int startLevel, int count) throws Exception {
+        LoopbackTransport a = network.newTransport();
+        LoopbackTransport b = network.newTransport();
+        network.link(a, b);
+        a.connect();
+        b.connect();
+        FecTransport sender = new FecTransport(a, startLevel, false);
+        FecTransport receiver = new FecTransport(b, startLevel, true);
+        levelChanges.clear();
+        receiver.setLevelListener((oldLevel, newLevel, load) -> levelChanges.add(new int[]{oldLevel, newLevel}));
+        receiver.setFrameListener(bytes -> { });
+        for (int i = 0; i < count; i++) {
+            assertTrue(sender.send(frame));
+        }
+        assertTrue(network.awaitIdle(10000));
+        return receiver;
+    }
+
+    @Test
+    public void maxFrameLength_leavesRoomForParity() {
+        network = new LoopbackTransport.Network(0, 0, Fragmenter.DEFAULT_MTU, 1);
+        LoopbackTransport a = network.newTransport();
+        a.connect();
+        FecTransport fec = new FecTransport(a, FecCodec.MAX_LEVEL, false);
+        assertTrue(fec.getMaxFrameLength() < a.getMaxFrameLength());
+        assertTrue(fec.send(new byte[fec.getMaxFrameLength()]));
+        assertFalse(fec.send(new byte[fec.getMaxFrameLength() + 1]));
+    }
+}
@@ -0,0 +1,138 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FragmenterTest {
+
+    private static final long TIMEOUT_MS = 1000;
+
+    @Test
+    public void frames_roundTripAtEveryMtu() {
+        Fragmenter fragmenter = new Fragmenter();
+        Fragmenter.Reassembler reassembler = new Fragmenter.Reassembler(TIMEOUT_MS);
+        for (int mtu = Fragmenter.DEFAULT_MTU; mtu <= Fragmenter.MAX_MTU; mtu++) {
+            for (int length : new int[]{0, 1, mtu - 6, mtu - 5, 273, 1500}) {
+                byte[] frame = randomBytes(length);
+                List<byte[]> chunks = fragmenter.fragment(frame, mtu);
+                byte[] result = null;
+                for (int i = 0; i < chunks.size(); i++) {
+                    assertTrue(chunks.get(i).length <= mtu - Fragmenter.ATT_HEADER_LENGTH);
+                    result = reassembler.accept(chunks.get(i), 0);
+                    assertEquals(i == chunks.size() - 1, result != null);
+                }
+                assertArrayEquals("MTU " + mtu + ", length " + length, frame, result);
+            }
+        }
+        assertEquals(0, reassembler.getPendingFrameCount());
+    }
+
+    @Test
+    public void largerMtu_needsFewerChunks() {
+        Fragmenter fragmenter = new Fragmenter();
+        byte[] frame = randomBytes(273);
+        assertEquals(17, fragmenter.fragment(frame, 23).size());
+        assertEquals(3, fragmenter.fragment(frame, 100).size());
+        assertEquals(1, fragmenter.fragment(frame, 517).size());
+    }
+
+    @Test
+    public void chunks_reassembleOutOfOrderAndIgnoreDuplicates() {
+        Fragmenter fragmenter = new Fragmenter();
+        Fragmenter.Reassembler reassembler = new Fragmenter.Reassembler(TIMEOUT_MS);
+        byte[] frame = randomBytes(200);
+        List<byte[]> chunks = fragmenter.fragment(frame, 23);
+        Collections.reverse(chunks);
+
+        byte[] result = null;
+        for (byte[] chunk : chunks) {
+            assertNull(result);
+            assertNull(reassembler.accept(chunks.get(0), 0));
+            result = reassembler.accept(chunk, 0);
+        }
+        assertArrayEquals(frame, result);
+    }
+
+    @Test
+    public void interleavedFrames_reassembleIndependently() {
+        Fragmenter fragmenter = new Fragmenter();
+        Fragmenter.Reassembler reassembler = new Fragmenter.Reassembler(TIMEOUT_MS);
+        byte[] first = randomBytes(60);
+        byte[] second = randomBytes(61);
+        List<byte[]> firstChunks = fragmenter.fragment(first, 23);
+        List<byte[]> secondChunks = fragmenter.fragment(second, 23);
+
+        for (int i = 0; i < firstChunks.size() - 1; i++) {
+            assertNull(reassembler.accept(firstChunks.get(i), 0));
+            assertNull(reassembler.accept(secondChunks.get(i), 0));
+        }
+        assertArrayEquals(second, reassembler.accept(secondChunks.get(secondChunks.size() - 1), 0));
+        assertArrayEquals(first, reassembler.accept(firstChunks.get(firstChunks.size() - 1), 0));
+    }
+
+    @Test
+    public void partialFrames_expireAfterTimeout() {
+        Fragmenter fragmenter = new Fragmenter();
+        Fragmenter.Reassembler reassembler = new Fragmenter.Reassembler(TIMEOUT_MS);
+        List<byte[]> chunks = fragmenter.fragment(randomBytes(100), 23);
+
+        assertNull(reassembler.accept(chunks.get(0), 0));
+        assertEquals(1, reassembler.getPendingFrameCount());
+        reassembler.expire(TIMEOUT_MS + 1);
+        assertEquals(0, reassembler.getPendingFrameCount());
+        assertEquals(1, reassembler.getExpiredFrameCount());
+
+        // The rest of the frame arriving late does not produce a corrupt frame
+        for (int i = 1; i < chunks.size(); i++) {
+            assertNull(reassembler.accept(chunks.get(i), TIMEOUT_MS + 2));
+        }
+    }
+
+    @Test
+    public void lostChunk_doesNotCorruptFrameAfterSequenceWraps() {
+        Fragmenter fragmenter = new Fragmenter();
+        Fragmenter.Reassembler reassembler = new Fragmenter.Reassembler(TIMEOUT_MS);
+
+        // Lose the last chunk of the first frame, then send 256 more frames of the
+        // same size so the sequence number comes back round to the first one
+        List<byte[]> lost = fragmenter.fragment(randomBytes(100), 23);
+        for (int i = 0; i < lost.size() - 1; i++) {
+            assertNull(reassembler.accept(lost.get(i), 0));
+        }
+        for (int n = 0; n < 256; n++) {
+            byte[] frame = randomBytes(100 + (n % 3 == 0 ? 0 : 1));
+            byte[] result = null;
+            for (byte[] chunk : fragmenter.fragment(frame, 23)) {
+                result = reassembler.accept(chunk, 0);
+            }
+            assertArrayEquals(frame, result);
+        }
+        assertEquals(0, reassembler.getPendingFrameCount());
+    }
+
+    @Test
+    public void malformedChunks_areIgnored() {
+        Fragmenter.Reassembler reassembler = new Fragmenter.Reassembler(TIMEOUT_MS);
+        assertNull(reassembler.accept(null, 0));
+        assertNull(reassembler.accept(new byte[2], 0));
+        assertNull(reassembler.accept(new byte[]{0, 0, 0, 1}, 0));
+        assertNull(reassembler.accept(new byte[]{0, 3, 3, 1}, 0));
+        assertEquals(0, reassembler.getPendingFrameCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedFrame_isRejected() {
+        new Fragmenter().fragment(new byte[Fragmenter.maxFrameLength(23) + 1], 23);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
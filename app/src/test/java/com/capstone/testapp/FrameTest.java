@@ -0,0 +1,168 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameTest {
+
+    @Test
+    public void frame_roundTrips() {
+        byte[] payload = randomBytes(256);
+        Frame frame = new Frame(Frame.TYPE_CHAT, 0x05, 0xCAFEBABE, 0x0123456789ABCDEFL, payload);
+
+        Frame decoded = Frame.decode(frame.encode());
+        assertNotNull(decoded);
+        assertEquals(Frame.TYPE_CHAT, decoded.type);
+        assertEquals(0x05, decoded.flags);
+        assertEquals(0xCAFEBABE, decoded.senderKeyId);
+        assertEquals(0x0123456789ABCDEFL, decoded.messageId);
+        assertArrayEquals(payload, decoded.payload);
+    }
+
+    @Test
+    public void routingFields_roundTripAndAdvancePerHop() {
+        Frame frame = new Frame(Frame.TYPE_CHAT, 0, 0x11111111, 0x22222222, 99, 5, 0, randomBytes(20));
+        Frame decoded = Frame.decode(frame.encode());
+        assertEquals(0x22222222, decoded.destinationKeyId);
+        assertEquals(5, decoded.ttl);
+        assertEquals(0, decoded.hops);
+        assertTrue(decoded.isFor(0x22222222));
+        assertFalse(decoded.isFor(0x11111111));
+
+        Frame relayed = Frame.decode(decoded.nextHop().encode());
+        assertEquals(4, relayed.ttl);
+        assertEquals(1, relayed.hops);
+        assertEquals(99, relayed.messageId);
+        assertArrayEquals(frame.payload, relayed.payload);
+
+        // The short constructor makes broadcast frames
+        assertTrue(new Frame(Frame.TYPE_CHAT, 0, 1, 2, new byte[0]).isFor(12345));
+    }
+
+    @Test
+    public void attempt_isKeptInTheUpperFlagBits() {
+        // With a lower flag bit set, which must survive
+        Frame frame = new Frame(Frame.TYPE_CHAT, 0x01, 1, 2, 99, 5, 0, randomBytes(20));
+        assertEquals(0, frame.getAttempt());
+        assertSame(frame, frame.withAttempt(0));
+
+        Frame resent = Frame.decode(frame.withAttempt(Frame.MAX_ATTEMPT).encode());
+        assertEquals(Frame.MAX_ATTEMPT, resent.getAttempt());
+        assertEquals(0x01, resent.flags & 0x01);
+        assertEquals(3, resent.withAttempt(3).getAttempt());
+        assertEquals(3, resent.withAttempt(3).nextHop().getAttempt());
+    }
+
+    @Test
+    public void version1Frames_decodeAsBroadcastThatIsNotRelayed() {
+        byte[] payload = randomBytes(30);
+        ByteBuffer v1 = ByteBuffer.allocate(Frame.V1_HEADER_LENGTH + payload.length);
+        v1.put((byte) 1).put((byte) Frame.TYPE_CHAT).put((byte) 0).putInt(0xCAFEBABE).putLong(77L)
+                .putShort((short) payload.length).put(payload);
+
+        Frame decoded = Frame.decode(v1.array());
+        assertNotNull(decoded);
+        assertEquals(0xCAFEBABE, decoded.senderKeyId);
+        assertEquals(77L, decoded.messageId);
+        assertEquals(Frame.BROADCAST, decoded.destinationKeyId);
+        assertEquals(0, decoded.ttl);
+        assertArrayEquals(payload, decoded.payload);
+    }
+
+    @Test
+    public void frame_roundTripsEmptyAndMaximumPayloads() {
+        for (int length : new int[]{0, 1, Frame.MAX_PAYLOAD_LENGTH}) {
+            byte[] payload = randomBytes(length);
+            Frame decoded = Frame.decode(new Frame(Frame.TYPE_CHAT, 0, 1, 2, payload).encode());
+            assertNotNull(decoded);
+            assertArrayEquals(payload, decoded.payload);
+        }
+    }
+
+    @Test
+    public void consecutiveFrames_decodeFromOneBuffer() {
+        Frame first = new Frame(Frame.TYPE_CHAT, 0, 1, 10, randomBytes(30));
+        Frame second = new Frame(Frame.TYPE_CHAT, 0, 2, 20, randomBytes(40));
+        ByteBuffer buffer = ByteBuffer.allocate(first.getEncodedLength() + second.getEncodedLength());
+        first.encodeTo(buffer);
+        second.encodeTo(buffer);
+        buffer.flip();
+
+        assertEquals(10, Frame.decode(buffer).messageId);
+        assertEquals(20, Frame.decode(buffer).messageId);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void malformedFrames_decodeToNull() {
+        byte[] encoded = new Frame(Frame.TYPE_CHAT, 0, 1, 2, randomBytes(50)).encode();
+
+        assertNull(Frame.decode((byte[]) null));
+        assertNull(Frame.decode(new byte[Frame.HEADER_LENGTH - 1]));
+        byte[] truncated = new byte[encoded.length - 1];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        assertNull(Frame.decode(truncated));
+        encoded[0] = (byte) (Frame.VERSION + 1);
+        assertNull(Frame.decode(encoded));
+    }
+
+    @Test
+    public void bundle_roundTripsItsFrames() {
+        byte[] chat = new Frame(Frame.TYPE_CHAT, 0, 1, 2, randomBytes(40)).encode();
+        byte[] ack = new Frame(Frame.TYPE_ACK, 0, 2, 1, ReliableSender.ackPayload(5, 6)).encode();
+
+        byte[] bundle = Frame.encodeBundle(Arrays.asList(chat, ack));
+        assertEquals(Frame.TYPE_BUNDLE, Frame.peekType(bundle));
+        assertEquals(Frame.HEADER_LENGTH + 2 * Frame.BUNDLE_ENTRY_OVERHEAD + chat.length + ack.length, bundle.length);
+        Frame decoded = Frame.decode(bundle);
+        assertEquals(0, decoded.ttl);
+
+        List<byte[]> frames = Frame.splitBundle(decoded.payload);
+        assertEquals(2, frames.size());
+        assertArrayEquals(chat, frames.get(0));
+        assertArrayEquals(ack, frames.get(1));
+        assertTrue(Frame.splitBundle(new byte[0]).isEmpty());
+        // Length running past the end
+        assertNull(Frame.splitBundle(new byte[]{0, 9, 1, 2}));
+        assertNull(Frame.splitBundle(new byte[]{0}));
+    }
+
+    @Test
+    public void oldTextFrames_areNotValidBinaryFrames() {
+        byte[] textFrame = base64Default(randomBytes(256)).getBytes(StandardCharsets.UTF_8);
+        assertNull(Frame.decode(textFrame));
+    }
+
+    @Test
+    public void binaryFrames_areSmallerThanBase64TextFrames() {
+        // 256 = legacy RSA block, 300 = hybrid envelope, 27/60 = ratchet messages
+        for (int length : new int[]{27, 60, 256, 300}) {
+            byte[] cipherText = randomBytes(length);
+            int textSize = base64Default(cipherText).getBytes(StandardCharsets.UTF_8).length;
+            int binarySize = new Frame(Frame.TYPE_CHAT, 0, 1, 2, cipherText).encode().length;
+            if (length >= 60) {
+                // Text frames had no routing fields, so leave the ones added in version 2 out
+                assertTrue(binarySize - (Frame.HEADER_LENGTH - Frame.V1_HEADER_LENGTH) < textSize);
+            }
+        }
+    }
+
+    // Same output as android.util.Base64.DEFAULT: 76 character lines ending in '\n'
+    private static String base64Default(byte[] data) {
+        return Base64.getMimeEncoder(76, new byte[]{'\n'}).encodeToString(data) + "\n";
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
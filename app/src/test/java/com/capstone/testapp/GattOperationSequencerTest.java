@@ -0,0 +1,181 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * One GATT operation at a time, completed only by its own callback, with
+ * timeouts, retries and busy back-off on a simulated clock.
+ */
+public class GattOperationSequencerTest {
+
+    private final List<String> started = new ArrayList<>();
+    private final List<String> retried = new ArrayList<>();
+    private final List<String> dropped = new ArrayList<>();
+
+    private final GattOperationSequencer sequencer = new GattOperationSequencer(new GattOperationSequencer.Listener() {
+        @Override
+        public void onRetry(GattOperationSequencer.Operation operation, String reason) {
+            retried.add(operation.name + " " + reason);
+        }
+
+        @Override
+        public void onDropped(GattOperationSequencer.Operation operation, String reason) {
+            dropped.add(operation.name + " " + reason);
+        }
+    });
+
+    @Test
+    public void operations_runOneAtATimeInOrder() {
+        sequencer.enqueue(op(GattOperationSequencer.TYPE_REQUEST_MTU, "mtu"), 0);
+        sequencer.enqueue(op(GattOperationSequencer.TYPE_DISCOVER_SERVICES, "discover"), 0);
+        sequencer.enqueue(op(GattOperationSequencer.TYPE_WRITE, "write"), 0);
+        assertEquals(Arrays.asList("mtu"), started);
+        assertEquals(2, sequencer.getQueued());
+
+        assertTrue(sequencer.onCompleted(GattOperationSequencer.TYPE_REQUEST_MTU, true, 10));
+        assertTrue(sequencer.onCompleted(GattOperationSequencer.TYPE_DISCOVER_SERVICES, true, 20));
+        assertEquals(Arrays.asList("mtu", "discover", "write"), started);
+        assertTrue(sequencer.onCompleted(GattOperationSequencer.TYPE_WRITE, true, 30));
+        assertNull(sequencer.getCurrent());
+        assertEquals(Long.MAX_VALUE, sequencer.getNextWakeAt());
+    }
+
+    @Test
+    public void unsolicitedMtuChange_doesNotCompleteAWrite() {
+        sequencer.enqueue(op(GattOperationSequencer.TYPE_WRITE, "first"), 0);
+        sequencer.enqueue(op(GattOperationSequencer.TYPE_WRITE, "second"), 0);
+
+        // The node renegotiates the MTU while our write is in flight
+        assertFalse(sequencer.onCompleted(GattOperationSequencer.TYPE_REQUEST_MTU, true, 5));
+        assertEquals("first", sequencer.getCurrent().name);
+        assertEquals(Arrays.asList("first"), started);
+
+        assertTrue(sequencer.onCompleted(GattOperationSequencer.TYPE_WRITE, true, 10));
+        assertEquals(Arrays.asList("first", "second"), started);
+    }
+
+    @Test
+    public void timeout_retriesThenDrops() {
+        sequencer.enqueue(op(GattOperationSequencer.TYPE_WRITE, "write"), 0);
+        sequencer.enqueue(op(GattOperationSequencer.TYPE_WRITE, "next"), 0);
+        for (int attempt = 1; attempt < GattOperationSequencer.MAX_ATTEMPTS; attempt++) {
+            long timeoutAt = sequencer.getNextWakeAt();
+            assertEquals(attempt * GattOperationSequencer.OPERATION_TIMEOUT_MS
+                    + (attempt - 1) * GattOperationSequencer.BUSY_RETRY_DELAY_MS, timeoutAt);
+            sequencer.tick(timeoutAt); // Times out
+            sequencer.tick(sequencer.getNextWakeAt()); // Tries again
+        }
+        assertEquals(GattOperationSequencer.MAX_ATTEMPTS - 1, retried.size());
+        assertEquals(GattOperationSequencer.MAX_ATTEMPTS, count("write"));
+
+        sequencer.tick(sequencer.getNextWakeAt());
+        assertEquals(Arrays.asList("write timed out"), dropped);
+        assertEquals("next", sequencer.getCurrent().name);
+    }
+
+    @Test
+    public void lateCallback_afterTimeout_isIgnored() {
+        sequencer.enqueue(op(GattOperationSequencer.TYPE_WRITE, "write"), 0);
+        sequencer.tick(GattOperationSequencer.OPERATION_TIMEOUT_MS);
+        assertEquals(Arrays.asList("write timed out"), retried);
+
+        // No attempt is running while the retry waits, so nothing to complete
+        assertFalse(sequencer.onCompleted(GattOperationSequencer.TYPE_WRITE, true, GattOperationSequencer.OPERATION_TIMEOUT_MS + 1));
+        sequencer.tick(sequencer.getNextWakeAt());
+        assertEquals(2, count("write"));
+        assertTrue(sequencer.onCompleted(GattOperationSequencer.TYPE_WRITE, true, GattOperationSequencer.OPERATION_TIMEOUT_MS + 20));
+        assertTrue(dropped.isEmpty());
+    }
+
+    @Test
+    public void failedCompletion_isRetried() {
+        sequencer.enqueue(op(GattOperationSequencer.TYPE_DESCRIPTOR_WRITE, "descriptor"), 0);
+        assertTrue(sequencer.onCompleted(GattOperationSequencer.TYPE_DESCRIPTOR_WRITE, false, 10));
+        assertEquals(Arrays.asList("descriptor failed"), retried);
+        assertEquals(10 + GattOperationSequencer.BUSY_RETRY_DELAY_MS, sequencer.getNextWakeAt());
+
+        sequencer.tick(sequencer.getNextWakeAt());
+        assertEquals(2, count("descriptor"));
+    }
+
+    @Test
+    public void busyStack_retriesWithoutUsingAttemptsUntilDeadline() {
+        ScriptedOperation write = op(GattOperationSequencer.TYPE_WRITE, "write",
+                GattOperationSequencer.BUSY, GattOperationSequencer.BUSY, GattOperationSequencer.STARTED);
+        sequencer.enqueue(write, 0);
+        sequencer.tick(sequencer.getNextWakeAt());
+        sequencer.tick(sequencer.getNextWakeAt());
+        assertEquals(3, count("write"));
+        assertEquals(1, write.attempts);
+        assertTrue(retried.isEmpty());
+
+        // A stack that stays busy for MAX_BUSY_MS costs an attempt each time
+        ScriptedOperation stuck = op(GattOperationSequencer.TYPE_WRITE, "stuck");
+        stuck.always = GattOperationSequencer.BUSY;
+        sequencer.onCompleted(GattOperationSequencer.TYPE_WRITE, true, 100);
+        sequencer.enqueue(stuck, 100);
+        long now = 100;
+        while (dropped.isEmpty() && now < 100 + 10 * GattOperationSequencer.MAX_BUSY_MS) {
+            now = sequencer.getNextWakeAt();
+            sequencer.tick(now);
+        }
+        assertEquals(Arrays.asList("stuck stayed busy"), dropped);
+        assertEquals(GattOperationSequencer.MAX_ATTEMPTS, stuck.attempts);
+        assertTrue(now - 100 < GattOperationSequencer.MAX_ATTEMPTS
+                * (GattOperationSequencer.MAX_BUSY_MS + 2 * GattOperationSequencer.BUSY_RETRY_DELAY_MS));
+        assertNull(sequencer.getCurrent());
+    }
+
+    @Test
+    public void operationThatCannotStart_isDroppedAndQueueMovesOn() {
+        ScriptedOperation broken = op(GattOperationSequencer.TYPE_WRITE, "broken");
+        broken.always = GattOperationSequencer.FAILED;
+        sequencer.enqueue(broken, 0);
+        sequencer.enqueue(op(GattOperationSequencer.TYPE_READ_REMOTE_RSSI, "rssi"), 0);
+        while (sequencer.getCurrent() == broken) {
+            sequencer.tick(sequencer.getNextWakeAt());
+        }
+        assertEquals(Arrays.asList("broken could not start"), dropped);
+        assertEquals("rssi", sequencer.getCurrent().name);
+
+        sequencer.clear();
+        assertNull(sequencer.getCurrent());
+        assertEquals(Long.MAX_VALUE, sequencer.getNextWakeAt());
+    }
+
+    private int count(String name) {
+        int count = 0;
+        for (String s : started) {
+            if (s.equals(name)) count++;
+        }
+        return count;
+    }
+
+    private ScriptedOperation op(int type, String name, int... results) {
+        return new ScriptedOperation(type, name, results);
+    }
+
+    /** Returns the given results in turn, then {@link #always}. */
+    private class ScriptedOperation extends GattOperationSequencer.Operation {
+        final ArrayDeque<Integer> results = new ArrayDeque<>();
+        int always = GattOperationSequencer.STARTED;
+
+        ScriptedOperation(int type, String name, int... results) {
+            super(type, name);
+            for (int result : results) this.results.add(result);
+        }
+
+        @Override
+        int start() {
+            started.add(name);
+            return results.isEmpty() ? always : results.poll();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip checks and a throughput comparison between the old raw RSA
+ * scheme and hybrid envelopes, for 50 byte, 1 KB and 64 KB payloads.
+ */
+public class HybridCipherBenchmarkTest {
+
+    private static final int[] PAYLOAD_SIZES = {50, 1024, 64 * 1024};
+    private static final int ITERATIONS = 200;
+
+    private final KeyPair keyPair;
+
+    public HybridCipherBenchmarkTest() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+    }
+
+    @Test
+    public void envelope_roundTripsAllSizes() throws Exception {
+        HybridCipher receiver = new HybridCipher();
+        HybridCipher.ContentKey contentKey = HybridCipher.newContentKey(keyPair.getPublic());
+        for (int size : PAYLOAD_SIZES) {
+            byte[] plainText = payload(size);
+            byte[] envelope = HybridCipher.seal(contentKey, plainText);
+            assertTrue(HybridCipher.isEnvelope(envelope));
+            assertArrayEquals(plainText, receiver.open(envelope, keyPair.getPrivate()));
+        }
+    }
+
+    @Test(expected = javax.crypto.AEADBadTagException.class)
+    public void envelope_rejectsTamperedCiphertext() throws Exception {
+        HybridCipher.ContentKey contentKey = HybridCipher.newContentKey(keyPair.getPublic());
+        byte[] envelope = HybridCipher.seal(contentKey, payload(50));
+        envelope[envelope.length - 1] ^= 0x01;
+        new HybridCipher().open(envelope, keyPair.getPrivate());
+    }
+
+    @Test(expected = javax.crypto.AEADBadTagException.class)
+    public void envelope_rejectsTamperedHeader() throws Exception {
+        HybridCipher.ContentKey contentKey = HybridCipher.newContentKey(keyPair.getPublic());
+        byte[] envelope = HybridCipher.seal(contentKey, payload(50));
+
+        // Another wrapping of the same content key: the receiver can unwrap it,
+        // so only the tag can tell that the header was swapped
+        Cipher rsa = Cipher.getInstance(HybridCipher.RSA_TRANSFORMATION);
+        rsa.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+        byte[] rewrapped = rsa.doFinal(contentKey.key.getEncoded());
+        HybridCipher receiver = new HybridCipher();
+        byte[] other = HybridCipher.seal(new HybridCipher.ContentKey(contentKey.key, rewrapped), payload(50));
+        assertArrayEquals(payload(50), receiver.open(other, keyPair.getPrivate()));
+
+        System.arraycopy(rewrapped, 0, envelope, 3, rewrapped.length);
+        receiver.open(envelope, keyPair.getPrivate());
+    }
+
+    @Test
+    public void envelope_rejectsFlippedHeaderByte() throws Exception {
+        HybridCipher.ContentKey contentKey = HybridCipher.newContentKey(keyPair.getPublic());
+        byte[] envelope = HybridCipher.seal(contentKey, payload(50));
+        HybridCipher receiver = new HybridCipher();
+        assertArrayEquals(payload(50), receiver.open(envelope.clone(), keyPair.getPrivate()));
+
+        for (int i : new int[]{0, 2, 3, 100}) {
+            byte[] tampered = envelope.clone();
+            tampered[i] ^= 0x01;
+            try {
+                receiver.open(tampered, keyPair.getPrivate());
+                fail("Opened an envelope with header byte " + i + " flipped");
+            } catch (GeneralSecurityException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void legacyCiphertext_isNotMistakenForEnvelope() throws Exception {
+        Cipher rsa = Cipher.getInstance(HybridCipher.RSA_TRANSFORMATION);
+        rsa.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+        byte[] legacy = rsa.doFinal(payload(50));
+        assertEquals(256, legacy.length);
+        assertFalse(HybridCipher.isEnvelope(legacy, legacy.length));
+
+        // An RSA block whose first bytes happen to read as an envelope header
+        legacy[0] = HybridCipher.TYPE_ENVELOPE;
+        legacy[1] = 0;
+        legacy[2] = 16;
+        assertTrue(HybridCipher.isEnvelope(legacy));
+        assertFalse(HybridCipher.isEnvelope(legacy, legacy.length));
+
+        byte[] envelope = HybridCipher.seal(HybridCipher.newContentKey(keyPair.getPublic()), new byte[0]);
+        assertTrue(HybridCipher.isEnvelope(envelope, legacy.length));
+    }
+
+    @Test
+    public void sessionKey_beatsRsaPerMessage() throws Exception {
+        for (int size : PAYLOAD_SIZES) {
+            byte[] plainText = payload(size);
+            String legacy = size <= 245 ? String.format("%.0f", legacyThroughput(plainText)) : "n/a (too long)";
+            double perMessage = hybridThroughput(plainText, false);
+            double session = hybridThroughput(plainText, true);
+            // One RSA operation per message dominates, so reusing the content key wins by far
+            assertTrue(String.format("%d bytes: legacy %s, per-message %.0f, session %.0f msg/s",
+                    size, legacy, perMessage, session), session > perMessage);
+        }
+    }
+
+    // Encrypt + decrypt with raw RSA, the way CryptoManager used to
+    private double legacyThroughput(byte[] plainText) throws Exception {
+        Cipher encryptor = Cipher.getInstance(HybridCipher.RSA_TRANSFORMATION);
+        Cipher decryptor = Cipher.getInstance(HybridCipher.RSA_TRANSFORMATION);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            encryptor.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+            byte[] cipherText = encryptor.doFinal(plainText);
+            decryptor.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+            assertEquals(plainText.length, decryptor.doFinal(cipherText).length);
+        }
+        return ITERATIONS / ((System.nanoTime() - start) / 1e9);
+    }
+
+    // Encrypt + decrypt with envelopes, either with a fresh content key per
+    // message or with one content key reused for the whole run
+    private double hybridThroughput(byte[] plainText, boolean reuseContentKey) throws Exception {
+        HybridCipher receiver = new HybridCipher();
+        HybridCipher.ContentKey contentKey = HybridCipher.newContentKey(keyPair.getPublic());
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (!reuseContentKey) {
+                contentKey = HybridCipher.newContentKey(keyPair.getPublic());
+            }
+            byte[] envelope = HybridCipher.seal(contentKey, plainText);
+            assertEquals(plainText.length, receiver.open(envelope, keyPair.getPrivate()).length);
+        }
+        return ITERATIONS / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static byte[] payload(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,156 @@
+package com.capstone.testapp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.crypto.Cipher;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the send/receive pipeline (ratchet encryption, framing, fragmentation)
+ * over the in-memory loopback transport.
+ */
+public class LoopbackTransportTest {
+
+    private static final int MESSAGE_COUNT = 500;
+
+    private LoopbackTransport.Network network;
+
+    @After
+    public void tearDown() {
+        if (network != null) network.shutdown();
+    }
+
+    @Test
+    public void frames_arriveIntactAtEveryMtu() throws Exception {
+        for (int mtu : new int[]{Fragmenter.DEFAULT_MTU, 185, Fragmenter.MAX_MTU}) {
+            network = new LoopbackTransport.Network(0, 0, mtu, 1);
+            LoopbackTransport a = network.newTransport();
+            LoopbackTransport b = network.newTransport();
+            network.link(a, b);
+            a.connect();
+            b.connect();
+
+            List<byte[]> received = Collections.synchronizedList(new ArrayList<>());
+            b.setFrameListener(received::add);
+            byte[] frame = new Frame(Frame.TYPE_CHAT, 0, 1, 2, new byte[1000]).encode();
+            assertTrue(a.send(frame));
+
+            assertTrue(network.awaitIdle(5000));
+            assertEquals(1, received.size());
+            assertArrayEquals(frame, received.get(0));
+            network.shutdown();
+        }
+    }
+
+    @Test
+    public void send_failsWhenDisconnectedOrTooLarge() {
+        network = new LoopbackTransport.Network(0, 0, Fragmenter.DEFAULT_MTU, 1);
+        LoopbackTransport a = network.newTransport();
+        final int[] lastState = {-1};
+        a.setConnectionListener(state -> lastState[0] = state);
+
+        assertFalse(a.send(new byte[10]));
+        a.connect();
+        assertEquals(MessageTransport.STATE_CONNECTED, lastState[0]);
+        assertTrue(a.send(new byte[10]));
+        assertFalse(a.send(new byte[a.getMaxFrameLength() + 1]));
+        a.disconnect();
+        assertEquals(MessageTransport.STATE_DISCONNECTED, lastState[0]);
+        assertFalse(a.send(new byte[10]));
+    }
+
+    @Test
+    public void encryptedPipeline_deliversInOrder() throws Exception {
+        Pipeline pipeline = new Pipeline(new LoopbackTransport.Network(2, 0, Fragmenter.DEFAULT_MTU, 1));
+        network = pipeline.network;
+
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            assertTrue(pipeline.send("message " + i));
+        }
+        assertTrue(network.awaitIdle(30000));
+
+        assertEquals(MESSAGE_COUNT, pipeline.received.size());
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            assertEquals("message " + i, pipeline.received.get(i));
+        }
+        assertEquals(0, pipeline.failures);
+    }
+
+    @Test
+    public void lossyLink_dropsWholeFramesButNeverCorruptsThem() throws Exception {
+        Pipeline pipeline = new Pipeline(new LoopbackTransport.Network(0, 0.01, Fragmenter.DEFAULT_MTU, 42));
+        network = pipeline.network;
+
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            pipeline.send("message " + i);
+        }
+        assertTrue(network.awaitIdle(30000));
+
+        // Every frame that was reassembled decrypts; lost chunks only lose frames
+        assertEquals(0, pipeline.failures);
+        assertTrue(network.getChunksDropped() > 0);
+        assertTrue(pipeline.received.size() > 0);
+        assertTrue(pipeline.received.size() < MESSAGE_COUNT);
+    }
+
+    // Alice sends ratchet-encrypted chat frames to Bob, who opens the session
+    // from the RSA-wrapped seed like SessionManager does.
+    private static final class Pipeline {
+        final LoopbackTransport.Network network;
+        final LoopbackTransport alice;
+        final LoopbackTransport bob;
+        final RatchetSession sendingSession;
+        final List<String> received = Collections.synchronizedList(new ArrayList<>());
+        volatile int failures;
+        private RatchetSession receivingSession;
+
+        Pipeline(LoopbackTransport.Network network) throws Exception {
+            this.network = network;
+            alice = network.newTransport();
+            bob = network.newTransport();
+            network.link(alice, bob);
+            alice.connect();
+            bob.connect();
+
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            KeyPair bobKeys = generator.generateKeyPair();
+
+            byte[] seed = RatchetSession.newSeed();
+            Cipher rsa = Cipher.getInstance(HybridCipher.RSA_TRANSFORMATION);
+            rsa.init(Cipher.ENCRYPT_MODE, bobKeys.getPublic());
+            sendingSession = RatchetSession.newSendingSession(seed, rsa.doFinal(seed));
+
+            bob.setFrameListener(bytes -> {
+                try {
+                    Frame frame = Frame.decode(bytes);
+                    if (receivingSession == null) {
+                        Cipher unwrap = Cipher.getInstance(HybridCipher.RSA_TRANSFORMATION);
+                        unwrap.init(Cipher.DECRYPT_MODE, bobKeys.getPrivate());
+                        byte[] wrappedSeed = RatchetSession.peekWrappedSeed(frame.payload);
+                        if (wrappedSeed == null) return; // Every session-init frame was lost
+                        receivingSession = RatchetSession.newReceivingSession(
+                                RatchetSession.peekSessionId(frame.payload), unwrap.doFinal(wrappedSeed));
+                    }
+                    received.add(new String(receivingSession.decrypt(frame.payload), StandardCharsets.UTF_8));
+                } catch (Exception e) {
+                    failures++;
+                }
+            });
+        }
+
+        boolean send(String text) throws Exception {
+            byte[] encrypted = sendingSession.encrypt(text.getBytes(StandardCharsets.UTF_8));
+            return alice.send(new Frame(Frame.TYPE_CHAT, 0, 1, Frame.newMessageId(), encrypted).encode());
+        }
+    }
+}
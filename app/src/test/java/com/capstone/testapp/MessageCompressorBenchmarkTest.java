@@ -0,0 +1,180 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip checks and a benchmark of the plaintext compression stage on short
+ * chat messages. The ratio is measured on HELD_OUT, messages written apart from
+ * the dictionary, and compared with Deflate without a dictionary.
+ */
+public class MessageCompressorBenchmarkTest {
+
+    private static final String[] CORPUS = {
+            "ok",
+            "yes",
+            "Thanks!",
+            "On my way",
+            "Where are you?",
+            "I'm at the camp, where are you?",
+            "Are you ok? Haven't heard from you since this morning",
+            "We are safe. Everyone is fine, the storm is passing.",
+            "Meet at the bridge in 20 minutes",
+            "Signal is weak here, moving up the ridge to try again",
+            "Can you hear me? Do you copy?",
+            "Battery at 15%, switching the node to solar",
+            "Need water and food at the north shelter",
+            "The road to the village is blocked by a fallen tree",
+            "See you tomorrow morning at the usual place",
+            "My location: 27.9881 N, 86.9250 E",
+            "Medical emergency, one person injured, need a doctor",
+            "Rain is getting heavier, we'll stay in the tent tonight",
+            "Please let me know when you get to the trail head",
+            "Got it, thank you. I'll be there in ten minutes",
+            "Is the river crossing safe today?",
+            "hey how are you doing",
+            "Sorry, didn't see your message until now",
+            "Can someone bring the charger and the spare antenna?",
+            "Fire is out. Heading back down the valley now",
+            "no",
+            "Good morning! Weather looks clear today",
+            "Repeater on channel 3 is down again",
+            "Evacuate to the hospital road, rescue team is on the way",
+            "Still waiting at the east gate, anyone coming?",
+    };
+
+    // Not used to pick the dictionary's words, so the ratio on them isn't tuned in
+    private static final String[] HELD_OUT = {
+            "k",
+            "lol",
+            "Just got here",
+            "Who has the keys to the truck?",
+            "Power came back for an hour then went off again",
+            "Grandma is staying with us until the roads reopen",
+            "Can you check on Mr. Patel next door? He lives alone",
+            "The bakery on 5th is handing out bread until noon",
+            "Phones are dead at the school, use this instead",
+            "Did the kids make it to the bus?",
+            "We counted 14 people at the church hall so far",
+            "Pharmacy is closed, does anyone have insulin?",
+            "Snow drift blocked the pass, turning around",
+            "I left the spare radio under the porch steps",
+            "Dog ran off, brown lab, answers to Biscuit",
+            "Cell tower by the mall is back up",
+            "Bring blankets, it's freezing in the gym",
+            "The bus driver says two more trips before dark",
+            "Gas station on Route 9 has diesel but no petrol",
+            "Mom says hi, she's fine, just tired",
+            "Volunteers needed to sandbag the levee at 6",
+            "Flooding reached the second step of the library",
+            "Any news about the ferry schedule?",
+            "Boiling tap water for now, the notice is still on",
+            "Found your cousin, he's at the stadium shelter",
+            "Send me a photo of the map when you can",
+            "thx",
+            "Curfew starts at 9 tonight according to the mayor",
+            "Generator at the clinic needs an oil change",
+            "Ha, the cat slept through the whole thing",
+    };
+
+    private static final int MESSAGE_COUNT = 20000;
+
+    @Test
+    public void corpus_roundTrips() {
+        for (String message : CORPUS) {
+            byte[] plainText = utf8(message);
+            byte[] compressed = MessageCompressor.compress(plainText);
+            if (compressed != null) {
+                assertTrue(compressed.length < plainText.length);
+                assertArrayEquals(plainText, MessageCompressor.decompress(compressed));
+            }
+        }
+    }
+
+    @Test
+    public void incompressibleInput_isLeftAlone() {
+        byte[] random = new byte[200];
+        new Random(1).nextBytes(random);
+        assertNull(MessageCompressor.compress(random));
+        assertNull(MessageCompressor.compress(new byte[0]));
+    }
+
+    @Test
+    public void malformedInput_decompressesToNull() {
+        byte[] compressed = MessageCompressor.compress(utf8("Meet at the bridge in 20 minutes"));
+        byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+
+        assertNull(MessageCompressor.decompress(truncated));
+        assertNull(MessageCompressor.decompress(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF}));
+    }
+
+    @Test
+    public void oversizedOutput_isRejected() {
+        byte[] huge = new byte[MessageCompressor.MAX_DECOMPRESSED_LENGTH + 1];
+        byte[] compressed = MessageCompressor.compress(huge);
+        assertNotNull(compressed);
+        assertNull(MessageCompressor.decompress(compressed));
+    }
+
+    @Test
+    public void packedPlaintext_marksCompressionInside() {
+        byte[] text = utf8("Are you ok? I'm ok. We are safe. Everyone is fine.");
+        byte[] packed = MessageCompressor.pack(text);
+        assertEquals(MessageCompressor.MARKER_DEFLATE, packed[0]);
+        assertTrue(packed.length < text.length);
+        assertArrayEquals(text, MessageCompressor.unpack(packed));
+
+        // Text that doesn't compress goes as it is
+        byte[] shortText = utf8("ok");
+        assertSame(shortText, MessageCompressor.pack(shortText));
+        assertSame(shortText, MessageCompressor.unpack(shortText));
+        assertArrayEquals(new byte[0], MessageCompressor.unpack(new byte[0]));
+
+        // A marker with bad data behind it is rejected, not shown as text
+        assertNull(MessageCompressor.unpack(new byte[]{MessageCompressor.MARKER_DEFLATE, (byte) 0xFF, 0x01}));
+    }
+
+    @Test
+    public void benchmark_heldOutMessages() {
+        Random random = new Random(42);
+        byte[][] messages = new byte[MESSAGE_COUNT][];
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            messages[i] = utf8(HELD_OUT[random.nextInt(HELD_OUT.length)]);
+        }
+
+        long rawBytes = 0;
+        long sentBytes = 0;
+        long plainDeflateBytes = 0;
+        for (byte[] message : messages) {
+            byte[] packed = MessageCompressor.pack(message);
+            assertArrayEquals(message, MessageCompressor.unpack(packed));
+            rawBytes += message.length;
+            sentBytes += packed.length;
+            plainDeflateBytes += Math.min(message.length, deflateWithoutDictionary(message));
+        }
+
+        // About 81% of the original, marker included; plain Deflate saves ~1%
+        assertTrue(sentBytes * 100 < rawBytes * 85);
+        assertTrue(sentBytes < plainDeflateBytes);
+    }
+
+    private static int deflateWithoutDictionary(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length + 64];
+        int length = deflater.deflate(buffer);
+        deflater.end();
+        return length;
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,63 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Diff rules for MessageAdapter, and a burst of received messages
+ * shifting the window.
+ */
+public class MessageDiffCallbackTest {
+
+    private final MessageDiffCallback callback = new MessageDiffCallback();
+
+    @Test
+    public void sameRow_isMatchedById() {
+        Message stored = message(7, "hello", 100, true);
+        assertTrue(callback.areItemsTheSame(stored, message(7, "edited", 200, true)));
+        assertFalse(callback.areItemsTheSame(stored, message(8, "hello", 100, true)));
+    }
+
+    @Test
+    public void contents_compareTextTimestampAndDirection() {
+        Message stored = message(7, "hello", 100, true);
+        assertTrue(callback.areContentsTheSame(stored, message(7, new String("hello"), 100, true)));
+        assertFalse(callback.areContentsTheSame(stored, message(7, "hello!", 100, true)));
+        assertFalse(callback.areContentsTheSame(stored, message(7, "hello", 101, true)));
+        assertFalse(callback.areContentsTheSame(stored, message(7, "hello", 100, false)));
+        assertTrue(callback.areContentsTheSame(message(7, null, 100, true), message(7, null, 100, true)));
+        assertFalse(callback.areContentsTheSame(stored, stored.withDeliveryState(Message.DELIVERY_DELIVERED)));
+    }
+
+    @Test
+    public void diffingBurst_keepsOnlyTheOverlap() {
+        // A window of 200 messages where a burst of 128 received messages landed at the end
+        Message[] before = new Message[200];
+        Message[] after = new Message[200];
+        for (int i = 0; i < 200; i++) {
+            before[i] = message(i, "message " + i, 1000 + i, i % 2 == 0);
+            after[i] = message(i + 128, "message " + (i + 128), 1000 + i + 128, i % 2 == 0);
+        }
+        // Rows 128..199 are in both windows, unchanged
+        assertEquals(72, compareAll(before, after));
+    }
+
+    private int compareAll(Message[] before, Message[] after) {
+        int matches = 0;
+        for (Message oldItem : before) {
+            for (Message newItem : after) {
+                if (callback.areItemsTheSame(oldItem, newItem) && callback.areContentsTheSame(oldItem, newItem)) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static Message message(int id, String text, long timestamp, boolean sentByMe) {
+        Message message = new Message(1, text, timestamp, sentByMe);
+        message.id = id;
+        return message;
+    }
+}
@@ -0,0 +1,288 @@
+package com.capstone.testapp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MessageIngestQueueTest {
+
+    private final FakeMessageDao dao = new FakeMessageDao();
+    private final List<List<Message>> batches = Collections.synchronizedList(new ArrayList<>());
+    private MessageIngestQueue queue;
+
+    @After
+    public void tearDown() throws Exception {
+        if (queue != null) {
+            queue.close();
+            queue.awaitClosed(1000);
+        }
+    }
+
+    @Test
+    public void burst_isWrittenInFullBatches() throws Exception {
+        queue = new MessageIngestQueue(dao, 200, 128, batches::add);
+        for (int i = 0; i < 300; i++) {
+            queue.enqueue(message(i));
+        }
+        queue.close();
+        assertTrue(queue.awaitClosed(1000));
+
+        // Batches are cut at 128 as the burst arrives; exactly where depends on timing
+        assertEquals(batches.size(), dao.insertAllCalls);
+        assertTrue(batches.size() >= 3 && batches.size() <= 6);
+        for (List<Message> batch : batches) {
+            assertTrue(batch.size() <= 128);
+        }
+        // Order is kept and every message got its row id
+        int expectedId = 1;
+        for (List<Message> batch : batches) {
+            for (Message message : batch) {
+                assertEquals(expectedId, message.id);
+                assertEquals("m" + (expectedId - 1), message.textContent);
+                expectedId++;
+            }
+        }
+        assertEquals(301, expectedId);
+    }
+
+    @Test
+    public void lateMessages_areWrittenAfterWindow() throws Exception {
+        CountDownLatch stored = new CountDownLatch(1);
+        queue = new MessageIngestQueue(dao, 50, 128, batch -> {
+            batches.add(batch);
+            stored.countDown();
+        });
+        long start = System.nanoTime();
+        queue.enqueue(message(0));
+        queue.enqueue(message(1));
+
+        assertTrue(stored.await(1, TimeUnit.SECONDS));
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waitedMillis >= 45);
+        assertEquals(1, dao.insertAllCalls);
+        assertEquals(2, batches.get(0).size());
+    }
+
+    @Test
+    public void close_writesPendingWithoutWaitingForWindow() throws Exception {
+        queue = new MessageIngestQueue(dao, 60000, 128, batches::add);
+        queue.enqueue(message(0));
+        queue.close();
+        assertTrue(queue.awaitClosed(1000));
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void recentRepeat_isDroppedWithoutWrite() throws Exception {
+        queue = new MessageIngestQueue(dao, 60000, 128, batches::add);
+        assertTrue(queue.enqueue(message(0, 555L)));
+        assertTrue(queue.isRecent(555L));
+        // A retransmitted copy, and one relayed by another node
+        assertFalse(queue.enqueue(message(0, 555L)));
+        assertFalse(queue.enqueue(message(0, 555L)));
+        queue.close();
+        assertTrue(queue.awaitClosed(1000));
+
+        assertEquals(1, dao.rowsWritten);
+        assertEquals(1, batches.size());
+        assertEquals(1, batches.get(0).size());
+    }
+
+    @Test
+    public void olderRepeat_isSkippedByTheDatabase() throws Exception {
+        queue = new MessageIngestQueue(dao, 60000, 128, batches::add);
+        assertTrue(queue.enqueue(message(0, 1L)));
+        // Push uid 1 out of the in-memory cache
+        for (int i = 1; i <= MessageIngestQueue.RECENT_UID_CAPACITY; i++) {
+            assertTrue(queue.enqueue(message(i, 1000L + i)));
+        }
+        assertFalse(queue.isRecent(1L));
+        assertTrue(queue.enqueue(message(0, 1L)));
+        queue.close();
+        assertTrue(queue.awaitClosed(1000));
+
+        int notified = 0;
+        for (List<Message> batch : batches) {
+            notified += batch.size();
+        }
+        // The repeat reached insertAll but wasn't stored, and the listener never saw it
+        assertEquals(MessageIngestQueue.RECENT_UID_CAPACITY + 1, dao.rowsWritten);
+        assertEquals(MessageIngestQueue.RECENT_UID_CAPACITY + 1, notified);
+    }
+
+    @Test
+    public void storedUid_isKnownAfterARestart() throws Exception {
+        queue = new MessageIngestQueue(dao, 60000, 128, batches::add);
+        queue.enqueue(message(0, 42L));
+        queue.close();
+        assertTrue(queue.awaitClosed(1000));
+
+        // The service restarted: nothing recent, but the database has it
+        queue = new MessageIngestQueue(dao, 60000, 128, batches::add);
+        assertFalse(queue.isRecent(42L));
+        assertTrue(queue.isKnown(42L));
+        assertFalse(queue.isKnown(43L));
+    }
+
+    @Test
+    public void deliveryState_isAppliedAfterTheInsert() throws Exception {
+        CountDownLatch stored = new CountDownLatch(1);
+        CountDownLatch updated = new CountDownLatch(1);
+        List<Long> updates = Collections.synchronizedList(new ArrayList<>());
+        queue = new MessageIngestQueue(dao, 60000, 2, new MessageIngestQueue.Listener() {
+            @Override
+            public void onMessagesStored(List<Message> batch) {
+                batches.add(batch);
+                stored.countDown();
+            }
+
+            @Override
+            public void onDeliveryStateStored(long messageUid, int deliveryState) {
+                updates.add(messageUid);
+                updated.countDown();
+            }
+        });
+        // Still pending: stored with the new state, no separate update
+        Message first = message(0, 1L);
+        queue.enqueue(first);
+        queue.setDeliveryState(1L, Message.DELIVERY_SENT);
+        assertEquals(Message.DELIVERY_SENT, first.deliveryState);
+
+        // A full batch is written right away; after that the state is an update
+        Message second = message(1, 2L);
+        queue.enqueue(second);
+        assertTrue(stored.await(1, TimeUnit.SECONDS));
+        queue.setDeliveryState(2L, Message.DELIVERY_DELIVERED);
+        assertTrue(updated.await(1, TimeUnit.SECONDS));
+
+        assertEquals(Message.DELIVERY_NONE, second.deliveryState);
+        assertEquals(Collections.singletonList(2L), updates);
+        synchronized (dao) {
+            assertEquals(Integer.valueOf(Message.DELIVERY_DELIVERED), dao.deliveryStates.get(2L));
+            assertFalse(dao.deliveryStates.containsKey(1L));
+        }
+    }
+
+    @Test
+    public void failedInsert_isReportedAndLaterBatchesStillWritten() throws Exception {
+        List<List<Message>> failed = Collections.synchronizedList(new ArrayList<>());
+        queue = new MessageIngestQueue(dao, 60000, 2, new MessageIngestQueue.Listener() {
+            @Override
+            public void onMessagesStored(List<Message> batch) {
+                batches.add(batch);
+            }
+
+            @Override
+            public void onStoreFailed(List<Message> batch, RuntimeException error) {
+                failed.add(batch);
+            }
+        });
+        dao.failNextInsert = true;
+        queue.enqueue(message(0, 1L));
+        queue.enqueue(message(1, 2L));
+        queue.enqueue(message(2, 3L));
+        queue.close();
+        assertTrue(queue.awaitClosed(1000));
+
+        assertEquals(1, failed.size());
+        assertEquals(2, failed.get(0).size());
+        assertEquals(1, batches.size());
+        assertEquals("m2", batches.get(0).get(0).textContent);
+        // A retransmitted copy of a lost message can still be stored
+        assertFalse(queue.isRecent(1L));
+        assertTrue(queue.isRecent(3L));
+    }
+
+    private static Message message(int i, long messageUid) {
+        Message message = message(i);
+        message.messageUid = messageUid;
+        return message;
+    }
+
+    private static Message message(int i) {
+        return new Message(1, "m" + i, 1000 + i, false);
+    }
+
+    // Counts insertAll calls and hands out increasing row ids. Like the unique
+    // index, a messageUid that is already stored gets -1.
+    static final class FakeMessageDao implements MessageDao {
+        int insertAllCalls;
+        int rowsWritten;
+        // Makes the next insertAll() throw, like a full disk
+        boolean failNextInsert;
+        private long nextId = 1;
+        private final Set<Long> storedUids = new HashSet<>();
+        final Map<Long, Integer> deliveryStates = new HashMap<>();
+
+        @Override
+        public long insert(Message message) {
+            return nextId++;
+        }
+
+        @Override
+        public synchronized long[] insertAll(List<Message> messages) {
+            insertAllCalls++;
+            if (failNextInsert) {
+                failNextInsert = false;
+                throw new IllegalStateException("database or disk is full");
+            }
+            long[] ids = new long[messages.size()];
+            for (int i = 0; i < ids.length; i++) {
+                Long uid = messages.get(i).messageUid;
+                if (uid != null && !storedUids.add(uid)) {
+                    ids[i] = -1;
+                    continue;
+                }
+                ids[i] = nextId++;
+                rowsWritten++;
+            }
+            return ids;
+        }
+
+        @Override
+        public synchronized boolean hasMessageUid(long messageUid) {
+            return storedUids.contains(messageUid);
+        }
+
+        @Override
+        public synchronized void setDeliveryState(long messageUid, int deliveryState) {
+            deliveryStates.put(messageUid, deliveryState);
+        }
+
+        @Override
+        public List<Message> latest(int conversationId, int limit) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<Message> before(int conversationId, long timestamp, int id, int limit) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<Message> after(int conversationId, long timestamp, int id, int limit) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<MessageSearch.Candidate> searchCandidates(String query, int limit) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<MessageSearch.Row> searchRows(String query, List<Integer> ids) {
+            return new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Query building, BM25 scoring and highlight offsets for MessageSearch. The
+ * FTS queries themselves run against SQLite in MessageSearchBenchmarkTest.
+ */
+public class MessageSearchTest {
+
+    @Test
+    public void userInput_becomesPlainTermsWithPrefixOnLast() {
+        assertEquals("meet at noo*", MessageSearch.toMatchQuery("  meet at noo"));
+        // Operators and punctuation are not passed through
+        assertEquals("cats or dogs*", MessageSearch.toMatchQuery("cats OR \"dogs\""));
+        assertEquals("not near*", MessageSearch.toMatchQuery("-NOT NEAR*"));
+        assertEquals("café*", MessageSearch.toMatchQuery("café!"));
+        assertNull(MessageSearch.toMatchQuery(" ?! "));
+        assertNull(MessageSearch.toMatchQuery(null));
+        assertEquals(MessageSearch.MAX_TERMS, MessageSearch.toMatchQuery("a b c d e f g h i j k").split(" ").length);
+    }
+
+    @Test
+    public void bm25_prefersRarerTermsMoreHitsAndShorterMessages() {
+        // One phrase, one column, 1000 rows averaging 10 tokens
+        double base = MessageSearch.bm25(matchInfo(1000, 10, 10, 1, 50));
+        assertTrue(MessageSearch.bm25(matchInfo(1000, 10, 10, 1, 5)) > base);
+        assertTrue(MessageSearch.bm25(matchInfo(1000, 10, 10, 3, 50)) > base);
+        assertTrue(MessageSearch.bm25(matchInfo(1000, 10, 4, 1, 50)) > base);
+        // A term in nearly every row still counts for something
+        assertTrue(MessageSearch.bm25(matchInfo(1000, 10, 10, 1, 990)) > 0);
+        assertEquals(0, MessageSearch.bm25(matchInfo(1000, 10, 10, 0, 50)), 0);
+    }
+
+    @Test
+    public void offsets_areConvertedFromUtf8BytesToChars() {
+        String text = "Grüße 👋 see you, see";
+        // "see" starts at byte 13 and 22; "Grüße" is 7 bytes, the emoji 4
+        int[] ranges = MessageSearch.highlights(text, "0 1 22 3 0 0 0 7 0 1 13 3");
+        assertArrayEquals(new int[]{0, 5, 9, 12, 18, 21}, ranges);
+        assertEquals("Grüße", text.substring(ranges[0], ranges[1]));
+        assertEquals("see", text.substring(ranges[2], ranges[3]));
+        assertEquals("see", text.substring(ranges[4], ranges[5]));
+        assertEquals(0, MessageSearch.highlights(null, "0 0 0 1").length);
+    }
+
+    @Test
+    public void search_returnsPagesInScoreOrder() {
+        FakeDao dao = new FakeDao();
+        // Newest first, as the index returns them
+        dao.candidate(5, matchInfo(100, 10, 10, 1, 20));
+        dao.candidate(4, matchInfo(100, 10, 10, 3, 20));
+        dao.candidate(3, matchInfo(100, 10, 10, 1, 20));
+        dao.candidate(2, matchInfo(100, 10, 40, 1, 20));
+        dao.candidate(1, matchInfo(100, 10, 10, 2, 20));
+        MessageSearch search = new MessageSearch(dao);
+
+        List<MessageSearch.Hit> first = search.search("hello", 0, 3);
+        assertEquals(3, first.size());
+        assertEquals(4, first.get(0).message.id);
+        assertEquals(1, first.get(1).message.id);
+        // Equal scores: newer first
+        assertEquals(5, first.get(2).message.id);
+        assertEquals("hello*", dao.lastQuery);
+        assertArrayEquals(new int[]{0, 5}, first.get(0).highlights);
+
+        List<MessageSearch.Hit> second = search.search("hello", 3, 3);
+        assertEquals(2, second.size());
+        assertEquals(3, second.get(0).message.id);
+        assertEquals(2, second.get(1).message.id);
+        assertTrue(search.search("hello", 5, 3).isEmpty());
+        assertTrue(search.search("  ", 0, 3).isEmpty());
+    }
+
+    // matchinfo('pcnalx') for one phrase in one column
+    private static byte[] matchInfo(int rows, int averageLength, int length, int hitsInRow, int rowsWithHit) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * 8).order(ByteOrder.nativeOrder());
+        buffer.putInt(1).putInt(1).putInt(rows).putInt(averageLength).putInt(length)
+                .putInt(hitsInRow).putInt(hitsInRow * 10).putInt(rowsWithHit);
+        return buffer.array();
+    }
+
+    private static final class FakeDao implements MessageDao {
+        final List<MessageSearch.Candidate> candidates = new ArrayList<>();
+        String lastQuery;
+
+        void candidate(int id, byte[] matchInfo) {
+            MessageSearch.Candidate candidate = new MessageSearch.Candidate();
+            candidate.id = id;
+            candidate.matchInfo = matchInfo;
+            candidates.add(candidate);
+        }
+
+        @Override
+        public void setDeliveryState(long messageUid, int deliveryState) {
+        }
+
+        @Override
+        public boolean hasMessageUid(long messageUid) {
+            return false;
+        }
+
+        @Override
+        public List<MessageSearch.Candidate> searchCandidates(String query, int limit) {
+            lastQuery = query;
+            return new ArrayList<>(candidates);
+        }
+
+        @Override
+        public List<MessageSearch.Row> searchRows(String query, List<Integer> ids) {
+            List<MessageSearch.Row> rows = new ArrayList<>();
+            // Any order, like SQLite
+            for (int i = ids.size() - 1; i >= 0; i--) {
+                MessageSearch.Row row = new MessageSearch.Row();
+                row.message = new Message(1, "hello there", 1000 + ids.get(i), false);
+                row.message.id = ids.get(i);
+                row.matchOffsets = "0 0 0 5";
+                rows.add(row);
+            }
+            return rows;
+        }
+
+        @Override
+        public long insert(Message message) {
+            return -1;
+        }
+
+        @Override
+        public long[] insertAll(List<Message> messages) {
+            return new long[messages.size()];
+        }
+
+        @Override
+        public List<Message> latest(int conversationId, int limit) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<Message> before(int conversationId, long timestamp, int id, int limit) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<Message> after(int conversationId, long timestamp, int id, int limit) {
+            return new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scrolls a MessageWindow through a 50,000 message conversation held by an
+ * in-memory stand-in for MessageDao's keyset queries.
+ */
+public class MessageWindowTest {
+
+    private static final int HISTORY = 50000;
+    private static final int PAGE_SIZE = 50;
+    private static final int WINDOW_SIZE = 200;
+
+    @Test
+    public void opening_loadsOnlyTheNewestPage() {
+        for (int history : new int[]{PAGE_SIZE * 2, HISTORY}) {
+            FakeSource source = new FakeSource(history);
+            MessageWindow window = new MessageWindow(source, PAGE_SIZE, WINDOW_SIZE);
+
+            List<Message> shown = window.loadLatest();
+            assertEquals(PAGE_SIZE, shown.size());
+            assertEquals(PAGE_SIZE, source.rowsRead);
+            assertEquals(history - 1, shown.get(PAGE_SIZE - 1).id);
+            assertTrue(window.hasOlder());
+            assertFalse(window.hasNewer());
+        }
+    }
+
+    @Test
+    public void scrollingUpAndDown_visitsEveryMessageWithinBoundedWindow() {
+        FakeSource source = new FakeSource(HISTORY);
+        MessageWindow window = new MessageWindow(source, PAGE_SIZE, WINDOW_SIZE);
+        List<Message> shown = window.loadLatest();
+
+        int lowestSeen = shown.get(0).id;
+        while ((shown = window.loadOlder()) != null) {
+            assertTrue(shown.size() <= WINDOW_SIZE);
+            assertContiguous(shown);
+            assertEquals(lowestSeen - PAGE_SIZE, shown.get(0).id);
+            lowestSeen = shown.get(0).id;
+        }
+        assertEquals(0, lowestSeen);
+        assertFalse(window.hasOlder());
+        assertTrue(window.hasNewer());
+        // Every page read exactly once, plus the first one
+        assertEquals(HISTORY, source.rowsRead);
+
+        List<Message> page;
+        while ((page = window.loadNewer()) != null) {
+            assertTrue(page.size() <= WINDOW_SIZE);
+            assertContiguous(page);
+            shown = page;
+        }
+        assertEquals(HISTORY - 1, shown.get(shown.size() - 1).id);
+        assertFalse(window.hasNewer());
+    }
+
+    @Test
+    public void olderPages_pushNewestOutOnceFull() {
+        MessageWindow window = new MessageWindow(new FakeSource(HISTORY), PAGE_SIZE, WINDOW_SIZE);
+        window.loadLatest();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(PAGE_SIZE * (i + 2), window.loadOlder().size());
+            assertFalse(window.hasNewer());
+        }
+        // The fifth page pushes the newest one out
+        List<Message> shown = window.loadOlder();
+        assertEquals(WINDOW_SIZE, shown.size());
+        assertEquals(HISTORY - PAGE_SIZE - 1, shown.get(WINDOW_SIZE - 1).id);
+        assertTrue(window.hasNewer());
+    }
+
+    @Test
+    public void newMessage_isAppendedOnlyWhenNewestMessagesAreShown() {
+        FakeSource source = new FakeSource(1000);
+        MessageWindow window = new MessageWindow(source, PAGE_SIZE, WINDOW_SIZE);
+        window.loadLatest();
+
+        Message incoming = source.append();
+        List<Message> shown = window.add(incoming);
+        assertSame(incoming, shown.get(shown.size() - 1));
+
+        for (int i = 0; i < 5; i++) {
+            window.loadOlder();
+        }
+        assertTrue(window.hasNewer());
+        Message later = source.append();
+        assertNull(window.add(later));
+
+        // It shows up once the user scrolls back down
+        List<Message> page;
+        while ((page = window.loadNewer()) != null) {
+            shown = page;
+        }
+        assertEquals(later.id, shown.get(shown.size() - 1).id);
+    }
+
+    @Test
+    public void deliveryState_replacesTheMessage() {
+        FakeSource source = new FakeSource(10);
+        MessageWindow window = new MessageWindow(source, PAGE_SIZE, WINDOW_SIZE);
+        window.loadLatest();
+        Message sent = source.append();
+        sent.messageUid = 99L;
+        List<Message> before = window.add(sent);
+
+        List<Message> after = window.setDeliveryState(99L, Message.DELIVERY_DELIVERED);
+        Message updated = after.get(after.size() - 1);
+        assertEquals(sent.id, updated.id);
+        assertEquals(Message.DELIVERY_DELIVERED, updated.deliveryState);
+        // The old snapshot is untouched, so the adapter can diff the two
+        assertSame(sent, before.get(before.size() - 1));
+        assertEquals(Message.DELIVERY_NONE, sent.deliveryState);
+
+        assertNull(window.setDeliveryState(99L, Message.DELIVERY_DELIVERED));
+        assertNull(window.setDeliveryState(100L, Message.DELIVERY_FAILED));
+    }
+
+    @Test
+    public void emptyConversation_hasNothingToPage() {
+        MessageWindow window = new MessageWindow(new FakeSource(0), PAGE_SIZE, WINDOW_SIZE);
+        assertTrue(window.loadLatest().isEmpty());
+        assertNull(window.loadOlder());
+        assertNull(window.loadNewer());
+    }
+
+    private static void assertContiguous(List<Message> messages) {
+        for (int i = 1; i < messages.size(); i++) {
+            assertEquals(messages.get(i - 1).id + 1, messages.get(i).id);
+        }
+    }
+
+    // Messages sorted by (timestamp, id) like the index; every second pair
+    // shares a timestamp to exercise the id tie-break.
+    private static final class FakeSource implements MessageWindow.Source {
+        private static final Comparator<Message> ORDER = new Comparator<Message>() {
+            @Override
+            public int compare(Message a, Message b) {
+                if (a.timestamp != b.timestamp) return a.timestamp < b.timestamp ? -1 : 1;
+                return Integer.compare(a.id, b.id);
+            }
+        };
+
+        final List<Message> rows = new ArrayList<>();
+        int rowsRead;
+
+        FakeSource(int count) {
+            for (int i = 0; i < count; i++) {
+                append();
+            }
+        }
+
+        Message append() {
+            int id = rows.size();
+            Message message = new Message(1, "message " + id, 1000 + id / 2, id % 3 == 0);
+            message.id = id;
+            rows.add(message);
+            return message;
+        }
+
+        @Override
+        public List<Message> latest(int limit) {
+            return read(rows.size() - 1, -1, limit);
+        }
+
+        @Override
+        public List<Message> before(long timestamp, int id, int limit) {
+            return read(indexOf(timestamp, id) - 1, -1, limit);
+        }
+
+        @Override
+        public List<Message> after(long timestamp, int id, int limit) {
+            return read(indexOf(timestamp, id) + 1, 1, limit);
+        }
+
+        private int indexOf(long timestamp, int id) {
+            Message key = new Message(1, null, timestamp, false);
+            key.id = id;
+            return Collections.binarySearch(rows, key, ORDER);
+        }
+
+        private List<Message> read(int from, int step, int limit) {
+            List<Message> page = new ArrayList<>();
+            for (int i = from; i >= 0 && i < rows.size() && page.size() < limit; i += step) {
+                page.add(rows.get(i));
+            }
+            rowsRead += page.size();
+            return page;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Messages queued while offline go out in one burst on the next connection,
+ * and stay queued until acknowledged, also when the receiver has forgotten
+ * that it already has them. Resends on a later connection carry on the
+ * attempt numbers, so relays pass them on.
+ */
+public class OutboxTest {
+
+    private final FakeOutboxDao dao = new FakeOutboxDao();
+    private final Map<Long, Integer> states = new HashMap<>();
+    private final Outbox outbox = new Outbox(dao, (messageUid, state) -> states.put(messageUid, state));
+    private final List<Frame> submitted = new ArrayList<>();
+
+    @Test
+    public void queuedWhileOffline_drainsInPriorityThenAgeOrder() {
+        assertTrue(outbox.add(frame(1), Outbox.PRIORITY_NORMAL, 100));
+        assertTrue(outbox.add(frame(2), Outbox.PRIORITY_NORMAL, 200));
+        assertTrue(outbox.add(frame(3), Outbox.PRIORITY_HIGH, 300));
+        assertFalse(outbox.add(frame(1), Outbox.PRIORITY_NORMAL, 400));
+        assertEquals(3, dao.entries.size());
+
+        assertEquals(3, outbox.drain(submitted::add, 1000));
+        assertEquals(3, submitted.get(0).messageId);
+        assertEquals(1, submitted.get(1).messageId);
+        assertEquals(2, submitted.get(2).messageId);
+        assertArrayEquals(frame(1).payload, submitted.get(1).payload);
+
+        // In flight already
+        assertEquals(0, outbox.drain(submitted::add, 2000));
+    }
+
+    @Test
+    public void acknowledged_leavesTheOutbox() {
+        outbox.add(frame(1), Outbox.PRIORITY_NORMAL, 100);
+        outbox.drain(submitted::add, 100);
+        outbox.onDeliveryStateChanged(1, Message.DELIVERY_SENT, 100);
+        assertEquals(1, dao.entries.size());
+
+        outbox.onDeliveryStateChanged(1, Message.DELIVERY_DELIVERED, 500);
+        assertTrue(dao.entries.isEmpty());
+        assertEquals(Message.DELIVERY_DELIVERED, (int) states.get(1L));
+    }
+
+    @Test
+    public void unacknowledged_isRetriedOnLaterConnectionsThenFails() {
+        outbox.add(frame(1), Outbox.PRIORITY_NORMAL, 0);
+        long now = 0;
+        for (int attempt = 0; attempt < Outbox.MAX_ATTEMPTS - 1; attempt++) {
+            assertEquals(1, outbox.drain(submitted::add, now));
+            outbox.onDeliveryStateChanged(1, Message.DELIVERY_FAILED, now);
+            assertEquals(Message.DELIVERY_PENDING, (int) states.get(1L));
+            // Not before the retry delay
+            long retryAt = now + (Outbox.RETRY_DELAY_MS << attempt);
+            assertEquals(0, outbox.drain(submitted::add, retryAt - 1));
+            now = retryAt;
+        }
+        assertEquals(1, outbox.drain(submitted::add, now));
+        outbox.onDeliveryStateChanged(1, Message.DELIVERY_FAILED, now);
+        assertEquals(Message.DELIVERY_FAILED, (int) states.get(1L));
+        assertTrue(dao.entries.isEmpty());
+    }
+
+    @Test
+    public void lostConnection_releasesWithoutCountingAnAttempt() {
+        outbox.add(frame(1), Outbox.PRIORITY_NORMAL, 0);
+        outbox.drain(submitted::add, 0);
+        outbox.releaseAll();
+        assertEquals(Message.DELIVERY_PENDING, (int) states.get(1L));
+        assertEquals(1, outbox.drain(submitted::add, 0));
+        assertEquals(0, dao.entries.get(0).attempts);
+    }
+
+    @Test
+    public void resend_continuesAttemptNumbers() {
+        outbox.add(frame(1), Outbox.PRIORITY_NORMAL, 0);
+        outbox.drain(submitted::add, 0);
+        assertEquals(0, submitted.get(0).getAttempt());
+        outbox.onTransmitted(1, 0);
+        outbox.onTransmitted(1, 1);
+        outbox.onDeliveryStateChanged(1, Message.DELIVERY_FAILED, 0);
+
+        outbox.drain(submitted::add, Outbox.RETRY_DELAY_MS);
+        assertEquals(2, submitted.get(1).getAttempt());
+        // Also after a lost connection
+        outbox.onTransmitted(1, 2);
+        outbox.releaseAll();
+        outbox.drain(submitted::add, Outbox.RETRY_DELAY_MS);
+        assertEquals(3, submitted.get(2).getAttempt());
+    }
+
+    @Test
+    public void resendThroughARelay_reachesTheReceiver() throws Exception {
+        LoopbackTransport.Network network = new LoopbackTransport.Network(0, 0, Fragmenter.MAX_MTU, 1);
+        try {
+            // Sender 1 - relay 2 - receiver 3, each behind its own RelayEngine
+            List<Frame> acks = Collections.synchronizedList(new ArrayList<>());
+            List<Frame> received = Collections.synchronizedList(new ArrayList<>());
+            LoopbackTransport senderTransport = network.newTransport();
+            LoopbackTransport relayTransport = network.newTransport();
+            LoopbackTransport receiverTransport = network.newTransport();
+            RelayEngine senderRelay = new RelayEngine(senderTransport, 1, RelayEngine.DEFAULT_SEEN_CAPACITY, acks::add);
+            RelayEngine relay = new RelayEngine(relayTransport, 2, RelayEngine.DEFAULT_SEEN_CAPACITY, frame -> { });
+            RelayEngine receiverRelay = new RelayEngine(receiverTransport, 3, RelayEngine.DEFAULT_SEEN_CAPACITY, received::add);
+            senderTransport.setFrameListener(senderRelay);
+            relayTransport.setFrameListener(relay);
+            receiverTransport.setFrameListener(receiverRelay);
+            senderTransport.connect();
+            relayTransport.connect();
+            receiverTransport.connect();
+            network.link(senderTransport, relayTransport);
+            network.link(relayTransport, receiverTransport);
+
+            ReliableSender sender = new ReliableSender(frame -> {
+                if (!senderRelay.send(frame)) return false;
+                outbox.onTransmitted(frame.messageId, frame.getAttempt());
+                return true;
+            }, (messageUid, state) -> outbox.onDeliveryStateChanged(messageUid, state, 0),
+                    4, 2, 1000, 1000, 1000);
+
+            // Two copies get through, but every ack is lost
+            outbox.add(new Frame(Frame.TYPE_CHAT, 0, 1, 3, 7, Frame.DEFAULT_TTL, 0, new byte[20]),
+                    Outbox.PRIORITY_NORMAL, 0);
+            outbox.drain(frame -> sender.submit(frame, 0), 0);
+            assertTrue(network.awaitIdle(5000));
+            sender.tick(1000);
+            assertTrue(network.awaitIdle(5000));
+            sender.tick(3000);
+            assertEquals(Message.DELIVERY_PENDING, (int) states.get(7L));
+            assertEquals(2, received.size());
+
+            // On the next connection the resend is new to the relay and the receiver
+            outbox.drain(frame -> sender.submit(frame, Outbox.RETRY_DELAY_MS), Outbox.RETRY_DELAY_MS);
+            assertTrue(network.awaitIdle(5000));
+            assertEquals(3, relay.getFramesRelayed());
+            assertEquals(3, received.size());
+            assertEquals(2, received.get(2).getAttempt());
+
+            assertTrue(receiverRelay.send(new Frame(Frame.TYPE_ACK, 0, 3, 1, Frame.newMessageId(),
+                    Frame.DEFAULT_TTL, 0, ReliableSender.ackPayload(7))));
+            assertTrue(network.awaitIdle(5000));
+            assertEquals(1, acks.size());
+            for (long messageId : ReliableSender.parseAck(acks.get(0).payload)) {
+                sender.onAck(messageId, Outbox.RETRY_DELAY_MS + 100);
+            }
+            assertEquals(Message.DELIVERY_DELIVERED, (int) states.get(7L));
+            assertTrue(dao.entries.isEmpty());
+        } finally {
+            network.shutdown();
+        }
+    }
+
+    @Test
+    public void resendAfterTheReceiverRestarted_isAcknowledged() throws Exception {
+        MessageIngestQueueTest.FakeMessageDao receiverDao = new MessageIngestQueueTest.FakeMessageDao();
+        Set<Long> decrypted = new HashSet<>();
+        MessageIngestQueue receiver = new MessageIngestQueue(receiverDao, 0, 128, batch -> { });
+
+        // Stored by the receiver, but the ack is lost and the connection times out
+        outbox.add(frame(1), Outbox.PRIORITY_NORMAL, 0);
+        assertEquals(1, outbox.drain(submitted::add, 0));
+        assertTrue(receive(receiver, decrypted, submitted.get(0)));
+        outbox.onDeliveryStateChanged(1, Message.DELIVERY_FAILED, 0);
+        receiver.close();
+        assertTrue(receiver.awaitClosed(1000));
+
+        // The receiver's service restarted, so its recent uids are gone
+        receiver = new MessageIngestQueue(receiverDao, 0, 128, batch -> { });
+        assertEquals(1, outbox.drain(submitted::add, Outbox.RETRY_DELAY_MS));
+        Frame resent = submitted.get(1);
+        assertFalse(receiver.isRecent(resent.messageId));
+        // The ratchet can't decrypt it again; the ack comes from the database lookup
+        assertTrue(receive(receiver, decrypted, resent));
+        outbox.onDeliveryStateChanged(1, Message.DELIVERY_DELIVERED, Outbox.RETRY_DELAY_MS);
+        receiver.close();
+        assertTrue(receiver.awaitClosed(1000));
+
+        assertEquals(Message.DELIVERY_DELIVERED, (int) states.get(1L));
+        assertTrue(dao.entries.isEmpty());
+        assertEquals(1, receiverDao.rowsWritten);
+    }
+
+    // The receiving end of NodeConnectionService.onFrameDelivered(), with a
+    // ratchet that like the real one won't decrypt a message twice. Returns
+    // whether the frame is acked.
+    private static boolean receive(MessageIngestQueue queue, Set<Long> decrypted, Frame frame) {
+        if (queue.isKnown(frame.messageId)) return true;
+        if (!decrypted.add(frame.messageId)) return false;
+        Message message = new Message(1, "hello", 1000, false);
+        message.messageUid = frame.messageId;
+        queue.enqueue(message);
+        return true;
+    }
+
+    private static Frame frame(long messageId) {
+        byte[] payload = new byte[20];
+        payload[0] = (byte) messageId;
+        return new Frame(Frame.TYPE_CHAT, 0, 1, 2, messageId, Frame.DEFAULT_TTL, 0, payload);
+    }
+
+    // Keeps entries in insertion order and sorts them like the query
+    private static final class FakeOutboxDao implements OutboxDao {
+        final List<OutboxEntry> entries = new ArrayList<>();
+
+        @Override
+        public long insert(OutboxEntry entry) {
+            if (find(entry.messageUid) != null) return -1;
+            entry.id = entries.size() + 1;
+            entries.add(entry);
+            return entry.id;
+        }
+
+        @Override
+        public List<OutboxEntry> due(long now) {
+            List<OutboxEntry> due = new ArrayList<>();
+            for (OutboxEntry entry : entries) {
+                if (entry.nextAttemptAt <= now) due.add(entry);
+            }
+            due.sort((a, b) -> a.priority != b.priority ? Integer.compare(b.priority, a.priority)
+                    : a.createdAt != b.createdAt ? Long.compare(a.createdAt, b.createdAt)
+                    : Integer.compare(a.id, b.id));
+            return due;
+        }
+
+        @Override
+        public OutboxEntry find(long messageUid) {
+            for (OutboxEntry entry : entries) {
+                if (entry.messageUid == messageUid) return entry;
+            }
+            return null;
+        }
+
+        @Override
+        public void reschedule(long messageUid, int attempts, long nextAttemptAt) {
+            OutboxEntry entry = find(messageUid);
+            entry.attempts = attempts;
+            entry.nextAttemptAt = nextAttemptAt;
+        }
+
+        @Override
+        public void setLastAttempt(long messageUid, int lastAttempt) {
+            find(messageUid).lastAttempt = lastAttempt;
+        }
+
+        @Override
+        public void delete(long messageUid) {
+            Iterator<OutboxEntry> it = entries.iterator();
+            while (it.hasNext()) {
+                if (it.next().messageUid == messageUid) it.remove();
+            }
+        }
+    }
+}
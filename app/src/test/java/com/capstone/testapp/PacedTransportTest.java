@@ -0,0 +1,155 @@
+package com.capstone.testapp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * PacedTransport over the loopback transport, in real time: frames come out
+ * spaced by their airtime, acks ahead of queued chat, small frames that waited
+ * together share a bundle, and the release listener hears about each frame.
+ */
+public class PacedTransportTest {
+
+    private static final LoRaAirtime SF7 = new LoRaAirtime(7, 125000, 5);
+
+    // Too large to share a bundle with anything, so every frame goes alone
+    private static final int LARGE_PAYLOAD = 200;
+
+    private LoopbackTransport.Network network;
+    private PacedTransport paced;
+
+    @After
+    public void tearDown() {
+        if (paced != null) paced.close();
+        if (network != null) network.shutdown();
+    }
+
+    @Test
+    public void frames_areSpacedByAirtimeWithAcksFirst() throws Exception {
+        network = new LoopbackTransport.Network(0, 0, Fragmenter.MAX_MTU, 1);
+        LoopbackTransport a = network.newTransport();
+        LoopbackTransport b = network.newTransport();
+        network.link(a, b);
+        a.connect();
+        b.connect();
+        List<Frame> received = Collections.synchronizedList(new ArrayList<>());
+        List<Long> receivedAt = Collections.synchronizedList(new ArrayList<>());
+        b.setFrameListener(frame -> {
+            receivedAt.add(System.nanoTime() / 1000000);
+            received.add(Frame.decode(frame));
+        });
+        paced = new PacedTransport(a, SF7, 1, 100000, 16);
+
+        long start = System.nanoTime() / 1000000;
+        assertTrue(paced.send(new Frame(Frame.TYPE_CHAT, 0, 1, 0, new byte[LARGE_PAYLOAD]).encode()));
+        awaitReceived(received, 1);
+        // Queued while the first one is on air
+        for (int i = 1; i < 3; i++) {
+            assertTrue(paced.send(new Frame(Frame.TYPE_CHAT, 0, 1, i, new byte[LARGE_PAYLOAD]).encode()));
+        }
+        assertTrue(paced.send(new Frame(Frame.TYPE_ACK, 0, 1, 99, ReliableSender.ackPayload(7)).encode()));
+
+        awaitReceived(received, 4);
+        assertEquals(4, received.size());
+        // The first chat frame went out at once; the ack overtook the other two
+        assertEquals(0, received.get(0).messageId);
+        assertEquals(Frame.TYPE_ACK, received.get(1).type);
+        assertEquals(1, received.get(2).messageId);
+        assertEquals(2, received.get(3).messageId);
+        long chatAirtime = SF7.getFrameMillis(new Frame(Frame.TYPE_CHAT, 0, 1, 0, new byte[LARGE_PAYLOAD]).getEncodedLength());
+        assertTrue(receivedAt.get(1) - start >= chatAirtime);
+        assertTrue(receivedAt.get(3) - start >= 2 * chatAirtime);
+        assertEquals(0, paced.getQueued());
+    }
+
+    @Test
+    public void smallFramesWaitingTogether_shareABundle() throws Exception {
+        network = new LoopbackTransport.Network(0, 0, Fragmenter.MAX_MTU, 1);
+        LoopbackTransport a = network.newTransport();
+        LoopbackTransport b = network.newTransport();
+        network.link(a, b);
+        a.connect();
+        b.connect();
+        List<byte[]> raw = Collections.synchronizedList(new ArrayList<>());
+        List<Frame> delivered = Collections.synchronizedList(new ArrayList<>());
+        RelayEngine receiver = new RelayEngine(b, 2, RelayEngine.DEFAULT_SEEN_CAPACITY, delivered::add);
+        b.setFrameListener(frame -> {
+            raw.add(frame);
+            receiver.onFrameReceived(frame);
+        });
+        paced = new PacedTransport(a, SF7, 1, 100000, 16);
+
+        assertTrue(paced.send(new Frame(Frame.TYPE_CHAT, 0, 1, 2, 0, Frame.DEFAULT_TTL, 0, new byte[20]).encode()));
+        awaitReceived(delivered, 1);
+        // Queued while the first one is on air
+        for (int i = 1; i < 4; i++) {
+            assertTrue(paced.send(new Frame(Frame.TYPE_CHAT, 0, 1, 2, i, Frame.DEFAULT_TTL, 0, new byte[20]).encode()));
+        }
+        awaitReceived(delivered, 4);
+
+        assertEquals(4, delivered.size());
+        // The first one went out alone; the rest waited and went together
+        assertEquals(2, raw.size());
+        assertEquals(Frame.TYPE_BUNDLE, Frame.peekType(raw.get(1)));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, delivered.get(i).messageId);
+        }
+    }
+
+    @Test
+    public void releaseListener_hearsEachFrameAsItLeaves() throws Exception {
+        network = new LoopbackTransport.Network(0, 0, Fragmenter.MAX_MTU, 1);
+        LoopbackTransport a = network.newTransport();
+        a.connect();
+        List<Frame> released = Collections.synchronizedList(new ArrayList<>());
+        paced = new PacedTransport(a, SF7, 1, 100000, 3);
+        paced.setReleaseListener(frame -> released.add(Frame.decode(frame)));
+
+        assertTrue(paced.send(new Frame(Frame.TYPE_CHAT, 0, 1, 2, 0, Frame.DEFAULT_TTL, 0, new byte[20]).encode()));
+        awaitReceived(released, 1);
+        // Queued while the first one is on air; the ack pushes out the relayed
+        // frame of unknown type, which is released at once
+        assertTrue(paced.send(new Frame(9, 0, 1, 2, 1, Frame.DEFAULT_TTL, 0, new byte[20]).encode()));
+        assertTrue(paced.send(new Frame(Frame.TYPE_CHAT, 0, 1, 2, 2, Frame.DEFAULT_TTL, 0, new byte[20]).withAttempt(3).encode()));
+        assertTrue(paced.send(new Frame(Frame.TYPE_CHAT, 0, 1, 2, 3, Frame.DEFAULT_TTL, 0, new byte[20]).encode()));
+        assertTrue(paced.send(new Frame(Frame.TYPE_ACK, 0, 1, 2, 4, Frame.DEFAULT_TTL, 0, ReliableSender.ackPayload(9)).encode()));
+        awaitReceived(released, 5);
+
+        assertEquals(5, released.size());
+        assertEquals(0, released.get(0).messageId);
+        assertEquals(1, released.get(1).messageId);
+        // The rest went on air together as one bundle, and are reported one by one
+        assertEquals(4, released.get(2).messageId);
+        assertEquals(2, released.get(3).messageId);
+        assertEquals(3, released.get(3).getAttempt());
+        assertEquals(3, released.get(4).messageId);
+    }
+
+    private static void awaitReceived(List<Frame> received, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void send_failsWhenDisconnectedOrClosed() {
+        network = new LoopbackTransport.Network(0, 0, Fragmenter.MAX_MTU, 1);
+        LoopbackTransport a = network.newTransport();
+        paced = new PacedTransport(a, SF7, 0.01, 10000, 16);
+        byte[] frame = new Frame(Frame.TYPE_CHAT, 0, 1, 1, new byte[10]).encode();
+
+        assertFalse(paced.send(frame));
+        a.connect();
+        assertTrue(paced.send(frame));
+        paced.close();
+        assertFalse(paced.send(frame));
+        assertEquals(0, paced.getQueued());
+    }
+}
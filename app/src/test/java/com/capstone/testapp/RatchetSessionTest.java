@@ -0,0 +1,109 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import static org.junit.Assert.*;
+
+public class RatchetSessionTest {
+
+    private static final byte[] WRAPPED_SEED = new byte[256];
+
+    private RatchetSession sender;
+    private RatchetSession receiver;
+
+    public RatchetSessionTest() throws Exception {
+        byte[] seed = RatchetSession.newSeed();
+        sender = RatchetSession.newSendingSession(seed, WRAPPED_SEED);
+        receiver = RatchetSession.newReceivingSession(sender.getSessionId(), seed);
+    }
+
+    @Test
+    public void messages_roundTripInOrder() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            byte[] message = sender.encrypt(text("hello " + i));
+            assertEquals(sender.getSessionId(), RatchetSession.peekSessionId(message));
+            assertArrayEquals(text("hello " + i), receiver.decrypt(message));
+        }
+    }
+
+    @Test
+    public void steadyStateOverhead_isHeaderPlusTag() throws Exception {
+        assertFalse(sender.isConfirmed());
+        receiver.decrypt(sender.encrypt(text("init")));
+        sender.confirm();
+        assertTrue(sender.isConfirmed());
+
+        byte[] message = sender.encrypt(text("hi"));
+        assertEquals(RatchetSession.TYPE_RATCHET, message[0]);
+        assertNull(RatchetSession.peekWrappedSeed(message));
+        assertEquals(9 + 16, message.length - 2);
+        assertArrayEquals(text("hi"), receiver.decrypt(message));
+    }
+
+    @Test
+    public void seed_isRepeatedUntilConfirmed() throws Exception {
+        // However many messages are lost, the next one can start the session
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(RatchetSession.peekWrappedSeed(sender.encrypt(text("lost " + i))));
+        }
+        byte[] message = sender.encrypt(text("arrives"));
+        assertArrayEquals(WRAPPED_SEED, RatchetSession.peekWrappedSeed(message));
+        assertArrayEquals(text("arrives"), receiver.decrypt(message));
+
+        // Confirmation is part of the saved state
+        sender.confirm();
+        RatchetSession restored = RatchetSession.fromBytes(sender.toBytes());
+        assertTrue(restored.isConfirmed());
+        assertNull(RatchetSession.peekWrappedSeed(restored.encrypt(text("later"))));
+    }
+
+    @Test
+    public void outOfOrderMessages_decryptOnce() throws Exception {
+        byte[] first = sender.encrypt(text("first"));
+        byte[] second = sender.encrypt(text("second"));
+        byte[] third = sender.encrypt(text("third"));
+
+        assertArrayEquals(text("third"), receiver.decrypt(third));
+        assertArrayEquals(text("first"), receiver.decrypt(first));
+        assertArrayEquals(text("second"), receiver.decrypt(second));
+        try {
+            receiver.decrypt(second);
+            fail("Replay was accepted");
+        } catch (GeneralSecurityException expected) {
+            // Key was used up
+        }
+    }
+
+    @Test
+    public void tamperedMessage_doesNotAdvanceState() throws Exception {
+        byte[] message = sender.encrypt(text("hello"));
+        byte[] tampered = message.clone();
+        tampered[tampered.length - 1] ^= 0x01;
+        try {
+            receiver.decrypt(tampered);
+            fail("Tampered message was accepted");
+        } catch (GeneralSecurityException expected) {
+            // Tag check failed
+        }
+        assertArrayEquals(text("hello"), receiver.decrypt(message));
+    }
+
+    @Test
+    public void state_survivesSerialisation() throws Exception {
+        receiver.decrypt(sender.encrypt(text("one")));
+        sender.encrypt(text("lost"));
+        receiver.decrypt(sender.encrypt(text("three")));
+
+        RatchetSession restoredSender = RatchetSession.fromBytes(sender.toBytes());
+        RatchetSession restoredReceiver = RatchetSession.fromBytes(receiver.toBytes());
+        assertArrayEquals(text("four"), restoredReceiver.decrypt(restoredSender.encrypt(text("four"))));
+        assertEquals(sender.getCounter() + 1, restoredSender.getCounter());
+    }
+
+    private static byte[] text(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
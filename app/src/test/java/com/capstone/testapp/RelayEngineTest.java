@@ -0,0 +1,216 @@
+package com.capstone.testapp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Relaying and duplicate suppression, and a 200 node mesh over the loopback
+ * transport. The mesh test checks delivery ratio and total transmissions.
+ */
+public class RelayEngineTest {
+
+    private static final int NODES = 200;
+    // Nodes closer than this (in a unit square) are in radio range: about ten neighbours each
+    private static final double RANGE = 0.13;
+    private static final int MESSAGES = 100;
+    // Enough hops to cross the square
+    private static final int TTL = 20;
+
+    private LoopbackTransport.Network network;
+
+    @After
+    public void tearDown() {
+        if (network != null) network.shutdown();
+    }
+
+    @Test
+    public void frameForUs_isDeliveredOnceAndNotRelayed() throws Exception {
+        network = new LoopbackTransport.Network(0, 0, Fragmenter.MAX_MTU, 1);
+        Node a = new Node(network.newTransport(), 1);
+        Node b = new Node(network.newTransport(), 2);
+        network.link(a.transport, b.transport);
+
+        Frame frame = new Frame(Frame.TYPE_CHAT, 0, 1, 2, 42, TTL, 0, new byte[10]);
+        assertTrue(a.relay.send(frame));
+        // A resend of the same message, e.g. after a lost acknowledgement
+        assertTrue(a.relay.send(frame));
+        assertTrue(network.awaitIdle(5000));
+
+        assertEquals(1, b.delivered.size());
+        assertEquals(42, b.delivered.get(0).messageId);
+        assertEquals(0, b.relay.getFramesRelayed());
+        assertEquals(1, b.relay.getDuplicatesDropped());
+        assertTrue(a.delivered.isEmpty());
+    }
+
+    @Test
+    public void retransmission_isRelayedAgain() throws Exception {
+        network = new LoopbackTransport.Network(0, 0, Fragmenter.MAX_MTU, 1);
+        // 1 - 2 - 3: the first copy may have been lost past the relay
+        Node a = new Node(network.newTransport(), 1);
+        Node relay = new Node(network.newTransport(), 2);
+        Node c = new Node(network.newTransport(), 3);
+        network.link(a.transport, relay.transport);
+        network.link(relay.transport, c.transport);
+
+        Frame frame = new Frame(Frame.TYPE_CHAT, 0, 1, 3, 42, TTL, 0, new byte[10]);
+        assertTrue(a.relay.send(frame));
+        assertTrue(a.relay.send(frame.withAttempt(1)));
+        assertTrue(network.awaitIdle(5000));
+
+        assertEquals(2, relay.relay.getFramesRelayed());
+        assertEquals(2, c.delivered.size());
+        assertEquals(1, c.delivered.get(0).getAttempt() + c.delivered.get(1).getAttempt());
+    }
+
+    @Test
+    public void bundle_isUnpackedAndRelayedFrameByFrame() throws Exception {
+        network = new LoopbackTransport.Network(0, 0, Fragmenter.MAX_MTU, 1);
+        // 1 - 2 - 3
+        Node a = new Node(network.newTransport(), 1);
+        Node b = new Node(network.newTransport(), 2);
+        Node c = new Node(network.newTransport(), 3);
+        network.link(a.transport, b.transport);
+        network.link(b.transport, c.transport);
+
+        byte[] forB = new Frame(Frame.TYPE_CHAT, 0, 1, 2, 40, TTL, 0, new byte[10]).encode();
+        byte[] forC = new Frame(Frame.TYPE_CHAT, 0, 1, 3, 41, TTL, 0, new byte[10]).encode();
+        byte[] ackForB = new Frame(Frame.TYPE_ACK, 0, 1, 2, 42, TTL, 0, ReliableSender.ackPayload(7)).encode();
+        assertTrue(a.transport.send(Frame.encodeBundle(Arrays.asList(forB, forC, ackForB))));
+        assertTrue(network.awaitIdle(5000));
+
+        assertEquals(2, b.delivered.size());
+        assertEquals(40, b.delivered.get(0).messageId);
+        assertEquals(Frame.TYPE_ACK, b.delivered.get(1).type);
+        assertEquals(1, b.relay.getFramesRelayed());
+        assertEquals(1, c.delivered.size());
+        assertEquals(41, c.delivered.get(0).messageId);
+    }
+
+    @Test
+    public void frameForOthers_isRelayedUntilTtlRunsOut() throws Exception {
+        network = new LoopbackTransport.Network(0, 0, Fragmenter.MAX_MTU, 1);
+        // A line: 1 - 2 - 3 - 4
+        List<Node> line = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            line.add(new Node(network.newTransport(), i));
+            if (i > 1) network.link(line.get(i - 2).transport, line.get(i - 1).transport);
+        }
+
+        assertTrue(line.get(0).relay.send(new Frame(Frame.TYPE_CHAT, 0, 1, 4, 7, 2, 0, new byte[10])));
+        assertTrue(network.awaitIdle(5000));
+        assertEquals(1, line.get(3).delivered.size());
+        assertEquals(2, line.get(3).delivered.get(0).hops);
+        assertEquals(0, line.get(3).delivered.get(0).ttl);
+
+        // One hop short
+        assertTrue(line.get(0).relay.send(new Frame(Frame.TYPE_CHAT, 0, 1, 4, 8, 1, 0, new byte[10])));
+        assertTrue(network.awaitIdle(5000));
+        assertEquals(1, line.get(3).delivered.size());
+
+        // Relaying switched off in the middle cuts the line
+        line.get(1).relay.setRelayEnabled(false);
+        assertTrue(line.get(0).relay.send(new Frame(Frame.TYPE_CHAT, 0, 1, 4, 9, TTL, 0, new byte[10])));
+        assertTrue(network.awaitIdle(5000));
+        assertEquals(1, line.get(3).delivered.size());
+    }
+
+    @Test
+    public void mesh200_deliversWithAtMostOneTransmissionPerNode() throws Exception {
+        Random random = new Random(7);
+        network = new LoopbackTransport.Network(0, 0.01, Fragmenter.DEFAULT_MTU, 7);
+        List<Node> nodes = new ArrayList<>();
+        double[][] positions = new double[NODES][2];
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(new Node(network.newTransport(), i + 1));
+            positions[i][0] = random.nextDouble();
+            positions[i][1] = random.nextDouble();
+        }
+        List<List<Integer>> neighbours = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            neighbours.add(new ArrayList<>());
+        }
+        for (int i = 0; i < NODES; i++) {
+            for (int j = i + 1; j < NODES; j++) {
+                if (Math.hypot(positions[i][0] - positions[j][0], positions[i][1] - positions[j][1]) < RANGE) {
+                    network.link(nodes.get(i).transport, nodes.get(j).transport);
+                    neighbours.get(i).add(j);
+                    neighbours.get(j).add(i);
+                }
+            }
+        }
+
+        int reachable = 0;
+        int deliveredWhenReachable = 0;
+        for (int m = 0; m < MESSAGES; m++) {
+            int from = random.nextInt(NODES);
+            int to = random.nextInt(NODES - 1);
+            if (to >= from) to++;
+            Node destination = nodes.get(to);
+            int before = destination.delivered.size();
+
+            Frame frame = new Frame(Frame.TYPE_CHAT, 0, from + 1, to + 1, Frame.newMessageId(), TTL, 0, new byte[40]);
+            assertTrue(nodes.get(from).relay.send(frame));
+            assertTrue(network.awaitIdle(10000));
+
+            int copies = destination.delivered.size() - before;
+            assertTrue("duplicate delivery", copies <= 1);
+            if (connected(neighbours, from, to)) {
+                reachable++;
+                deliveredWhenReachable += copies;
+            }
+        }
+
+        long transmissions = network.getFramesSent();
+        long duplicates = 0;
+        for (Node node : nodes) {
+            duplicates += node.relay.getDuplicatesDropped();
+        }
+
+        // Each node sends a message at most once, so the flood can't amplify
+        assertTrue(transmissions <= (long) MESSAGES * NODES);
+        assertTrue(duplicates > 0);
+        assertTrue(deliveredWhenReachable >= reachable * 0.95);
+    }
+
+    // Whether `to` can be reached from `from` at all, for scoring delivery fairly
+    private static boolean connected(List<List<Integer>> neighbours, int from, int to) {
+        boolean[] visited = new boolean[neighbours.size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(from);
+        visited[from] = true;
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            if (node == to) return true;
+            for (int next : neighbours.get(node)) {
+                if (!visited[next]) {
+                    visited[next] = true;
+                    queue.add(next);
+                }
+            }
+        }
+        return false;
+    }
+
+    private static final class Node {
+        final LoopbackTransport transport;
+        final RelayEngine relay;
+        final List<Frame> delivered = Collections.synchronizedList(new ArrayList<>());
+
+        Node(LoopbackTransport transport, int keyId) {
+            this.transport = transport;
+            this.relay = new RelayEngine(transport, keyId, RelayEngine.DEFAULT_SEEN_CAPACITY, delivered::add);
+            transport.setFrameListener(relay);
+            transport.connect();
+        }
+    }
+}
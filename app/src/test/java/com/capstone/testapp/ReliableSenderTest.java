@@ -0,0 +1,359 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Send window, acknowledgements and retransmission timing, on a simulated
+ * clock. The lossy link test compares transmissions and delivery times with
+ * the adaptive timeout and with a fixed one; the paced link test shows what
+ * starting timers when frames are queued rather than on air costs.
+ */
+public class ReliableSenderTest {
+
+    private static final int DESTINATION = 2;
+
+    private final List<Frame> sent = new ArrayList<>();
+    private final Map<Long, Integer> states = new HashMap<>();
+
+    @Test
+    public void window_limitsUnacknowledgedMessages() {
+        ReliableSender sender = newSender(4, 6);
+        for (int i = 1; i <= 6; i++) {
+            sender.submit(frame(i), 0);
+        }
+        assertEquals(4, sent.size());
+        assertEquals(Message.DELIVERY_SENT, (int) states.get(4L));
+        assertEquals(Message.DELIVERY_PENDING, (int) states.get(5L));
+        assertEquals(Message.DELIVERY_PENDING, (int) states.get(6L));
+
+        // Each ack frees a slot for the next message in line
+        sender.onAck(2, 500);
+        assertEquals(Message.DELIVERY_DELIVERED, (int) states.get(2L));
+        assertEquals(5, sent.size());
+        assertEquals(5, sent.get(4).messageId);
+        assertEquals(Message.DELIVERY_SENT, (int) states.get(5L));
+
+        // Acks that don't match anything in flight change nothing
+        sender.onAck(2, 600);
+        sender.onAck(1234, 600);
+        assertEquals(5, sent.size());
+    }
+
+    @Test
+    public void timeout_retransmitsWithBackoffThenFails() {
+        ReliableSender sender = newSender(4, 3);
+        sender.submit(frame(1), 0);
+        sender.tick(ReliableSender.INITIAL_TIMEOUT_MS - 1);
+        assertEquals(1, sent.size());
+
+        sender.tick(ReliableSender.INITIAL_TIMEOUT_MS);
+        assertEquals(2, sent.size());
+        assertEquals(1, sent.get(1).getAttempt());
+
+        // The retransmission waits half as long again
+        long second = ReliableSender.INITIAL_TIMEOUT_MS + ReliableSender.INITIAL_TIMEOUT_MS * 3 / 2;
+        sender.tick(second - 1);
+        assertEquals(2, sent.size());
+        sender.tick(second);
+        assertEquals(3, sent.size());
+        assertEquals(2, sent.get(2).getAttempt());
+
+        // Third attempt unanswered: given up
+        sender.tick(second + ReliableSender.INITIAL_TIMEOUT_MS * 9 / 4);
+        assertEquals(3, sent.size());
+        assertEquals(Message.DELIVERY_FAILED, (int) states.get(1L));
+        assertEquals(2, sender.getRetransmissions());
+    }
+
+    @Test
+    public void refusedSend_isRetriedWithoutReportingSent() {
+        boolean[] accept = {false};
+        ReliableSender sender = new ReliableSender(
+                frame -> accept[0] && sent.add(frame),
+                (messageId, state) -> states.put(messageId, state),
+                4, 6, ReliableSender.INITIAL_TIMEOUT_MS, ReliableSender.MIN_TIMEOUT_MS, ReliableSender.MAX_TIMEOUT_MS);
+        sender.submit(frame(1), 0);
+        assertFalse(states.containsKey(1L));
+        assertEquals(0, sender.getTransmissions());
+
+        // Retried when the timer runs out, like a lost copy
+        accept[0] = true;
+        sender.tick(ReliableSender.INITIAL_TIMEOUT_MS);
+        assertEquals(1, sent.size());
+        assertEquals(1, sent.get(0).getAttempt());
+        assertEquals(Message.DELIVERY_SENT, (int) states.get(1L));
+        assertEquals(1, sender.getTransmissions());
+
+        // The ack answers the retry, which isn't timed
+        sender.onAck(1, ReliableSender.INITIAL_TIMEOUT_MS + 100);
+        assertEquals(Message.DELIVERY_DELIVERED, (int) states.get(1L));
+        assertEquals(ReliableSender.INITIAL_TIMEOUT_MS, sender.getTimeoutMillis(DESTINATION));
+    }
+
+    @Test
+    public void clear_dropsEverythingQuietly() {
+        ReliableSender sender = newSender(1, 6);
+        sender.submit(frame(1), 0);
+        sender.submit(frame(2), 0);
+        states.clear();
+        sender.clear();
+
+        sender.tick(10 * ReliableSender.INITIAL_TIMEOUT_MS);
+        sender.onAck(1, 10 * ReliableSender.INITIAL_TIMEOUT_MS);
+        assertEquals(1, sent.size());
+        assertTrue(states.isEmpty());
+    }
+
+    @Test
+    public void resubmittedFrame_continuesAttemptNumbers() {
+        ReliableSender sender = newSender(4, 3);
+        // Sent on an earlier connection up to attempt 13
+        sender.submit(frame(1).withAttempt(14), 0);
+        long now = 0;
+        while (states.get(1L) != Message.DELIVERY_FAILED) {
+            now += ReliableSender.MAX_TIMEOUT_MS;
+            sender.tick(now);
+        }
+        // Three copies, wrapping after Frame.MAX_ATTEMPT
+        assertEquals(3, sent.size());
+        assertEquals(14, sent.get(0).getAttempt());
+        assertEquals(15, sent.get(1).getAttempt());
+        assertEquals(0, sent.get(2).getAttempt());
+        assertEquals(3, sender.getRetransmissions());
+    }
+
+    @Test
+    public void timeout_followsMeasuredRoundTrips() {
+        ReliableSender sender = newSender(1, 6);
+        long now = 0;
+        for (int i = 1; i <= 20; i++) {
+            sender.submit(frame(i), now);
+            now += 1500;
+            sender.onAck(i, now);
+        }
+        long timeout = sender.getTimeoutMillis(DESTINATION);
+        assertTrue("timeout " + timeout, timeout >= 1500 && timeout < ReliableSender.INITIAL_TIMEOUT_MS);
+
+        // An ack for a retransmitted message could answer either copy, so it's no sample (Karn)
+        sender.submit(frame(21), now);
+        sender.tick(now + timeout);
+        assertEquals(1, sent.get(sent.size() - 1).getAttempt());
+        sender.onAck(21, now + timeout + 50);
+        assertEquals(timeout, sender.getTimeoutMillis(DESTINATION));
+    }
+
+    @Test
+    public void lossyLink_adaptiveTimeoutWastesLessAirtime() {
+        Result adaptive = simulate(ReliableSender.INITIAL_TIMEOUT_MS, ReliableSender.MIN_TIMEOUT_MS, ReliableSender.MAX_TIMEOUT_MS);
+        // A fixed timeout just under the link's round trip
+        Result fixed = simulate(1500, 1500, 1500);
+
+        assertEquals(MESSAGES, adaptive.delivered);
+        assertTrue("adaptive: " + adaptive + ", fixed 1.5 s: " + fixed, adaptive.transmissions < fixed.transmissions);
+        // The fixed timeout fires before any ack can be back, so copies go out
+        // early and its messages arrive sooner; saving that airtime mustn't cost
+        // more than half as long again
+        assertTrue(adaptive.meanDeliveryMillis() < fixed.meanDeliveryMillis() * 3 / 2);
+    }
+
+    // 200 messages over a link with a 1.5-2.5 s round trip that loses 20% of frames each way
+    private static final int MESSAGES = 200;
+
+    private static final class Result {
+        int delivered;
+        long transmissions;
+        long totalDeliveryMillis;
+
+        long meanDeliveryMillis() {
+            return totalDeliveryMillis / Math.max(1, delivered);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d delivered, %d transmissions (%.2f per message), mean delivery %d ms",
+                    delivered, MESSAGES, transmissions, (double) transmissions / MESSAGES,
+                    meanDeliveryMillis());
+        }
+    }
+
+    private static Result simulate(long initialTimeout, long minTimeout, long maxTimeout) {
+        Random random = new Random(17);
+        // Acks in flight: {arrival time, message id}
+        PriorityQueue<long[]> acks = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        long[] now = new long[1];
+        Result result = new Result();
+        ReliableSender sender = new ReliableSender(
+                frame -> {
+                    boolean lost = random.nextDouble() < 0.2 || random.nextDouble() < 0.2;
+                    if (!lost) acks.add(new long[]{now[0] + 1500 + random.nextInt(1000), frame.messageId});
+                    return true;
+                },
+                (messageId, state) -> {
+                    if (state == Message.DELIVERY_DELIVERED) {
+                        result.delivered++;
+                        result.totalDeliveryMillis += now[0];
+                    }
+                },
+                ReliableSender.DEFAULT_WINDOW, Frame.MAX_ATTEMPT + 1, initialTimeout, minTimeout, maxTimeout);
+
+        for (int i = 1; i <= MESSAGES; i++) {
+            sender.submit(frame(i), 0);
+        }
+        for (; now[0] < 3600000 && result.delivered < MESSAGES; now[0] += 10) {
+            while (!acks.isEmpty() && acks.peek()[0] <= now[0]) {
+                sender.onAck(acks.poll()[1], now[0]);
+            }
+            sender.tick(now[0]);
+        }
+        result.transmissions = sender.getTransmissions();
+        return result;
+    }
+
+    @Test
+    public void release_startsTheTimer() {
+        ReliableSender sender = newSender(4, 6);
+        sender.setTimersStartOnRelease(true);
+        sender.submit(frame(1), 0);
+        assertEquals(Message.DELIVERY_SENT, (int) states.get(1L));
+        // Still queued below us: no timeout however long it takes
+        sender.tick(10 * ReliableSender.INITIAL_TIMEOUT_MS);
+        assertEquals(1, sent.size());
+
+        // Another copy, or another message, doesn't start it
+        sender.onReleased(1, 1, 10 * ReliableSender.INITIAL_TIMEOUT_MS);
+        sender.onReleased(2, 0, 10 * ReliableSender.INITIAL_TIMEOUT_MS);
+        sender.tick(20 * ReliableSender.INITIAL_TIMEOUT_MS);
+        assertEquals(1, sent.size());
+
+        long released = 20 * ReliableSender.INITIAL_TIMEOUT_MS;
+        sender.onReleased(1, 0, released);
+        sender.tick(released + ReliableSender.INITIAL_TIMEOUT_MS - 1);
+        assertEquals(1, sent.size());
+        sender.tick(released + ReliableSender.INITIAL_TIMEOUT_MS);
+        assertEquals(2, sent.size());
+        assertEquals(1, sent.get(1).getAttempt());
+
+        // The round trip is timed from the release too
+        sender.submit(frame(2), released);
+        sender.onReleased(2, 0, released + 1500);
+        sender.onAck(2, released + 2000);
+        // 500 ms plus four times half of it, the first sample's deviation
+        assertEquals(1500, sender.getTimeoutMillis(DESTINATION));
+    }
+
+    @Test
+    public void pacedLink_timersStartWhenFramesGoOnAir() {
+        PacedResult fromSend = simulatePaced(false);
+        PacedResult fromRelease = simulatePaced(true);
+
+        // Queued copies time out, more copies of them join the queue, and
+        // messages fail before they ever got on air
+        assertTrue("timed from send: " + fromSend, fromSend.duplicatesQueued > 0);
+        assertTrue("timed from send: " + fromSend, fromSend.failed > 0);
+        assertEquals(PACED_MESSAGES, fromRelease.delivered);
+        assertEquals(0, fromRelease.failed);
+        assertEquals(0, fromRelease.duplicatesQueued);
+        assertEquals(PACED_MESSAGES, fromRelease.transmissions);
+    }
+
+    // 8 messages to send at once over a lossless link whose radio, at a 1% duty
+    // cycle, takes about 24 s per frame once the burst allowance is spent
+    private static final int PACED_MESSAGES = 8;
+
+    private static final class PacedResult {
+        int delivered;
+        int failed;
+        long transmissions;
+        int duplicatesQueued;
+        long totalDeliveryMillis;
+
+        long meanDeliveryMillis() {
+            return totalDeliveryMillis / Math.max(1, delivered);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d delivered, %d failed, %d transmissions, %d copies queued behind another, mean delivery %d ms",
+                    delivered, PACED_MESSAGES, failed, transmissions, duplicatesQueued, meanDeliveryMillis());
+        }
+    }
+
+    // ReliableSender sending through an AirtimeScheduler, with releases reported
+    // the way PacedTransport reports them, but on a simulated clock
+    private static PacedResult simulatePaced(boolean timersStartOnRelease) {
+        LoRaAirtime sf9 = new LoRaAirtime(9, 125000, 5);
+        AirtimeScheduler scheduler = new AirtimeScheduler(sf9, 0.01, 500, 64, 0);
+        // Copies of each message in the scheduler's queue
+        Map<Long, Integer> queued = new HashMap<>();
+        // Acks in flight: {arrival time, message id}
+        PriorityQueue<long[]> acks = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        long[] now = new long[1];
+        PacedResult result = new PacedResult();
+        ReliableSender[] sender = new ReliableSender[1];
+        sender[0] = new ReliableSender(
+                frame -> {
+                    boolean accepted = scheduler.enqueue(frame.encode(), AirtimeScheduler.PRIORITY_CHAT);
+                    for (byte[] evicted : scheduler.takeEvicted()) {
+                        Frame dropped = Frame.decode(evicted);
+                        queued.merge(dropped.messageId, -1, Integer::sum);
+                        sender[0].onReleased(dropped.messageId, dropped.getAttempt(), now[0]);
+                    }
+                    if (accepted && queued.merge(frame.messageId, 1, Integer::sum) > 1) {
+                        result.duplicatesQueued++;
+                    }
+                    return accepted;
+                },
+                (messageId, state) -> {
+                    if (state == Message.DELIVERY_DELIVERED) {
+                        result.delivered++;
+                        result.totalDeliveryMillis += now[0];
+                    } else if (state == Message.DELIVERY_FAILED) {
+                        result.failed++;
+                    }
+                },
+                ReliableSender.DEFAULT_WINDOW, ReliableSender.DEFAULT_MAX_ATTEMPTS,
+                ReliableSender.INITIAL_TIMEOUT_MS, ReliableSender.MIN_TIMEOUT_MS, ReliableSender.MAX_TIMEOUT_MS);
+        sender[0].setTimersStartOnRelease(timersStartOnRelease);
+
+        for (int i = 1; i <= PACED_MESSAGES; i++) {
+            sender[0].submit(frame(i), 0);
+        }
+        for (; now[0] < 3600000 && result.delivered + result.failed < PACED_MESSAGES; now[0] += 10) {
+            while (!acks.isEmpty() && acks.peek()[0] <= now[0]) {
+                sender[0].onAck(acks.poll()[1], now[0]);
+            }
+            byte[] bytes;
+            while ((bytes = scheduler.poll(now[0])) != null) {
+                Frame frame = Frame.decode(bytes);
+                queued.merge(frame.messageId, -1, Integer::sum);
+                sender[0].onReleased(frame.messageId, frame.getAttempt(), now[0]);
+                // Its airtime, then a round trip through the mesh
+                acks.add(new long[]{now[0] + sf9.getFrameMillis(bytes.length) + 2000, frame.messageId});
+            }
+            sender[0].tick(now[0]);
+        }
+        result.transmissions = sender[0].getTransmissions();
+        return result;
+    }
+
+    private ReliableSender newSender(int window, int maxAttempts) {
+        return new ReliableSender(
+                frame -> sent.add(frame),
+                (messageId, state) -> states.put(messageId, state),
+                window, maxAttempts,
+                ReliableSender.INITIAL_TIMEOUT_MS, ReliableSender.MIN_TIMEOUT_MS, ReliableSender.MAX_TIMEOUT_MS);
+    }
+
+    private static Frame frame(long messageId) {
+        return new Frame(Frame.TYPE_CHAT, 0, 1, DESTINATION, messageId, Frame.DEFAULT_TTL, 0, new byte[20]);
+    }
+}
@@ -0,0 +1,151 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Per-device scan table: smoothing, best-node choice, connect failures and
+ * handover hysteresis. The fading test compares how often each policy switches.
+ */
+public class ScanAggregatorTest {
+
+    private static final String NEAR = "AA:AA:AA:AA:AA:01";
+    private static final String FAR = "AA:AA:AA:AA:AA:02";
+    private static final String OTHER = "BB:BB:BB:BB:BB:03";
+
+    @Test
+    public void repeatedReports_updateTheKnownDevice() {
+        ScanAggregator aggregator = new ScanAggregator();
+
+        assertFalse(aggregator.report(NEAR, -60, 0));
+        aggregator.add(NEAR, true, -60, 0);
+        assertTrue(aggregator.report(NEAR, -80, 100));
+
+        ScanAggregator.Device device = aggregator.get(NEAR);
+        assertEquals(2, device.getReports());
+        assertEquals(100, device.getLastSeenMillis());
+        // Moved part of the way towards the new reading
+        assertEquals(-66, device.getSmoothedRssi());
+        assertEquals(1, aggregator.size());
+    }
+
+    @Test
+    public void best_isTheStrongestNodeWithOurService() {
+        ScanAggregator aggregator = new ScanAggregator();
+        aggregator.add(FAR, true, -90, 0);
+        aggregator.add(NEAR, true, -55, 0);
+        aggregator.add(OTHER, false, -40, 0);
+
+        assertEquals(NEAR, aggregator.getBest(1000));
+    }
+
+    @Test
+    public void best_avoidsNodesThatFailToConnect() {
+        ScanAggregator aggregator = new ScanAggregator();
+        aggregator.add(NEAR, true, -60, 0);
+        aggregator.add(FAR, true, -75, 0);
+
+        aggregator.onConnectFailed(NEAR, 0);
+        assertEquals(NEAR, aggregator.getBest(0));
+        aggregator.onConnectFailed(NEAR, 0);
+        assertEquals(FAR, aggregator.getBest(0));
+
+        aggregator.onConnectFailed(FAR, 0);
+        aggregator.onConnectFailed(FAR, 0);
+        aggregator.onConnectFailed(FAR, 0);
+        aggregator.onConnectFailed(NEAR, 0);
+        // Both out of attempts
+        assertNull(aggregator.getBest(0));
+
+        aggregator.onConnected(NEAR);
+        assertEquals(NEAR, aggregator.getBest(0));
+    }
+
+    @Test
+    public void connectFailures_areForgottenAfterAWhile() {
+        ScanAggregator aggregator = new ScanAggregator(Long.MAX_VALUE);
+        aggregator.add(NEAR, true, -60, 0);
+        for (int i = 0; i < ScanAggregator.MAX_CONNECT_FAILURES; i++) {
+            aggregator.onConnectFailed(NEAR, 1000 * i);
+        }
+        long lastFailure = 1000 * (ScanAggregator.MAX_CONNECT_FAILURES - 1);
+        assertNull(aggregator.getBest(lastFailure + ScanAggregator.CONNECT_FAILURE_MEMORY_MS - 1));
+
+        // Still advertising, and never connected since: it gets another chance
+        assertEquals(NEAR, aggregator.getBest(lastFailure + ScanAggregator.CONNECT_FAILURE_MEMORY_MS));
+        assertEquals(0, aggregator.get(NEAR).getConnectFailures(lastFailure + ScanAggregator.CONNECT_FAILURE_MEMORY_MS));
+
+        // Counting starts over from there
+        aggregator.onConnectFailed(NEAR, 2 * ScanAggregator.CONNECT_FAILURE_MEMORY_MS);
+        assertEquals(1, aggregator.get(NEAR).getConnectFailures(2 * ScanAggregator.CONNECT_FAILURE_MEMORY_MS));
+    }
+
+    @Test
+    public void staleDevices_areIgnoredAndPruned() {
+        ScanAggregator aggregator = new ScanAggregator(10000);
+        aggregator.add(NEAR, true, -50, 0);
+        aggregator.add(FAR, true, -80, 5000);
+
+        assertEquals(NEAR, aggregator.getBest(10000));
+        assertEquals(FAR, aggregator.getBest(12000));
+
+        aggregator.prune(12000);
+        assertNull(aggregator.get(NEAR));
+        assertNotNull(aggregator.get(FAR));
+    }
+
+    @Test
+    public void handover_needsAClearMarginOverSeveralReports() {
+        ScanAggregator aggregator = new ScanAggregator();
+        aggregator.add(NEAR, true, -60, 0);
+
+        // Stronger, but not seen enough yet
+        aggregator.add(FAR, true, -40, 0);
+        assertNull(aggregator.getHandoverTarget(NEAR, -75, 0));
+        aggregator.report(FAR, -40, 100);
+        aggregator.report(FAR, -40, 200);
+        assertEquals(FAR, aggregator.getHandoverTarget(NEAR, -75, 200));
+
+        // Within the margin: stay
+        assertNull(aggregator.getHandoverTarget(NEAR, -45, 200));
+        // No reading from the link: the table's value for the current node is used
+        assertEquals(FAR, aggregator.getHandoverTarget(NEAR, null, 200));
+        assertNull(aggregator.getHandoverTarget(OTHER, null, 200));
+    }
+
+    @Test
+    public void fadingSignals_handoverSwitchesRarely() {
+        Random random = new Random(7);
+        ScanAggregator aggregator = new ScanAggregator();
+        // Two nodes at the same distance, with 8 dB of fading on every report
+        aggregator.add(NEAR, true, -70, 0);
+        aggregator.add(FAR, true, -70, 0);
+        String current = NEAR;
+        String naive = NEAR;
+        int switches = 0;
+        int naiveSwitches = 0;
+        for (long now = 1000; now < 600000; now += 1000) {
+            int near = -70 + (int) Math.round(random.nextGaussian() * 8);
+            int far = -70 + (int) Math.round(random.nextGaussian() * 8);
+            aggregator.report(NEAR, near, now);
+            aggregator.report(FAR, far, now);
+
+            String target = aggregator.getHandoverTarget(current, null, now);
+            if (target != null) {
+                current = target;
+                switches++;
+            }
+            // Always taking the strongest latest report
+            String strongest = near >= far ? NEAR : FAR;
+            if (!strongest.equals(naive)) {
+                naive = strongest;
+                naiveSwitches++;
+            }
+        }
+        assertTrue(switches + " handovers with hysteresis, " + naiveSwitches + " following the strongest report",
+                switches * 20 < naiveSwitches);
+    }
+}
@@ -0,0 +1,88 @@
+package com.capstone.testapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scan stages and duty cycle over a whole search. The walk test checks how long
+ * the radio scanned in each mode.
+ */
+public class ScanSchedulerTest {
+
+    private static final long START = 1_000_000;
+
+    @Test
+    public void stages_backOffFromLowLatencyToLowPower() {
+        ScanScheduler scheduler = new ScanScheduler(START);
+
+        assertEquals(ScanScheduler.MODE_LOW_LATENCY, scheduler.getStage(START).scanMode);
+        assertEquals(0, scheduler.getStage(START).reportDelayMillis);
+        assertEquals(ScanScheduler.MODE_BALANCED, scheduler.getStage(START + 10000).scanMode);
+        assertTrue(scheduler.getStage(START + 10000).reportDelayMillis > 0);
+        assertEquals(ScanScheduler.MODE_LOW_POWER, scheduler.getStage(START + 30000).scanMode);
+        assertFalse(scheduler.isFinished(START + 299999));
+        assertTrue(scheduler.isFinished(START + 300000));
+        assertNull(scheduler.getStage(START + 300000));
+    }
+
+    @Test
+    public void lowPowerStage_pausesBetweenWindows() {
+        List<ScanScheduler.Stage> stages = new ArrayList<>();
+        stages.add(new ScanScheduler.Stage(ScanScheduler.MODE_LOW_LATENCY, 0, 1000));
+        stages.add(new ScanScheduler.Stage(ScanScheduler.MODE_LOW_POWER, 5000, 10000, 2000, 3000));
+        ScanScheduler scheduler = new ScanScheduler(stages, START);
+
+        assertTrue(scheduler.isScanWindow(START + 500));
+        assertEquals(START + 1000, scheduler.getNextChangeAt(START + 500));
+        // Second stage: on 1000-3000, off 3000-6000, on 6000-8000, off 8000-11000
+        assertTrue(scheduler.isScanWindow(START + 1000));
+        assertEquals(START + 3000, scheduler.getNextChangeAt(START + 1000));
+        assertFalse(scheduler.isScanWindow(START + 3000));
+        assertEquals(START + 6000, scheduler.getNextChangeAt(START + 4000));
+        assertTrue(scheduler.isScanWindow(START + 7999));
+        assertFalse(scheduler.isScanWindow(START + 8000));
+        // The pause is cut short by the end of the search
+        assertEquals(START + 11000, scheduler.getNextChangeAt(START + 9000));
+        assertTrue(scheduler.isFinished(START + 11000));
+        assertFalse(scheduler.isScanWindow(START + 11000));
+    }
+
+    @Test
+    public void defaultSchedule_scansLessAndStartsRarely() {
+        ScanScheduler scheduler = new ScanScheduler(START);
+        long[] scanningMillis = new long[3];
+        List<Long> scanStarts = new ArrayList<>();
+        ScanScheduler.Stage running = null;
+
+        // Step from change to change, as NodeConnectionService does
+        long now = START;
+        while (!scheduler.isFinished(now)) {
+            ScanScheduler.Stage stage = scheduler.getStage(now);
+            ScanScheduler.Stage wanted = scheduler.isScanWindow(now) ? stage : null;
+            if (wanted != null && wanted != running) scanStarts.add(now);
+            running = wanted;
+            long next = scheduler.getNextChangeAt(now);
+            assertTrue(next > now);
+            if (running != null) scanningMillis[running.scanMode] += next - now;
+            now = next;
+        }
+        assertEquals(START + 300000, now);
+
+        long total = now - START;
+        long scanning = scanningMillis[0] + scanningMillis[1] + scanningMillis[2];
+        assertEquals(10000, scanningMillis[ScanScheduler.MODE_LOW_LATENCY]);
+        assertEquals(20000, scanningMillis[ScanScheduler.MODE_BALANCED]);
+        assertEquals(90000, scanningMillis[ScanScheduler.MODE_LOW_POWER]);
+        // Radio on 40% of the time
+        assertTrue(scanning < total / 2);
+        assertEquals(11, scanStarts.size());
+        // Android allows at most 5 scan starts in any 30 s
+        for (int i = 5; i < scanStarts.size(); i++) {
+            assertTrue(scanStarts.get(i) - scanStarts.get(i - 5) >= 30000);
+        }
+    }
+}